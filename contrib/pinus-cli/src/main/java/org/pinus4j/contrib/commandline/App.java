@@ -210,12 +210,11 @@ public class App {
 					if (ps != null) {
 						ps.close();
 					}
-					if (conn != null) {
-						conn.close();
-					}
 				} catch (SQLException e) {
 					e.printStackTrace();
 				}
+				// 同一个库的分表共享连接, 通过资源关闭
+				shardingDBResource.close();
 			}
 		}
 		System.out.println("total count " + totalCount);
@@ -38,6 +38,14 @@ public interface IPrimaryCache extends ICache {
      */
     public void setCountGlobal(String clusterName, String tableName, long count);
 
+    /**
+     * 删除count数缓存.
+     * 
+     * @param clusterName 集群名
+     * @param tableName 表名
+     */
+    public void removeCountGlobal(String clusterName, String tableName);
+
     /**
      * 减少分表count数.
      * 
@@ -98,6 +106,13 @@ public interface IPrimaryCache extends ICache {
      */
     public void setCount(ShardingDBResource db, long count);
 
+    /**
+     * 删除分表count数缓存.
+     * 
+     * @param db 分库分表
+     */
+    public void removeCount(ShardingDBResource db);
+
     /**
      * 减少分表count数.
      * 
@@ -124,6 +139,14 @@ public interface IPrimaryCache extends ICache {
      */
     public long getCount(ShardingDBResource db);
 
+    /**
+     * 批量获取多张表的count值, 尽量在一次网络请求中完成.
+     * 
+     * @param dbs 分库分表
+     * @return count值, 顺序和dbs一致, 没有缓存的为-1
+     */
+    public long[] getCount(List<ShardingDBResource> dbs);
+
     /**
      * 批量添加记录.
      * 
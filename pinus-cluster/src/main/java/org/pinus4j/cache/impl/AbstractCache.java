@@ -110,12 +110,7 @@ public abstract class AbstractCache implements ICache {
         key.append(".");
         key.append(getCacheVersion(tableName));
         if (entityPk != null) {
-            key.append(".");
-            StringBuilder pks = new StringBuilder();
-            for (PKValue pkValue : entityPk.getPkValues()) {
-                pks.append(pkValue.getValueAsString());
-            }
-            key.append(pks.toString());
+            return buildPkKey(key.toString(), entityPk);
         }
         return key.toString();
     }
@@ -136,12 +131,23 @@ public abstract class AbstractCache implements ICache {
         key.append(".");
         key.append(getCacheVersion(shardingDBResource.getTableName()));
         if (entityPk != null) {
-            key.append(".");
-            StringBuilder pks = new StringBuilder();
-            for (PKValue pkValue : entityPk.getPkValues()) {
-                pks.append(pkValue.getValueAsString());
-            }
-            key.append(pks.toString());
+            return buildPkKey(key.toString(), entityPk);
+        }
+        return key.toString();
+    }
+
+    /**
+     * build entity cache key [tableKey].e.[length:pkValue].[length:pkValue]
+     * 
+     * 使用单独的e命名空间, 避免和count等其他key冲突. 每个主键值前加上长度, 联合主键的值拼接后不会冲突.
+     */
+    protected String buildPkKey(String tableKey, EntityPK entityPk) {
+        StringBuilder key = new StringBuilder(tableKey);
+        key.append(".e");
+        String value = null;
+        for (PKValue pkValue : entityPk.getPkValues()) {
+            value = pkValue.getValueAsString();
+            key.append(".").append(value.length()).append(":").append(value);
         }
         return key.toString();
     }
@@ -20,6 +20,7 @@ import java.lang.reflect.Constructor;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Collection;
+import java.util.Map;
 
 import org.pinus4j.cache.ICacheBuilder;
 import org.pinus4j.cache.IPrimaryCache;
@@ -38,7 +39,12 @@ import org.slf4j.LoggerFactory;
  */
 public class DefaultCacheBuilder implements ICacheBuilder {
 
-    public static final Logger LOG = LoggerFactory.getLogger(DefaultCacheBuilder.class);
+    public static final Logger LOG                 = LoggerFactory.getLogger(DefaultCacheBuilder.class);
+
+    /**
+     * 近端缓存默认的过期时间, 单位毫秒.
+     */
+    public static final long   DEFAULT_NEAR_EXPIRE = 1000;
 
     private boolean            isCacheEnabled;
 
@@ -98,6 +104,19 @@ public class DefaultCacheBuilder implements ICacheBuilder {
                     + memcachedAddressInfo.toString());
         }
 
+        // 进程内的近端缓存, 通过<primary>节点的nearMaxWeight(字节)和nearExpire(毫秒)属性开启
+        Map<String, String> attr = primaryCacheInfo.getPrimaryCacheAttr();
+        if (attr != null && attr.containsKey("nearMaxWeight")) {
+            long nearMaxWeight = Long.parseLong(attr.get("nearMaxWeight"));
+            long nearExpire = attr.containsKey("nearExpire") ? Long.parseLong(attr.get("nearExpire"))
+                    : DEFAULT_NEAR_EXPIRE;
+            if (nearMaxWeight > 0) {
+                instance = new NearPrimaryCacheImpl(instance, nearMaxWeight, nearExpire);
+                LOG.info("enable near primary cache, max weight " + nearMaxWeight + " bytes, expire " + nearExpire
+                        + " ms");
+            }
+        }
+
         return instance;
     }
 
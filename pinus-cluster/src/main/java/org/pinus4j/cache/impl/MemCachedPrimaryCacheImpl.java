@@ -17,6 +17,7 @@
 package org.pinus4j.cache.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +57,12 @@ public class MemCachedPrimaryCacheImpl extends AbstractMemCachedCache implements
         _setCount(key, count);
     }
 
+    @Override
+    public void removeCountGlobal(String clusterName, String tableName) {
+        String key = buildGlobalCountKey(clusterName, tableName);
+        _removeCount(key);
+    }
+
     @Override
     public long decrCountGlobal(String clusterName, String tableName, int delta) {
         String key = buildGlobalCountKey(clusterName, tableName);
@@ -127,6 +134,12 @@ public class MemCachedPrimaryCacheImpl extends AbstractMemCachedCache implements
         _setCount(key, count);
     }
 
+    @Override
+    public void removeCount(ShardingDBResource db) {
+        String key = buildCountKey(db);
+        _removeCount(key);
+    }
+
     @Override
     public long decrCount(ShardingDBResource db, long delta) {
         String key = buildCountKey(db);
@@ -145,6 +158,29 @@ public class MemCachedPrimaryCacheImpl extends AbstractMemCachedCache implements
         return _getCount(key);
     }
 
+    @Override
+    public long[] getCount(List<ShardingDBResource> dbs) {
+        long[] counts = new long[dbs.size()];
+        Arrays.fill(counts, -1l);
+
+        List<String> keys = new ArrayList<String>();
+        for (ShardingDBResource db : dbs) {
+            keys.add(buildCountKey(db));
+        }
+        Map<String, Object> data = _get(keys);
+        if (data != null) {
+            String count = null;
+            for (int i = 0; i < counts.length; i++) {
+                count = (String) data.get(keys.get(i));
+                if (StringUtil.isNotBlank(count)) {
+                    counts[i] = Long.parseLong(count);
+                }
+            }
+        }
+
+        return counts;
+    }
+
     @Override
     public void put(ShardingDBResource db, Map<EntityPK, ? extends Object> data) {
         if (data == null || data.isEmpty()) {
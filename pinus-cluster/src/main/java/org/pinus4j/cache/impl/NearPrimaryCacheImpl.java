@@ -0,0 +1,498 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pinus4j.cache.impl;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pinus4j.cache.IPrimaryCache;
+import org.pinus4j.cluster.resources.ShardingDBResource;
+import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.serializer.Deserializer;
+import org.pinus4j.serializer.MyDeserializer;
+import org.pinus4j.serializer.MySerializer;
+import org.pinus4j.serializer.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * 进程内的近端一级缓存. 包装一个远程的一级缓存, 热点数据直接从本地内存中读取, 没有命中的再查询远程缓存.
+ * 本地保存的是不压缩的序列化数据, 每次读取都返回新的对象, 调用方修改返回的对象不会影响缓存.
+ * <p>
+ * 使用LRU淘汰, 序列化数据的总字节数超过maxWeight时淘汰最久没有访问的数据. 通过put和remove操作的数据同步更新本地缓存,
+ * 其他节点的修改只能等待本地数据过期, 因此过期时间应该设置得比较短.
+ * </p>
+ * <p>
+ * remove先删除远程缓存再删除本地缓存, 并且增加本地缓存段的失效计数. get在查询远程缓存之前记录失效计数,
+ * 计数发生变化时不把远程结果写入本地, 避免并发的remove之后又写入旧数据.
+ * </p>
+ * count值不做本地缓存.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class NearPrimaryCacheImpl extends AbstractCache implements IPrimaryCache {
+
+    public static final Logger  LOG           = LoggerFactory.getLogger(NearPrimaryCacheImpl.class);
+
+    private static final int    SEGMENT_COUNT = 16;
+
+    private final IPrimaryCache delegate;
+
+    private final long          expireMillis;
+
+    private final Segment[]     segments;
+
+    private final Serializer    ser          = MySerializer.getInstance();
+
+    private final Deserializer  deser        = MyDeserializer.getInstance();
+
+    /**
+     * @param delegate 远程的一级缓存
+     * @param maxWeight 本地缓存的最大字节数
+     * @param expireMillis 本地缓存的过期时间, 单位毫秒
+     */
+    public NearPrimaryCacheImpl(IPrimaryCache delegate, long maxWeight, long expireMillis) {
+        super(null, delegate.getExpire());
+
+        if (maxWeight <= 0 || expireMillis <= 0) {
+            throw new IllegalArgumentException("参数错误, maxWeight=" + maxWeight + ", expireMillis=" + expireMillis);
+        }
+
+        this.delegate = delegate;
+        this.expireMillis = expireMillis;
+        this.segments = new Segment[SEGMENT_COUNT];
+        long segmentWeight = Math.max(1, maxWeight / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment(segmentWeight);
+        }
+    }
+
+    @Override
+    public Object getCacheClient() {
+        return this.delegate.getCacheClient();
+    }
+
+    @Override
+    public void init() {
+        this.delegate.init();
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+        this.delegate.close();
+    }
+
+    @Override
+    public Collection<SocketAddress> getAvailableServers() {
+        return this.delegate.getAvailableServers();
+    }
+
+    @Override
+    public void setProperties(Map<String, String> properties) {
+        this.delegate.setProperties(properties);
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        return this.delegate.getProperties();
+    }
+
+    @Override
+    public void setCountGlobal(String clusterName, String tableName, long count) {
+        this.delegate.setCountGlobal(clusterName, tableName, count);
+    }
+
+    @Override
+    public void removeCountGlobal(String clusterName, String tableName) {
+        this.delegate.removeCountGlobal(clusterName, tableName);
+    }
+
+    @Override
+    public long decrCountGlobal(String clusterName, String tableName, int delta) {
+        return this.delegate.decrCountGlobal(clusterName, tableName, delta);
+    }
+
+    @Override
+    public long incrCountGlobal(String clusterName, String tableName, int delta) {
+        return this.delegate.incrCountGlobal(clusterName, tableName, delta);
+    }
+
+    @Override
+    public long getCountGlobal(String clusterName, String tableName) {
+        return this.delegate.getCountGlobal(clusterName, tableName);
+    }
+
+    @Override
+    public void putGlobal(String clusterName, String tableName, Map<EntityPK, ? extends Object> data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        this.delegate.putGlobal(clusterName, tableName, data);
+        _put(buildGlobalKey(clusterName, tableName, null), data);
+    }
+
+    @Override
+    public <T> Map<EntityPK, T> getGlobal(String clusterName, String tableName, EntityPK[] pks) {
+        String key = buildGlobalKey(clusterName, tableName, null);
+
+        Map<EntityPK, T> hitMap = _get(key, pks);
+        if (hitMap.size() == pks.length) {
+            return hitMap;
+        }
+
+        EntityPK[] noHitPks = _getNoHitPks(pks, hitMap);
+        long[] invalidations = _getInvalidations();
+        Map<EntityPK, T> remoteMap = this.delegate.getGlobal(clusterName, tableName, noHitPks);
+        _put(key, remoteMap, invalidations);
+
+        return _merge(pks, hitMap, remoteMap);
+    }
+
+    @Override
+    public void removeGlobal(String clusterName, String tableName, List<EntityPK> pks) {
+        this.delegate.removeGlobal(clusterName, tableName, pks);
+        _remove(buildGlobalKey(clusterName, tableName, null), pks);
+    }
+
+    @Override
+    public void setCount(ShardingDBResource db, long count) {
+        this.delegate.setCount(db, count);
+    }
+
+    @Override
+    public void removeCount(ShardingDBResource db) {
+        this.delegate.removeCount(db);
+    }
+
+    @Override
+    public long decrCount(ShardingDBResource db, long delta) {
+        return this.delegate.decrCount(db, delta);
+    }
+
+    @Override
+    public long incrCount(ShardingDBResource db, long delta) {
+        return this.delegate.incrCount(db, delta);
+    }
+
+    @Override
+    public long getCount(ShardingDBResource db) {
+        return this.delegate.getCount(db);
+    }
+
+    @Override
+    public long[] getCount(List<ShardingDBResource> dbs) {
+        return this.delegate.getCount(dbs);
+    }
+
+    @Override
+    public void put(ShardingDBResource db, Map<EntityPK, ? extends Object> data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        this.delegate.put(db, data);
+        _put(buildKey(db, null), data);
+    }
+
+    @Override
+    public <T> Map<EntityPK, T> get(ShardingDBResource db, EntityPK[] pks) {
+        String key = buildKey(db, null);
+
+        Map<EntityPK, T> hitMap = _get(key, pks);
+        if (hitMap.size() == pks.length) {
+            return hitMap;
+        }
+
+        EntityPK[] noHitPks = _getNoHitPks(pks, hitMap);
+        long[] invalidations = _getInvalidations();
+        Map<EntityPK, T> remoteMap = this.delegate.get(db, noHitPks);
+        _put(key, remoteMap, invalidations);
+
+        return _merge(pks, hitMap, remoteMap);
+    }
+
+    @Override
+    public void remove(ShardingDBResource db, List<EntityPK> pks) {
+        this.delegate.remove(db, pks);
+        _remove(buildKey(db, null), pks);
+    }
+
+    /**
+     * 获取被包装的远程缓存.
+     */
+    public IPrimaryCache getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * 获取本地缓存的序列化数据总字节数.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : this.segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    private Segment _segment(String localKey) {
+        return this.segments[_segmentIndex(localKey)];
+    }
+
+    private int _segmentIndex(String localKey) {
+        int h = localKey.hashCode();
+        h ^= (h >>> 16);
+        return h & (SEGMENT_COUNT - 1);
+    }
+
+    /**
+     * 本地缓存的key, 和远程缓存的单条数据key格式一致, 主键值带长度前缀, 不同的联合主键不会冲突.
+     */
+    private String _localKey(String key, EntityPK pk) {
+        return buildPkKey(key, pk);
+    }
+
+    private long[] _getInvalidations() {
+        long[] invalidations = new long[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            invalidations[i] = this.segments[i].getInvalidations();
+        }
+        return invalidations;
+    }
+
+    private void _put(String key, Map<EntityPK, ? extends Object> data) {
+        _put(key, data, null);
+    }
+
+    /**
+     * @param invalidations 查询远程缓存之前各段的失效计数, 计数变化的段不写入. 为null时不检查
+     */
+    private void _put(String key, Map<EntityPK, ? extends Object> data, long[] invalidations) {
+        long expireAt = System.currentTimeMillis() + this.expireMillis;
+
+        String localKey = null;
+        int segmentIndex = 0;
+        byte[] value = null;
+        for (Map.Entry<EntityPK, ? extends Object> entry : data.entrySet()) {
+            localKey = _localKey(key, entry.getKey());
+            segmentIndex = _segmentIndex(localKey);
+            if (entry.getValue() == null) {
+                this.segments[segmentIndex].remove(localKey);
+                continue;
+            }
+
+            try {
+                value = ser.ser(entry.getValue(), false);
+                if (invalidations == null) {
+                    this.segments[segmentIndex].put(localKey, value, expireAt);
+                } else {
+                    this.segments[segmentIndex].putIfNotInvalidated(localKey, value, expireAt,
+                            invalidations[segmentIndex]);
+                }
+            } catch (Exception e) {
+                this.segments[segmentIndex].remove(localKey);
+                LOG.warn("操作本地缓存失败:" + e.getMessage());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Map<EntityPK, T> _get(String key, EntityPK[] pks) {
+        Map<EntityPK, T> hitMap = Maps.newLinkedHashMap();
+
+        long now = System.currentTimeMillis();
+        String localKey = null;
+        byte[] data = null;
+        for (EntityPK pk : pks) {
+            localKey = _localKey(key, pk);
+            data = _segment(localKey).get(localKey, now);
+            if (data == null) {
+                continue;
+            }
+
+            try {
+                hitMap.put(pk, (T) deser.deser(data, false));
+            } catch (Exception e) {
+                _segment(localKey).remove(localKey);
+                LOG.warn("操作本地缓存失败:" + e.getMessage());
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[NEAR CACHE] - get " + key + " hits = " + hitMap.size());
+        }
+
+        return hitMap;
+    }
+
+    private void _remove(String key, List<EntityPK> pks) {
+        String localKey = null;
+        for (EntityPK pk : pks) {
+            localKey = _localKey(key, pk);
+            _segment(localKey).remove(localKey);
+        }
+    }
+
+    private <T> EntityPK[] _getNoHitPks(EntityPK[] pks, Map<EntityPK, T> hitMap) {
+        List<EntityPK> noHitPks = Lists.newArrayList();
+        for (EntityPK pk : pks) {
+            if (!hitMap.containsKey(pk)) {
+                noHitPks.add(pk);
+            }
+        }
+        return noHitPks.toArray(new EntityPK[noHitPks.size()]);
+    }
+
+    /**
+     * 按照主键的顺序合并本地和远程的结果.
+     */
+    private <T> Map<EntityPK, T> _merge(EntityPK[] pks, Map<EntityPK, T> hitMap, Map<EntityPK, T> remoteMap) {
+        if (hitMap.isEmpty()) {
+            return remoteMap;
+        }
+
+        Map<EntityPK, T> result = Maps.newLinkedHashMap();
+        T value = null;
+        for (EntityPK pk : pks) {
+            value = hitMap.get(pk);
+            if (value == null) {
+                value = remoteMap.get(pk);
+            }
+            if (value != null) {
+                result.put(pk, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一段本地缓存, 按照访问顺序淘汰.
+     */
+    private static class Segment {
+
+        private final long                         maxWeight;
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        private long                               weight;
+
+        /**
+         * 失效计数, remove和clear时增加.
+         */
+        private long                               invalidations;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized byte[] get(String key, long now) {
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt <= now) {
+                _remove(key);
+                return null;
+            }
+            return entry.data;
+        }
+
+        synchronized long getInvalidations() {
+            return this.invalidations;
+        }
+
+        synchronized void put(String key, byte[] data, long expireAt) {
+            _put(key, data, expireAt);
+        }
+
+        /**
+         * 失效计数和查询远程缓存之前记录的一致时才写入.
+         */
+        synchronized void putIfNotInvalidated(String key, byte[] data, long expireAt, long invalidations) {
+            if (this.invalidations == invalidations) {
+                _put(key, data, expireAt);
+            }
+        }
+
+        synchronized void remove(String key) {
+            _remove(key);
+            this.invalidations++;
+        }
+
+        synchronized void clear() {
+            this.entries.clear();
+            this.weight = 0;
+            this.invalidations++;
+        }
+
+        synchronized long getWeight() {
+            return this.weight;
+        }
+
+        private void _put(String key, byte[] data, long expireAt) {
+            if (data.length > this.maxWeight) {
+                _remove(key);
+                return;
+            }
+
+            Entry old = this.entries.put(key, new Entry(data, expireAt));
+            if (old != null) {
+                this.weight -= old.data.length;
+            }
+            this.weight += data.length;
+
+            Iterator<Entry> it = this.entries.values().iterator();
+            while (this.weight > this.maxWeight && it.hasNext()) {
+                this.weight -= it.next().data.length;
+                it.remove();
+            }
+        }
+
+        private void _remove(String key) {
+            Entry old = this.entries.remove(key);
+            if (old != null) {
+                this.weight -= old.data.length;
+            }
+        }
+
+    }
+
+    private static class Entry {
+
+        private final byte[] data;
+
+        private final long   expireAt;
+
+        Entry(byte[] data, long expireAt) {
+            this.data = data;
+            this.expireAt = expireAt;
+        }
+
+    }
+
+}
@@ -16,35 +16,98 @@
 
 package org.pinus4j.cache.impl;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import org.pinus4j.cache.IPrimaryCache;
 import org.pinus4j.cluster.resources.ShardingDBResource;
 import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.utils.HashUtil;
 import org.pinus4j.utils.IOUtil;
 import org.pinus4j.utils.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimaryCache {
 
-    public static final Logger LOG = LoggerFactory.getLogger(RedisPrimaryCacheImpl.class);
+    public static final Logger  LOG                = LoggerFactory.getLogger(RedisPrimaryCacheImpl.class);
+
+    /**
+     * key存在时才增加count, 判断和增加在一次请求中完成.
+     */
+    private static final String INCR_IF_EXISTS_LUA = "if redis.call('exists', KEYS[1]) == 1 then "
+                                                   + "return redis.call('incrby', KEYS[1], ARGV[1]) end "
+                                                   + "return nil";
+
+    /**
+     * 一张表的所有数据保存在一个hash中.
+     */
+    public static final String  KEY_LAYOUT_TABLE   = "table";
+
+    /**
+     * 一张表的数据根据主键分散到多个hash中.
+     */
+    public static final String  KEY_LAYOUT_BUCKET  = "bucket";
+
+    /**
+     * 每条数据使用一个单独的key, 每条数据有自己的过期时间.
+     */
+    public static final String  KEY_LAYOUT_PK      = "pk";
+
+    /**
+     * 缓存key的布局, 通过<primary>节点的keyLayout属性设置.
+     */
+    private String              keyLayout          = KEY_LAYOUT_TABLE;
+
+    /**
+     * bucket布局每张表的hash数, 通过<primary>节点的keyBuckets属性设置.
+     */
+    private int                 keyBuckets         = 16;
 
     public RedisPrimaryCacheImpl(String address, int expire) {
         super(address, expire);
     }
 
+    @Override
+    public void init() {
+        super.init();
+
+        Map<String, String> properties = getProperties();
+        if (properties.containsKey("keyLayout")) {
+            this.keyLayout = properties.get("keyLayout");
+        }
+        if (!KEY_LAYOUT_TABLE.equals(this.keyLayout) && !KEY_LAYOUT_BUCKET.equals(this.keyLayout)
+                && !KEY_LAYOUT_PK.equals(this.keyLayout)) {
+            throw new IllegalArgumentException("不支持的缓存key布局 " + this.keyLayout);
+        }
+        if (properties.containsKey("keyBuckets")) {
+            this.keyBuckets = Integer.parseInt(properties.get("keyBuckets"));
+        }
+        if (this.keyBuckets <= 0) {
+            throw new IllegalArgumentException("keyBuckets必须大于0, keyBuckets=" + this.keyBuckets);
+        }
+    }
+
     @Override
     public void setCountGlobal(String clusterName, String tableName, long count) {
         String key = buildGlobalCountKey(clusterName, tableName);
         _setCount(key, count);
     }
 
+    @Override
+    public void removeCountGlobal(String clusterName, String tableName) {
+        String key = buildGlobalCountKey(clusterName, tableName);
+        _removeCount(key);
+    }
+
     @Override
     public long decrCountGlobal(String clusterName, String tableName, int delta) {
         String key = buildGlobalCountKey(clusterName, tableName);
@@ -94,6 +157,12 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         _setCount(key, count);
     }
 
+    @Override
+    public void removeCount(ShardingDBResource db) {
+        String key = buildCountKey(db);
+        _removeCount(key);
+    }
+
     @Override
     public long decrCount(ShardingDBResource db, long delta) {
         String key = buildCountKey(db);
@@ -112,6 +181,44 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         return _getCount(key);
     }
 
+    @Override
+    public long[] getCount(List<ShardingDBResource> dbs) {
+        long[] counts = new long[dbs.size()];
+        Arrays.fill(counts, -1l);
+
+        ShardedJedis redisClient = null;
+        try {
+            redisClient = jedisPool.getResource();
+
+            // 每个redis分片一次请求
+            ShardedJedisPipeline pipeline = redisClient.pipelined();
+            List<Response<String>> responses = Lists.newArrayListWithCapacity(dbs.size());
+            for (ShardingDBResource db : dbs) {
+                responses.add(pipeline.get(buildCountKey(db)));
+            }
+            pipeline.sync();
+
+            String count = null;
+            for (int i = 0; i < counts.length; i++) {
+                count = responses.get(i).get();
+                if (StringUtil.isNotBlank(count)) {
+                    counts[i] = Long.parseLong(count);
+                }
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[PRIMARY CACHE] - get count " + Arrays.toString(counts));
+            }
+        } catch (Exception e) {
+            LOG.warn("操作缓存失败:" + e.getMessage());
+        } finally {
+            if (redisClient != null)
+                redisClient.close();
+        }
+
+        return counts;
+    }
+
     @Override
     public void put(ShardingDBResource db, Map<EntityPK, ? extends Object> data) {
         if (data == null || data.isEmpty()) {
@@ -143,8 +250,7 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         try {
             redisClient = jedisPool.getResource();
 
-            _removeCount(key);
-            redisClient.incrBy(key, count);
+            redisClient.set(key, String.valueOf(count));
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[PRIMARY CACHE] - " + key + " set count=" + count);
@@ -163,6 +269,7 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
             redisClient = jedisPool.getResource();
 
             redisClient.del(key);
+
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[PRIMARY CACHE] - delete " + key);
             }
@@ -175,25 +282,7 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
     }
 
     private long _decrCount(String key, long delta) {
-        ShardedJedis redisClient = null;
-        try {
-            redisClient = jedisPool.getResource();
-
-            if (redisClient.get(key) != null) {
-                long count = redisClient.decrBy(key, delta);
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("[PRIMARY CACHE] - decr " + key + " " + delta);
-                }
-                return count;
-            }
-        } catch (Exception e) {
-            LOG.warn("操作缓存失败:" + e.getMessage());
-        } finally {
-            if (redisClient != null)
-                redisClient.close();
-        }
-
-        return -1;
+        return _incrCount(key, -delta);
     }
 
     private long _incrCount(String key, long delta) {
@@ -201,12 +290,12 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         try {
             redisClient = jedisPool.getResource();
 
-            if (redisClient.get(key) != null) {
-                long count = redisClient.incrBy(key, delta);
+            Object count = redisClient.getShard(key).eval(INCR_IF_EXISTS_LUA, 1, key, String.valueOf(delta));
+            if (count != null) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("[PRIMARY CACHE] - incr " + key + " " + delta);
                 }
-                return count;
+                return ((Number) count).longValue();
             }
         } catch (Exception e) {
             LOG.warn("操作缓存失败:" + e.getMessage());
@@ -249,16 +338,34 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         try {
             redisClient = jedisPool.getResource();
 
-            Map<byte[], byte[]> data = Maps.newLinkedHashMap();
-            for (Map.Entry<EntityPK, T> entry : param.entrySet()) {
-                data.put(IOUtil.getBytes(entry.getKey()), IOUtil.getBytes(entry.getValue()));
+            ShardedJedisPipeline pipeline = redisClient.pipelined();
+            if (KEY_LAYOUT_PK.equals(this.keyLayout)) {
+                for (Map.Entry<EntityPK, T> entry : param.entrySet()) {
+                    pipeline.setex(buildPkKey(key, entry.getKey()).getBytes(), expire,
+                            IOUtil.getBytes(entry.getValue()));
+                }
+            } else {
+                Map<String, Map<byte[], byte[]>> bucketData = Maps.newLinkedHashMap();
+                Map<byte[], byte[]> data = null;
+                String bucketKey = null;
+                for (Map.Entry<EntityPK, T> entry : param.entrySet()) {
+                    bucketKey = _buildBucketKey(key, entry.getKey());
+                    data = bucketData.get(bucketKey);
+                    if (data == null) {
+                        data = Maps.newLinkedHashMap();
+                        bucketData.put(bucketKey, data);
+                    }
+                    data.put(IOUtil.getBytes(entry.getKey()), IOUtil.getBytes(entry.getValue()));
+                }
+                for (Map.Entry<String, Map<byte[], byte[]>> entry : bucketData.entrySet()) {
+                    pipeline.hmset(entry.getKey().getBytes(), entry.getValue());
+                    pipeline.expire(entry.getKey().getBytes(), expire);
+                }
             }
-
-            redisClient.hmset(key.getBytes(), data);
-            redisClient.expire(key.getBytes(), expire);
+            pipeline.sync();
 
             if (LOG.isDebugEnabled()) {
-                LOG.debug("[PRIMARY CACHE] - put (" + data.size() + ") to cache " + key);
+                LOG.debug("[PRIMARY CACHE] - put (" + param.size() + ") to cache " + key);
             }
 
         } catch (Exception e) {
@@ -269,6 +376,7 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         }
     }
 
+    @SuppressWarnings("unchecked")
     private <T> Map<EntityPK, T> _get(String key, EntityPK[] pks) {
         Map<EntityPK, T> datas = Maps.newLinkedHashMap();
 
@@ -276,24 +384,28 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         try {
             redisClient = jedisPool.getResource();
 
-            byte[][] fields = new byte[pks.length][];
-            for (int i = 0; i < pks.length; i++) {
-                fields[i] = IOUtil.getBytes(pks[i]);
-            }
-
-            List<byte[]> result = redisClient.hmget(key.getBytes(), fields);
-
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("[PRIMARY CACHE] - get " + key + " hits = " + result.size());
+            ShardedJedisPipeline pipeline = redisClient.pipelined();
+            List<Response<byte[]>> result = Lists.newArrayListWithCapacity(pks.length);
+            for (EntityPK pk : pks) {
+                if (KEY_LAYOUT_PK.equals(this.keyLayout)) {
+                    result.add(pipeline.get(buildPkKey(key, pk).getBytes()));
+                } else {
+                    result.add(pipeline.hget(_buildBucketKey(key, pk).getBytes(), IOUtil.getBytes(pk)));
+                }
             }
+            pipeline.sync();
 
             T value = null;
             for (int i = 0; i < pks.length; i++) {
-                value = (T) IOUtil.getObject(result.get(i), Object.class);
+                value = (T) IOUtil.getObject(result.get(i).get(), Object.class);
                 if (value != null)
                     datas.put(pks[i], value);
             }
 
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[PRIMARY CACHE] - get " + key + " hits = " + datas.size());
+            }
+
         } catch (Exception e) {
             LOG.warn("操作缓存失败:" + e.getMessage());
         } finally {
@@ -309,11 +421,15 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
         try {
             redisClient = jedisPool.getResource();
 
-            byte[][] fields = new byte[pks.size()][];
-            for (int i = 0; i < pks.size(); i++) {
-                fields[i] = IOUtil.getBytes(pks.get(i));
+            ShardedJedisPipeline pipeline = redisClient.pipelined();
+            for (EntityPK pk : pks) {
+                if (KEY_LAYOUT_PK.equals(this.keyLayout)) {
+                    pipeline.del(buildPkKey(key, pk).getBytes());
+                } else {
+                    pipeline.hdel(_buildBucketKey(key, pk).getBytes(), IOUtil.getBytes(pk));
+                }
             }
-            redisClient.hdel(key.getBytes(), fields);
+            pipeline.sync();
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[PRIMARY CACHE] - remove " + key + " " + pks);
@@ -325,4 +441,17 @@ public class RedisPrimaryCacheImpl extends AbstractRedisCache implements IPrimar
                 redisClient.close();
         }
     }
+
+    /**
+     * 主键所在的hash key. table布局整张表使用一个hash, bucket布局根据主键的hash值分到多个hash中.
+     */
+    private String _buildBucketKey(String key, EntityPK pk) {
+        if (KEY_LAYOUT_TABLE.equals(this.keyLayout)) {
+            return key;
+        }
+
+        int bucket = (HashUtil.FNVHash1(pk.toString()) & Integer.MAX_VALUE) % this.keyBuckets;
+        return key + ".b" + bucket;
+    }
+
 }
@@ -16,9 +16,11 @@
 
 package org.pinus4j.cache.impl;
 
-import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.pinus4j.cache.ISecondCache;
 import org.pinus4j.cluster.resources.ShardingDBResource;
@@ -26,39 +28,59 @@ import org.pinus4j.utils.IOUtil;
 import org.pinus4j.utils.SecurityUtil;
 import org.pinus4j.utils.StringUtil;
 
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.ShardedJedis;
 
+/**
+ * redis二级缓存实现. 和memcached的实现一样, 每张表有一个版本号, 缓存key中包含版本号, 清除缓存时只需要增加版本号,
+ * 旧的缓存数据等待过期.
+ * <p>
+ * 版本号在本地缓存versionExpire毫秒(通过<second>节点的versionExpire属性设置), 减少一次网络请求.
+ * 本节点清除缓存后立即使用新的版本号, 其他节点在本地版本号过期后才能看到. 没有过期的本地版本号不会被更小的版本号替换,
+ * 避免并发读取到的旧版本号覆盖清除缓存后的新版本号.
+ * </p>
+ */
 public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondCache {
 
+    private static final Random                  r                  = new Random();
+
+    /**
+     * 版本号存在时才增加, 判断和增加在一次请求中完成.
+     */
+    private static final String                  INCR_IF_EXISTS_LUA = "if redis.call('exists', KEYS[1]) == 1 then "
+                                                                     + "return redis.call('incr', KEYS[1]) end "
+                                                                     + "return nil";
+
+    /**
+     * 本地缓存的版本号.
+     */
+    private final ConcurrentMap<String, Version> localVersions      = new ConcurrentHashMap<String, Version>();
+
+    /**
+     * 本地版本号的过期时间, 单位毫秒. 0表示不在本地缓存.
+     */
+    private long                                 versionExpire      = 5;
+
     public RedisSecondCacheImpl(String address, int expire) {
         super(address, expire);
     }
 
+    @Override
+    public void init() {
+        super.init();
+
+        Map<String, String> properties = getProperties();
+        if (properties.containsKey("versionExpire")) {
+            this.versionExpire = Long.parseLong(properties.get("versionExpire"));
+        }
+    }
+
     @Override
     public void putGlobal(String whereKey, String clusterName, String tableName, List data) {
         if (StringUtil.isBlank(whereKey) || data == null || data.isEmpty()) {
             return;
         }
 
-        ShardedJedis redisClient = null;
-        try {
-            redisClient = jedisPool.getResource();
-
-            String cacheKey = _buildGlobalCacheKey(whereKey, clusterName, tableName);
-
-            redisClient.set(cacheKey.getBytes(), IOUtil.getBytes(data));
-            redisClient.expire(cacheKey.getBytes(), expire);
-
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("[SECOND CACHE] - put to cache done, key: " + cacheKey);
-            }
-        } catch (Exception e) {
-            LOG.warn("operate second cache failure");
-        } finally {
-            if (redisClient != null)
-                redisClient.close();
-        }
+        _put(_buildGlobalVersion(clusterName, tableName), whereKey, data);
     }
 
     @Override
@@ -67,53 +89,12 @@ public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondC
             return null;
         }
 
-        ShardedJedis redisClient = null;
-        try {
-            redisClient = jedisPool.getResource();
-
-            String cacheKey = _buildGlobalCacheKey(whereKey, clusterName, tableName);
-            List data = IOUtil.getObject(redisClient.get(cacheKey.getBytes()), List.class);
-
-            if (LOG.isDebugEnabled() && data != null) {
-                LOG.debug("[SECOND CACHE] -  key " + cacheKey + " hit");
-            }
-
-            return data;
-        } catch (Exception e) {
-            e.printStackTrace();
-            LOG.warn("operate second cache failure");
-        } finally {
-            if (redisClient != null)
-                redisClient.close();
-        }
-
-        return null;
+        return _get(_buildGlobalVersion(clusterName, tableName), whereKey);
     }
 
     @Override
     public void removeGlobal(String clusterName, String tableName) {
-        ShardedJedis redisClient = null;
-        String cacheKey = _buildGlobalCacheKey(null, clusterName, tableName);
-        try {
-            redisClient = jedisPool.getResource();
-            Collection<Jedis> shards = redisClient.getAllShards();
-            Set<String> keys = null;
-            for (Jedis shard : shards) {
-                keys = shard.keys(cacheKey);
-
-                if (keys != null && !keys.isEmpty())
-                    shard.del(keys.toArray(new String[keys.size()]));
-            }
-
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("[SECOND CACHE] - " + cacheKey + " clean");
-            }
-        } catch (Exception e) {
-            LOG.warn("remove second cache failure");
-        } finally {
-            if (redisClient != null)
-                redisClient.close();
-        }
+        _remove(_buildGlobalVersion(clusterName, tableName));
     }
 
     @Override
@@ -122,12 +103,31 @@ public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondC
             return;
         }
 
+        _put(_buildShardingVersion(db), whereKey, data);
+    }
+
+    @Override
+    public List get(String whereKey, ShardingDBResource db) {
+        if (StringUtil.isBlank(whereKey)) {
+            return null;
+        }
+
+        return _get(_buildShardingVersion(db), whereKey);
+    }
+
+    @Override
+    public void remove(ShardingDBResource db) {
+        _remove(_buildShardingVersion(db));
+    }
+
+    private void _put(String versionKey, String whereKey, List data) {
         ShardedJedis redisClient = null;
         try {
             redisClient = jedisPool.getResource();
-            String cacheKey = _buildShardingCacheKey(whereKey, db);
-            redisClient.set(cacheKey.getBytes(), IOUtil.getBytes(data));
-            redisClient.expire(cacheKey.getBytes(), expire);
+
+            long version = _getVersion(redisClient, versionKey, true);
+            String cacheKey = _buildCacheKey(versionKey, version, whereKey);
+            redisClient.setex(cacheKey.getBytes(), expire, IOUtil.getBytes(data));
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[SECOND CACHE] - put to cache done, key: " + cacheKey);
@@ -140,16 +140,17 @@ public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondC
         }
     }
 
-    @Override
-    public List get(String whereKey, ShardingDBResource db) {
-        if (StringUtil.isBlank(whereKey)) {
-            return null;
-        }
-
+    private List _get(String versionKey, String whereKey) {
         ShardedJedis redisClient = null;
         try {
             redisClient = jedisPool.getResource();
-            String cacheKey = _buildShardingCacheKey(whereKey, db);
+
+            long version = _getVersion(redisClient, versionKey, false);
+            if (version < 0) {
+                return null;
+            }
+
+            String cacheKey = _buildCacheKey(versionKey, version, whereKey);
             List data = IOUtil.getObject(redisClient.get(cacheKey.getBytes()), List.class);
 
             if (LOG.isDebugEnabled() && data != null) {
@@ -167,27 +168,26 @@ public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondC
         return null;
     }
 
-    @Override
-    public void remove(ShardingDBResource db) {
+    private void _remove(String versionKey) {
         ShardedJedis redisClient = null;
-        String cacheKey = _buildShardingCacheKey(null, db);
         try {
             redisClient = jedisPool.getResource();
-            Collection<Jedis> shards = redisClient.getAllShards();
 
-            Set<String> keys = null;
-            for (Jedis shard : shards) {
-                keys = shard.keys(cacheKey);
-
-                if (keys != null && !keys.isEmpty())
-                    shard.del(keys.toArray(new String[keys.size()]));
-            }
+            // 版本号不存在时没有缓存数据, 不需要增加
+            Object version = redisClient.getShard(versionKey).eval(INCR_IF_EXISTS_LUA, 1, versionKey);
+            if (version != null) {
+                _putLocalVersion(versionKey, ((Number) version).longValue());
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("[SECOND CACHE] - " + cacheKey + " clean");
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[SECOND CACHE] - " + versionKey + " clean");
+                }
+            } else {
+                this.localVersions.remove(versionKey);
             }
         } catch (Exception e) {
-            LOG.warn("remove second cache failure " + cacheKey);
+            // 本地版本号可能已经失效, 不再使用
+            this.localVersions.remove(versionKey);
+            LOG.warn("remove second cache failure " + versionKey);
         } finally {
             if (redisClient != null)
                 redisClient.close();
@@ -195,43 +195,104 @@ public class RedisSecondCacheImpl extends AbstractRedisCache implements ISecondC
     }
 
     /**
-     * global second cache key. sec.[clustername].[tablename].hashCode
+     * 获取表的版本号. 版本号不存在时, isCreate为true则随机生成一个初始值, 否则返回-1.
      */
-    private String _buildGlobalCacheKey(String whereKey, String clusterName, String tableName) {
-        StringBuilder cacheKey = new StringBuilder("sec.");
-        cacheKey.append(clusterName).append(".");
-        cacheKey.append(tableName);
-        cacheKey.append(".");
-        cacheKey.append(getCacheVersion(tableName));
-        cacheKey.append(".");
-        if (StringUtil.isNotBlank(whereKey))
-            cacheKey.append(SecurityUtil.md5(whereKey));
-        else
-            cacheKey.append("*");
-        return cacheKey.toString();
+    private long _getVersion(ShardedJedis redisClient, String versionKey, boolean isCreate) {
+        Version localVersion = this.localVersions.get(versionKey);
+        if (localVersion != null && localVersion.expireAt > System.currentTimeMillis()) {
+            return localVersion.value;
+        }
+
+        String version = redisClient.get(versionKey);
+        if (version == null) {
+            if (!isCreate) {
+                return -1;
+            }
+            // 随机的初始值避免版本号丢失后读到旧的缓存
+            version = String.valueOf(r.nextInt(10000));
+            if (redisClient.setnx(versionKey, version) == 0) {
+                version = redisClient.get(versionKey);
+            }
+        }
+
+        return _putLocalVersion(versionKey, Long.parseLong(version));
     }
 
     /**
-     * sharding second cache key. sec.[clustername].[startend].[tablename +
-     * tableIndex].hashCode
+     * 保存本地版本号. 本地已经有没有过期的更大版本号时不替换.
+     * 
+     * @return 本地使用的版本号
      */
-    private String _buildShardingCacheKey(String whereKey, ShardingDBResource shardingDBResource) {
-        StringBuilder cacheKey = new StringBuilder("sec.");
-        cacheKey.append(shardingDBResource.getClusterName());
-        cacheKey.append(".");
-        cacheKey.append(shardingDBResource.getDbName());
-        cacheKey.append(".");
-        cacheKey.append(shardingDBResource.getRegionCapacity());
-        cacheKey.append(".");
-        cacheKey.append(shardingDBResource.getTableName()).append(shardingDBResource.getTableIndex());
-        cacheKey.append(".");
-        cacheKey.append(getCacheVersion(shardingDBResource.getTableName()));
+    private long _putLocalVersion(String versionKey, long version) {
+        if (this.versionExpire <= 0) {
+            return version;
+        }
+
+        Version newVersion = null;
+        Version oldVersion = null;
+        while (true) {
+            long now = System.currentTimeMillis();
+            oldVersion = this.localVersions.get(versionKey);
+            if (oldVersion != null && oldVersion.expireAt > now && oldVersion.value > version) {
+                return oldVersion.value;
+            }
+
+            newVersion = new Version(version, now + this.versionExpire);
+            if (oldVersion == null) {
+                if (this.localVersions.putIfAbsent(versionKey, newVersion) == null) {
+                    return version;
+                }
+            } else if (this.localVersions.replace(versionKey, oldVersion, newVersion)) {
+                return version;
+            }
+        }
+    }
+
+    private String _buildGlobalVersion(String clusterName, String tableName) {
+        StringBuilder versionKey = new StringBuilder("sec.version.");
+        versionKey.append(clusterName).append(".");
+        versionKey.append(tableName);
+        versionKey.append(".");
+        versionKey.append(getCacheVersion(tableName));
+        return versionKey.toString();
+    }
+
+    private String _buildShardingVersion(ShardingDBResource shardingDBResource) {
+        StringBuilder versionKey = new StringBuilder("sec.version.");
+        versionKey.append(shardingDBResource.getClusterName());
+        versionKey.append(".");
+        versionKey.append(shardingDBResource.getDbName());
+        versionKey.append(".");
+        versionKey.append(shardingDBResource.getRegionCapacity());
+        versionKey.append(".");
+        versionKey.append(shardingDBResource.getTableName()).append(shardingDBResource.getTableIndex());
+        versionKey.append(".");
+        versionKey.append(getCacheVersion(shardingDBResource.getTableName()));
+        return versionKey.toString();
+    }
+
+    /**
+     * second cache key. [versionKey].[version].hashCode
+     */
+    private String _buildCacheKey(String versionKey, long version, String whereKey) {
+        StringBuilder cacheKey = new StringBuilder(versionKey);
         cacheKey.append(".");
-        if (StringUtil.isNotBlank(whereKey))
-            cacheKey.append(SecurityUtil.md5(whereKey));
-        else
-            cacheKey.append("*");
+        cacheKey.append(version).append(".");
+        cacheKey.append(SecurityUtil.md5(whereKey));
         return cacheKey.toString();
     }
 
+    private static class Version {
+
+        private final long value;
+
+        private final long expireAt;
+
+        Version(long value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+    }
+
 }
@@ -19,6 +19,7 @@ package org.pinus4j.cluster;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
 import javax.transaction.SystemException;
@@ -28,10 +29,12 @@ import org.pinus4j.cache.IPrimaryCache;
 import org.pinus4j.cache.ISecondCache;
 import org.pinus4j.cluster.beans.DBClusterInfo;
 import org.pinus4j.cluster.beans.IShardingKey;
+import org.pinus4j.cluster.config.IClusterConfig;
 import org.pinus4j.cluster.cp.IDBConnectionPool;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
 import org.pinus4j.cluster.enums.EnumSyncAction;
 import org.pinus4j.cluster.resources.IDBResource;
+import org.pinus4j.cluster.router.RouteInfo;
 import org.pinus4j.entity.meta.DBTable;
 import org.pinus4j.exceptions.DBClusterException;
 import org.pinus4j.generator.IIdGenerator;
@@ -187,6 +190,15 @@ public interface IDBCluster {
      */
     IDBResource selectDBResourceFromMaster(String tableName, IShardingKey<?> value) throws DBClusterException;
 
+    /**
+     * 计算分库分表因子在主库集群中的路由, 只计算路由不获取连接.
+     * 
+     * @param tableName 数据表名
+     * @param value 分库分表因子
+     * @return 路由结果
+     */
+    RouteInfo selectRouteInfoFromMaster(String tableName, IShardingKey<?> value) throws DBClusterException;
+
     /**
      * 从从库集群中获取被操作的库表.
      * 
@@ -198,6 +210,27 @@ public interface IDBCluster {
     IDBResource selectDBResourceFromSlave(String tableName, IShardingKey<?> value, EnumDBMasterSlave slave)
             throws DBClusterException;
 
+    /**
+     * 从主库集群中获取多个分库分表因子对应的库表. 路由到同一张物理表的因子会被合并, 每张表只打开一个资源.
+     * 
+     * @param tableName 数据表名
+     * @param values 分库分表因子
+     * @return 被操作的库表和路由到此库表的分库分表因子, 顺序和因子第一次出现的顺序一致
+     */
+    Map<IDBResource, List<IShardingKey<?>>> selectDBResourceFromMaster(String tableName, List<IShardingKey<?>> values)
+            throws DBClusterException;
+
+    /**
+     * 从从库集群中获取多个分库分表因子对应的库表. 路由到同一张物理表的因子会被合并, 每张表只打开一个资源.
+     * 
+     * @param tableName 数据表名
+     * @param values 分库分表因子
+     * @param slave 从库
+     * @return 被操作的库表和路由到此库表的分库分表因子, 顺序和因子第一次出现的顺序一致
+     */
+    Map<IDBResource, List<IShardingKey<?>>> selectDBResourceFromSlave(String tableName, List<IShardingKey<?>> values,
+                                                                      EnumDBMasterSlave slave) throws DBClusterException;
+
     /**
      * 获取此实体对象对应的所有的分库分表引用.
      * 
@@ -254,4 +287,11 @@ public interface IDBCluster {
      */
     ITableCluster getTableCluster();
 
+    /**
+     * 获取集群配置.
+     * 
+     * @return 集群配置
+     */
+    IClusterConfig getClusterConfig();
+
 }
@@ -56,6 +56,23 @@ public interface IClusterConfig {
      */
     public static final String DEFAULT_CLUSTER_ROUTER_CLASS = "org.pinus4j.cluster.router.impl.SimpleHashClusterRouter";
 
+    public static final int    DEFAULT_QUERY_THREADS        = Runtime.getRuntime().availableProcessors() * 2;
+
+    public static final int    DEFAULT_QUERY_PARALLELISM    = 8;
+
+    public static final int    DEFAULT_WRITE_PARALLELISM    = 4;
+
+    public static final int    DEFAULT_PK_BATCH             = 1000;
+
+    public static final int    DEFAULT_PK_COALESCE_WINDOW   = 0;
+
+    public static final int    DEFAULT_PK_COALESCE_SIZE     = 100;
+
+    /**
+     * mysql 5.5的max_allowed_packet默认值.
+     */
+    public static final int    DEFAULT_MAX_ALLOWED_PACKET   = 1024 * 1024;
+
     /*************************************************************
      * 配置参数
      *************************************************************/
@@ -113,4 +130,39 @@ public interface IClusterConfig {
      */
     public String getZookeeperUrl();
 
+    /**
+     * 跨分片查询线程池的线程数, 小于等于0表示串行查询.
+     */
+    public int getQueryThreads();
+
+    /**
+     * 单次跨分片查询的默认并行度上限.
+     */
+    public int getQueryParallelism();
+
+    /**
+     * 批量写入时同时写入的数据库个数上限, 小于等于1表示串行写入.
+     */
+    public int getWriteParallelism();
+
+    /**
+     * 根据主键批量查询和删除时一条sql包含的最多主键数, 超过时拆分为多条sql.
+     */
+    public int getPkBatch();
+
+    /**
+     * 合并并发的根据主键查询请求的时间窗口, 微秒. 小于等于0表示不合并.
+     */
+    public int getPkCoalesceWindow();
+
+    /**
+     * 合并根据主键查询请求时一个批次最多的请求数.
+     */
+    public int getPkCoalesceSize();
+
+    /**
+     * 数据库的max_allowed_packet, 单位字节. 批量插入时按照此值拆分insert语句.
+     */
+    public int getMaxAllowedPacket();
+
 }
@@ -61,6 +61,38 @@ public class XMLClusterConfigImpl implements IClusterConfig {
      */
     private static HashAlgoEnum              hashAlgo;
 
+    /**
+     * 跨分片查询线程数.
+     */
+    private static int                       queryThreads;
+
+    /**
+     * 单次跨分片查询并行度上限.
+     */
+    private static int                       queryParallelism;
+
+    /**
+     * 批量写入并行度上限.
+     */
+    private static int                       writeParallelism;
+
+    /**
+     * 一条sql包含的最多主键数.
+     */
+    private static int                       pkBatch;
+
+    /**
+     * 合并根据主键查询请求的时间窗口和批次大小.
+     */
+    private static int                       pkCoalesceWindow;
+
+    private static int                       pkCoalesceSize;
+
+    /**
+     * 数据库的max_allowed_packet.
+     */
+    private static int                       maxAllowedPacket;
+
     /**
      * cache config param.
      */
@@ -106,6 +138,21 @@ public class XMLClusterConfigImpl implements IClusterConfig {
         // load hash algo
         _loadHashAlgo(root);
 
+        // load query parallel
+        _loadQueryParallel(root);
+
+        // load write parallel
+        _loadWriteParallelism(root);
+
+        // load pk batch
+        _loadPkBatch(root);
+
+        // load pk coalesce
+        _loadPkCoalesce(root);
+
+        // load max allowed packet
+        _loadMaxAllowedPacket(root);
+
         // load datasource connect info
         IXMLConfigLoader<IDBConnectionPool> dbInfoLoader = new DBConnectionPoolLoader();
         dbConnectionPool = dbInfoLoader.load(root);
@@ -154,6 +201,93 @@ public class XMLClusterConfigImpl implements IClusterConfig {
         hashAlgo = HashAlgoEnum.getEnum(hashAlgoNode.getTextContent().trim());
     }
 
+    /**
+     * load db.cluster.query.threads and db.cluster.query.parallelism. 没有配置时使用默认值.
+     */
+    private void _loadQueryParallel(Node root) throws LoadConfigException {
+        queryThreads = DEFAULT_QUERY_THREADS;
+        queryParallelism = DEFAULT_QUERY_PARALLELISM;
+        try {
+            Node queryThreadsNode = xmlUtil.getFirstChildByName(root, Const.PROP_QUERY_THREADS);
+            if (queryThreadsNode != null) {
+                queryThreads = Integer.parseInt(queryThreadsNode.getTextContent().trim());
+            }
+
+            Node queryParallelismNode = xmlUtil.getFirstChildByName(root, Const.PROP_QUERY_PARALLELISM);
+            if (queryParallelismNode != null) {
+                queryParallelism = Integer.parseInt(queryParallelismNode.getTextContent().trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new LoadConfigException(e);
+        }
+    }
+
+    /**
+     * load db.cluster.write.parallelism. 没有配置时使用默认值.
+     */
+    private void _loadWriteParallelism(Node root) throws LoadConfigException {
+        writeParallelism = DEFAULT_WRITE_PARALLELISM;
+        Node writeParallelismNode = xmlUtil.getFirstChildByName(root, Const.PROP_WRITE_PARALLELISM);
+        if (writeParallelismNode != null) {
+            try {
+                writeParallelism = Integer.parseInt(writeParallelismNode.getTextContent().trim());
+            } catch (NumberFormatException e) {
+                throw new LoadConfigException(e);
+            }
+        }
+    }
+
+    /**
+     * load db.cluster.pk.batch. 没有配置时使用默认值.
+     */
+    private void _loadPkBatch(Node root) throws LoadConfigException {
+        pkBatch = DEFAULT_PK_BATCH;
+        Node pkBatchNode = xmlUtil.getFirstChildByName(root, Const.PROP_PK_BATCH);
+        if (pkBatchNode != null) {
+            try {
+                pkBatch = Integer.parseInt(pkBatchNode.getTextContent().trim());
+            } catch (NumberFormatException e) {
+                throw new LoadConfigException(e);
+            }
+        }
+    }
+
+    /**
+     * load db.cluster.pk.coalesce.window and db.cluster.pk.coalesce.size. 没有配置时使用默认值.
+     */
+    private void _loadPkCoalesce(Node root) throws LoadConfigException {
+        pkCoalesceWindow = DEFAULT_PK_COALESCE_WINDOW;
+        pkCoalesceSize = DEFAULT_PK_COALESCE_SIZE;
+        try {
+            Node windowNode = xmlUtil.getFirstChildByName(root, Const.PROP_PK_COALESCE_WINDOW);
+            if (windowNode != null) {
+                pkCoalesceWindow = Integer.parseInt(windowNode.getTextContent().trim());
+            }
+
+            Node sizeNode = xmlUtil.getFirstChildByName(root, Const.PROP_PK_COALESCE_SIZE);
+            if (sizeNode != null) {
+                pkCoalesceSize = Integer.parseInt(sizeNode.getTextContent().trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new LoadConfigException(e);
+        }
+    }
+
+    /**
+     * load db.cluster.max.allowed.packet. 没有配置时使用默认值.
+     */
+    private void _loadMaxAllowedPacket(Node root) throws LoadConfigException {
+        maxAllowedPacket = DEFAULT_MAX_ALLOWED_PACKET;
+        Node packetNode = xmlUtil.getFirstChildByName(root, Const.PROP_MAX_ALLOWED_PACKET);
+        if (packetNode != null) {
+            try {
+                maxAllowedPacket = Integer.parseInt(packetNode.getTextContent().trim());
+            } catch (NumberFormatException e) {
+                throw new LoadConfigException(e);
+            }
+        }
+    }
+
     private static volatile IClusterConfig instance;
 
     public static IClusterConfig getInstance() throws LoadConfigException {
@@ -200,6 +334,41 @@ public class XMLClusterConfigImpl implements IClusterConfig {
         return zkUrl;
     }
 
+    @Override
+    public int getQueryThreads() {
+        return queryThreads;
+    }
+
+    @Override
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    @Override
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
+    @Override
+    public int getPkBatch() {
+        return pkBatch;
+    }
+
+    @Override
+    public int getPkCoalesceWindow() {
+        return pkCoalesceWindow;
+    }
+
+    @Override
+    public int getPkCoalesceSize() {
+        return pkCoalesceSize;
+    }
+
+    @Override
+    public int getMaxAllowedPacket() {
+        return maxAllowedPacket;
+    }
+
     @Override
     public IDBConnectionPool getImplConnectionPool() {
         return dbConnectionPool;
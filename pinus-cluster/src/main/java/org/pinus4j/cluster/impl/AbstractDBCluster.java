@@ -20,7 +20,9 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.locks.Lock;
 
@@ -56,6 +58,7 @@ import org.pinus4j.cluster.container.IContainer;
 import org.pinus4j.cluster.cp.IDBConnectionPool;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
 import org.pinus4j.cluster.enums.EnumSyncAction;
+import org.pinus4j.cluster.resources.DBResourceId;
 import org.pinus4j.cluster.resources.GlobalDBResource;
 import org.pinus4j.cluster.resources.IDBResource;
 import org.pinus4j.cluster.resources.ShardingDBResource;
@@ -407,12 +410,7 @@ public abstract class AbstractDBCluster implements IDBCluster {
     }
 
     @Override
-    public ShardingDBResource selectDBResourceFromMaster(String tableName, IShardingKey<?> value)
-            throws DBClusterException {
-
-        // 计算分库
-        // 计算路由信息
-        RouteInfo routeInfo = null;
+    public RouteInfo selectRouteInfoFromMaster(String tableName, IShardingKey<?> value) throws DBClusterException {
         try {
             String clusterName = value.getClusterName();
 
@@ -421,10 +419,19 @@ public abstract class AbstractDBCluster implements IDBCluster {
                 throw new IllegalStateException("can not found db router by " + clusterName);
             }
 
-            routeInfo = router.select(EnumDBMasterSlave.MASTER, tableName, value);
+            return router.select(EnumDBMasterSlave.MASTER, tableName, value);
         } catch (DBRouteException e) {
             throw new DBClusterException(e);
         }
+    }
+
+    @Override
+    public ShardingDBResource selectDBResourceFromMaster(String tableName, IShardingKey<?> value)
+            throws DBClusterException {
+
+        // 计算分库
+        // 计算路由信息
+        RouteInfo routeInfo = selectRouteInfoFromMaster(tableName, value);
         String clusterName = routeInfo.getClusterName();
         DBInfo dbInfo = routeInfo.getDbInfo();
         int tableIndex = routeInfo.getTableIndex();
@@ -503,6 +510,126 @@ public abstract class AbstractDBCluster implements IDBCluster {
         return db;
     }
 
+    @Override
+    public Map<IDBResource, List<IShardingKey<?>>> selectDBResourceFromMaster(String tableName,
+                                                                             List<IShardingKey<?>> values)
+            throws DBClusterException {
+        return _selectDBResource(EnumDBMasterSlave.MASTER, tableName, values);
+    }
+
+    @Override
+    public Map<IDBResource, List<IShardingKey<?>>> selectDBResourceFromSlave(String tableName,
+                                                                            List<IShardingKey<?>> values,
+                                                                            EnumDBMasterSlave slave)
+            throws DBClusterException {
+        return _selectDBResource(slave, tableName, values);
+    }
+
+    /**
+     * 先计算每个分库分表因子的路由, 按照物理表合并之后再打开资源, 避免重复获取连接.
+     */
+    private Map<IDBResource, List<IShardingKey<?>>> _selectDBResource(EnumDBMasterSlave masterSlave,
+                                                                      String tableName, List<IShardingKey<?>> values)
+            throws DBClusterException {
+        Map<String, RouteInfo> routeInfos = new LinkedHashMap<String, RouteInfo>();
+        Map<String, List<IShardingKey<?>>> routeValues = new LinkedHashMap<String, List<IShardingKey<?>>>();
+
+        for (IShardingKey<?> value : values) {
+            RouteInfo routeInfo = null;
+            try {
+                String clusterName = value.getClusterName();
+
+                IClusterRouter router = this.dbRouterC.find(clusterName);
+                if (router == null) {
+                    throw new IllegalStateException("can not found db router by " + clusterName);
+                }
+
+                routeInfo = router.select(masterSlave, tableName, value);
+            } catch (DBRouteException e) {
+                throw new DBClusterException(e);
+            }
+
+            DBInfo dbInfo = routeInfo.getDbInfo();
+            String routeKey = new DBResourceId(routeInfo.getClusterName(), dbInfo.getDbName(),
+                    String.valueOf(routeInfo.getRegionIndex()), tableName, routeInfo.getTableIndex(),
+                    dbInfo.getMasterSlave()).value();
+
+            List<IShardingKey<?>> shardingKeys = routeValues.get(routeKey);
+            if (shardingKeys == null) {
+                shardingKeys = new ArrayList<IShardingKey<?>>();
+                routeValues.put(routeKey, shardingKeys);
+                routeInfos.put(routeKey, routeInfo);
+            }
+            shardingKeys.add(value);
+        }
+
+        // 同一个库的分表共享一个连接
+        Map<DBInfo, List<String>> dbRouteKeys = new LinkedHashMap<DBInfo, List<String>>();
+        for (Map.Entry<String, RouteInfo> entry : routeInfos.entrySet()) {
+            List<String> routeKeys = dbRouteKeys.get(entry.getValue().getDbInfo());
+            if (routeKeys == null) {
+                routeKeys = new ArrayList<String>();
+                dbRouteKeys.put(entry.getValue().getDbInfo(), routeKeys);
+            }
+            routeKeys.add(entry.getKey());
+        }
+
+        Map<String, IDBResource> routeDBResources = new LinkedHashMap<String, IDBResource>();
+        ITransaction tx = null;
+        try {
+            tx = (ITransaction) txManager.getTransaction();
+
+            for (List<String> routeKeys : dbRouteKeys.values()) {
+                RouteInfo routeInfo = routeInfos.get(routeKeys.get(0));
+
+                DBClusterInfo dbClusterInfo = this.dbClusterInfoC.find(routeInfo.getClusterName());
+                if (dbClusterInfo == null) {
+                    throw new DBClusterException("can not found db cluster by " + routeInfo.getClusterName()
+                            + ", tablename is " + tableName);
+                }
+                DBRegionInfo regionInfo = dbClusterInfo.getDbRegions().get(routeInfo.getRegionIndex());
+                if (regionInfo == null) {
+                    throw new DBClusterException("can not found db region by " + routeInfo.getClusterName()
+                            + ", tablename is " + tableName);
+                }
+
+                List<Integer> tableIndexes = new ArrayList<Integer>(routeKeys.size());
+                for (String routeKey : routeKeys) {
+                    tableIndexes.add(routeInfos.get(routeKey).getTableIndex());
+                }
+
+                List<ShardingDBResource> dbResources = ShardingDBResource.valueOf(tx, routeInfo.getDbInfo(),
+                        regionInfo, tableName, tableIndexes);
+                for (int i = 0; i < routeKeys.size(); i++) {
+                    routeDBResources.put(routeKeys.get(i), dbResources.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            _closeOnFailure(tx, routeDBResources.values());
+            throw new DBClusterException(e);
+        } catch (SystemException e) {
+            _closeOnFailure(tx, routeDBResources.values());
+            throw new DBOperationException(e);
+        } catch (DBClusterException e) {
+            _closeOnFailure(tx, routeDBResources.values());
+            throw e;
+        }
+
+        Map<IDBResource, List<IShardingKey<?>>> dbResources = new LinkedHashMap<IDBResource, List<IShardingKey<?>>>();
+        for (String routeKey : routeInfos.keySet()) {
+            dbResources.put(routeDBResources.get(routeKey), routeValues.get(routeKey));
+        }
+        return dbResources;
+    }
+
+    private void _closeOnFailure(ITransaction tx, Collection<IDBResource> dbResources) {
+        if (tx == null) {
+            for (IDBResource dbResource : dbResources) {
+                dbResource.close();
+            }
+        }
+    }
+
     @Override
     public List<IDBResource> getAllMasterShardingDBResource(Class<?> clazz) throws SQLException, SystemException {
         int tableNum = entityMetaManager.getTableNum(clazz);
@@ -536,14 +663,12 @@ public abstract class AbstractDBCluster implements IDBCluster {
 
         ITransaction tx = (ITransaction) txManager.getTransaction();
 
-        IDBResource dbResource = null;
+        // 同一个库的分表共享一个连接
+        List<Integer> tableIndexes = _getTableIndexes(tableNum);
         DBClusterInfo dbClusterInfo = this.getDBClusterInfo(clusterName);
         for (DBRegionInfo region : dbClusterInfo.getDbRegions()) {
             for (DBInfo dbInfo : region.getMasterDBInfos()) {
-                for (int tableIndex = 0; tableIndex < tableNum; tableIndex++) {
-                    dbResource = ShardingDBResource.valueOf(tx, dbInfo, region, tableName, tableIndex);
-                    dbResources.add(dbResource);
-                }
+                dbResources.addAll(ShardingDBResource.valueOf(tx, dbInfo, region, tableName, tableIndexes));
             }
         }
 
@@ -565,7 +690,8 @@ public abstract class AbstractDBCluster implements IDBCluster {
 
         ITransaction tx = (ITransaction) txManager.getTransaction();
 
-        IDBResource dbResource = null;
+        // 同一个库的分表共享一个连接
+        List<Integer> tableIndexes = _getTableIndexes(tableNum);
         DBClusterInfo dbClusterInfo = this.getDBClusterInfo(clusterName);
         for (DBRegionInfo region : dbClusterInfo.getDbRegions()) {
             List<DBInfo> slaveDBInfos = null;
@@ -582,16 +708,21 @@ public abstract class AbstractDBCluster implements IDBCluster {
             }
 
             for (DBInfo dbInfo : slaveDBInfos) {
-                for (int tableIndex = 0; tableIndex < tableNum; tableIndex++) {
-                    dbResource = ShardingDBResource.valueOf(tx, dbInfo, region, tableName, tableIndex);
-                    dbResources.add(dbResource);
-                }
+                dbResources.addAll(ShardingDBResource.valueOf(tx, dbInfo, region, tableName, tableIndexes));
             }
         }
 
         return dbResources;
     }
 
+    private List<Integer> _getTableIndexes(int tableNum) {
+        List<Integer> tableIndexes = new ArrayList<Integer>(tableNum);
+        for (int tableIndex = 0; tableIndex < tableNum; tableIndex++) {
+            tableIndexes.add(tableIndex);
+        }
+        return tableIndexes;
+    }
+
     @Override
     public IDBConnectionPool getDBConnectionPool() {
         return dbConnectionPool;
@@ -878,4 +1009,9 @@ public abstract class AbstractDBCluster implements IDBCluster {
         return this.tableCluster;
     }
 
+    @Override
+    public IClusterConfig getClusterConfig() {
+        return this.config;
+    }
+
 }
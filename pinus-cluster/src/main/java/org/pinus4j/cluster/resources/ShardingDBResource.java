@@ -18,6 +18,9 @@ package org.pinus4j.cluster.resources;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.pinus4j.cluster.beans.DBInfo;
 import org.pinus4j.cluster.beans.DBRegionInfo;
@@ -64,6 +67,13 @@ public class ShardingDBResource extends AbstractXADBResource {
 
     private EnumDBMasterSlave masterSlave;
 
+    /**
+     * 同一个库的多张分表共享连接时的引用计数, 不共享连接时为null.
+     */
+    private AtomicInteger     connRef;
+
+    private volatile boolean  isReleased;
+
     private ShardingDBResource() {
     }
 
@@ -83,19 +93,58 @@ public class ShardingDBResource extends AbstractXADBResource {
             Connection conn = dbInfo.getDatasource().getConnection();
             conn.setAutoCommit(false);
 
-            dbResource = new ShardingDBResource();
+            dbResource = _newInstance(resId, dbInfo, regionInfo, tableName, tableIndex, conn);
+        }
+
+        return dbResource;
+    }
 
-            dbResource.setId(resId);
-            dbResource.setClusterName(dbInfo.getClusterName());
-            dbResource.setDbName(dbInfo.getDbName());
-            dbResource.setRegionCapacity(regionInfo.getCapacity());
-            dbResource.setTableName(tableName);
-            dbResource.setTableIndex(tableIndex);
-            dbResource.setMasterSlave(dbInfo.getMasterSlave());
+    /**
+     * 获取同一个库中的多张分表. 已经在事务中的分表使用事务中的资源, 其余的分表共享一个连接,
+     * 所有共享的资源都关闭之后才会归还连接. 共享连接的资源不能在多个线程中同时使用.
+     */
+    public static List<ShardingDBResource> valueOf(ITransaction tx, DBInfo dbInfo, DBRegionInfo regionInfo,
+                                                   String tableName, List<Integer> tableIndexes) throws SQLException {
+        List<ShardingDBResource> dbResources = new ArrayList<ShardingDBResource>(tableIndexes.size());
+
+        Connection conn = null;
+        AtomicInteger connRef = new AtomicInteger(0);
+        for (int tableIndex : tableIndexes) {
+            IResourceId resId = new DBResourceId(dbInfo.getClusterName(), dbInfo.getDbName(),
+                    regionInfo.getCapacity(), tableName, tableIndex, dbInfo.getMasterSlave());
+
+            if (tx != null && tx.isContain(resId)) {
+                dbResources.add((ShardingDBResource) tx.getDBResource(resId));
+                continue;
+            }
 
-            dbResource.setConnection(conn);
+            if (conn == null) {
+                conn = dbInfo.getDatasource().getConnection();
+                conn.setAutoCommit(false);
+            }
+            ShardingDBResource dbResource = _newInstance(resId, dbInfo, regionInfo, tableName, tableIndex, conn);
+            dbResource.connRef = connRef;
+            connRef.incrementAndGet();
+            dbResources.add(dbResource);
         }
 
+        return dbResources;
+    }
+
+    private static ShardingDBResource _newInstance(IResourceId resId, DBInfo dbInfo, DBRegionInfo regionInfo,
+                                                   String tableName, int tableIndex, Connection conn) {
+        ShardingDBResource dbResource = new ShardingDBResource();
+
+        dbResource.setId(resId);
+        dbResource.setClusterName(dbInfo.getClusterName());
+        dbResource.setDbName(dbInfo.getDbName());
+        dbResource.setRegionCapacity(regionInfo.getCapacity());
+        dbResource.setTableName(tableName);
+        dbResource.setTableIndex(tableIndex);
+        dbResource.setMasterSlave(dbInfo.getMasterSlave());
+
+        dbResource.setConnection(conn);
+
         return dbResource;
     }
 
@@ -146,6 +195,18 @@ public class ShardingDBResource extends AbstractXADBResource {
 
     @Override
     public void close() {
+        if (this.connRef != null) {
+            synchronized (this) {
+                if (this.isReleased) {
+                    return;
+                }
+                this.isReleased = true;
+            }
+            if (this.connRef.decrementAndGet() > 0) {
+                return;
+            }
+        }
+
         try {
             if (!this.connection.isClosed()) {
                 this.connection.close();
@@ -157,6 +218,10 @@ public class ShardingDBResource extends AbstractXADBResource {
 
     @Override
     public boolean isClosed() {
+        if (this.connRef != null && this.isReleased) {
+            return true;
+        }
+
         try {
             return this.connection.isClosed();
         } catch (SQLException e) {
@@ -82,6 +82,14 @@ public class Const {
      * 根据多主键查询的慢日志时间阈值
      */
     public static final int    SLOWQUERY_PKS                         = 10;
+    /**
+     * 批量插入时一条insert语句最多包含的行数
+     */
+    public static final int    BATCH_INSERT_ROWS                     = 1000;
+    /**
+     * 批量插入时一条insert语句最多使用max_allowed_packet的比例, 字节数是估算值, 需要留出余量
+     */
+    public static final double BATCH_INSERT_PACKET_RATIO             = 0.75;
 
     //
     // 配置文件相关常量.
@@ -100,6 +108,41 @@ public class Const {
      */
     public static final String PROP_ZK_URL                           = "db.cluster.zk";
 
+    /**
+     * 跨分片查询的线程数
+     */
+    public static final String PROP_QUERY_THREADS                    = "db.cluster.query.threads";
+
+    /**
+     * 单次跨分片查询的并行度上限
+     */
+    public static final String PROP_QUERY_PARALLELISM                = "db.cluster.query.parallelism";
+
+    /**
+     * 批量写入时同时写入的数据库个数上限
+     */
+    public static final String PROP_WRITE_PARALLELISM                = "db.cluster.write.parallelism";
+
+    /**
+     * 根据主键批量查询和删除时一条sql包含的最多主键数
+     */
+    public static final String PROP_PK_BATCH                         = "db.cluster.pk.batch";
+
+    /**
+     * 合并并发的根据主键查询请求的时间窗口, 微秒. 0表示不合并
+     */
+    public static final String PROP_PK_COALESCE_WINDOW               = "db.cluster.pk.coalesce.window";
+
+    /**
+     * 合并根据主键查询请求时一个批次最多的请求数
+     */
+    public static final String PROP_PK_COALESCE_SIZE                 = "db.cluster.pk.coalesce.size";
+
+    /**
+     * mysql的max_allowed_packet, 批量插入时一条insert语句的字节数不超过此值
+     */
+    public static final String PROP_MAX_ALLOWED_PACKET               = "db.cluster.max.allowed.packet";
+
     //
     // cache prop
     //
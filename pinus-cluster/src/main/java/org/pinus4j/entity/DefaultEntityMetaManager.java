@@ -219,6 +219,13 @@ public class DefaultEntityMetaManager implements IEntityMetaManager {
         return dbTable.isCache();
     }
 
+    @Override
+    public boolean isDirtyCheck(Class<?> clazz) {
+        DBTable dbTable = this.getTableMeta(clazz);
+
+        return dbTable.isDirtyCheck();
+    }
+
     @Override
     public boolean isUnionKey(Class<?> clazz) {
         DBTable dbTable = getTableMeta(clazz);
@@ -375,10 +382,12 @@ public class DefaultEntityMetaManager implements IEntityMetaManager {
         // 获取分表数
         int shardingNum = annoTable.shardingNum();
         table.setShardingNum(shardingNum);
+        table.setShardingByPk(annoTable.shardingByPk());
 
         // 是否需要被缓存
         boolean isCache = annoTable.cache();
         table.setCache(isCache);
+        table.setDirtyCheck(annoTable.dirtyCheck());
 
         // 解析DBIndex
         _parseDBIndex(table, clazz);
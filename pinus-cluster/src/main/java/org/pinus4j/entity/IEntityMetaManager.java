@@ -40,6 +40,14 @@ public interface IEntityMetaManager {
      */
     public boolean isCache(Class<?> clazz);
 
+    /**
+     * 判断是否只更新被修改过的字段
+     * 
+     * @param clazz
+     * @return
+     */
+    public boolean isDirtyCheck(Class<?> clazz);
+
     /**
      * 获取表名不带下标
      * 
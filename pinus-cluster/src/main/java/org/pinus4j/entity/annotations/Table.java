@@ -56,6 +56,12 @@ public @interface Table {
 	 */
 	int shardingNum() default 0;
 
+	/**
+	 * 主键的值和分片字段的值总是路由到同一张表时设置为true, 根据主键查询时不需要分片因子就可以定位到表.
+	 * 主键本身就是分片字段时不需要设置.
+	 */
+	boolean shardingByPk() default false;
+
 	/**
 	 * 此表是否需要被缓存.
 	 * 
@@ -63,4 +69,10 @@ public @interface Table {
 	 */
 	boolean cache() default false;
 
+	/**
+	 * 是否记录从数据库加载时的字段值. 设置为true时update只更新加载之后被修改过的字段, 没有字段被修改时不执行update.
+	 * 更新成功(有事务时在事务提交)之后才记录更新后的字段值, 更新失败或者回滚后再次update仍然会更新这些字段.
+	 */
+	boolean dirtyCheck() default false;
+
 }
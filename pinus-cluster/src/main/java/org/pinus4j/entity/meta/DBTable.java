@@ -69,11 +69,21 @@ public class DBTable implements Serializable {
      */
     private int                 shardingNum;
 
+    /**
+     * 主键的值和分片字段的值是否路由到同一张表
+     */
+    private boolean             isShardingByPk;
+
     /**
      * 是否需要被缓存
      */
     private boolean             isCache;
 
+    /**
+     * 是否只更新被修改过的字段
+     */
+    private boolean             isDirtyCheck;
+
     private String              cacheVersion;
 
     /**
@@ -436,6 +446,14 @@ public class DBTable implements Serializable {
         this.shardingBy = shardingBy;
     }
 
+    public boolean isShardingByPk() {
+        return isShardingByPk;
+    }
+
+    public void setShardingByPk(boolean isShardingByPk) {
+        this.isShardingByPk = isShardingByPk;
+    }
+
     public boolean isCache() {
         return isCache;
     }
@@ -444,6 +462,14 @@ public class DBTable implements Serializable {
         this.isCache = isCache;
     }
 
+    public boolean isDirtyCheck() {
+        return isDirtyCheck;
+    }
+
+    public void setDirtyCheck(boolean isDirtyCheck) {
+        this.isDirtyCheck = isDirtyCheck;
+    }
+
     public String getCacheVersion() {
         return cacheVersion;
     }
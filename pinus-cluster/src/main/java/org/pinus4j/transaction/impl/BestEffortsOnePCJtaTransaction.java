@@ -16,7 +16,9 @@
 
 package org.pinus4j.transaction.impl;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -51,6 +53,11 @@ public class BestEffortsOnePCJtaTransaction implements ITransaction {
 
     private AtomicInteger                 status = new AtomicInteger(Status.STATUS_ACTIVE);
 
+    /**
+     * callbacks will be notified after commit or rollback.
+     */
+    private List<Synchronization>         syncs  = new ArrayList<Synchronization>();
+
     @Override
     public boolean isContain(IResourceId resId) {
         return this.txRes.containsKey(resId);
@@ -97,6 +104,7 @@ public class BestEffortsOnePCJtaTransaction implements ITransaction {
             dbResource.close();
         }
 
+        _afterCompletion(Status.STATUS_COMMITTED);
         status.set(Status.STATUS_NO_TRANSACTION);
     }
 
@@ -115,9 +123,18 @@ public class BestEffortsOnePCJtaTransaction implements ITransaction {
                 dbResource.close();
         }
 
+        _afterCompletion(Status.STATUS_ROLLEDBACK);
         status.set(Status.STATUS_NO_TRANSACTION);
     }
 
+    private void _afterCompletion(int completionStatus) {
+        status.set(completionStatus);
+        for (Synchronization sync : syncs) {
+            sync.afterCompletion(completionStatus);
+        }
+        syncs.clear();
+    }
+
     // jta implements.
     @Override
     public boolean delistResource(XAResource xaResource, int arg1) throws IllegalStateException, SystemException {
@@ -152,9 +169,12 @@ public class BestEffortsOnePCJtaTransaction implements ITransaction {
     }
 
     @Override
-    public void registerSynchronization(Synchronization arg0) throws RollbackException, IllegalStateException,
+    public void registerSynchronization(Synchronization sync) throws RollbackException, IllegalStateException,
             SystemException {
-        throw new UnsupportedOperationException();
+        if (status.get() != Status.STATUS_ACTIVE) {
+            throw new IllegalStateException("transaction is not active");
+        }
+        syncs.add(sync);
     }
 
     @Override
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.transaction.SystemException;
+
+import org.pinus4j.api.query.IQuery;
+import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.exceptions.DBOperationException;
+import org.pinus4j.utils.ThreadPool;
+
+/**
+ * default async api implement. 每个操作在线程池中调用PinusClient对应的同步方法.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class DefaultPinusAsyncClient implements PinusAsyncClient {
+
+    /**
+     * 执行同步操作的client.
+     */
+    private PinusClient pinusClient;
+
+    /**
+     * 线程数.
+     */
+    private int         threads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private ThreadPool  threadPool;
+
+    @Override
+    public void init() {
+        if (this.pinusClient == null) {
+            throw new IllegalStateException("pinusClient should not be null");
+        }
+        if (this.threads <= 0) {
+            throw new IllegalArgumentException("threads should be greater than 0, threads=" + this.threads);
+        }
+
+        this.threadPool = ThreadPool.newInstance("async", this.threads, this.threads, 60 * 1000);
+        this.threadPool.getThreadPool().allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() {
+        if (this.threadPool != null) {
+            this.threadPool.shutdown();
+        }
+    }
+
+    @Override
+    public <T> Future<T> load(T entity) {
+        return load(entity, true, EnumDBMasterSlave.AUTO);
+    }
+
+    @Override
+    public <T> Future<T> load(T entity, boolean useCache) {
+        return load(entity, useCache, EnumDBMasterSlave.AUTO);
+    }
+
+    @Override
+    public <T> Future<T> load(T entity, EnumDBMasterSlave masterSlave) {
+        return load(entity, true, masterSlave);
+    }
+
+    @Override
+    public <T> Future<T> load(final T entity, final boolean useCache, final EnumDBMasterSlave masterSlave) {
+        if (entity == null) {
+            throw new IllegalArgumentException("param should not be null");
+        }
+
+        return _submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                pinusClient.load(entity, useCache, masterSlave);
+                return entity;
+            }
+        });
+    }
+
+    @Override
+    public <T> Future<List<T>> list(IQuery<T> query) {
+        if (query == null) {
+            throw new IllegalArgumentException("param should not be null");
+        }
+
+        // 查询对象线程不安全, 使用副本
+        final IQuery<T> queryCopy = query.clone();
+        return _submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return queryCopy.list();
+            }
+        });
+    }
+
+    @Override
+    public <T> Future<Number> count(IQuery<T> query) {
+        if (query == null) {
+            throw new IllegalArgumentException("param should not be null");
+        }
+
+        final IQuery<T> queryCopy = query.clone();
+        return _submit(new Callable<Number>() {
+            @Override
+            public Number call() throws Exception {
+                return queryCopy.count();
+            }
+        });
+    }
+
+    @Override
+    public Future<List<Map<String, Object>>> findBySQL(final SQL sql, final String clusterName) {
+        return _submit(new Callable<List<Map<String, Object>>>() {
+            @Override
+            public List<Map<String, Object>> call() throws Exception {
+                return pinusClient.findBySQL(sql, clusterName);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> save(final Object entity) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.save(entity);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> saveBatch(List<? extends Object> entityList) {
+        return saveBatch(entityList, true);
+    }
+
+    @Override
+    public Future<Void> saveBatch(final List<? extends Object> entityList, final boolean autoGeneratedKeys) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.saveBatch(entityList, autoGeneratedKeys);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> update(final Object entity) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.update(entity);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> updateBatch(final List<? extends Object> entityList) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.updateBatch(entityList);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> delete(final Object entity) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.delete(entity);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> delete(final List<? extends Object> entityList) {
+        return _submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pinusClient.delete(entityList);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 提交操作. 事务绑定在调用线程上, 在线程池中执行的操作不会加入事务, 因此事务中不允许异步操作.
+     */
+    private <V> Future<V> _submit(Callable<V> task) {
+        if (this.threadPool == null || this.threadPool.isShutdown()) {
+            throw new IllegalStateException("async client is not running, call init() first");
+        }
+
+        try {
+            if (this.pinusClient.getDBCluster().getTransactionManager().getTransaction() != null) {
+                throw new IllegalStateException("async operation can not be used in transaction");
+            }
+        } catch (SystemException e) {
+            throw new DBOperationException(e);
+        }
+
+        return this.threadPool.getThreadPool().submit(task);
+    }
+
+    public PinusClient getPinusClient() {
+        return pinusClient;
+    }
+
+    @Override
+    public void setPinusClient(PinusClient pinusClient) {
+        this.pinusClient = pinusClient;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+}
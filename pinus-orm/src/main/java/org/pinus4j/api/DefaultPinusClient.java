@@ -18,8 +18,10 @@ package org.pinus4j.api;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.Lock;
 
+import javax.transaction.SystemException;
 import javax.transaction.TransactionManager;
 
 import org.pinus4j.api.query.IQuery;
@@ -28,13 +30,18 @@ import org.pinus4j.cache.IPrimaryCache;
 import org.pinus4j.cache.ISecondCache;
 import org.pinus4j.cluster.IDBCluster;
 import org.pinus4j.cluster.IDBClusterBuilder;
+import org.pinus4j.cluster.beans.DBClusterInfo;
+import org.pinus4j.cluster.beans.DBInfo;
 import org.pinus4j.cluster.beans.IShardingKey;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
 import org.pinus4j.cluster.enums.EnumSyncAction;
 import org.pinus4j.cluster.impl.DefaultDBClusterBuilder;
+import org.pinus4j.cluster.resources.DBResourceId;
+import org.pinus4j.cluster.router.RouteInfo;
 import org.pinus4j.constant.Const;
 import org.pinus4j.datalayer.IDataLayerBuilder;
 import org.pinus4j.datalayer.JdbcDataLayerBuilder;
+import org.pinus4j.datalayer.ParallelExecutor;
 import org.pinus4j.datalayer.query.IGlobalQuery;
 import org.pinus4j.datalayer.query.IShardingQuery;
 import org.pinus4j.datalayer.update.IGlobalUpdate;
@@ -122,6 +129,11 @@ public class DefaultPinusClient implements PinusClient {
      */
     private IShardingQuery     shardingQuery;
 
+    /**
+     * 批量写入的并行执行器.
+     */
+    private ParallelExecutor   writeExecutor;
+
     private IEntityMetaManager entityMetaManager = DefaultEntityMetaManager.getInstance();
 
     /**
@@ -152,12 +164,26 @@ public class DefaultPinusClient implements PinusClient {
         this.shardingUpdater = dataLayerBuilder.buildShardingUpdate(this.dbCluster.getIdGenerator());
         this.shardingQuery = dataLayerBuilder.buildShardingQuery();
 
+        // 批量写入按照物理库并行执行
+        int writeParallelism = this.dbCluster.getClusterConfig().getWriteParallelism();
+        this.writeExecutor = new ParallelExecutor("write", writeParallelism > 1 ? writeParallelism : 0,
+                writeParallelism);
+
         // FashionEntity dependency this.
         instance = this;
     }
 
     @Override
     public void destroy() {
+        // close parallel executor.
+        if (this.shardingQuery.getParallelExecutor() != null) {
+            this.shardingQuery.getParallelExecutor().shutdown();
+        }
+
+        if (this.writeExecutor != null) {
+            this.writeExecutor.shutdown();
+        }
+
         // close database cluster.
         try {
             this.dbCluster.shutdown();
@@ -268,7 +294,7 @@ public class DefaultPinusClient implements PinusClient {
     }
 
     @Override
-    public void saveBatch(List<? extends Object> entityList, boolean autoGeneratedKeys) {
+    public void saveBatch(List<? extends Object> entityList, final boolean autoGeneratedKeys) {
         if (entityList == null) {
             throw new IllegalArgumentException("param should not be null");
         }
@@ -284,48 +310,29 @@ public class DefaultPinusClient implements PinusClient {
             }
         }
 
+        List<WriteTask> tasks = Lists.newArrayList();
+
         // handle global entity list.
-        if (!globalList.isEmpty()) {
-            Map<String, List<Object>> clusterEntityMap = Maps.newHashMap();
-
-            String clusterName = null;
-            for (Object globalEntity : globalList) {
-                clusterName = entityMetaManager.getClusterName(globalEntity.getClass());
-                List<Object> theSameClusterNameList = clusterEntityMap.get(clusterName);
-                if (theSameClusterNameList != null) {
-                    theSameClusterNameList.add(globalEntity);
-                } else {
-                    theSameClusterNameList = Lists.newArrayList(globalEntity);
-                    clusterEntityMap.put(clusterName, theSameClusterNameList);
+        for (final Map.Entry<String, List<Object>> entry : _groupByClusterName(globalList).entrySet()) {
+            tasks.add(new WriteTask(_getGlobalDB(entry.getKey()), entry.getKey(), entry.getValue().size()) {
+                @Override
+                void execute() {
+                    globalUpdater.saveBatch(entry.getValue(), entry.getKey(), autoGeneratedKeys);
                 }
-            }
-
-            for (Map.Entry<String, List<Object>> entry : clusterEntityMap.entrySet()) {
-                this.globalUpdater.saveBatch(entry.getValue(), entry.getKey(), autoGeneratedKeys);
-            }
+            });
         }
 
         // handle sharding entity list.
-        if (!shardingList.isEmpty()) {
-            Map<IShardingKey<?>, List<Object>> theSameShardingKeyMap = Maps.newHashMap();
-
-            IShardingKey<?> shardingKey = null;
-            for (Object shardingEntity : shardingList) {
-                shardingKey = entityMetaManager.getShardingKey(shardingEntity);
-                List<Object> theSameShardingKeyList = theSameShardingKeyMap.get(shardingKey);
-                if (theSameShardingKeyList != null) {
-                    theSameShardingKeyList.add(shardingEntity);
-                } else {
-                    theSameShardingKeyList = Lists.newArrayList(shardingEntity);
-                    theSameShardingKeyMap.put(shardingKey, theSameShardingKeyList);
+        for (final ShardingGroup group : _groupByRoute(shardingList)) {
+            tasks.add(new WriteTask(group.db, group, group.entities.size()) {
+                @Override
+                void execute() {
+                    shardingUpdater.saveBatch(group.entities, group.shardingKey, autoGeneratedKeys);
                 }
-            }
-
-            for (Map.Entry<IShardingKey<?>, List<Object>> entry : theSameShardingKeyMap.entrySet()) {
-                this.shardingUpdater.saveBatch(entry.getValue(), entry.getKey(), autoGeneratedKeys);
-            }
+            });
         }
 
+        _executeWrites(tasks);
     }
 
     @Override
@@ -374,47 +381,100 @@ public class DefaultPinusClient implements PinusClient {
             }
         }
 
+        List<WriteTask> tasks = Lists.newArrayList();
+
         // handle global entity list.
-        if (!globalList.isEmpty()) {
-            Map<String, List<Object>> theSameClusterNameMap = Maps.newHashMap();
-
-            String clusterName = null;
-            for (Object globalEntity : globalList) {
-                clusterName = entityMetaManager.getClusterName(globalEntity.getClass());
-                List<Object> theSameClusterNameList = theSameClusterNameMap.get(clusterName);
-                if (theSameClusterNameList != null) {
-                    theSameClusterNameList.add(globalEntity);
-                } else {
-                    theSameClusterNameList = Lists.newArrayList(globalEntity);
-                    theSameClusterNameMap.put(clusterName, theSameClusterNameList);
+        for (final Map.Entry<String, List<Object>> entry : _groupByClusterName(globalList).entrySet()) {
+            tasks.add(new WriteTask(_getGlobalDB(entry.getKey()), entry.getKey(), entry.getValue().size()) {
+                @Override
+                void execute() {
+                    globalUpdater.updateBatch(entry.getValue(), entry.getKey());
                 }
-            }
-
-            for (Map.Entry<String, List<Object>> entry : theSameClusterNameMap.entrySet()) {
-                this.globalUpdater.updateBatch(entry.getValue(), entry.getKey());
-            }
+            });
         }
 
         // handle sharding entity list.
-        if (!shardingList.isEmpty()) {
-            Map<IShardingKey<?>, List<Object>> theSameShardingKeyMap = Maps.newHashMap();
-
-            IShardingKey<?> shardingKey = null;
-            for (Object shardingEntity : shardingList) {
-                shardingKey = entityMetaManager.getShardingKey(shardingEntity);
-                List<Object> theSameShardingKeyList = theSameShardingKeyMap.get(shardingKey);
-                if (theSameShardingKeyList != null) {
-                    theSameShardingKeyList.add(shardingEntity);
-                } else {
-                    theSameShardingKeyList = Lists.newArrayList(shardingEntity);
-                    theSameShardingKeyMap.put(shardingKey, theSameShardingKeyList);
+        for (final ShardingGroup group : _groupByRoute(shardingList)) {
+            tasks.add(new WriteTask(group.db, group, group.entities.size()) {
+                @Override
+                void execute() {
+                    shardingUpdater.updateBatch(group.entities, group.shardingKey);
                 }
-            }
+            });
+        }
+
+        _executeWrites(tasks);
+    }
+
+    @Override
+    public void saveOrUpdate(Object entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("param should not be null");
+        }
+
+        Class<?> clazz = entity.getClass();
+
+        if (entityMetaManager.isShardingEntity(clazz)) {
+
+            CheckUtil.checkShardingEntity(entity);
+
+            IShardingKey<?> sk = entityMetaManager.getShardingKey(entity);
+            CheckUtil.checkShardingKey(sk);
+
+            this.shardingUpdater.saveOrUpdateBatch(Lists.newArrayList(entity), sk);
+
+        } else {
 
-            for (Map.Entry<IShardingKey<?>, List<Object>> entry : theSameShardingKeyMap.entrySet()) {
-                this.shardingUpdater.updateBatch(entry.getValue(), entry.getKey());
+            CheckUtil.checkGlobalEntity(entity);
+
+            String clusterName = entityMetaManager.getClusterName(entity.getClass());
+            CheckUtil.checkClusterName(clusterName);
+
+            this.globalUpdater.saveOrUpdateBatch(Lists.newArrayList(entity), clusterName);
+
+        }
+    }
+
+    @Override
+    public void saveOrUpdateBatch(List<? extends Object> entityList) {
+        if (entityList == null) {
+            throw new IllegalArgumentException("param should not be null");
+        }
+
+        List<Object> globalList = Lists.newArrayList();
+        List<Object> shardingList = Lists.newArrayList();
+
+        for (Object entity : entityList) {
+            if (entityMetaManager.isShardingEntity(entity.getClass())) {
+                shardingList.add(entity);
+            } else {
+                globalList.add(entity);
             }
         }
+
+        List<WriteTask> tasks = Lists.newArrayList();
+
+        // handle global entity list.
+        for (final Map.Entry<String, List<Object>> entry : _groupByClusterName(globalList).entrySet()) {
+            tasks.add(new WriteTask(_getGlobalDB(entry.getKey()), entry.getKey(), entry.getValue().size()) {
+                @Override
+                void execute() {
+                    globalUpdater.saveOrUpdateBatch(entry.getValue(), entry.getKey());
+                }
+            });
+        }
+
+        // handle sharding entity list.
+        for (final ShardingGroup group : _groupByRoute(shardingList)) {
+            tasks.add(new WriteTask(group.db, group, group.entities.size()) {
+                @Override
+                void execute() {
+                    shardingUpdater.saveOrUpdateBatch(group.entities, group.shardingKey);
+                }
+            });
+        }
+
+        _executeWrites(tasks);
     }
 
     @Override
@@ -463,93 +523,188 @@ public class DefaultPinusClient implements PinusClient {
             }
         }
 
+        List<WriteTask> tasks = Lists.newArrayList();
+
         // handle global entity list.
-        if (!globalList.isEmpty()) {
-
-            // filter the same cluster name
-            Map<String, List<Object>> theSameClusterNameMap = Maps.newHashMap();
-
-            String clusterName = null;
-            for (Object globalEntity : globalList) {
-                clusterName = entityMetaManager.getClusterName(globalEntity.getClass());
-                List<Object> theSameClusterNameList = theSameClusterNameMap.get(clusterName);
-                if (theSameClusterNameList != null) {
-                    theSameClusterNameList.add(globalEntity);
-                } else {
-                    theSameClusterNameList = Lists.newArrayList(globalEntity);
-                    theSameClusterNameMap.put(clusterName, theSameClusterNameList);
+        for (final Map.Entry<String, List<Object>> entry : _groupByClusterName(globalList).entrySet()) {
+            final Map<Class<?>, List<EntityPK>> theSameClassPks = _groupPkByClass(entry.getValue());
+            tasks.add(new WriteTask(_getGlobalDB(entry.getKey()), entry.getKey(), entry.getValue().size()) {
+                @Override
+                void execute() {
+                    for (Map.Entry<Class<?>, List<EntityPK>> sameClassEntry : theSameClassPks.entrySet()) {
+                        globalUpdater.removeByPks(sameClassEntry.getValue(), sameClassEntry.getKey(),
+                                entry.getKey());
+                    }
                 }
+            });
+        }
+
+        // handle sharding entity list.
+        for (final ShardingGroup group : _groupByRoute(shardingList)) {
+            final List<EntityPK> pks = Lists.newArrayListWithCapacity(group.entities.size());
+            for (Object entity : group.entities) {
+                pks.add(entityMetaManager.getEntityPK(entity));
             }
+            tasks.add(new WriteTask(group.db, group, group.entities.size()) {
+                @Override
+                void execute() {
+                    shardingUpdater.removeByPks(pks, group.shardingKey, group.entities.get(0).getClass());
+                }
+            });
+        }
 
-            // filter the same class
-            for (Map.Entry<String, List<Object>> sameClusterNameEntry : theSameClusterNameMap.entrySet()) {
-                Map<Class<?>, List<Object>> theSameClassMap = Maps.newHashMap();
-                Class<?> clazz = null;
-                for (Object sameClusterNameEntity : sameClusterNameEntry.getValue()) {
-                    clazz = sameClusterNameEntity.getClass();
-                    List<Object> theSameClassList = theSameClassMap.get(clazz);
-                    if (theSameClassList != null) {
-                        theSameClassList.add(sameClusterNameEntity);
-                    } else {
-                        theSameClassMap.put(clazz, Lists.newArrayList(sameClusterNameEntity));
-                    }
+        _executeWrites(tasks);
+    }
 
-                    // do delete
-                    for (Map.Entry<Class<?>, List<Object>> sameClassEntry : theSameClassMap.entrySet()) {
-                        List<EntityPK> pks = Lists.newArrayList();
-                        for (Object sameClassEntity : sameClassEntry.getValue()) {
-                            pks.add(entityMetaManager.getEntityPK(sameClassEntity));
-                        }
-                        this.globalUpdater.removeByPks(pks, sameClassEntry.getKey(), sameClusterNameEntry.getKey());
-                    }
-                }
+    /**
+     * 按照集群名对全局数据对象分组.
+     */
+    private Map<String, List<Object>> _groupByClusterName(List<Object> globalList) {
+        Map<String, List<Object>> theSameClusterNameMap = Maps.newLinkedHashMap();
+
+        String clusterName = null;
+        for (Object globalEntity : globalList) {
+            clusterName = entityMetaManager.getClusterName(globalEntity.getClass());
+            List<Object> theSameClusterNameList = theSameClusterNameMap.get(clusterName);
+            if (theSameClusterNameList != null) {
+                theSameClusterNameList.add(globalEntity);
+            } else {
+                theSameClusterNameList = Lists.newArrayList(globalEntity);
+                theSameClusterNameMap.put(clusterName, theSameClusterNameList);
             }
         }
 
-        // handle sharding entity list.
-        if (!shardingList.isEmpty()) {
-
-            // filter the same sharding key
-            Map<IShardingKey<?>, List<Object>> theSameShardingKeyMap = Maps.newHashMap();
-
-            IShardingKey<?> shardingKey = null;
-            for (Object shardingEntity : shardingList) {
-                shardingKey = entityMetaManager.getShardingKey(shardingEntity);
-                List<Object> theSameShardingKeyList = theSameShardingKeyMap.get(shardingKey);
-                if (theSameShardingKeyList != null) {
-                    theSameShardingKeyList.add(shardingEntity);
-                } else {
-                    theSameShardingKeyList = Lists.newArrayList(shardingEntity);
-                    theSameShardingKeyMap.put(shardingKey, theSameShardingKeyList);
-                }
+        return theSameClusterNameMap;
+    }
+
+    /**
+     * 按照路由到的物理表对分片数据对象分组, 路由到同一张表的数据对象即使分库分表因子不同也在一个批次中写入.
+     * 只计算路由不获取连接.
+     */
+    private List<ShardingGroup> _groupByRoute(List<Object> shardingList) {
+        Map<String, ShardingGroup> theSameTableMap = Maps.newLinkedHashMap();
+
+        for (Object shardingEntity : shardingList) {
+            String tableName = entityMetaManager.getTableName(shardingEntity.getClass());
+            IShardingKey<?> shardingKey = entityMetaManager.getShardingKey(shardingEntity);
+
+            RouteInfo routeInfo = null;
+            try {
+                routeInfo = this.dbCluster.selectRouteInfoFromMaster(tableName, shardingKey);
+            } catch (DBClusterException e) {
+                throw new DBOperationException(e);
             }
 
-            // filter the same class
-            for (Map.Entry<IShardingKey<?>, List<Object>> sameShardingKeyEntry : theSameShardingKeyMap.entrySet()) {
-                Map<Class<?>, List<Object>> theSameClassMap = Maps.newHashMap();
-                Class<?> clazz = null;
-                for (Object sameShardingKeyEntity : sameShardingKeyEntry.getValue()) {
-                    clazz = sameShardingKeyEntity.getClass();
-                    List<Object> theSameClassList = theSameClassMap.get(clazz);
-                    if (theSameClassList != null) {
-                        theSameClassList.add(sameShardingKeyEntity);
-                    } else {
-                        theSameClassMap.put(clazz, Lists.newArrayList(sameShardingKeyEntity));
-                    }
+            DBInfo dbInfo = routeInfo.getDbInfo();
+            String routeKey = new DBResourceId(routeInfo.getClusterName(), dbInfo.getDbName(),
+                    String.valueOf(routeInfo.getRegionIndex()), tableName, routeInfo.getTableIndex(),
+                    dbInfo.getMasterSlave()).value();
 
-                    // do delete
-                    for (Map.Entry<Class<?>, List<Object>> sameClassEntry : theSameClassMap.entrySet()) {
-                        List<EntityPK> pks = Lists.newArrayList();
-                        for (Object sameClassEntity : sameClassEntry.getValue()) {
-                            pks.add(entityMetaManager.getEntityPK(sameClassEntity));
-                        }
-                        this.shardingUpdater.removeByPks(pks, sameShardingKeyEntry.getKey(), sameClassEntry.getKey());
-                    }
-                }
+            ShardingGroup group = theSameTableMap.get(routeKey);
+            if (group == null) {
+                group = new ShardingGroup(shardingKey, dbInfo, tableName + routeInfo.getTableIndex());
+                theSameTableMap.put(routeKey, group);
             }
+            group.entities.add(shardingEntity);
+        }
+
+        return Lists.newArrayList(theSameTableMap.values());
+    }
 
+    /**
+     * 按照数据对象的类型对主键分组.
+     */
+    private Map<Class<?>, List<EntityPK>> _groupPkByClass(List<Object> entities) {
+        Map<Class<?>, List<EntityPK>> theSameClassMap = Maps.newLinkedHashMap();
+
+        Class<?> clazz = null;
+        for (Object entity : entities) {
+            clazz = entity.getClass();
+            List<EntityPK> theSameClassList = theSameClassMap.get(clazz);
+            if (theSameClassList == null) {
+                theSameClassList = Lists.newArrayList();
+                theSameClassMap.put(clazz, theSameClassList);
+            }
+            theSameClassList.add(entityMetaManager.getEntityPK(entity));
         }
 
+        return theSameClassMap;
+    }
+
+    /**
+     * 获取集群的全局主库, 作为并行写入时的分组依据.
+     */
+    private Object _getGlobalDB(String clusterName) {
+        DBClusterInfo dbClusterInfo = this.dbCluster.getDBClusterInfo(clusterName);
+        if (dbClusterInfo == null || dbClusterInfo.getMasterGlobalDBInfo() == null) {
+            return clusterName;
+        }
+        return dbClusterInfo.getMasterGlobalDBInfo();
+    }
+
+    /**
+     * 执行分组之后的批量写操作.
+     * 没有事务时按照物理库并行执行, 同一个库的写操作在一个线程中顺序执行.
+     * 所有分组都会执行, 失败的分组合并为一个异常抛出.
+     * 事务是绑定在调用线程上的, 有事务时在调用线程中顺序执行, 第一个失败的分组直接抛出异常.
+     */
+    private void _executeWrites(List<WriteTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        if (tasks.size() == 1 || _isInTransaction()) {
+            for (WriteTask task : tasks) {
+                task.execute();
+            }
+            return;
+        }
+
+        // 相同的库使用同一个对象作为分组
+        Map<Object, Object> dbs = Maps.newHashMap();
+        List<Object> groups = Lists.newArrayListWithCapacity(tasks.size());
+        for (WriteTask task : tasks) {
+            Object db = dbs.get(task.db);
+            if (db == null) {
+                db = task.db;
+                dbs.put(db, db);
+            }
+            groups.add(db);
+        }
+
+        List<RuntimeException> errors = null;
+        try {
+            errors = this.writeExecutor.invokeAll(tasks, groups, -1);
+        } catch (Exception e) {
+            throw new DBOperationException(e);
+        }
+
+        RuntimeException cause = null;
+        int failedCount = 0;
+        StringBuilder failedGroups = new StringBuilder();
+        for (int i = 0; i < errors.size(); i++) {
+            RuntimeException error = errors.get(i);
+            if (error != null) {
+                if (cause == null) {
+                    cause = error;
+                }
+                failedCount++;
+                failedGroups.append(" [").append(tasks.get(i).desc).append("] ").append(error.getMessage())
+                        .append(";");
+            }
+        }
+        if (cause != null) {
+            throw new DBOperationException("批量写入失败, 失败分组" + failedCount + "/" + tasks.size() + ":" + failedGroups,
+                    cause);
+        }
+    }
+
+    private boolean _isInTransaction() {
+        try {
+            return this.txManager.getTransaction() != null;
+        } catch (SystemException e) {
+            throw new DBOperationException(e);
+        }
     }
 
     @Override
@@ -697,4 +852,71 @@ public class DefaultPinusClient implements PinusClient {
 
         this.scanPackage = scanPackage;
     }
+
+    /**
+     * 路由到同一张物理表的分片数据对象.
+     */
+    private static class ShardingGroup {
+
+        /**
+         * 第一个数据对象的分库分表因子, 同组的数据对象都路由到此因子对应的表.
+         */
+        private final IShardingKey<?> shardingKey;
+
+        /**
+         * 写入的物理库.
+         */
+        private final DBInfo          db;
+
+        private final String          table;
+
+        private final List<Object>    entities = Lists.newArrayList();
+
+        ShardingGroup(IShardingKey<?> shardingKey, DBInfo db, String table) {
+            this.shardingKey = shardingKey;
+            this.db = db;
+            this.table = table;
+        }
+
+        @Override
+        public String toString() {
+            return "table=" + this.table + ", db=" + this.db.getDbName() + ", " + this.shardingKey;
+        }
+
+    }
+
+    /**
+     * 一组批量写操作. 执行失败时返回异常而不是抛出, 保证其他分组继续执行.
+     */
+    private static abstract class WriteTask implements Callable<RuntimeException> {
+
+        /**
+         * 写入的物理库.
+         */
+        private final Object db;
+
+        /**
+         * 分组描述, 用于错误信息.
+         */
+        private final String desc;
+
+        WriteTask(Object db, Object groupKey, int size) {
+            this.db = db;
+            this.desc = groupKey + ", size=" + size;
+        }
+
+        abstract void execute();
+
+        @Override
+        public RuntimeException call() {
+            try {
+                execute();
+            } catch (RuntimeException e) {
+                return e;
+            }
+            return null;
+        }
+
+    }
+
 }
@@ -17,19 +17,6 @@
 
 package org.pinus4j.api;
 
-import java.util.List;
-
-import org.pinus4j.api.query.IQuery;
-import org.pinus4j.api.query.impl.Condition;
-import org.pinus4j.cluster.beans.IShardingKey;
-import org.pinus4j.entity.DefaultEntityMetaManager;
-import org.pinus4j.entity.IEntityMetaManager;
-import org.pinus4j.entity.meta.EntityPK;
-import org.pinus4j.entity.meta.PKName;
-import org.pinus4j.entity.meta.PKValue;
-
-import com.google.common.collect.Lists;
-
 /**
  * 继承此对象的Entity对象会具备save, update, saveOrUpdate, remove方法.
  * 
@@ -37,8 +24,6 @@ import com.google.common.collect.Lists;
  */
 public abstract class FashionEntity {
 
-    private IEntityMetaManager entityMetaManager = DefaultEntityMetaManager.getInstance();
-    
     public void load() {
         PinusClient pinusClient = DefaultPinusClient.instance;
         pinusClient.load(this);
@@ -64,33 +49,8 @@ public abstract class FashionEntity {
      * 如果存在则更新，否则保存.
      */
     public void saveOrUpdate() {
-        Class<?> clazz = this.getClass();
-
         PinusClient pinusClient = DefaultPinusClient.instance;
-
-        EntityPK entityPK = entityMetaManager.getEntityPK(this);
-
-        IQuery<?> query = pinusClient.createQuery(clazz);
-        List<Condition> orCond = Lists.newArrayList();
-        PKName[] pkNames = entityPK.getPkNames();
-        PKValue[] pkValues = entityPK.getPkValues();
-        for (int i = 0; i < pkNames.length; i++) {
-            orCond.add(Condition.eq(pkNames[i].getValue(), pkValues[i].getValue()));
-        }
-        query.and(Condition.or(orCond.toArray(new Condition[orCond.size()])));
-
-        if (entityMetaManager.isShardingEntity(clazz)) {
-            IShardingKey<?> sk = entityMetaManager.getShardingKey(this);
-            query.setShardingKey(sk);
-        }
-
-        Object obj = query.load();
-
-        if (obj != null) {
-            update();
-        } else {
-            save();
-        }
+        pinusClient.saveOrUpdate(this);
     }
 
     /**
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.pinus4j.api.query.IQuery;
+import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+
+/**
+ * 异步api. 操作提交到独立的线程池中执行, 多个互不依赖的操作可以同时进行, 总耗时接近其中最慢的一个.
+ * 异步操作不支持事务, 调用线程中有未结束的事务时会抛出IllegalStateException.
+ * 操作失败时Future.get()抛出ExecutionException, 原因是对应同步方法抛出的异常.
+ * 
+ * @author duanbn
+ * @since 1.2.0
+ */
+public interface PinusAsyncClient {
+
+    /**
+     * 初始化线程池.
+     */
+    void init();
+
+    /**
+     * 关闭线程池, 已经提交的操作会继续执行. 不会关闭PinusClient.
+     */
+    void destroy();
+
+    /**
+     * 加载数据对象. 结果是填充了数据的entity本身.
+     */
+    <T> Future<T> load(T entity);
+
+    <T> Future<T> load(T entity, boolean useCache);
+
+    <T> Future<T> load(T entity, EnumDBMasterSlave masterSlave);
+
+    <T> Future<T> load(T entity, boolean useCache, EnumDBMasterSlave masterSlave);
+
+    /**
+     * 查询结果集. 提交时复制查询对象, 提交之后可以继续修改query.
+     */
+    <T> Future<List<T>> list(IQuery<T> query);
+
+    /**
+     * 查询结果集数量. 提交时复制查询对象, 提交之后可以继续修改query.
+     */
+    <T> Future<Number> count(IQuery<T> query);
+
+    Future<List<Map<String, Object>>> findBySQL(SQL sql, String clusterName);
+
+    Future<Void> save(Object entity);
+
+    Future<Void> saveBatch(List<? extends Object> entityList);
+
+    Future<Void> saveBatch(List<? extends Object> entityList, boolean autoGeneratedKeys);
+
+    Future<Void> update(Object entity);
+
+    Future<Void> updateBatch(List<? extends Object> entityList);
+
+    Future<Void> delete(Object entity);
+
+    Future<Void> delete(List<? extends Object> entityList);
+
+    /**
+     * 设置执行同步操作的PinusClient.
+     */
+    void setPinusClient(PinusClient pinusClient);
+
+    /**
+     * 设置线程数, 同时也是同时执行的操作数的上限. 排队的操作过多时在调用线程中执行.
+     */
+    void setThreads(int threads);
+
+}
@@ -110,6 +110,20 @@ public interface PinusClient {
 
     public void updateBatch(List<? extends Object> entityList);
 
+    /**
+     * 保存或者更新单个数据对象. 使用INSERT ... ON DUPLICATE KEY UPDATE, 主键或者唯一索引冲突时更新, 否则保存.
+     * 
+     * @param entity 被@Table标注的数据对象
+     */
+    public void saveOrUpdate(Object entity);
+
+    /**
+     * 批量保存或者更新数据对象. 忽略空值的更新.
+     * 
+     * @param entityList
+     */
+    public void saveOrUpdateBatch(List<? extends Object> entityList);
+
     public void delete(Object entity);
 
     public void delete(List<? extends Object> entityList);
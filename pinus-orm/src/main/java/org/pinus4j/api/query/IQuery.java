@@ -17,7 +17,9 @@
 package org.pinus4j.api.query;
 
 import java.util.List;
+import java.util.Map;
 
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.Condition;
 import org.pinus4j.api.query.impl.Order;
 import org.pinus4j.cluster.beans.IShardingKey;
@@ -44,6 +46,34 @@ public interface IQuery<T> {
      */
     public List<T> list();
 
+    /**
+     * 投影查询, 只查询DTO中和数据对象同名的字段, 结果直接转换为DTO, 不创建数据对象, 不使用缓存.
+     * 跨分片排序查询时DTO需要包含排序字段.
+     * 
+     * @param dto DTO class, 需要有默认构造方法
+     */
+    public <R> List<R> list(Class<R> dto);
+
+    /**
+     * 查询一个字段的值, 不创建数据对象, 不使用缓存.
+     */
+    public List<Object> listColumn(String field);
+
+    /**
+     * 查询一个数值字段的值, 结果是基本类型数组. null值为0.
+     */
+    public long[] listLongColumn(String field);
+
+    /**
+     * 查询一个数值字段的值, 结果是基本类型数组. null值为0.
+     */
+    public int[] listIntColumn(String field);
+
+    /**
+     * 查询setFields设置的字段, 每行依次是这些字段的值, 不创建数据对象, 不使用缓存.
+     */
+    public List<Object[]> listTuples();
+
     /**
      * 获取此Query查询到的结果集数量.
      * 
@@ -51,6 +81,42 @@ public interface IQuery<T> {
      */
     public Number count();
 
+    /**
+     * 聚合查询. 跨分片时每个分片只返回分组后的部分聚合值, 由客户端合并. 结果中分组字段使用数据库字段名, 聚合值使用聚合结果的名称.
+     * 排序只支持分组字段, 排序和分页在合并之后进行.
+     * 
+     * @param aggregates 聚合函数
+     * @return 每个分组一条记录, 没有分组时只有一条记录
+     */
+    public List<Map<String, Object>> aggregate(Aggregate... aggregates);
+
+    /**
+     * 求和. 不能和groupBy同时使用.
+     */
+    public Number sum(String field);
+
+    /**
+     * 最大值. 不能和groupBy同时使用.
+     */
+    public Object max(String field);
+
+    /**
+     * 最小值. 不能和groupBy同时使用.
+     */
+    public Object min(String field);
+
+    /**
+     * 平均值, 由合并后的sum/count计算. 不能和groupBy同时使用.
+     */
+    public Number avg(String field);
+
+    /**
+     * 流式遍历此Query查询到的结果集, 不使用缓存. 跨分片查询时有排序则归并每个分片的结果, 否则依次读取每个分片.
+     * 
+     * @return 遍历结束之前需要调用close()释放连接
+     */
+    public IQueryIterator<T> iterator();
+
     /**
      * set sharding key.
      * 
@@ -75,6 +141,14 @@ public interface IQuery<T> {
      */
     public IQuery<T> setUseCache(boolean useCache);
 
+    /**
+     * 设置跨分片查询时的并行度上限. 没有设置时使用默认的并行度.
+     * 
+     * @param parallelism 同时查询的分片数
+     * @return
+     */
+    public IQuery<T> setParallelism(int parallelism);
+
     /**
      * 添加取值字段.
      * 
@@ -148,6 +222,21 @@ public interface IQuery<T> {
      */
     public IQuery<T> limit(int limit);
 
+    /**
+     * 设置聚合查询的分组字段.
+     * 
+     * @param fields 分组字段
+     */
+    public IQuery<T> groupBy(String... fields);
+
+    /**
+     * 游标分页, 只查询排在指定排序值之后的记录. 排序值和orderBy添加的排序字段一一对应, 通常是上一页最后一条记录的排序字段值.
+     * 分片查询时每个分片只需要查询limit条记录, 适合深度翻页. 排序字段需要能唯一确定一条记录, 否则可能丢失排序值相同的记录.
+     * 
+     * @param lastSortValues 上一页最后一条记录的排序字段值
+     */
+    public IQuery<T> after(Object... lastSortValues);
+
     /**
      * clone.
      * 
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.api.query;
+
+import java.util.Iterator;
+
+/**
+ * 流式遍历查询结果. 结果从数据库中逐条读取, 内存占用和结果集大小无关.
+ * 遍历结束或者出错时会自动关闭, 提前结束遍历时必须调用close()释放数据库连接.
+ * 
+ * @author duanbn
+ * @since 1.2.0
+ */
+public interface IQueryIterator<T> extends Iterator<T> {
+
+    /**
+     * 关闭结果集并释放数据库连接. 可以重复调用.
+     */
+    public void close();
+
+}
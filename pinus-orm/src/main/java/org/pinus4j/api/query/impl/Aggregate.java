@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.pinus4j.api.query.impl;
+
+import org.pinus4j.utils.StringUtil;
+
+/**
+ * 聚合查询的聚合函数. 跨分片时每个分片计算部分聚合值, 再由客户端合并, avg由sum和count计算.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class Aggregate {
+
+    /**
+     * 聚合函数枚举.
+     */
+    public enum Function {
+        SUM("sum"),
+        MAX("max"),
+        MIN("min"),
+        AVG("avg"),
+        COUNT("count");
+
+        private String value;
+
+        private Function(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+    }
+
+    private Function function;
+
+    /**
+     * 聚合字段, count(*)时为*
+     */
+    private String   field;
+
+    /**
+     * 聚合结果的名称
+     */
+    private String   alias;
+
+    private Aggregate(Function function, String field) {
+        if (StringUtil.isBlank(field)) {
+            throw new IllegalArgumentException("聚合字段不能为空, field=" + field);
+        }
+
+        this.function = function;
+        this.field = field;
+        this.alias = function.getValue() + "(" + field + ")";
+    }
+
+    public static Aggregate sum(String field) {
+        return new Aggregate(Function.SUM, field);
+    }
+
+    public static Aggregate max(String field) {
+        return new Aggregate(Function.MAX, field);
+    }
+
+    public static Aggregate min(String field) {
+        return new Aggregate(Function.MIN, field);
+    }
+
+    public static Aggregate avg(String field) {
+        return new Aggregate(Function.AVG, field);
+    }
+
+    public static Aggregate count() {
+        return new Aggregate(Function.COUNT, "*");
+    }
+
+    public static Aggregate count(String field) {
+        return new Aggregate(Function.COUNT, field);
+    }
+
+    /**
+     * 设置聚合结果的名称, 默认为"函数(字段)", 例如sum(price).
+     */
+    public Aggregate as(String alias) {
+        if (StringUtil.isBlank(alias)) {
+            throw new IllegalArgumentException("聚合结果名称不能为空, alias=" + alias);
+        }
+
+        this.alias = alias;
+        return this;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public boolean isCountAll() {
+        return "*".equals(this.field);
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate [function=" + function + ", field=" + field + ", alias=" + alias + "]";
+    }
+
+}
@@ -16,16 +16,20 @@
 
 package org.pinus4j.api.query.impl;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.management.Query;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
 import org.pinus4j.cluster.beans.IShardingKey;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.datalayer.SQLBuilder;
 import org.pinus4j.utils.BeansUtil;
 import org.pinus4j.utils.StringUtil;
 
@@ -48,21 +52,36 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
     /**
      * 保存查询条件.
      */
-    protected List<Condition> condList  = new ArrayList<Condition>();
+    protected List<Condition> condList    = new ArrayList<Condition>();
 
     /**
      * 保存排序条件
      */
-    protected List<OrderBy>   orderList = new ArrayList<OrderBy>();
+    protected List<OrderBy>   orderList   = new ArrayList<OrderBy>();
 
     /**
      * 分页开始偏移量
      */
-    protected int             start     = -1;
+    protected int             start       = -1;
     /**
      * 分页大小
      */
-    protected int             limit     = -1;
+    protected int             limit       = -1;
+
+    /**
+     * 跨分片查询的并行度上限
+     */
+    protected int             parallelism = -1;
+
+    /**
+     * 游标分页的排序值
+     */
+    protected Object[]        afterValues;
+
+    /**
+     * 聚合查询的分组字段
+     */
+    protected String[]        groupFields;
 
     @Override
     public T load() {
@@ -74,11 +93,66 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         throw new UnsupportedOperationException("not support");
     }
 
+    @Override
+    public <R> List<R> list(Class<R> dto) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public List<Object> listColumn(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public long[] listLongColumn(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public int[] listIntColumn(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public List<Object[]> listTuples() {
+        throw new UnsupportedOperationException("not support");
+    }
+
     @Override
     public Number count() {
         throw new UnsupportedOperationException("not support");
     }
 
+    @Override
+    public List<Map<String, Object>> aggregate(Aggregate... aggregates) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public Number sum(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public Object max(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public Object min(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public Number avg(String field) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public IQueryIterator<T> iterator() {
+        throw new UnsupportedOperationException("not support");
+    }
+
     @Override
     public IQuery<T> setShardingKey(IShardingKey<?> shardingKey) {
         throw new UnsupportedOperationException("not support");
@@ -94,6 +168,17 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         throw new UnsupportedOperationException("not support");
     }
 
+    @Override
+    public IQuery<T> setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("设置并行度参数错误, parallelism=" + parallelism);
+        }
+
+        this.parallelism = parallelism;
+
+        return this;
+    }
+
     @Override
     public IQuery<T> setFields(String... fields) {
         if (fields != null && fields.length > 0) {
@@ -188,6 +273,38 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         return this;
     }
 
+    @Override
+    public IQuery<T> after(Object... lastSortValues) {
+        if (lastSortValues == null || lastSortValues.length == 0) {
+            throw new IllegalArgumentException("参数错误, lastSortValues不能为空");
+        }
+        for (Object lastSortValue : lastSortValues) {
+            if (lastSortValue == null) {
+                throw new IllegalArgumentException("参数错误, lastSortValues不能包含null");
+            }
+        }
+
+        this.afterValues = lastSortValues;
+
+        return this;
+    }
+
+    @Override
+    public IQuery<T> groupBy(String... fields) {
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("参数错误, 分组字段不能为空");
+        }
+        for (String field : fields) {
+            if (StringUtil.isBlank(field)) {
+                throw new IllegalArgumentException("参数错误, field=" + field);
+            }
+        }
+
+        this.groupFields = fields;
+
+        return this;
+    }
+
     @Override
     public void clean() {
         this.fields = null;
@@ -195,7 +312,9 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         this.orderList.clear();
         this.start = -1;
         this.limit = -1;
-
+        this.parallelism = -1;
+        this.afterValues = null;
+        this.groupFields = null;
     }
 
     public String[] getFields() {
@@ -218,12 +337,28 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         return this.limit;
     }
 
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public Object[] getAfterValues() {
+        return this.afterValues;
+    }
+
+    public String[] getGroupFields() {
+        return this.groupFields;
+    }
+
+    public boolean hasGroupFields() {
+        return this.groupFields != null && this.groupFields.length > 0;
+    }
+
     public boolean hasQueryFields() {
         return this.fields != null && this.fields.length > 0;
     }
 
     public boolean isEffect() {
-        if (this.condList.isEmpty() && this.orderList.isEmpty() && start == -1 && limit == -1) {
+        if (this.condList.isEmpty() && this.orderList.isEmpty() && start == -1 && limit == -1 && afterValues == null) {
             return false;
         }
 
@@ -237,10 +372,24 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         clone.orderList.addAll(this.orderList);
         clone.start = this.start;
         clone.limit = this.limit;
+        clone.parallelism = this.parallelism;
+        clone.afterValues = this.afterValues;
+        clone.groupFields = this.groupFields;
         return clone;
     }
 
     public SQL getWhereSql() {
+        return _getWhereSql(true);
+    }
+
+    /**
+     * 只包含查询条件的sql, 不包含排序和分页.
+     */
+    public SQL getConditionSql() {
+        return _getWhereSql(false);
+    }
+
+    private SQL _getWhereSql(boolean withOrderAndLimit) {
         StringBuilder sqlText = new StringBuilder();
         StringBuilder whereSql = new StringBuilder();
         StringBuilder orderSql = new StringBuilder();
@@ -252,6 +401,9 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         List<Condition> inConditionList = Lists.newArrayList();
         if (!condList.isEmpty()) {
             whereSql.append(" where ");
+            if (afterValues != null) {
+                whereSql.append("(");
+            }
 
             Condition cond = null;
             for (int i = 0; i < condList.size(); i++) {
@@ -270,6 +422,10 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
                 paramList.addAll(cond.getSql().getParams());
             }
 
+            if (afterValues != null) {
+                whereSql.append(")");
+            }
+
             // sort by find in set
             if (!inConditionList.isEmpty() && inConditionList.size() == 1) {
                 Condition inCondition = inConditionList.get(0);
@@ -282,6 +438,12 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
             }
         }
 
+        // 添加游标分页条件
+        if (afterValues != null) {
+            whereSql.append(condList.isEmpty() ? " where " : " and ");
+            whereSql.append(getAfterSql(paramList));
+        }
+
         // 添加排序条件
         if (orderList != null && !orderList.isEmpty()) {
             orderSql.append(" order by ");
@@ -298,6 +460,9 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         }
 
         sqlText.append(whereSql);
+        if (!withOrderAndLimit) {
+            return SQL.valueOf(sqlText.toString(), paramList);
+        }
         sqlText.append(orderSql);
         // 添加分页
         if (start > -1 && limit > -1) {
@@ -312,6 +477,115 @@ public class DefaultQueryImpl<T> implements IQuery<T>, Cloneable {
         return SQL.valueOf(sqlText.toString(), paramList);
     }
 
+    /**
+     * 生成游标分页条件. 排序字段(a asc, b desc)的条件为 (a > ? or (a = ? and b < ?)).
+     */
+    private String getAfterSql(List<Object> paramList) {
+        if (orderList == null || orderList.size() != afterValues.length) {
+            throw new IllegalArgumentException("游标分页的排序值需要和排序字段一一对应, orderBy=" + orderList + ", after="
+                    + afterValues.length);
+        }
+
+        StringBuilder afterSql = new StringBuilder("(");
+        for (int i = 0; i < orderList.size(); i++) {
+            if (i > 0) {
+                afterSql.append(" or ");
+            }
+            afterSql.append("(");
+            for (int j = 0; j < i; j++) {
+                afterSql.append('`').append(orderList.get(j).getField()).append('`').append(" = ? and ");
+                paramList.add(formatAfterValue(afterValues[j]));
+            }
+            OrderBy orderBy = orderList.get(i);
+            afterSql.append('`').append(orderBy.getField()).append('`');
+            afterSql.append(orderBy.getOrder() == Order.DESC ? " < ?" : " > ?");
+            paramList.add(formatAfterValue(afterValues[i]));
+            afterSql.append(")");
+        }
+        afterSql.append(")");
+
+        return afterSql.toString();
+    }
+
+    private Object formatAfterValue(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? "1" : "0";
+        }
+        return SQLBuilder.formatValue(value);
+    }
+
+    /**
+     * 获取对指定字段的eq或者in条件的值. 只有所有顶层条件都是and关系时才能确定字段的取值范围, 否则返回null.
+     * 
+     * @param fields 字段名, 和其中任意一个相同即可
+     */
+    public List<Object> getAndConditionValues(String... fields) {
+        int index = _findAndCondition(fields);
+        if (index == -1) {
+            return null;
+        }
+
+        Condition cond = condList.get(index);
+        List<Object> values = Lists.newArrayList();
+        if (QueryOpt.IN == cond.getOpt()) {
+            for (int i = 0; i < Array.getLength(cond.getValue()); i++) {
+                values.add(Array.get(cond.getValue(), i));
+            }
+        } else {
+            values.add(cond.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * 复制当前查询, 并将对指定字段的eq或者in条件替换为只包含给定的值.
+     * 
+     * @param values 替换后的条件值
+     * @param fields 字段名, 和其中任意一个相同即可
+     */
+    public DefaultQueryImpl<T> cloneWithAndConditionValues(List<Object> values, String... fields) {
+        int index = _findAndCondition(fields);
+        if (index == -1) {
+            throw new IllegalArgumentException("找不到字段的and条件, fields=" + Lists.newArrayList(fields));
+        }
+
+        Condition cond = condList.get(index);
+        Condition replace = null;
+        if (values.size() == 1) {
+            replace = Condition.eq(cond.getField(), values.get(0));
+        } else {
+            replace = Condition.in(cond.getField(), values);
+        }
+        replace.setConditionRelation(cond.getConditionRelation());
+
+        DefaultQueryImpl<T> clone = (DefaultQueryImpl<T>) clone();
+        clone.condList.set(index, replace);
+        return clone;
+    }
+
+    private int _findAndCondition(String... fields) {
+        int index = -1;
+
+        Condition cond = null;
+        for (int i = 0; i < condList.size(); i++) {
+            cond = condList.get(i);
+            if (i > 0 && cond.getConditionRelation() != ConditionRelation.AND) {
+                return -1;
+            }
+
+            if (index == -1 && (QueryOpt.EQ == cond.getOpt() || QueryOpt.IN == cond.getOpt())) {
+                for (String field : fields) {
+                    if (field.equals(cond.getField())) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return index;
+    }
+
     @Override
     public String toString() {
         StringBuilder info = new StringBuilder();
@@ -18,10 +18,14 @@ package org.pinus4j.api.query.impl;
 
 import java.lang.reflect.Array;
 import java.util.List;
+import java.util.Map;
 
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
 import org.pinus4j.cluster.beans.IShardingKey;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.datalayer.Projection;
+import org.pinus4j.datalayer.SQLBuilder;
 import org.pinus4j.datalayer.query.IGlobalQuery;
 import org.pinus4j.datalayer.query.IShardingQuery;
 import org.pinus4j.entity.DefaultEntityMetaManager;
@@ -167,6 +171,115 @@ public class ResultSetableQueryImpl<T> extends DefaultQueryImpl<T> {
         return result;
     }
 
+    @Override
+    public <R> List<R> list(Class<R> dto) {
+        if (dto == null) {
+            throw new IllegalArgumentException("参数错误, dto不能为空");
+        }
+
+        return _listProjection(Projection.dto(this.clazz, dto));
+    }
+
+    @Override
+    public List<Object> listColumn(String field) {
+        List<Object[]> rows = _listProjection(Projection.tuple(this.clazz, new String[] { field }, this.orderList));
+
+        List<Object> result = Lists.newArrayListWithCapacity(rows.size());
+        for (Object[] row : rows) {
+            result.add(row[0]);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] listLongColumn(String field) {
+        if (_isOrderByColumn(field)) {
+            List<long[]> arrays = _listProjection(Projection.longColumn(this.clazz, field, _isDesc()));
+            return arrays.isEmpty() ? new long[0] : arrays.get(0);
+        }
+
+        // 按照其他字段排序时需要读取排序字段归并
+        List<Object[]> rows = _listProjection(Projection.tuple(this.clazz, new String[] { field }, this.orderList));
+
+        long[] result = new long[rows.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object value = rows.get(i)[0];
+            if (value != null) {
+                result[i] = ((Number) value).longValue();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int[] listIntColumn(String field) {
+        if (_isOrderByColumn(field)) {
+            List<int[]> arrays = _listProjection(Projection.intColumn(this.clazz, field, _isDesc()));
+            return arrays.isEmpty() ? new int[0] : arrays.get(0);
+        }
+
+        // 按照其他字段排序时需要读取排序字段归并
+        List<Object[]> rows = _listProjection(Projection.tuple(this.clazz, new String[] { field }, this.orderList));
+
+        int[] result = new int[rows.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object value = rows.get(i)[0];
+            if (value != null) {
+                result[i] = ((Number) value).intValue();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Object[]> listTuples() {
+        if (!hasQueryFields()) {
+            throw new IllegalStateException("请先使用setFields设置查询字段");
+        }
+
+        return _listProjection(Projection.tuple(this.clazz, this.fields, this.orderList));
+    }
+
+    /**
+     * 没有排序条件或者只按照此字段排序.
+     */
+    private boolean _isOrderByColumn(String field) {
+        String column = SQLBuilder.getColumnName(this.clazz, field);
+        for (OrderBy orderBy : this.orderList) {
+            if (!column.equals(SQLBuilder.getColumnName(this.clazz, orderBy.getField()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第一个排序条件是否倒序, 没有排序条件时返回null.
+     */
+    private Boolean _isDesc() {
+        if (this.orderList.isEmpty()) {
+            return null;
+        }
+        return this.orderList.get(0).getOrder() == Order.DESC;
+    }
+
+    private <R> List<R> _listProjection(Projection<R> projection) {
+        List<R> result = null;
+
+        if (entityMetaManager.isShardingEntity(clazz)) {
+            if (this.shardingKey != null) {
+                result = this.shardingQuery.findProjectionByQuery(this, projection, this.shardingKey, this.clazz,
+                        this.masterSlave);
+            } else {
+                result = this.shardingQuery.findProjectionByQuery(this, projection, this.clazz, this.masterSlave);
+            }
+        } else {
+            result = this.globalQuery.findProjectionByQuery(this, projection, this.clazz, this.masterSlave);
+        }
+
+        return result;
+    }
+
     @Override
     public Number count() {
         Number count = 0;
@@ -197,6 +310,78 @@ public class ResultSetableQueryImpl<T> extends DefaultQueryImpl<T> {
         return count;
     }
 
+    @Override
+    public IQueryIterator<T> iterator() {
+        IQueryIterator<T> result = null;
+
+        if (entityMetaManager.isShardingEntity(clazz)) {
+            if (this.shardingKey != null) {
+                result = this.shardingQuery.iterateByQuery(this, this.shardingKey, this.clazz, this.masterSlave);
+            } else {
+                result = this.shardingQuery.iterateByQuery(this, this.clazz, this.masterSlave);
+            }
+        } else {
+            result = this.globalQuery.iterateByQuery(this, this.clazz, this.masterSlave);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<Map<String, Object>> aggregate(Aggregate... aggregates) {
+        if (aggregates == null || aggregates.length == 0) {
+            throw new IllegalArgumentException("参数错误, 聚合函数不能为空");
+        }
+
+        List<Aggregate> aggregateList = Lists.newArrayList(aggregates);
+
+        List<Map<String, Object>> result = null;
+        if (entityMetaManager.isShardingEntity(clazz)) {
+            if (this.shardingKey != null) {
+                result = this.shardingQuery.findAggregateByQuery(this, aggregateList, this.shardingKey, this.clazz,
+                        this.masterSlave);
+            } else {
+                result = this.shardingQuery.findAggregateByQuery(this, aggregateList, this.clazz, this.masterSlave);
+            }
+        } else {
+            result = this.globalQuery.findAggregateByQuery(this, aggregateList, this.clazz, this.masterSlave);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Number sum(String field) {
+        return (Number) _aggregateOne(Aggregate.sum(field));
+    }
+
+    @Override
+    public Object max(String field) {
+        return _aggregateOne(Aggregate.max(field));
+    }
+
+    @Override
+    public Object min(String field) {
+        return _aggregateOne(Aggregate.min(field));
+    }
+
+    @Override
+    public Number avg(String field) {
+        return (Number) _aggregateOne(Aggregate.avg(field));
+    }
+
+    private Object _aggregateOne(Aggregate aggregate) {
+        if (hasGroupFields()) {
+            throw new IllegalStateException("设置了groupBy时请使用aggregate方法");
+        }
+
+        List<Map<String, Object>> result = aggregate(aggregate);
+        if (result.isEmpty()) {
+            return null;
+        }
+        return result.get(0).get(aggregate.getAlias());
+    }
+
     @Override
     public IQuery<T> setShardingKey(IShardingKey<?> shardingKey) {
         this.shardingKey = shardingKey;
@@ -227,6 +412,9 @@ public class ResultSetableQueryImpl<T> extends DefaultQueryImpl<T> {
         clone.orderList.addAll(this.orderList);
         clone.start = this.start;
         clone.limit = this.limit;
+        clone.parallelism = this.parallelism;
+        clone.afterValues = this.afterValues;
+        clone.groupFields = this.groupFields;
 
         clone.globalQuery = this.globalQuery;
         clone.shardingQuery = this.shardingQuery;
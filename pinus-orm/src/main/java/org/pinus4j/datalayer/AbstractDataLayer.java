@@ -27,6 +27,7 @@ import org.pinus4j.api.SQL;
 import org.pinus4j.cache.IPrimaryCache;
 import org.pinus4j.cache.ISecondCache;
 import org.pinus4j.cluster.IDBCluster;
+import org.pinus4j.cluster.config.IClusterConfig;
 import org.pinus4j.entity.DefaultEntityMetaManager;
 import org.pinus4j.entity.IEntityMetaManager;
 
@@ -52,6 +53,11 @@ public abstract class AbstractDataLayer implements IDataLayer {
 
     protected TransactionManager txManager;
 
+    /**
+     * 跨分片并行执行器.
+     */
+    protected ParallelExecutor   parallelExecutor;
+
     protected IEntityMetaManager entityMetaManager = DefaultEntityMetaManager.getInstance();
 
     @Override
@@ -94,6 +100,38 @@ public abstract class AbstractDataLayer implements IDataLayer {
         return this.txManager;
     }
 
+    @Override
+    public void setParallelExecutor(ParallelExecutor parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    @Override
+    public ParallelExecutor getParallelExecutor() {
+        return this.parallelExecutor;
+    }
+
+    /**
+     * 根据主键批量查询和删除时一条sql包含的最多主键数.
+     */
+    protected int getPkBatch() {
+        if (this.dbCluster != null && this.dbCluster.getClusterConfig() != null
+                && this.dbCluster.getClusterConfig().getPkBatch() > 0) {
+            return this.dbCluster.getClusterConfig().getPkBatch();
+        }
+        return IClusterConfig.DEFAULT_PK_BATCH;
+    }
+
+    /**
+     * 数据库的max_allowed_packet.
+     */
+    protected int getMaxAllowedPacket() {
+        if (this.dbCluster != null && this.dbCluster.getClusterConfig() != null
+                && this.dbCluster.getClusterConfig().getMaxAllowedPacket() > 0) {
+            return this.dbCluster.getClusterConfig().getMaxAllowedPacket();
+        }
+        return IClusterConfig.DEFAULT_MAX_ALLOWED_PACKET;
+    }
+
     protected void fillParam(PreparedStatement ps, SQL sql) throws SQLException {
 
         Object val = null;
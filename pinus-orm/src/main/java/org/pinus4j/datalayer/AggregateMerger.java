@@ -0,0 +1,211 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.pinus4j.datalayer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pinus4j.api.query.impl.Aggregate;
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+
+/**
+ * 合并多个分片的部分聚合值. 每个分片的一行依次是分组字段的值和聚合列的值, avg占用sum和count两列.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class AggregateMerger {
+
+    /**
+     * 按照分组合并每个分片的部分聚合值, 并计算最终的聚合结果.
+     *
+     * @param shardRows 每个分片的查询结果
+     * @param groupColumns 分组字段, 作为结果中分组值的key
+     * @param aggregates 聚合函数
+     * @param orderList 排序条件, 只支持分组字段
+     * @param start 分页开始的偏移量, 小于0表示从头开始
+     * @param limit 分页大小, 小于0表示不限制
+     * @return 每个分组一条记录
+     */
+    public static List<Map<String, Object>> merge(List<List<Object[]>> shardRows, String[] groupColumns,
+                                                  List<Aggregate> aggregates, final List<OrderBy> orderList,
+                                                  int start, int limit) {
+        int groupSize = groupColumns.length;
+
+        Map<List<Object>, Object[]> groups = new LinkedHashMap<List<Object>, Object[]>();
+        for (List<Object[]> rows : shardRows) {
+            for (Object[] row : rows) {
+                List<Object> groupKey = new ArrayList<Object>(Arrays.asList(row).subList(0, groupSize));
+                Object[] merged = groups.get(groupKey);
+                if (merged == null) {
+                    groups.put(groupKey, row.clone());
+                } else {
+                    _merge(merged, row, groupSize, aggregates);
+                }
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(groups.size());
+        for (Object[] merged : groups.values()) {
+            Map<String, Object> one = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < groupSize; i++) {
+                one.put(groupColumns[i], merged[i]);
+            }
+
+            int col = groupSize;
+            for (Aggregate aggregate : aggregates) {
+                if (aggregate.getFunction() == Aggregate.Function.AVG) {
+                    one.put(aggregate.getAlias(), divide((Number) merged[col], (Number) merged[col + 1]));
+                    col += 2;
+                } else {
+                    one.put(aggregate.getAlias(), merged[col]);
+                    col++;
+                }
+            }
+            result.add(one);
+        }
+
+        if (orderList != null && !orderList.isEmpty()) {
+            List<String> groupColumnList = Arrays.asList(groupColumns);
+            for (OrderBy orderBy : orderList) {
+                if (!groupColumnList.contains(orderBy.getField())) {
+                    throw new IllegalArgumentException("聚合查询只能按照分组字段排序, orderBy=" + orderBy);
+                }
+            }
+            Collections.sort(result, new Comparator<Map<String, Object>>() {
+                @SuppressWarnings({ "unchecked", "rawtypes" })
+                @Override
+                public int compare(Map<String, Object> o1, Map<String, Object> o2) {
+                    int compareVal = 0;
+                    for (OrderBy orderBy : orderList) {
+                        compareVal = _compare((Comparable) o1.get(orderBy.getField()),
+                                (Comparable) o2.get(orderBy.getField()));
+                        if (orderBy.getOrder() == Order.DESC) {
+                            compareVal *= -1;
+                        }
+                        if (compareVal != 0) {
+                            break;
+                        }
+                    }
+                    return compareVal;
+                }
+            });
+        }
+
+        int fromIndex = Math.min(start > -1 ? start : 0, result.size());
+        int toIndex = limit > -1 ? Math.min(fromIndex + limit, result.size()) : result.size();
+        if (fromIndex > 0 || toIndex < result.size()) {
+            result = new ArrayList<Map<String, Object>>(result.subList(fromIndex, toIndex));
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void _merge(Object[] merged, Object[] row, int groupSize, List<Aggregate> aggregates) {
+        int col = groupSize;
+        for (Aggregate aggregate : aggregates) {
+            switch (aggregate.getFunction()) {
+                case MAX:
+                    if (_compare((Comparable) row[col], (Comparable) merged[col]) > 0) {
+                        merged[col] = row[col];
+                    }
+                    col++;
+                    break;
+                case MIN:
+                    // null表示分片中没有数据, 不参与比较
+                    if (merged[col] == null || (row[col] != null && _compare((Comparable) row[col],
+                            (Comparable) merged[col]) < 0)) {
+                        merged[col] = row[col];
+                    }
+                    col++;
+                    break;
+                case AVG:
+                    merged[col] = add((Number) merged[col], (Number) row[col]);
+                    merged[col + 1] = add((Number) merged[col + 1], (Number) row[col + 1]);
+                    col += 2;
+                    break;
+                default:
+                    merged[col] = add((Number) merged[col], (Number) row[col]);
+                    col++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * null和mysql一样认为是最小的.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int _compare(Comparable v1, Comparable v2) {
+        if (v1 == v2) {
+            return 0;
+        } else if (v1 == null) {
+            return -1;
+        } else if (v2 == null) {
+            return 1;
+        }
+        return v1.compareTo(v2);
+    }
+
+    /**
+     * 两个数值相加, 保留精度. null表示没有值.
+     */
+    public static Number add(Number a, Number b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a instanceof BigDecimal || b instanceof BigDecimal || a instanceof BigInteger || b instanceof BigInteger) {
+            return new BigDecimal(a.toString()).add(new BigDecimal(b.toString()));
+        }
+        if (a instanceof Double || b instanceof Double || a instanceof Float || b instanceof Float) {
+            return a.doubleValue() + b.doubleValue();
+        }
+        return a.longValue() + b.longValue();
+    }
+
+    /**
+     * 计算平均值. decimal类型和mysql一样多保留4位小数.
+     */
+    public static Number divide(Number sum, Number count) {
+        if (sum == null || count == null || count.longValue() == 0) {
+            return null;
+        }
+
+        if (sum instanceof BigDecimal || sum instanceof BigInteger) {
+            BigDecimal decimalSum = new BigDecimal(sum.toString());
+            return decimalSum.divide(BigDecimal.valueOf(count.longValue()), decimalSum.scale() + 4,
+                    RoundingMode.HALF_UP);
+        }
+        return sum.doubleValue() / count.doubleValue();
+    }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并并发的单条加载请求. 同一个批次key的请求在一个很短的时间窗口内被收集起来, 由第一个请求的线程一次加载,
+ * 再把结果分发给每个请求的线程. 批次满了之后立即加载, 不再等待窗口结束.
+ *
+ * 一个批次中的key不会重复, 每个加载结果只返回给一个线程. 重复的key不参与合并, 直接加载.
+ * 注意: 事务是绑定在调用线程上的, 有事务时不能使用.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class BatchLoader {
+
+    private final ConcurrentMap<Object, Batch<?, ?>> batches = new ConcurrentHashMap<Object, Batch<?, ?>>();
+
+    /**
+     * 收集请求的时间窗口, 纳秒.
+     */
+    private final long                               windowNanos;
+
+    /**
+     * 一个批次最多的请求数.
+     */
+    private final int                                maxBatchSize;
+
+    /**
+     * @param windowMicros 收集请求的时间窗口, 微秒
+     * @param maxBatchSize 一个批次最多的请求数
+     */
+    public BatchLoader(long windowMicros, int maxBatchSize) {
+        if (windowMicros <= 0 || maxBatchSize <= 1) {
+            throw new IllegalArgumentException("参数错误, windowMicros=" + windowMicros + ", maxBatchSize="
+                    + maxBatchSize);
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 加载一个key. 同一个batchKey的loader需要能加载此批次中的任意key.
+     *
+     * @param batchKey 批次key, 可以一起加载的请求使用相同的批次key
+     * @param key 需要加载的key
+     * @param loader 批次的加载方法, 只使用第一个请求的loader
+     * @return 加载结果, 没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> V load(Object batchKey, K key, Loader<K, V> loader) throws Exception {
+        while (true) {
+            Batch<K, V> batch = (Batch<K, V>) this.batches.get(batchKey);
+
+            if (batch == null) {
+                batch = new Batch<K, V>(loader, this.maxBatchSize);
+                if (this.batches.putIfAbsent(batchKey, batch) != null) {
+                    continue;
+                }
+                batch.add(key);
+
+                // 第一个请求的线程等待窗口结束或者批次满了之后加载
+                try {
+                    batch.awaitFull(this.windowNanos);
+                } finally {
+                    this.batches.remove(batchKey, batch);
+                    batch.run();
+                }
+                return batch.get(key);
+            }
+
+            switch (batch.add(key)) {
+                case Batch.ADDED:
+                    return batch.await(key);
+                case Batch.DUPLICATE:
+                    return loader.load(_singletonList(key)).get(key);
+                default:
+                    // 批次已经开始加载, 使用新的批次
+                    this.batches.remove(batchKey, batch);
+                    break;
+            }
+        }
+    }
+
+    private static <K> List<K> _singletonList(K key) {
+        List<K> keys = new ArrayList<K>(1);
+        keys.add(key);
+        return keys;
+    }
+
+    /**
+     * 一个批次的加载方法.
+     */
+    public interface Loader<K, V> {
+
+        /**
+         * 加载一批key, 返回结果中没有的key表示不存在.
+         */
+        Map<K, V> load(List<K> keys) throws Exception;
+
+    }
+
+    /**
+     * 一个批次的请求.
+     */
+    private static class Batch<K, V> {
+
+        static final int             ADDED     = 0;
+
+        static final int             DUPLICATE = 1;
+
+        static final int             CLOSED    = 2;
+
+        private final Loader<K, V>   loader;
+
+        private final int            maxSize;
+
+        private final Set<K>         keys      = new LinkedHashSet<K>();
+
+        private final CountDownLatch done      = new CountDownLatch(1);
+
+        private boolean              closed;
+
+        private volatile Map<K, V>   result;
+
+        private volatile Exception   error;
+
+        Batch(Loader<K, V> loader, int maxSize) {
+            this.loader = loader;
+            this.maxSize = maxSize;
+        }
+
+        synchronized int add(K key) {
+            if (this.closed) {
+                return CLOSED;
+            }
+            if (!this.keys.add(key)) {
+                return DUPLICATE;
+            }
+            if (this.keys.size() >= this.maxSize) {
+                this.closed = true;
+                notifyAll();
+            }
+            return ADDED;
+        }
+
+        synchronized void awaitFull(long nanos) throws InterruptedException {
+            long deadline = System.nanoTime() + nanos;
+            long remain = nanos;
+            while (!this.closed && remain > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remain);
+                remain = deadline - System.nanoTime();
+            }
+        }
+
+        /**
+         * 停止收集请求并加载, 只在第一个请求的线程中调用一次.
+         */
+        void run() {
+            List<K> batchKeys;
+            synchronized (this) {
+                this.closed = true;
+                batchKeys = new ArrayList<K>(this.keys);
+            }
+
+            try {
+                this.result = this.loader.load(batchKeys);
+            } catch (Exception e) {
+                this.error = e;
+            } catch (Error e) {
+                this.error = new RuntimeException(e);
+                throw e;
+            } finally {
+                this.done.countDown();
+            }
+        }
+
+        V await(K key) throws Exception {
+            this.done.await();
+            return get(key);
+        }
+
+        V get(K key) throws Exception {
+            if (this.error != null) {
+                throw this.error;
+            }
+            return this.result == null ? null : this.result.get(key);
+        }
+
+    }
+
+}
@@ -71,4 +71,18 @@ public interface IDataLayer {
      */
     public TransactionManager getTransactionManager();
 
+    /**
+     * set parallel executor.
+     * 
+     * @param parallelExecutor
+     */
+    public void setParallelExecutor(ParallelExecutor parallelExecutor);
+
+    /**
+     * get parallel executor.
+     * 
+     * @return
+     */
+    public ParallelExecutor getParallelExecutor();
+
 }
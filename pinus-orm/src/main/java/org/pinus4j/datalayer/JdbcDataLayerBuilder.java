@@ -19,6 +19,7 @@ package org.pinus4j.datalayer;
 import org.pinus4j.cache.IPrimaryCache;
 import org.pinus4j.cache.ISecondCache;
 import org.pinus4j.cluster.IDBCluster;
+import org.pinus4j.cluster.config.IClusterConfig;
 import org.pinus4j.datalayer.query.IGlobalQuery;
 import org.pinus4j.datalayer.query.IShardingQuery;
 import org.pinus4j.datalayer.query.jdbc.GlobalJdbcQueryImpl;
@@ -43,6 +44,11 @@ public class JdbcDataLayerBuilder implements IDataLayerBuilder {
 
     private ISecondCache                         secondCache;
 
+    /**
+     * 跨分片并行执行器. 同一个集群的数据层共享一个执行器.
+     */
+    private ParallelExecutor                     parallelExecutor;
+
     private static volatile JdbcDataLayerBuilder instance;
 
     private JdbcDataLayerBuilder() {
@@ -100,6 +106,12 @@ public class JdbcDataLayerBuilder implements IDataLayerBuilder {
         shardingQuery.setDBCluster(this.dbCluster);
         shardingQuery.setPrimaryCache(this.primaryCache);
         shardingQuery.setSecondCache(this.secondCache);
+        shardingQuery.setParallelExecutor(_getParallelExecutor());
+
+        IClusterConfig config = this.dbCluster.getClusterConfig();
+        if (config.getPkCoalesceWindow() > 0 && config.getPkCoalesceSize() > 1) {
+            shardingQuery.setBatchLoader(new BatchLoader(config.getPkCoalesceWindow(), config.getPkCoalesceSize()));
+        }
         return shardingQuery;
     }
 
@@ -123,4 +135,13 @@ public class JdbcDataLayerBuilder implements IDataLayerBuilder {
         return shardingUpdate;
     }
 
+    private synchronized ParallelExecutor _getParallelExecutor() {
+        if (this.parallelExecutor == null || this.parallelExecutor.isShutdown()) {
+            IClusterConfig config = this.dbCluster.getClusterConfig();
+            this.parallelExecutor = new ParallelExecutor("query", config.getQueryThreads(),
+                    config.getQueryParallelism());
+        }
+        return this.parallelExecutor;
+    }
+
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.Field;
+import java.util.Comparator;
+import java.util.List;
+
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.exceptions.DBOperationException;
+import org.pinus4j.utils.BeansUtil;
+
+/**
+ * 根据排序条件比较两个数据对象. 排序字段在创建时解析一次, 比较时不再查找字段.
+ * null值和mysql一样认为是最小的.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class OrderByComparator<T> implements Comparator<T> {
+
+    private final Field[]   fields;
+
+    private final boolean[] desc;
+
+    public OrderByComparator(Class<T> clazz, List<OrderBy> orderList) {
+        this.fields = new Field[orderList.size()];
+        this.desc = new boolean[orderList.size()];
+
+        OrderBy order = null;
+        for (int i = 0; i < orderList.size(); i++) {
+            order = orderList.get(i);
+
+            Field f = BeansUtil.getField(clazz, order.getField());
+            if (f == null) {
+                throw new DBOperationException("找不到排序字段" + order);
+            }
+            Class<?> fieldType = f.getType();
+            if (!fieldType.isPrimitive() && !Comparable.class.isAssignableFrom(fieldType)) {
+                throw new DBOperationException("无法排序的类型" + order);
+            }
+            f.setAccessible(true);
+
+            this.fields[i] = f;
+            this.desc[i] = order.getOrder() == Order.DESC;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public int compare(T o1, T o2) {
+        int compareVal = 0;
+
+        try {
+            Object v1 = null, v2 = null;
+            for (int i = 0; i < this.fields.length; i++) {
+                v1 = this.fields[i].get(o1);
+                v2 = this.fields[i].get(o2);
+
+                if (v1 == v2) {
+                    compareVal = 0;
+                } else if (v1 == null) {
+                    compareVal = -1;
+                } else if (v2 == null) {
+                    compareVal = 1;
+                } else {
+                    compareVal = ((Comparable) v1).compareTo(v2);
+                }
+
+                if (this.desc[i]) {
+                    compareVal *= -1;
+                }
+
+                if (compareVal != 0) {
+                    break;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new DBOperationException(e);
+        }
+
+        return compareVal;
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pinus4j.utils.ThreadPool;
+
+/**
+ * 跨分片操作的并行执行器. 将针对每个分片的操作提交到线程池并发执行, 结果按照任务的提交顺序返回.
+ * 每次调用可以指定并行度上限, 避免一个扫描全部分片的操作占满线程池. 调用线程本身也会参与执行任务.
+ *
+ * 注意: 事务是绑定在调用线程上的, 需要在调用线程中把资源加入事务之后再提交任务.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class ParallelExecutor {
+
+    private ThreadPool       threadPool;
+
+    /**
+     * 单次调用的默认并行度上限.
+     */
+    private int              parallelism;
+
+    private volatile boolean isShutdown;
+
+    /**
+     * @param poolName 线程池名称
+     * @param threads 线程池大小, 小于等于0时不创建线程池, 所有任务在调用线程中串行执行
+     * @param parallelism 单次调用的默认并行度上限
+     */
+    public ParallelExecutor(String poolName, int threads, int parallelism) {
+        if (threads > 0) {
+            this.threadPool = ThreadPool.newInstance(poolName, threads, threads, 60 * 1000);
+            this.threadPool.getThreadPool().allowCoreThreadTimeOut(true);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 使用默认并行度执行任务.
+     */
+    public <V> List<V> invokeAll(List<? extends Callable<V>> tasks) throws Exception {
+        return invokeAll(tasks, this.parallelism);
+    }
+
+    /**
+     * 并行执行任务, 任意一个任务失败时不再执行剩余的任务并抛出第一个异常.
+     *
+     * @param tasks 任务
+     * @param parallelism 本次调用的并行度上限, 小于等于0时使用默认值
+     * @return 每个任务的执行结果, 顺序和任务顺序一致
+     */
+    @SuppressWarnings("unchecked")
+    public <V> List<V> invokeAll(final List<? extends Callable<V>> tasks, int parallelism) throws Exception {
+        final int size = tasks.size();
+        List<V> result = new ArrayList<V>(size);
+
+        int p = getParallelism(parallelism);
+        if (p > size) {
+            p = size;
+        }
+
+        // 串行执行
+        if (p <= 1) {
+            for (Callable<V> task : tasks) {
+                result.add(task.call());
+            }
+            return result;
+        }
+
+        final Object[] values = new Object[size];
+        final AtomicInteger cursor = new AtomicInteger(0);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        // 每个任务被领取之后无论执行与否都会计数一次
+        final CountDownLatch done = new CountDownLatch(size);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = cursor.getAndIncrement()) < size) {
+                    try {
+                        if (error.get() == null) {
+                            values[i] = tasks.get(i).call();
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(p - 1);
+        for (int i = 1; i < p; i++) {
+            futures.add(this.threadPool.submit(worker));
+        }
+        worker.run();
+
+        // 调用线程执行完毕时还在排队的worker已经没有任务可做, 直接取消
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+        // 等待其他线程中正在执行的任务
+        done.await();
+
+        Throwable e = error.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw (Exception) e;
+        }
+
+        for (Object value : values) {
+            result.add((V) value);
+        }
+        return result;
+    }
+
+    /**
+     * 分组并行执行任务, 同一组的任务在同一个线程中按顺序执行. 用于多个分片共享一个连接的情况, 连接不能在多个线程中同时使用.
+     *
+     * @param tasks 任务
+     * @param groups 每个任务所属的组, 是同一个对象的任务属于同一组
+     * @param parallelism 本次调用的并行度上限, 小于等于0时使用默认值
+     * @return 每个任务的执行结果, 顺序和任务顺序一致
+     */
+    @SuppressWarnings("unchecked")
+    public <V> List<V> invokeAll(final List<? extends Callable<V>> tasks, List<?> groups, int parallelism)
+            throws Exception {
+        if (tasks.size() != groups.size()) {
+            throw new IllegalArgumentException("任务和分组的数量不一致, tasks=" + tasks.size() + ", groups=" + groups.size());
+        }
+
+        Map<Object, List<Integer>> groupIndexes = new IdentityHashMap<Object, List<Integer>>();
+        List<List<Integer>> indexes = new ArrayList<List<Integer>>();
+        for (int i = 0; i < groups.size(); i++) {
+            List<Integer> index = groupIndexes.get(groups.get(i));
+            if (index == null) {
+                index = new ArrayList<Integer>();
+                groupIndexes.put(groups.get(i), index);
+                indexes.add(index);
+            }
+            index.add(i);
+        }
+
+        List<Callable<List<V>>> groupTasks = new ArrayList<Callable<List<V>>>(indexes.size());
+        for (final List<Integer> index : indexes) {
+            groupTasks.add(new Callable<List<V>>() {
+                @Override
+                public List<V> call() throws Exception {
+                    List<V> values = new ArrayList<V>(index.size());
+                    for (int i : index) {
+                        values.add(tasks.get(i).call());
+                    }
+                    return values;
+                }
+            });
+        }
+
+        Object[] values = new Object[tasks.size()];
+        List<List<V>> groupValues = invokeAll(groupTasks, parallelism);
+        for (int i = 0; i < indexes.size(); i++) {
+            for (int j = 0; j < indexes.get(i).size(); j++) {
+                values[indexes.get(i).get(j)] = groupValues.get(i).get(j);
+            }
+        }
+
+        List<V> result = new ArrayList<V>(values.length);
+        for (Object value : values) {
+            result.add((V) value);
+        }
+        return result;
+    }
+
+    /**
+     * 获取一次调用实际使用的并行度.
+     *
+     * @param parallelism 指定的并行度上限, 小于等于0时使用默认值
+     */
+    public int getParallelism(int parallelism) {
+        if (this.threadPool == null || this.isShutdown) {
+            return 1;
+        }
+        return parallelism > 0 ? parallelism : this.parallelism;
+    }
+
+    public boolean isShutdown() {
+        return this.isShutdown;
+    }
+
+    public void shutdown() {
+        this.isShutdown = true;
+        if (this.threadPool != null) {
+            this.threadPool.shutdown();
+        }
+    }
+
+}
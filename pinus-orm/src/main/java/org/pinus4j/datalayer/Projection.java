@@ -0,0 +1,479 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.exceptions.DBOperationException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * 投影查询. 只查询需要的列, 结果集直接转换为投影对象, 不创建数据对象, 不使用缓存.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public abstract class Projection<R> {
+
+    /**
+     * 查询的数据库字段.
+     */
+    protected final String[] columns;
+
+    protected Projection(String[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * 投影到DTO. DTO中和数据对象同名的字段会被查询, 其他字段忽略. 跨分片排序查询时DTO需要包含排序字段.
+     *
+     * @param entityClass 数据对象class
+     * @param dtoClass DTO class, 需要有默认构造方法
+     */
+    public static <R> Projection<R> dto(Class<?> entityClass, Class<R> dtoClass) {
+        WritePlan plan = WritePlan.valueOf(entityClass);
+
+        List<String> columnList = Lists.newArrayList();
+        List<String> fieldList = Lists.newArrayList();
+        for (Class<?> c = dtoClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())
+                        || fieldList.contains(f.getName())) {
+                    continue;
+                }
+                String column = SQLBuilder.getColumnName(entityClass, f.getName());
+                if (plan.getColumnIndex(column) == -1) {
+                    continue;
+                }
+                columnList.add(column);
+                fieldList.add(f.getName());
+            }
+        }
+        if (columnList.isEmpty()) {
+            throw new IllegalArgumentException(dtoClass + "没有和" + entityClass + "对应的字段");
+        }
+
+        return new DtoProjection<R>(dtoClass, columnList.toArray(new String[columnList.size()]),
+                fieldList.toArray(new String[fieldList.size()]));
+    }
+
+    /**
+     * 投影到数组, 每行依次是指定字段的值.
+     *
+     * @param entityClass 数据对象class
+     * @param fields 查询的字段
+     * @param orderList 查询的排序条件, 跨分片归并时需要读取排序字段
+     */
+    public static Projection<Object[]> tuple(Class<?> entityClass, String[] fields, List<OrderBy> orderList) {
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("参数错误, 查询字段不能为空");
+        }
+
+        List<String> columnList = Lists.newArrayList();
+        for (String field : fields) {
+            columnList.add(SQLBuilder.getColumnName(entityClass, field));
+        }
+
+        // 排序字段不在查询字段中时追加在最后, 归并之后去掉
+        int[] orderIndexes = new int[orderList == null ? 0 : orderList.size()];
+        boolean[] desc = new boolean[orderIndexes.length];
+        for (int i = 0; i < orderIndexes.length; i++) {
+            OrderBy orderBy = orderList.get(i);
+            String column = SQLBuilder.getColumnName(entityClass, orderBy.getField());
+            int index = columnList.indexOf(column);
+            if (index == -1) {
+                index = columnList.size();
+                columnList.add(column);
+            }
+            orderIndexes[i] = index;
+            desc[i] = orderBy.getOrder() == Order.DESC;
+        }
+
+        return new TupleProjection(columnList.toArray(new String[columnList.size()]), fields.length, orderIndexes,
+                desc);
+    }
+
+    /**
+     * 投影到long数组, 直接读取为基本类型, 不为每一行创建对象. 每个分片的结果是一个数组.
+     *
+     * @param entityClass 数据对象class
+     * @param field 查询的字段
+     * @param desc 是否按照此字段倒序归并, 为null时表示不排序
+     */
+    public static Projection<long[]> longColumn(Class<?> entityClass, String field, Boolean desc) {
+        return new LongColumnProjection(SQLBuilder.getColumnName(entityClass, field), desc);
+    }
+
+    /**
+     * 投影到int数组, 直接读取为基本类型, 不为每一行创建对象. 每个分片的结果是一个数组.
+     *
+     * @param entityClass 数据对象class
+     * @param field 查询的字段
+     * @param desc 是否按照此字段倒序归并, 为null时表示不排序
+     */
+    public static Projection<int[]> intColumn(Class<?> entityClass, String field, Boolean desc) {
+        return new IntColumnProjection(SQLBuilder.getColumnName(entityClass, field), desc);
+    }
+
+    public String[] getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * 读取结果集的所有行.
+     */
+    public abstract List<R> read(ResultSet rs) throws SQLException;
+
+    /**
+     * 获取跨分片归并时使用的比较器. 比较器的排序和查询的排序条件一致.
+     */
+    public abstract Comparator<R> getComparator(List<OrderBy> orderList);
+
+    /**
+     * 一个分片结果包含的行数.
+     */
+    public int getRowCount(List<R> rows) {
+        return rows.size();
+    }
+
+    /**
+     * 归并多个分片的结果并截取分页. 有排序条件时多路归并, 否则按照分片顺序拼接.
+     *
+     * @param fromIndex 分页开始位置
+     * @param endIndex 分页结束位置, -1表示不分页
+     */
+    public List<R> merge(List<List<R>> shardResults, List<OrderBy> orderList, int fromIndex, int endIndex) {
+        List<R> mergeResult = null;
+        if (orderList != null && !orderList.isEmpty()) {
+            mergeResult = ShardingResultMerger.merge(shardResults, getComparator(orderList), endIndex);
+        } else {
+            mergeResult = ShardingResultMerger.concat(shardResults, endIndex);
+        }
+
+        if (fromIndex > 0) {
+            mergeResult = Lists.newArrayList(mergeResult.subList(Math.min(fromIndex, mergeResult.size()),
+                    mergeResult.size()));
+        }
+        return mergeResult;
+    }
+
+    /**
+     * 归并之后的处理, 默认原样返回.
+     */
+    public List<R> finish(List<R> rows) {
+        return rows;
+    }
+
+    /**
+     * 按照位置把查询的列赋值给DTO的同名字段.
+     */
+    private static class DtoProjection<R> extends Projection<R> {
+
+        private final Class<R> dtoClass;
+
+        private final String[] fieldNames;
+
+        DtoProjection(Class<R> dtoClass, String[] columns, String[] fieldNames) {
+            super(columns);
+            this.dtoClass = dtoClass;
+            this.fieldNames = fieldNames;
+        }
+
+        @Override
+        public List<R> read(ResultSet rs) throws SQLException {
+            RowMapper<R> mapper = RowMapper.valueOf(this.dtoClass, this.fieldNames);
+
+            List<R> result = Lists.newArrayList();
+            while (rs.next()) {
+                result.add(mapper.map(rs));
+            }
+            return result;
+        }
+
+        @Override
+        public Comparator<R> getComparator(List<OrderBy> orderList) {
+            return new OrderByComparator<R>(this.dtoClass, orderList);
+        }
+
+    }
+
+    /**
+     * 每行读取为一个数组.
+     */
+    private static class TupleProjection extends Projection<Object[]> {
+
+        /**
+         * 调用者需要的列数, 之后的列是归并使用的排序字段.
+         */
+        private final int       width;
+
+        private final int[]     orderIndexes;
+
+        private final boolean[] desc;
+
+        TupleProjection(String[] columns, int width, int[] orderIndexes, boolean[] desc) {
+            super(columns);
+            this.width = width;
+            this.orderIndexes = orderIndexes;
+            this.desc = desc;
+        }
+
+        @Override
+        public List<Object[]> read(ResultSet rs) throws SQLException {
+            List<Object[]> result = Lists.newArrayList();
+            while (rs.next()) {
+                Object[] row = new Object[this.columns.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                result.add(row);
+            }
+            return result;
+        }
+
+        @Override
+        public Comparator<Object[]> getComparator(List<OrderBy> orderList) {
+            return new Comparator<Object[]>() {
+                @SuppressWarnings({ "unchecked", "rawtypes" })
+                @Override
+                public int compare(Object[] r1, Object[] r2) {
+                    int compareVal = 0;
+                    for (int i = 0; i < orderIndexes.length; i++) {
+                        Object v1 = r1[orderIndexes[i]];
+                        Object v2 = r2[orderIndexes[i]];
+
+                        if (v1 == v2) {
+                            compareVal = 0;
+                        } else if (v1 == null) {
+                            compareVal = -1;
+                        } else if (v2 == null) {
+                            compareVal = 1;
+                        } else if (v1 instanceof Comparable) {
+                            compareVal = ((Comparable) v1).compareTo(v2);
+                        } else {
+                            throw new DBOperationException("无法排序的类型" + v1.getClass());
+                        }
+
+                        if (desc[i]) {
+                            compareVal *= -1;
+                        }
+
+                        if (compareVal != 0) {
+                            break;
+                        }
+                    }
+                    return compareVal;
+                }
+            };
+        }
+
+        @Override
+        public List<Object[]> finish(List<Object[]> rows) {
+            if (this.width == this.columns.length) {
+                return rows;
+            }
+
+            List<Object[]> result = Lists.newArrayListWithCapacity(rows.size());
+            for (Object[] row : rows) {
+                Object[] trimmed = new Object[this.width];
+                System.arraycopy(row, 0, trimmed, 0, this.width);
+                result.add(trimmed);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * 单列投影到基本类型数组. read返回只包含一个数组的列表, 没有数据时返回空列表.
+     * 跨分片时按照此列归并各个分片已经排好序的数组.
+     */
+    private static abstract class PrimitiveColumnProjection<A> extends Projection<A> {
+
+        /**
+         * 为null时不排序.
+         */
+        private final Boolean desc;
+
+        PrimitiveColumnProjection(String column, Boolean desc) {
+            super(new String[] { column });
+            this.desc = desc;
+        }
+
+        abstract A newArray(int length);
+
+        abstract int length(A array);
+
+        abstract A copyOf(A array, int length);
+
+        /**
+         * 读取当前行的值到数组的指定位置.
+         */
+        abstract void readValue(ResultSet rs, A array, int index) throws SQLException;
+
+        abstract int compare(A a1, int i1, A a2, int i2);
+
+        @Override
+        public List<A> read(ResultSet rs) throws SQLException {
+            A array = newArray(16);
+            int size = 0;
+            while (rs.next()) {
+                if (size == length(array)) {
+                    array = copyOf(array, size * 2);
+                }
+                readValue(rs, array, size++);
+            }
+            if (size == 0) {
+                return Lists.newArrayList();
+            }
+            return Lists.newArrayList(copyOf(array, size));
+        }
+
+        @Override
+        public Comparator<A> getComparator(List<OrderBy> orderList) {
+            throw new UnsupportedOperationException("基本类型投影按照数组归并, 不支持比较器");
+        }
+
+        @Override
+        public int getRowCount(List<A> rows) {
+            return rows.isEmpty() ? 0 : length(rows.get(0));
+        }
+
+        @Override
+        public List<A> merge(List<List<A>> shardResults, List<OrderBy> orderList, int fromIndex, int endIndex) {
+            List<A> arrays = Lists.newArrayList();
+            int total = 0;
+            for (List<A> shardResult : shardResults) {
+                if (!shardResult.isEmpty()) {
+                    arrays.add(shardResult.get(0));
+                    total += length(shardResult.get(0));
+                }
+            }
+            int size = endIndex > -1 ? Math.min(total, endIndex) : total;
+            int from = Math.min(Math.max(fromIndex, 0), size);
+            if (size - from == 0) {
+                return Lists.newArrayList();
+            }
+
+            A result = newArray(size - from);
+            int[] cursors = new int[arrays.size()];
+            for (int n = 0; n < size; n++) {
+                // 选出各个分片当前位置的最小值(倒序时最大值), 不排序时按照分片顺序依次取
+                int selected = -1;
+                for (int i = 0; i < cursors.length; i++) {
+                    if (cursors[i] >= length(arrays.get(i))) {
+                        continue;
+                    }
+                    if (selected == -1) {
+                        selected = i;
+                        if (this.desc == null) {
+                            break;
+                        }
+                        continue;
+                    }
+                    int compareVal = compare(arrays.get(i), cursors[i], arrays.get(selected), cursors[selected]);
+                    if (this.desc ? compareVal > 0 : compareVal < 0) {
+                        selected = i;
+                    }
+                }
+                if (n >= from) {
+                    System.arraycopy(arrays.get(selected), cursors[selected], result, n - from, 1);
+                }
+                cursors[selected]++;
+            }
+            return Collections.singletonList(result);
+        }
+
+    }
+
+    private static class LongColumnProjection extends PrimitiveColumnProjection<long[]> {
+
+        LongColumnProjection(String column, Boolean desc) {
+            super(column, desc);
+        }
+
+        @Override
+        long[] newArray(int length) {
+            return new long[length];
+        }
+
+        @Override
+        int length(long[] array) {
+            return array.length;
+        }
+
+        @Override
+        long[] copyOf(long[] array, int length) {
+            return Arrays.copyOf(array, length);
+        }
+
+        @Override
+        void readValue(ResultSet rs, long[] array, int index) throws SQLException {
+            array[index] = rs.getLong(1);
+        }
+
+        @Override
+        int compare(long[] a1, int i1, long[] a2, int i2) {
+            return a1[i1] < a2[i2] ? -1 : (a1[i1] == a2[i2] ? 0 : 1);
+        }
+
+    }
+
+    private static class IntColumnProjection extends PrimitiveColumnProjection<int[]> {
+
+        IntColumnProjection(String column, Boolean desc) {
+            super(column, desc);
+        }
+
+        @Override
+        int[] newArray(int length) {
+            return new int[length];
+        }
+
+        @Override
+        int length(int[] array) {
+            return array.length;
+        }
+
+        @Override
+        int[] copyOf(int[] array, int length) {
+            return Arrays.copyOf(array, length);
+        }
+
+        @Override
+        void readValue(ResultSet rs, int[] array, int index) throws SQLException {
+            array[index] = rs.getInt(1);
+        }
+
+        @Override
+        int compare(int[] a1, int i1, int[] a2, int i2) {
+            return a1[i1] < a2[i2] ? -1 : (a1[i1] == a2[i2] ? 0 : 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.pinus4j.constant.Const;
+import org.pinus4j.entity.annotations.Table;
+import org.pinus4j.utils.BeansUtil;
+
+import com.google.common.collect.Lists;
+
+/**
+ * 将结果集的一行转换为数据对象. 每个数据对象class和结果集的列组合只解析一次, 解析时确定每一列对应的字段和取值方式,
+ * 转换时不再查找字段, 基本类型的字段直接使用ResultSet.getXxx和Field.setXxx赋值, 避免装箱.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class RowMapper<T> {
+
+    private static final int TYPE_OBJECT  = 0;
+    private static final int TYPE_BOOLEAN = 1;
+    private static final int TYPE_BYTE    = 2;
+    private static final int TYPE_CHAR    = 3;
+    private static final int TYPE_SHORT   = 4;
+    private static final int TYPE_INT     = 5;
+    private static final int TYPE_LONG    = 6;
+    private static final int TYPE_FLOAT   = 7;
+    private static final int TYPE_DOUBLE  = 8;
+
+    /**
+     * 缓存已经解析过的转换器. {clazz, {列名组合, RowMapper}}
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, RowMapper<?>>> _mapperCache = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, RowMapper<?>>>();
+
+    private final Constructor<T> constructor;
+
+    /**
+     * 结果集中的列名, 下标从0开始.
+     */
+    private final String[]       columnNames;
+
+    /**
+     * 有对应字段的列, 值为结果集中的列下标(从1开始).
+     */
+    private final int[]          columns;
+
+    private final Field[]        fields;
+
+    private final int[]          types;
+
+    private final boolean[]      primitives;
+
+    /**
+     * 开启了dirtyCheck的数据对象, 转换之后需要记录加载时的字段值. 否则为null
+     */
+    private final WritePlan      writePlan;
+
+    private RowMapper(Class<T> clazz, String[] columnNames) {
+        try {
+            this.constructor = clazz.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("找不到默认构造方法 " + clazz, e);
+        }
+        this.columnNames = columnNames;
+
+        List<Integer> columnList = Lists.newArrayList();
+        List<Field> fieldList = Lists.newArrayList();
+        for (int i = 0; i < columnNames.length; i++) {
+            Field f = BeansUtil.getField(clazz, columnNames[i]);
+            if (f == null) {
+                continue;
+            }
+            f.setAccessible(true);
+            columnList.add(i + 1);
+            fieldList.add(f);
+        }
+
+        int size = fieldList.size();
+        this.columns = new int[size];
+        this.fields = new Field[size];
+        this.types = new int[size];
+        this.primitives = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Field f = fieldList.get(i);
+            this.columns[i] = columnList.get(i);
+            this.fields[i] = f;
+            this.types[i] = _getType(f.getType());
+            this.primitives[i] = f.getType().isPrimitive();
+        }
+
+        if (clazz.getAnnotation(Table.class) != null && WritePlan.valueOf(clazz).isDirtyCheck()) {
+            this.writePlan = WritePlan.valueOf(clazz);
+        } else {
+            this.writePlan = null;
+        }
+    }
+
+    /**
+     * 获取结果集对应的转换器, 第一次使用时解析.
+     *
+     * @param clazz 数据对象class
+     * @param rsmd 结果集的元数据
+     */
+    public static <T> RowMapper<T> valueOf(Class<T> clazz, ResultSetMetaData rsmd) throws SQLException {
+        int columnCount = rsmd.getColumnCount();
+        String[] columnNames = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = rsmd.getColumnName(i + 1);
+        }
+
+        return valueOf(clazz, columnNames);
+    }
+
+    /**
+     * 获取按照位置转换的转换器, 结果集的第i列赋值给名称为names[i]的字段. 用于结果集的列名和字段名不一致的情况.
+     *
+     * @param clazz 数据对象class
+     * @param names 和结果集的列一一对应的字段名
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> valueOf(Class<T> clazz, String[] names) {
+        StringBuilder key = new StringBuilder();
+        for (String name : names) {
+            key.append(name).append(',');
+        }
+
+        ConcurrentMap<String, RowMapper<?>> mappers = _mapperCache.get(clazz);
+        if (mappers == null) {
+            mappers = new ConcurrentHashMap<String, RowMapper<?>>();
+            ConcurrentMap<String, RowMapper<?>> exists = _mapperCache.putIfAbsent(clazz, mappers);
+            if (exists != null) {
+                mappers = exists;
+            }
+        }
+
+        RowMapper<?> mapper = mappers.get(key.toString());
+        if (mapper == null) {
+            mapper = new RowMapper<T>(clazz, names);
+            mappers.put(key.toString(), mapper);
+        }
+
+        return (RowMapper<T>) mapper;
+    }
+
+    /**
+     * 获取列名在结果集中的下标(从1开始), 找不到返回-1.
+     */
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < this.columnNames.length; i++) {
+            if (this.columnNames[i].equals(columnName)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 将结果集的当前行转换为数据对象.
+     *
+     * @param rs 已经移动到当前行的结果集
+     */
+    public T map(ResultSet rs) throws SQLException {
+        try {
+            T one = this.constructor.newInstance();
+
+            Field f = null;
+            int column = 0;
+            for (int i = 0; i < this.fields.length; i++) {
+                f = this.fields[i];
+                column = this.columns[i];
+
+                switch (this.types[i]) {
+                case TYPE_BOOLEAN:
+                    String b = rs.getString(column);
+                    if (b == null) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setBoolean(one, b.equals(Const.TRUE));
+                    } else {
+                        f.set(one, Boolean.valueOf(b.equals(Const.TRUE)));
+                    }
+                    break;
+                case TYPE_BYTE:
+                    byte byteVal = rs.getByte(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setByte(one, byteVal);
+                    } else {
+                        f.set(one, Byte.valueOf(byteVal));
+                    }
+                    break;
+                case TYPE_CHAR:
+                    String c = rs.getString(column);
+                    if (c == null) {
+                        _setNull(one, i);
+                    } else {
+                        char charVal = c.length() > 0 ? c.charAt(0) : '\u0000';
+                        if (this.primitives[i]) {
+                            f.setChar(one, charVal);
+                        } else {
+                            f.set(one, Character.valueOf(charVal));
+                        }
+                    }
+                    break;
+                case TYPE_SHORT:
+                    short shortVal = rs.getShort(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setShort(one, shortVal);
+                    } else {
+                        f.set(one, Short.valueOf(shortVal));
+                    }
+                    break;
+                case TYPE_INT:
+                    int intVal = rs.getInt(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setInt(one, intVal);
+                    } else {
+                        f.set(one, Integer.valueOf(intVal));
+                    }
+                    break;
+                case TYPE_LONG:
+                    long longVal = rs.getLong(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setLong(one, longVal);
+                    } else {
+                        f.set(one, Long.valueOf(longVal));
+                    }
+                    break;
+                case TYPE_FLOAT:
+                    float floatVal = rs.getFloat(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setFloat(one, floatVal);
+                    } else {
+                        f.set(one, Float.valueOf(floatVal));
+                    }
+                    break;
+                case TYPE_DOUBLE:
+                    double doubleVal = rs.getDouble(column);
+                    if (rs.wasNull()) {
+                        _setNull(one, i);
+                    } else if (this.primitives[i]) {
+                        f.setDouble(one, doubleVal);
+                    } else {
+                        f.set(one, Double.valueOf(doubleVal));
+                    }
+                    break;
+                default:
+                    f.set(one, rs.getObject(column));
+                }
+            }
+
+            if (this.writePlan != null) {
+                this.writePlan.snapshot(one);
+            }
+
+            return one;
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * 数据库中的值为null. 基本类型的字段保持默认值.
+     */
+    private void _setNull(T one, int i) throws IllegalAccessException {
+        if (!this.primitives[i]) {
+            this.fields[i].set(one, null);
+        }
+    }
+
+    private static int _getType(Class<?> fieldType) {
+        if (fieldType == Boolean.TYPE || fieldType == Boolean.class) {
+            return TYPE_BOOLEAN;
+        } else if (fieldType == Byte.TYPE || fieldType == Byte.class) {
+            return TYPE_BYTE;
+        } else if (fieldType == Character.TYPE || fieldType == Character.class) {
+            return TYPE_CHAR;
+        } else if (fieldType == Short.TYPE || fieldType == Short.class) {
+            return TYPE_SHORT;
+        } else if (fieldType == Integer.TYPE || fieldType == Integer.class) {
+            return TYPE_INT;
+        } else if (fieldType == Long.TYPE || fieldType == Long.class) {
+            return TYPE_LONG;
+        } else if (fieldType == Float.TYPE || fieldType == Float.class) {
+            return TYPE_FLOAT;
+        } else if (fieldType == Double.TYPE || fieldType == Double.class) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_OBJECT;
+    }
+
+}
@@ -22,6 +22,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -30,9 +31,9 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.DefaultQueryImpl;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
-import org.pinus4j.constant.Const;
 import org.pinus4j.entity.DefaultEntityMetaManager;
 import org.pinus4j.entity.IEntityMetaManager;
 import org.pinus4j.entity.meta.EntityPK;
@@ -45,6 +46,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * SQL工具类.
@@ -53,14 +55,19 @@ import com.google.common.collect.Maps;
  */
 public class SQLBuilder {
 
-    public static final Logger               LOG               = LoggerFactory.getLogger(SQLBuilder.class);
+    public static final Logger                                    LOG               = LoggerFactory.getLogger(SQLBuilder.class);
 
     /**
-     * select count语句缓存.
+     * 每个实体每张表的sql模板缓存. key是实体class, 分表下标, 全局表的下标是-1.
      */
-    private static final Map<String, String> _selectCountCache = new ConcurrentHashMap<String, String>();
+    private static final Map<Class<?>, Map<Integer, SQLTemplate>> _templateCache    = new ConcurrentHashMap<Class<?>, Map<Integer, SQLTemplate>>();
 
-    private static IEntityMetaManager        entityMetaManager = DefaultEntityMetaManager.getInstance();
+    /**
+     * 占位符"?,?,?"缓存, 下标是占位符的个数.
+     */
+    private static final String[]                                 _placeholderCache = new String[1024];
+
+    private static IEntityMetaManager                             entityMetaManager = DefaultEntityMetaManager.getInstance();
 
     /**
      * 拼装sql. SELECT pkName FROM tableName {IQuery.getSql()}
@@ -68,19 +75,11 @@ public class SQLBuilder {
      * @return sql语句.
      */
     public static <T> SQL buildSelectPkByQuery(Class<T> clazz, int tableIndex, IQuery<T> query) {
-        String tableName = entityMetaManager.getTableName(clazz, tableIndex);
-
-        PKName[] pkNames = entityMetaManager.getPkName(clazz);
-        StringBuilder pkField = new StringBuilder();
-        for (PKName pkName : pkNames) {
-            pkField.append('`').append(pkName.getValue()).append('`').append(',');
-        }
-        pkField.deleteCharAt(pkField.length() - 1);
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
 
         SQL querySQL = ((DefaultQueryImpl<T>) query).getWhereSql();
 
-        StringBuilder sqlText = new StringBuilder("SELECT " + pkField.toString() + " FROM ");
-        sqlText.append('`').append(tableName).append('`');
+        StringBuilder sqlText = new StringBuilder(template.selectPk);
         String whereSql = querySQL.getSql();
         if (StringUtil.isNotBlank(whereSql))
             sqlText.append(whereSql);
@@ -99,26 +98,54 @@ public class SQLBuilder {
      * @return sql语句.
      */
     public static <T> SQL buildSelectByQuery(Class<T> clazz, int tableIndex, IQuery<T> query) {
-        String tableName = entityMetaManager.getTableName(clazz, tableIndex);
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
 
-        StringBuilder fields = new StringBuilder();
+        StringBuilder sqlText = new StringBuilder();
         if (((DefaultQueryImpl<T>) query).hasQueryFields()) {
+            sqlText.append("SELECT ");
             for (String field : ((DefaultQueryImpl<T>) query).getFields()) {
-                fields.append('`').append(field).append('`').append(",");
+                sqlText.append('`').append(field).append('`').append(",");
             }
-            fields.deleteCharAt(fields.length() - 1);
+            sqlText.deleteCharAt(sqlText.length() - 1);
+            sqlText.append(" FROM ").append(template.tableName);
         } else {
-            fields.append("*");
+            sqlText.append(template.selectAll);
         }
 
         SQL querySQL = ((DefaultQueryImpl<T>) query).getWhereSql();
 
+        String whereSql = querySQL.getSql();
+        if (StringUtil.isNotBlank(whereSql))
+            sqlText.append(whereSql);
+
+        SQL sql = SQL.valueOf(sqlText.toString(), querySQL.getParams());
+
+        debugSQL(sql.getSql());
+        debugSQLParam(sql.getParams());
+
+        return sql;
+    }
+
+    /**
+     * 拼装投影查询sql. SELECT {columns} FROM tableName {IQuery.getSql()}
+     * 
+     * @param columns 查询的数据库字段
+     * @return sql语句.
+     */
+    public static <T> SQL buildSelectColumnsByQuery(Class<T> clazz, int tableIndex, IQuery<T> query,
+                                                    String[] columns) {
         StringBuilder sqlText = new StringBuilder("SELECT ");
-        sqlText.append(fields.toString()).append(" FROM ");
-        sqlText.append('`').append(tableName).append('`');
+        for (String column : columns) {
+            sqlText.append('`').append(column).append('`').append(',');
+        }
+        sqlText.deleteCharAt(sqlText.length() - 1);
+        sqlText.append(" FROM ").append('`').append(entityMetaManager.getTableName(clazz, tableIndex)).append('`');
+
+        SQL querySQL = ((DefaultQueryImpl<T>) query).getWhereSql();
+
         String whereSql = querySQL.getSql();
         if (StringUtil.isNotBlank(whereSql))
-            sqlText.append(((DefaultQueryImpl<T>) query).getWhereSql());
+            sqlText.append(whereSql);
 
         SQL sql = SQL.valueOf(sqlText.toString(), querySQL.getParams());
 
@@ -128,17 +155,107 @@ public class SQLBuilder {
         return sql;
     }
 
+    /**
+     * 拼装同一个库中多张分表的查询sql. (SELECT ...) UNION ALL (SELECT ...) order by {orderList}.
+     * 每张分表使用各自的查询条件, 合并之后的排序由数据库完成.
+     * 
+     * @param tableIndexes 分表下标
+     * @param queries 和分表下标一一对应的查询条件
+     * @param orderList 合并之后的排序, 为空时不排序
+     * @return sql语句.
+     */
+    public static <T> SQL buildSelectUnionByQuery(Class<T> clazz, List<Integer> tableIndexes, List<IQuery<T>> queries,
+                                                  List<OrderBy> orderList) {
+        StringBuilder sqlText = new StringBuilder();
+        List<Object> paramList = Lists.newArrayList();
+        for (int i = 0; i < tableIndexes.size(); i++) {
+            SQL tableSQL = buildSelectByQuery(clazz, tableIndexes.get(i), queries.get(i));
+            if (i > 0) {
+                sqlText.append(" UNION ALL ");
+            }
+            sqlText.append('(').append(tableSQL.getSql()).append(')');
+            paramList.addAll(tableSQL.getParams());
+        }
+
+        if (orderList != null && !orderList.isEmpty()) {
+            sqlText.append(" order by ");
+            for (OrderBy orderBy : orderList) {
+                sqlText.append('`').append(orderBy.getField()).append('`');
+                sqlText.append(" ").append(orderBy.getOrder().getValue()).append(",");
+            }
+            sqlText.deleteCharAt(sqlText.length() - 1);
+        }
+
+        SQL sql = SQL.valueOf(sqlText.toString(), paramList);
+
+        debugSQL(sql.getSql());
+        debugSQLParam(sql.getParams());
+
+        return sql;
+    }
+
     public static <T> SQL buildSelectCountByQuery(Class<T> clazz, int tableIndex, IQuery<T> query) {
+        StringBuilder sqlText = new StringBuilder(_getTemplate(clazz, tableIndex).selectCount);
+
+        SQL querySQL = ((DefaultQueryImpl<T>) query).getWhereSql();
+
+        String whereSql = querySQL.getSql();
+        if (StringUtil.isNotBlank(whereSql))
+            sqlText.append(whereSql);
+
+        SQL sql = SQL.valueOf(sqlText.toString(), querySQL.getParams());
+
+        debugSQL(sql.getSql());
+        debugSQLParam(sql.getParams());
+
+        return sql;
+    }
+
+    /**
+     * 拼装聚合查询sql. SELECT {groupFields}, {aggregates} FROM tableName {IQuery.getConditionSql()} GROUP BY
+     * {groupFields}. avg拆分为sum和count两列, 由客户端合并之后计算.
+     * 
+     * @return sql语句.
+     */
+    public static <T> SQL buildSelectAggregateByQuery(Class<T> clazz, int tableIndex, IQuery<T> query,
+                                                      List<Aggregate> aggregates) {
         String tableName = entityMetaManager.getTableName(clazz, tableIndex);
 
-        StringBuilder sqlText = new StringBuilder("SELECT count(*) FROM ");
-        sqlText.append('`').append(tableName).append('`');
+        StringBuilder groupSql = new StringBuilder();
+        if (((DefaultQueryImpl<T>) query).hasGroupFields()) {
+            for (String groupField : ((DefaultQueryImpl<T>) query).getGroupFields()) {
+                groupSql.append('`').append(getColumnName(clazz, groupField)).append('`').append(',');
+            }
+            groupSql.deleteCharAt(groupSql.length() - 1);
+        }
 
-        SQL querySQL = ((DefaultQueryImpl<T>) query).getWhereSql();
+        StringBuilder sqlText = new StringBuilder("SELECT ");
+        if (groupSql.length() > 0) {
+            sqlText.append(groupSql).append(',');
+        }
+        for (Aggregate aggregate : aggregates) {
+            String column = aggregate.isCountAll() ? "*" : '`' + getColumnName(clazz, aggregate.getField()) + '`';
+            switch (aggregate.getFunction()) {
+                case AVG:
+                    sqlText.append("sum(").append(column).append("),count(").append(column).append(")");
+                    break;
+                default:
+                    sqlText.append(aggregate.getFunction().getValue()).append('(').append(column).append(')');
+                    break;
+            }
+            sqlText.append(',');
+        }
+        sqlText.deleteCharAt(sqlText.length() - 1);
+        sqlText.append(" FROM ").append('`').append(tableName).append('`');
 
+        SQL querySQL = ((DefaultQueryImpl<T>) query).getConditionSql();
         String whereSql = querySQL.getSql();
         if (StringUtil.isNotBlank(whereSql))
-            sqlText.append(((DefaultQueryImpl<T>) query).getWhereSql());
+            sqlText.append(whereSql);
+
+        if (groupSql.length() > 0) {
+            sqlText.append(" GROUP BY ").append(groupSql);
+        }
 
         SQL sql = SQL.valueOf(sqlText.toString(), querySQL.getParams());
 
@@ -148,6 +265,17 @@ public class SQLBuilder {
         return sql;
     }
 
+    /**
+     * 获取实体字段对应的数据库字段名, 找不到实体字段时原样返回.
+     */
+    public static String getColumnName(Class<?> clazz, String field) {
+        Field f = BeansUtil.getField(clazz, field);
+        if (f == null) {
+            return field;
+        }
+        return BeansUtil.getFieldName(f);
+    }
+
     public static PreparedStatement buildSelectBySqlGlobal(Connection conn, SQL sql) throws SQLException {
         PreparedStatement ps = conn.prepareStatement(sql.getSql());
         List<Object> params = sql.getParams();
@@ -190,14 +318,11 @@ public class SQLBuilder {
     }
 
     public static String buildSelectCountGlobalSql(Class<?> clazz) {
-        String tableName = entityMetaManager.getTableName(clazz, -1);
-
-        StringBuilder SQL = new StringBuilder("SELECT count(*) ").append("FROM ");
-        SQL.append('`').append(tableName).append('`');
+        String sql = _getTemplate(clazz, -1).selectCount;
 
-        debugSQL(SQL.toString());
+        debugSQL(sql);
 
-        return SQL.toString();
+        return sql;
     }
 
     /**
@@ -208,22 +333,11 @@ public class SQLBuilder {
      * @return SELECT count(*) FROM tableName
      */
     public static String buildSelectCountSql(Class<?> clazz, int tableIndex) {
-        String sql = _selectCountCache.get(clazz.getName() + tableIndex);
-        if (sql != null) {
-            debugSQL(sql);
-            return sql;
-        }
-
-        String tableName = entityMetaManager.getTableName(clazz, tableIndex);
+        String sql = _getTemplate(clazz, tableIndex).selectCount;
 
-        StringBuilder SQL = new StringBuilder("SELECT count(*) ").append("FROM ");
-        SQL.append('`').append(tableName).append('`');
+        debugSQL(sql);
 
-        _selectCountCache.put(clazz.getName() + tableIndex, SQL.toString());
-
-        debugSQL(SQL.toString());
-
-        return SQL.toString();
+        return sql;
     }
 
     /**
@@ -237,73 +351,48 @@ public class SQLBuilder {
      */
     public static SQL buildSelectByPks(EntityPK[] pks, List<OrderBy> orders, Class<?> clazz, int tableIndex)
             throws SQLException {
-        Field[] fields = BeansUtil.getFields(clazz, true);
-        String tableName = entityMetaManager.getTableName(clazz, tableIndex);
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
 
-        StringBuilder whereSql = new StringBuilder();
-        StringBuilder orderSql = new StringBuilder();
-        StringBuilder findInSet = new StringBuilder();
+        StringBuilder sqlText = new StringBuilder(template.selectByPk);
+        StringBuilder findInSet = null;
 
         // build where
         // build find in set just only not union pk.
-        List<Object> paramList = Lists.newArrayList();
-        if (entityMetaManager.isUnionKey(clazz)) {
-            // union pk, build (pk1 = ? and pk2 = ?) or (pk1 = ? and pk2 = ?)
+        List<Object> paramList = Lists.newArrayListWithCapacity(pks.length * template.pkNum);
+        if (template.pkNum > 1) {
+            // union pk, build (`pk1`,`pk2`) in ((?,?),(?,?))
+            _appendPkIn(sqlText, template, pks.length);
             for (EntityPK pk : pks) {
-                whereSql.append("(");
-                for (int i = 0; i < pk.getPkNames().length; i++) {
-                    whereSql.append('`').append(pk.getPkNames()[i].getValue()).append('`');
-                    whereSql.append("=").append('?');
-                    whereSql.append(" and ");
-
-                    paramList.add(formatValue(pk.getPkValues()[i].getValue()));
+                for (PKValue pkValue : pk.getPkValues()) {
+                    paramList.add(formatValue(pkValue.getValue()));
                 }
-                whereSql.delete(whereSql.length() - 5, whereSql.length());
-                whereSql.append(")");
-                whereSql.append(" or ");
             }
-            whereSql.delete(whereSql.length() - 4, whereSql.length());
         } else {
             // not union pk, build pk in (?,?,?)
-            String pkName = entityMetaManager.getNotUnionPkName(clazz).getValue();
-            findInSet.append("find_in_set(").append(pkName).append(",'");
-            whereSql.append(pkName).append(" in (");
+            findInSet = new StringBuilder();
+            findInSet.append("find_in_set(").append(template.pkName).append(",'");
+            sqlText.append(template.pkName).append(" in (").append(_getPlaceholders(pks.length)).append(')');
             for (EntityPK pk : pks) {
-                whereSql.append("?,");
                 findInSet.append(pk.getPkValues()[0].getValue()).append(',');
                 paramList.add(formatValue(pk.getPkValues()[0].getValue()));
             }
-            whereSql.deleteCharAt(whereSql.length() - 1);
-            whereSql.append(")");
             findInSet.deleteCharAt(findInSet.length() - 1);
             findInSet.append("')");
         }
 
         // build order
         if (orders != null && !orders.isEmpty()) {
-            orderSql.append(" order by ");
+            sqlText.append(" order by ");
             for (OrderBy orderBy : orders) {
-                orderSql.append('`').append(orderBy.getField()).append('`');
-                orderSql.append(" ");
-                orderSql.append(orderBy.getOrder().getValue());
-                orderSql.append(",");
+                sqlText.append('`').append(orderBy.getField()).append('`');
+                sqlText.append(" ");
+                sqlText.append(orderBy.getOrder().getValue());
+                sqlText.append(",");
             }
-            orderSql.deleteCharAt(orderSql.length() - 1);
-        } else if (StringUtil.isNotBlank(findInSet.toString())) {
-            orderSql.append(" order by ");
-            orderSql.append(findInSet);
-        }
-
-        // build sql
-        StringBuilder sqlText = new StringBuilder("SELECT ");
-        for (Field field : fields) {
-            sqlText.append('`').append(BeansUtil.getFieldName(field)).append('`').append(",");
-        }
-        sqlText.deleteCharAt(sqlText.length() - 1);
-        sqlText.append(" FROM ").append('`').append(tableName).append('`');
-        sqlText.append(" WHERE ").append(whereSql.toString());
-        if (StringUtil.isNotBlank(orderSql.toString())) {
-            sqlText.append(orderSql);
+            sqlText.deleteCharAt(sqlText.length() - 1);
+        } else if (findInSet != null) {
+            sqlText.append(" order by ");
+            sqlText.append(findInSet);
         }
 
         SQL sql = SQL.valueOf(sqlText.toString(), paramList);
@@ -315,33 +404,73 @@ public class SQLBuilder {
     }
 
     /**
-     * 拼装sql. DELETE FROM tableName WHERE pk in (...)
+     * 拼装sql. DELETE FROM tableName WHERE `pk` in (...), 联合主键时为 WHERE (`pk1`,`pk2`) in ((...),(...)).
+     * 主键数量不做限制, 需要调用方拆分.
      * 
      * @return DELETE语句
      * @throws SQLException
      */
     public static SQL buildDeleteByPks(Class<?> clazz, int tableIndex, List<EntityPK> pks) throws SQLException {
-        String tableName = entityMetaManager.getTableName(clazz, tableIndex);
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
 
-        StringBuilder whereSql = new StringBuilder();
-        List<Object> paramList = Lists.newArrayList();
+        StringBuilder sqlText = new StringBuilder(template.deleteByPk);
+        _appendPkIn(sqlText, template, pks.size());
+        List<Object> paramList = Lists.newArrayListWithCapacity(pks.size() * template.pkNum);
         for (EntityPK pk : pks) {
-            whereSql.append("(");
-            for (int i = 0; i < pk.getPkNames().length; i++) {
-                whereSql.append('`').append(pk.getPkNames()[i].getValue()).append('`');
-                whereSql.append("=").append('?');
-                whereSql.append(" and ");
+            for (PKValue pkValue : pk.getPkValues()) {
+                paramList.add(formatValue(pkValue.getValue()));
+            }
+        }
 
-                paramList.add(formatValue(pk.getPkValues()[i].getValue()));
+        SQL sql = SQL.valueOf(sqlText.toString(), paramList);
+
+        debugSQL(sql.getSql());
+        debugSQLParam(sql.getParams());
+
+        return sql;
+    }
+
+    /**
+     * 拼装sql. SELECT `pk` FROM tableName WHERE `column` in (...), 多列时为 WHERE (`column1`,`column2`) in
+     * ((...),(...)). 用于按照唯一索引的值查询主键.
+     *
+     * @param columns 列名
+     * @param values 每一行的列值, 和columns的顺序一致
+     * @return SELECT语句
+     */
+    public static SQL buildSelectPkByColumns(Class<?> clazz, int tableIndex, List<String> columns,
+                                             List<Object[]> values) {
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
+
+        StringBuilder sqlText = new StringBuilder(template.selectPk);
+        sqlText.append(" WHERE ");
+        StringBuilder columnFields = new StringBuilder();
+        for (String column : columns) {
+            if (columnFields.length() > 0) {
+                columnFields.append(',');
             }
-            whereSql.delete(whereSql.length() - 5, whereSql.length());
-            whereSql.append(")");
-            whereSql.append(" or ");
+            columnFields.append('`').append(column).append('`');
+        }
+        if (columns.size() == 1) {
+            sqlText.append(columnFields).append(" in (").append(_getPlaceholders(values.size())).append(')');
+        } else {
+            String rowPlaceholders = '(' + _getPlaceholders(columns.size()) + ')';
+            sqlText.append('(').append(columnFields).append(") in (");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    sqlText.append(',');
+                }
+                sqlText.append(rowPlaceholders);
+            }
+            sqlText.append(')');
         }
-        whereSql.delete(whereSql.length() - 4, whereSql.length());
 
-        StringBuilder sqlText = new StringBuilder("DELETE FROM ").append('`').append(tableName).append('`');
-        sqlText.append(" WHERE ").append(whereSql.toString());
+        List<Object> paramList = Lists.newArrayListWithCapacity(values.size() * columns.size());
+        for (Object[] row : values) {
+            for (Object value : row) {
+                paramList.add(formatValue(value));
+            }
+        }
 
         SQL sql = SQL.valueOf(sqlText.toString(), paramList);
 
@@ -354,52 +483,39 @@ public class SQLBuilder {
     /**
      * 获取update PreparedStatement.
      * 
-     * @param conn 数据库连接
-     * @param entities 数据对象
+     * @param entity 数据对象
      * @param tableIndex 分表下标
-     * @return PreparedStatement
+     * @param updateValues 需要更新的值, 通过WritePlan.getUpdateValues获取
+     * @return SQL语句
      * @throws SQLException
      */
-    public static SQL getUpdate(Object entity, int tableIndex) throws SQLException {
-        // 获取表名.
-        String tableName = entityMetaManager.getTableName(entity, tableIndex);
-
-        // 批量添加
-        Map<String, Object> entityProperty = null;
-        try {
-            entityProperty = BeansUtil.describe(entity, true);
-        } catch (Exception e) {
-            throw new SQLException("解析实体对象失败", e);
-        }
-        // 拼装主键条件
-        EntityPK entityPk = entityMetaManager.getEntityPK(entity);
-        StringBuilder pkWhereSql = new StringBuilder();
-        List<Object> whereParam = Lists.newArrayList();
-        for (int i = 0; i < entityPk.getPkNames().length; i++) {
-            pkWhereSql.append('`').append(entityPk.getPkNames()[i].getValue()).append('`');
-            pkWhereSql.append("=").append('?');
-            pkWhereSql.append(" and ");
+    public static SQL getUpdate(Object entity, int tableIndex, WritePlan.UpdateValues updateValues)
+            throws SQLException {
+        SQLTemplate template = _getTemplate(entity.getClass(), tableIndex);
 
-            whereParam.add(formatValue(entityPk.getPkValues()[i].getValue()));
-        }
-        pkWhereSql.delete(pkWhereSql.length() - 5, pkWhereSql.length());
+        String[] columns = WritePlan.valueOf(entity.getClass()).getColumns();
+        Object[] values = updateValues.getValues();
+        // 主键条件的参数
+        EntityPK entityPk = entityMetaManager.getEntityPK(entity);
 
-        // 生成update语句.
-        List<Object> paramList = Lists.newArrayList();
-        Set<Map.Entry<String, Object>> propertyEntrySet = entityProperty.entrySet();
-        StringBuilder sqlText = new StringBuilder("UPDATE `" + tableName + "` SET ");
-        Object value = null;
-        for (Map.Entry<String, Object> propertyEntry : propertyEntrySet) {
-            value = propertyEntry.getValue();
-            sqlText.append('`').append(propertyEntry.getKey()).append('`');
+        // 生成update语句, 值为null的字段不更新.
+        List<Object> paramList = Lists.newArrayListWithCapacity(columns.length + template.pkNum);
+        StringBuilder sqlText = new StringBuilder(template.update);
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            sqlText.append('`').append(columns[i]).append('`');
             sqlText.append("=").append("?");
             sqlText.append(",");
 
-            paramList.add(formatValue(value));
+            paramList.add(formatValue(values[i]));
         }
         sqlText.deleteCharAt(sqlText.length() - 1);
-        sqlText.append(" WHERE ").append(pkWhereSql.toString());
-        paramList.addAll(whereParam);
+        sqlText.append(" WHERE ").append(template.pkWhere);
+        for (PKValue pkValue : entityPk.getPkValues()) {
+            paramList.add(formatValue(pkValue.getValue()));
+        }
 
         SQL sql = SQL.valueOf(sqlText.toString(), paramList);
 
@@ -419,38 +535,113 @@ public class SQLBuilder {
      * @throws SQLException 操作失败
      */
     public static SQL getInsert(Object entity, int tableIndex) throws SQLException {
-        // 获取表名.
-        String tableName = entityMetaManager.getTableName(entity, tableIndex);
+        WritePlan plan = WritePlan.valueOf(entity.getClass());
 
-        // 批量添加
-        Map<String, Object> entityProperty = null;
-        try {
-            // 获取需要被插入数据库的字段.
-            entityProperty = BeansUtil.describe(entity, true);
-        } catch (Exception e) {
-            throw new SQLException("解析实体对象失败", e);
-        }
+        List<Object[]> rows = Lists.newArrayListWithCapacity(1);
+        rows.add(plan.getValues(entity, new Timestamp(System.currentTimeMillis())));
+        return getInsert(entity.getClass(), tableIndex, rows);
+    }
+
+    /**
+     * 生成一条插入多行数据的insert语句. 所有行使用相同的列, 所有行都为null的列不插入,
+     * 部分行为null的列使用DEFAULT.
+     * 
+     * @param clazz 数据对象class
+     * @param tableIndex 分表下标
+     * @param rows 每一行的值, 由WritePlan.getValues获取
+     * @return SQL语句
+     */
+    public static SQL getInsert(Class<?> clazz, int tableIndex, List<Object[]> rows) {
+        return _buildInsert(clazz, tableIndex, rows, false);
+    }
 
-        // 生成insert语句.
-        Set<Map.Entry<String, Object>> propertyEntrySet = entityProperty.entrySet();
+    /**
+     * 生成一条插入多行数据的INSERT ... ON DUPLICATE KEY UPDATE语句, 主键或者唯一索引冲突时使用新值更新插入的列.
+     * 为了保持忽略null值的更新语义, 所有行为null的列必须相同.
+     * 
+     * @param clazz 数据对象class
+     * @param tableIndex 分表下标
+     * @param rows 每一行的值, 由WritePlan.getValues获取
+     * @return SQL语句
+     */
+    public static SQL getUpsert(Class<?> clazz, int tableIndex, List<Object[]> rows) {
+        return _buildInsert(clazz, tableIndex, rows, true);
+    }
 
-        List<Object> paramList = Lists.newArrayList();
-        StringBuilder sqlText = new StringBuilder("INSERT INTO `" + tableName + "` (");
-        StringBuilder var = new StringBuilder();
-        for (Map.Entry<String, Object> propertyEntry : propertyEntrySet) {
-            sqlText.append('`').append(propertyEntry.getKey()).append('`').append(",");
-            var.append('?').append(',');
+    private static SQL _buildInsert(Class<?> clazz, int tableIndex, List<Object[]> rows, boolean upsert) {
+        SQLTemplate template = _getTemplate(clazz, tableIndex);
+
+        String[] columns = WritePlan.valueOf(clazz).getColumns();
+        boolean[] insertColumns = new boolean[columns.length];
+        int columnNum = 0;
+        for (int i = 0; i < columns.length; i++) {
+            for (Object[] row : rows) {
+                if (row[i] != null) {
+                    insertColumns[i] = true;
+                    columnNum++;
+                    break;
+                }
+            }
+        }
 
-            paramList.add(formatValue(propertyEntry.getValue()));
+        List<Object> paramList = Lists.newArrayListWithCapacity(columnNum * rows.size());
+        StringBuilder sqlText = new StringBuilder(template.insert);
+        for (int i = 0; i < columns.length; i++) {
+            if (insertColumns[i]) {
+                sqlText.append('`').append(columns[i]).append('`').append(",");
+            }
         }
         sqlText.deleteCharAt(sqlText.length() - 1);
-        sqlText.append(") VALUES (");
-        sqlText.append(var.deleteCharAt(var.length() - 1).toString());
-        sqlText.append(")");
+        sqlText.append(") VALUES ");
+
+        Object[] row = null;
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sqlText.append(',');
+            }
+            sqlText.append('(');
+            row = rows.get(i);
+            boolean first = true;
+            for (int j = 0; j < columns.length; j++) {
+                if (!insertColumns[j]) {
+                    continue;
+                }
+                if (!first) {
+                    sqlText.append(',');
+                }
+                first = false;
+
+                if (row[j] == null) {
+                    sqlText.append("DEFAULT");
+                } else {
+                    sqlText.append('?');
+                    paramList.add(formatValue(row[j]));
+                }
+            }
+            sqlText.append(')');
+        }
+
+        if (upsert) {
+            sqlText.append(" ON DUPLICATE KEY UPDATE ");
+            int updateNum = 0;
+            for (int i = 0; i < columns.length; i++) {
+                if (insertColumns[i] && !template.isPk(columns[i])) {
+                    sqlText.append('`').append(columns[i]).append("`=VALUES(`").append(columns[i]).append("`),");
+                    updateNum++;
+                }
+            }
+            if (updateNum > 0) {
+                sqlText.deleteCharAt(sqlText.length() - 1);
+            } else {
+                // 只有主键列时不需要更新
+                String pkName = entityMetaManager.getPkName(clazz)[0].getValue();
+                sqlText.append('`').append(pkName).append("`=`").append(pkName).append('`');
+            }
+        }
 
         SQL sql = SQL.valueOf(sqlText.toString(), paramList);
 
-        debugSQL(sqlText.toString());
+        debugSQL(sql.getSql());
         debugSQLParam(paramList);
 
         return sql;
@@ -496,27 +687,9 @@ public class SQLBuilder {
     public static <T> List<T> createResultObject(Class<T> clazz, ResultSet rs) throws SQLException {
         List<T> list = new ArrayList<T>();
 
-        ResultSetMetaData rsmd = rs.getMetaData();
-        T one = null;
+        RowMapper<T> mapper = RowMapper.valueOf(clazz, rs.getMetaData());
         while (rs.next()) {
-            try {
-                one = (T) clazz.newInstance();
-                String fieldName = null;
-                Field f = null;
-                Object value = null;
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    fieldName = rsmd.getColumnName(i);
-                    f = BeansUtil.getField(clazz, fieldName);
-                    if (f == null) {
-                        continue;
-                    }
-                    value = _getRsValue(rs, f, i);
-                    BeansUtil.setProperty(one, fieldName, value);
-                }
-                list.add(one);
-            } catch (Exception e) {
-                throw new SQLException(e);
-            }
+            list.add(mapper.map(rs));
         }
 
         return list;
@@ -533,74 +706,192 @@ public class SQLBuilder {
     public static <T> Map<EntityPK, T> createResultObjectAsMap(Class<T> clazz, ResultSet rs) throws SQLException {
         Map<EntityPK, T> map = Maps.newLinkedHashMap();
 
-        ResultSetMetaData rsmd = rs.getMetaData();
-        T one = null;
-        String fieldName = null;
+        RowMapper<T> mapper = RowMapper.valueOf(clazz, rs.getMetaData());
         PKName[] pkNames = entityMetaManager.getPkName(clazz);
-        PKValue[] pkValues = null;
+        int[] pkColumns = new int[pkNames.length];
+        for (int i = 0; i < pkNames.length; i++) {
+            pkColumns[i] = mapper.getColumnIndex(pkNames[i].getValue());
+        }
 
-        Field f = null;
-        Object value = null;
+        T one = null;
+        PKValue[] pkValues = null;
         while (rs.next()) {
-            try {
-                one = (T) clazz.newInstance();
-
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    fieldName = rsmd.getColumnName(i);
-                    f = BeansUtil.getField(clazz, fieldName);
-                    if (f == null) {
-                        continue;
-                    }
-                    value = _getRsValue(rs, f, i);
-                    BeansUtil.setProperty(one, fieldName, value);
-                }
+            one = mapper.map(rs);
 
-                pkValues = new PKValue[pkNames.length];
-                for (int i = 0; i < pkNames.length; i++) {
+            pkValues = new PKValue[pkNames.length];
+            for (int i = 0; i < pkNames.length; i++) {
+                if (pkColumns[i] > 0) {
+                    pkValues[i] = PKValue.valueOf(rs.getObject(pkColumns[i]));
+                } else {
                     pkValues[i] = PKValue.valueOf(rs.getObject(pkNames[i].getValue()));
                 }
-
-                map.put(EntityPK.valueOf(pkNames, pkValues), one);
-            } catch (Exception e) {
-                throw new SQLException(e);
             }
+
+            map.put(EntityPK.valueOf(pkNames, pkValues), one);
         }
 
         return map;
     }
 
-    private static Object _getRsValue(ResultSet rs, Field f, int i) throws SQLException {
-        Object value = rs.getObject(i);
-
-        if (value != null) {
-            if (f.getType() == Boolean.TYPE || f.getType() == Boolean.class) {
-                value = rs.getString(i).equals(Const.TRUE) ? true : false;
-            } else if (f.getType() == Byte.TYPE || f.getType() == Byte.class) {
-                value = rs.getByte(i);
-            } else if (f.getType() == Character.TYPE || f.getType() == Character.class) {
-                String s = rs.getString(i);
-                if (s.length() > 0)
-                    value = rs.getString(i).charAt(0);
-                else
-                    value = new Character('\u0000');
-            } else if (f.getType() == Short.TYPE || f.getType() == Short.class) {
-                value = rs.getShort(i);
-            } else if (f.getType() == Long.TYPE || f.getType() == Long.class) {
-                value = rs.getLong(i);
-            } else if (f.getType() == Integer.TYPE || f.getType() == Integer.class) {
-                if (value instanceof Boolean) {
-                    if ((Boolean) value) {
-                        value = new Integer(1);
-                    } else {
-                        value = new Integer(0);
-                    }
-                }
+    /**
+     * 拼装主键的in条件. `pk` in (?,?), 联合主键时使用行构造器 (`pk1`,`pk2`) in ((?,?),(?,?))
+     */
+    private static void _appendPkIn(StringBuilder sqlText, SQLTemplate template, int n) {
+        if (template.pkNum == 1) {
+            sqlText.append(template.pkFields).append(" in (").append(_getPlaceholders(n)).append(')');
+            return;
+        }
+
+        String rowPlaceholders = '(' + _getPlaceholders(template.pkNum) + ')';
+        sqlText.append('(').append(template.pkFields).append(") in (");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sqlText.append(',');
             }
+            sqlText.append(rowPlaceholders);
         }
+        sqlText.append(')');
+    }
 
+    /**
+     * 获取一张表的sql模板, 第一次使用时创建.
+     */
+    private static SQLTemplate _getTemplate(Class<?> clazz, int tableIndex) {
+        Map<Integer, SQLTemplate> templates = _templateCache.get(clazz);
+        if (templates == null) {
+            templates = new ConcurrentHashMap<Integer, SQLTemplate>();
+            _templateCache.put(clazz, templates);
+        }
+
+        SQLTemplate template = templates.get(tableIndex);
+        if (template == null) {
+            template = new SQLTemplate(clazz, tableIndex);
+            templates.put(tableIndex, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * 获取n个用逗号分隔的占位符.
+     */
+    private static String _getPlaceholders(int n) {
+        if (n < _placeholderCache.length && _placeholderCache[n] != null) {
+            return _placeholderCache[n];
+        }
+
+        StringBuilder placeholders = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                placeholders.append(',');
+            }
+            placeholders.append('?');
+        }
+
+        String value = placeholders.toString();
+        if (n < _placeholderCache.length) {
+            _placeholderCache[n] = value;
+        }
         return value;
     }
 
+    /**
+     * 一张表固定不变的sql片段, 每次拼装sql时只需要追加变化的部分和参数.
+     */
+    private static class SQLTemplate {
+
+        /**
+         * `tableName`
+         */
+        final String      tableName;
+
+        /**
+         * 主键个数
+         */
+        final int         pkNum;
+
+        /**
+         * 单主键的主键名, 联合主键时为null.
+         */
+        final String      pkName;
+
+        /**
+         * `pk1`=? and `pk2`=?
+         */
+        final String      pkWhere;
+
+        /**
+         * `pk1`,`pk2`
+         */
+        final String      pkFields;
+
+        final String      selectAll;
+
+        final String      selectPk;
+
+        final String      selectCount;
+
+        /**
+         * SELECT `field1`,`field2` FROM `tableName` WHERE
+         */
+        final String      selectByPk;
+
+        final String      deleteByPk;
+
+        final String      insert;
+
+        final String      update;
+
+        /**
+         * 主键列名
+         */
+        final Set<String> pkColumns;
+
+        SQLTemplate(Class<?> clazz, int tableIndex) {
+            this.tableName = '`' + entityMetaManager.getTableName(clazz, tableIndex) + '`';
+
+            PKName[] pkNames = entityMetaManager.getPkName(clazz);
+            this.pkNum = pkNames.length;
+            this.pkName = entityMetaManager.isUnionKey(clazz) ? null : pkNames[0].getValue();
+
+            StringBuilder pkWhere = new StringBuilder();
+            StringBuilder pkFields = new StringBuilder();
+            for (int i = 0; i < pkNames.length; i++) {
+                if (i > 0) {
+                    pkWhere.append(" and ");
+                    pkFields.append(',');
+                }
+                pkWhere.append('`').append(pkNames[i].getValue()).append('`').append("=?");
+                pkFields.append('`').append(pkNames[i].getValue()).append('`');
+            }
+            this.pkWhere = pkWhere.toString();
+            this.pkFields = pkFields.toString();
+            this.pkColumns = Sets.newHashSet();
+            for (PKName pkName : pkNames) {
+                this.pkColumns.add(pkName.getValue());
+            }
+
+            StringBuilder fields = new StringBuilder();
+            for (Field field : BeansUtil.getFields(clazz, true)) {
+                fields.append('`').append(BeansUtil.getFieldName(field)).append('`').append(",");
+            }
+            fields.deleteCharAt(fields.length() - 1);
+
+            this.selectAll = "SELECT * FROM " + this.tableName;
+            this.selectPk = "SELECT " + pkFields + " FROM " + this.tableName;
+            this.selectCount = "SELECT count(*) FROM " + this.tableName;
+            this.selectByPk = "SELECT " + fields + " FROM " + this.tableName + " WHERE ";
+            this.deleteByPk = "DELETE FROM " + this.tableName + " WHERE ";
+            this.insert = "INSERT INTO " + this.tableName + " (";
+            this.update = "UPDATE " + this.tableName + " SET ";
+        }
+
+        boolean isPk(String column) {
+            return this.pkColumns.contains(column);
+        }
+
+    }
+
     /**
      * 格式化数据库值. 过滤特殊字符
      */
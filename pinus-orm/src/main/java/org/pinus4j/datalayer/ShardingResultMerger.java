@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 合并多个分片的查询结果.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class ShardingResultMerger {
+
+    /**
+     * 按顺序拼接每个分片的结果.
+     *
+     * @param shardResults 每个分片的结果
+     * @param limit 最多返回的条数, 小于0表示不限制
+     */
+    public static <T> List<T> concat(List<List<T>> shardResults, int limit) {
+        List<T> result = new ArrayList<T>();
+        for (List<T> shardResult : shardResults) {
+            if (limit >= 0 && result.size() + shardResult.size() >= limit) {
+                result.addAll(shardResult.subList(0, limit - result.size()));
+                break;
+            }
+            result.addAll(shardResult);
+        }
+        return result;
+    }
+
+    /**
+     * 多路归并每个分片已经排好序的结果. 使用堆选择当前最小的元素, 时间复杂度为O(n log k), k为分片数.
+     * 排序值相等时先输出分片顺序在前的元素.
+     *
+     * @param shardResults 每个分片的结果, 必须已经按照comparator排好序
+     * @param comparator 排序规则
+     * @param limit 最多返回的条数, 取够之后停止归并. 小于0表示不限制
+     */
+    public static <T> List<T> merge(List<List<T>> shardResults, final Comparator<? super T> comparator, int limit) {
+        PriorityQueue<Cursor<T>> heap = new PriorityQueue<Cursor<T>>(Math.max(1, shardResults.size()),
+                new Comparator<Cursor<T>>() {
+                    @Override
+                    public int compare(Cursor<T> c1, Cursor<T> c2) {
+                        int compareVal = comparator.compare(c1.current(), c2.current());
+                        if (compareVal == 0) {
+                            compareVal = c1.shardIndex < c2.shardIndex ? -1 : (c1.shardIndex == c2.shardIndex ? 0 : 1);
+                        }
+                        return compareVal;
+                    }
+                });
+
+        int total = 0;
+        for (int i = 0; i < shardResults.size(); i++) {
+            List<T> shardResult = shardResults.get(i);
+            if (!shardResult.isEmpty()) {
+                heap.add(new Cursor<T>(i, shardResult));
+                total += shardResult.size();
+            }
+        }
+        if (limit >= 0 && limit < total) {
+            total = limit;
+        }
+
+        List<T> result = new ArrayList<T>(total);
+        while (result.size() < total) {
+            Cursor<T> cursor = heap.poll();
+            result.add(cursor.current());
+            if (cursor.next()) {
+                heap.add(cursor);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 一个分片结果的读取位置.
+     */
+    private static class Cursor<T> {
+
+        private final int     shardIndex;
+
+        private final List<T> data;
+
+        private int           index;
+
+        Cursor(int shardIndex, List<T> data) {
+            this.shardIndex = shardIndex;
+            this.data = data;
+        }
+
+        T current() {
+            return this.data.get(this.index);
+        }
+
+        boolean next() {
+            return ++this.index < this.data.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pinus4j.datalayer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并对同一个key的并发加载. 第一个调用者成为加载者, 其他调用者等待加载者把结果交给自己.
+ * 加载者必须调用done或者fail结束加载, 等待的一方超时或者加载失败后应该自己加载.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<Object, Call> calls = new ConcurrentHashMap<Object, Call>();
+
+    /**
+     * 等待加载完成的最长时间, 毫秒.
+     */
+    private final long                        waitMillis;
+
+    public SingleFlight(long waitMillis) {
+        if (waitMillis <= 0) {
+            throw new IllegalArgumentException("参数错误, waitMillis=" + waitMillis);
+        }
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * 开始加载一个key.
+     *
+     * @return null表示当前线程成为加载者, 否则返回正在进行的加载
+     */
+    public Call begin(Object key) {
+        return this.calls.putIfAbsent(key, new Call());
+    }
+
+    /**
+     * 加载者完成加载, 把结果交给等待的线程.
+     *
+     * @param result 加载结果, null表示没有数据
+     */
+    public void done(Object key, Object result) {
+        Call call = this.calls.remove(key);
+        if (call != null) {
+            call.result = result;
+            call.success = true;
+            call.latch.countDown();
+        }
+    }
+
+    /**
+     * 加载失败, 唤醒等待的线程自己加载.
+     */
+    public void fail(Object key) {
+        Call call = this.calls.remove(key);
+        if (call != null) {
+            call.latch.countDown();
+        }
+    }
+
+    /**
+     * 等待一个正在进行的加载.
+     *
+     * @return true表示加载者成功完成加载, 可以通过getResult获取结果. false表示等待超时, 被中断或者加载失败
+     */
+    public boolean await(Call call) {
+        try {
+            return call.latch.await(this.waitMillis, TimeUnit.MILLISECONDS) && call.success;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 一次正在进行的加载. 结果在countDown之前写入, await返回之后读取.
+     */
+    public static class Call {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private Object               result;
+
+        private boolean              success;
+
+        public Object getResult() {
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pinus4j.datalayer;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.pinus4j.api.query.IQueryIterator;
+import org.pinus4j.cluster.resources.IDBResource;
+import org.pinus4j.exceptions.DBOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 流式读取多个分片的查询结果. 没有排序时按顺序逐个读取分片, 同一时间只打开一个结果集;
+ * 有排序时同时打开所有分片的结果集, 使用堆多路归并, 内存中只保留每个分片的当前记录.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class StreamingResultIterator<T> implements IQueryIterator<T> {
+
+    public static final Logger               LOG = LoggerFactory.getLogger(StreamingResultIterator.class);
+
+    private final List<? extends Cursor<T>>  cursors;
+
+    private final Collection<IDBResource>    dbResources;
+
+    private final PriorityQueue<Cursor<T>>   heap;
+
+    /**
+     * 没有排序时当前读取的分片.
+     */
+    private int                              cursorIndex;
+
+    private int                              skip;
+
+    private int                              remain;
+
+    private T                                next;
+
+    private boolean                          isClosed;
+
+    /**
+     * @param cursors 每个分片的游标, 有排序时每个游标的结果必须已经按照comparator排好序
+     * @param comparator 排序规则, 为null时按顺序拼接每个分片的结果
+     * @param start 跳过的记录数, 小于0表示不跳过
+     * @param limit 最多返回的条数, 小于0表示不限制
+     * @param dbResources 关闭时需要释放的资源, 在事务中时由事务释放, 传入null
+     */
+    public StreamingResultIterator(List<? extends Cursor<T>> cursors, final Comparator<? super T> comparator,
+                                   int start, int limit, Collection<IDBResource> dbResources) {
+        this.cursors = cursors;
+        this.dbResources = dbResources;
+        this.skip = start > 0 ? start : 0;
+        this.remain = limit;
+
+        if (comparator != null) {
+            this.heap = new PriorityQueue<Cursor<T>>(Math.max(1, cursors.size()), new Comparator<Cursor<T>>() {
+                @Override
+                public int compare(Cursor<T> c1, Cursor<T> c2) {
+                    int compareVal = comparator.compare(c1.current, c2.current);
+                    if (compareVal == 0) {
+                        compareVal = c1.index < c2.index ? -1 : (c1.index == c2.index ? 0 : 1);
+                    }
+                    return compareVal;
+                }
+            });
+        } else {
+            this.heap = null;
+        }
+
+        try {
+            if (this.heap != null) {
+                for (int i = 0; i < cursors.size(); i++) {
+                    Cursor<T> cursor = cursors.get(i);
+                    cursor.index = i;
+                    if (cursor.advance()) {
+                        this.heap.add(cursor);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            close();
+            throw new DBOperationException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next != null) {
+            return true;
+        }
+        if (this.isClosed) {
+            return false;
+        }
+
+        try {
+            while (this.remain != 0) {
+                T one = _fetch();
+                if (one == null) {
+                    break;
+                }
+                if (this.skip > 0) {
+                    this.skip--;
+                    continue;
+                }
+                if (this.remain > 0) {
+                    this.remain--;
+                }
+                this.next = one;
+                return true;
+            }
+        } catch (Exception e) {
+            close();
+            throw new DBOperationException(e);
+        }
+
+        close();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        T one = this.next;
+        this.next = null;
+        return one;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public void close() {
+        if (this.isClosed) {
+            return;
+        }
+        this.isClosed = true;
+
+        // 关闭失败时继续释放其他的资源, 避免连接泄露
+        for (Cursor<T> cursor : this.cursors) {
+            try {
+                cursor.close();
+            } catch (RuntimeException e) {
+                LOG.warn("close cursor failure " + e.getMessage());
+            }
+        }
+        if (this.dbResources != null) {
+            for (IDBResource dbResource : this.dbResources) {
+                dbResource.close();
+            }
+        }
+    }
+
+    private T _fetch() throws Exception {
+        if (this.heap != null) {
+            Cursor<T> cursor = this.heap.poll();
+            if (cursor == null) {
+                return null;
+            }
+            T one = cursor.current;
+            if (cursor.advance()) {
+                this.heap.add(cursor);
+            }
+            return one;
+        }
+
+        while (this.cursorIndex < this.cursors.size()) {
+            Cursor<T> cursor = this.cursors.get(this.cursorIndex);
+            if (cursor.advance()) {
+                return cursor.current;
+            }
+            // 读完一个分片之后关闭它的结果集, 共享连接的下一个分片才能打开结果集
+            cursor.close();
+            this.cursorIndex++;
+        }
+        return null;
+    }
+
+    /**
+     * 一个分片的结果读取位置.
+     */
+    public static abstract class Cursor<T> {
+
+        private int index;
+
+        private T   current;
+
+        boolean advance() throws Exception {
+            this.current = fetch();
+            return this.current != null;
+        }
+
+        /**
+         * 读取下一条记录, 没有更多记录时返回null.
+         */
+        protected abstract T fetch() throws Exception;
+
+        /**
+         * 关闭此游标, 可以重复调用.
+         */
+        protected abstract void close();
+
+    }
+
+}
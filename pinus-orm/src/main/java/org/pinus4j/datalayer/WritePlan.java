@@ -0,0 +1,318 @@
+/**
+ * Copyright 2014 Duan Bingnan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.pinus4j.constant.Const;
+import org.pinus4j.entity.DefaultEntityMetaManager;
+import org.pinus4j.entity.annotations.Table;
+import org.pinus4j.entity.annotations.UpdateTime;
+import org.pinus4j.utils.BeansUtil;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * 数据对象写入数据库时使用的列. 每个数据对象class只解析一次, 列的顺序固定(按照列名排序),
+ * 同一个class的所有数据对象按照相同的列生成insert/update语句.
+ *
+ * @author duanbn
+ * @since 1.2.0
+ */
+public class WritePlan {
+
+    private static final ConcurrentMap<Class<?>, WritePlan> _planCache = new ConcurrentHashMap<Class<?>, WritePlan>();
+
+    private final String[]                                 columns;
+
+    private final Field[]                                  fields;
+
+    /**
+     * 为null时需要转换为空字符串的text字段.
+     */
+    private final boolean[]                                emptyText;
+
+    /**
+     * 使用@UpdateTime标注的字段.
+     */
+    private final boolean[]                                updateTime;
+
+    /**
+     * 是否只更新被修改过的字段.
+     */
+    private final boolean                                  dirtyCheck;
+
+    /**
+     * 数据对象加载时的字段值, 按照对象引用比较, 数据对象被回收后自动删除.
+     */
+    private final ConcurrentMap<Object, Object[]>          snapshots;
+
+    private WritePlan(Class<?> clazz) {
+        Map<String, Field> sorted = new TreeMap<String, Field>();
+        for (Field f : BeansUtil.getFields(clazz, true)) {
+            sorted.put(BeansUtil.getFieldName(f), f);
+        }
+
+        int size = sorted.size();
+        this.columns = new String[size];
+        this.fields = new Field[size];
+        this.emptyText = new boolean[size];
+        this.updateTime = new boolean[size];
+
+        int i = 0;
+        for (Map.Entry<String, Field> entry : sorted.entrySet()) {
+            Field f = entry.getValue();
+            f.setAccessible(true);
+
+            this.columns[i] = entry.getKey();
+            this.fields[i] = f;
+
+            org.pinus4j.entity.annotations.Field annoField = f
+                    .getAnnotation(org.pinus4j.entity.annotations.Field.class);
+            this.emptyText[i] = f.getType() == String.class && annoField != null
+                    && annoField.length() > Const.COLUMN_TEXT_LENGTH;
+            this.updateTime[i] = f.getAnnotation(UpdateTime.class) != null;
+            i++;
+        }
+
+        this.dirtyCheck = clazz.getAnnotation(Table.class) != null
+                && DefaultEntityMetaManager.getInstance().isDirtyCheck(clazz);
+        this.snapshots = this.dirtyCheck ? new MapMaker().weakKeys().<Object, Object[]> makeMap() : null;
+    }
+
+    public static WritePlan valueOf(Class<?> clazz) {
+        WritePlan plan = _planCache.get(clazz);
+        if (plan == null) {
+            plan = new WritePlan(clazz);
+            WritePlan exists = _planCache.putIfAbsent(clazz, plan);
+            if (exists != null) {
+                plan = exists;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * 获取需要写入的列名, 顺序和getValues返回的值一致.
+     */
+    public String[] getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * 获取列名的下标, 找不到返回-1.
+     */
+    public int getColumnIndex(String column) {
+        for (int i = 0; i < this.columns.length; i++) {
+            if (this.columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取数据对象每一列的值. @UpdateTime标注的字段会被设置为当前时间, 超长字符串字段的null值转换为空字符串.
+     * 其他字段的null值保持为null, 由调用方决定如何处理.
+     *
+     * @param entity 数据对象
+     * @param now 更新时间
+     */
+    public Object[] getValues(Object entity, Timestamp now) {
+        Object[] values = new Object[this.fields.length];
+
+        try {
+            for (int i = 0; i < this.fields.length; i++) {
+                if (this.updateTime[i]) {
+                    this.fields[i].set(entity, now);
+                    values[i] = now;
+                    continue;
+                }
+
+                values[i] = _getValue(entity, i);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return values;
+    }
+
+    public boolean isDirtyCheck() {
+        return this.dirtyCheck;
+    }
+
+    /**
+     * 记录数据对象当前的字段值, 只有开启了dirtyCheck时才记录.
+     */
+    public void snapshot(Object entity) {
+        if (!this.dirtyCheck) {
+            return;
+        }
+
+        try {
+            this.snapshots.put(entity, _getSnapshot(entity));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 获取update需要更新的值, 值为null的列不更新. 开启了dirtyCheck并且数据对象有加载时的记录时, 和记录相同的列也返回null,
+     * 没有列被修改时返回null, 并且不会修改@UpdateTime标注的字段.
+     * 返回更新之后的字段值, 调用方在update执行成功(有事务时在事务提交)之后通过PendingSnapshots记录, 作为下次比较的记录.
+     *
+     * @param entity 数据对象
+     * @param now 更新时间
+     */
+    public UpdateValues getUpdateValues(Object entity, Timestamp now) {
+        Object[] snapshot = this.dirtyCheck ? this.snapshots.get(entity) : null;
+        try {
+            if (snapshot == null) {
+                Object[] values = getValues(entity, now);
+                return new UpdateValues(values, this.dirtyCheck ? _getSnapshot(entity) : null);
+            }
+
+            Object[] values = new Object[this.fields.length];
+            boolean isDirty = false;
+            for (int i = 0; i < this.fields.length; i++) {
+                if (this.updateTime[i]) {
+                    continue;
+                }
+
+                values[i] = _getValue(entity, i);
+                if (_equals(values[i], snapshot[i])) {
+                    values[i] = null;
+                } else {
+                    isDirty = true;
+                }
+            }
+
+            if (!isDirty) {
+                return null;
+            }
+
+            for (int i = 0; i < this.fields.length; i++) {
+                if (this.updateTime[i]) {
+                    this.fields[i].set(entity, now);
+                    values[i] = now;
+                }
+            }
+            return new UpdateValues(values, _getSnapshot(entity));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object[] _getSnapshot(Object entity) throws IllegalAccessException {
+        Object[] values = new Object[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++) {
+            values[i] = _getValue(entity, i);
+        }
+        return values;
+    }
+
+    private Object _getValue(Object entity, int i) throws IllegalAccessException {
+        Object value = this.fields[i].get(entity);
+        if (value == null && this.emptyText[i]) {
+            value = "";
+        }
+        return value;
+    }
+
+    private boolean _equals(Object v1, Object v2) {
+        if (v1 == v2) {
+            return true;
+        }
+        if (v1 == null || v2 == null) {
+            return false;
+        }
+        if (v1 instanceof byte[] && v2 instanceof byte[]) {
+            return Arrays.equals((byte[]) v1, (byte[]) v2);
+        }
+        return v1.equals(v2);
+    }
+
+    /**
+     * update需要更新的值和更新之后的字段值.
+     */
+    public static class UpdateValues {
+
+        private final Object[] values;
+
+        /**
+         * 没有开启dirtyCheck时为null.
+         */
+        private final Object[] snapshot;
+
+        UpdateValues(Object[] values, Object[] snapshot) {
+            this.values = values;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * 每一列需要更新的值, 顺序和getColumns一致, 为null的列不更新.
+         */
+        public Object[] getValues() {
+            return this.values;
+        }
+
+    }
+
+    /**
+     * 等待update执行成功之后再记录的字段值. 更新失败或者事务回滚时丢弃, 下次update仍然会更新这些字段.
+     */
+    public static class PendingSnapshots {
+
+        private final List<Object>   entities  = new ArrayList<Object>();
+
+        private final List<Object[]> snapshots = new ArrayList<Object[]>();
+
+        public void add(Object entity, UpdateValues updateValues) {
+            if (updateValues.snapshot != null) {
+                this.entities.add(entity);
+                this.snapshots.add(updateValues.snapshot);
+            }
+        }
+
+        public boolean isEmpty() {
+            return this.entities.isEmpty();
+        }
+
+        /**
+         * 记录字段值, 在update执行成功并且提交之后调用.
+         */
+        public void apply() {
+            Object entity = null;
+            for (int i = 0; i < this.entities.size(); i++) {
+                entity = this.entities.get(i);
+                WritePlan.valueOf(entity.getClass()).snapshots.put(entity, this.snapshots.get(i));
+            }
+        }
+
+    }
+
+}
@@ -81,8 +81,17 @@ public class ShardingRecordIterator<E> extends AbstractRecordIterator<E> {
         }
     }
 
+    /**
+     * 同一个库的分表可能共享一个连接, 多个遍历器在不同线程中读取时需要在连接上同步.
+     */
     @Override
     public boolean hasNext() {
+        synchronized (this.dbResource.getConnection()) {
+            return _hasNext();
+        }
+    }
+
+    private boolean _hasNext() {
         if (this.recordQ.isEmpty()) {
             IQuery query = ((DefaultQueryImpl) this.query).clone();
             long high = this.latestId + step;
@@ -21,8 +21,11 @@ import java.util.Map;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.datalayer.Projection;
 import org.pinus4j.entity.meta.EntityPK;
 
 /**
@@ -43,6 +46,20 @@ public interface IGlobalQuery extends IDataQuery {
 
     <T> List<T> findByQuery(IQuery<T> query, Class<T> clazz, boolean useCache, EnumDBMasterSlave masterSlave);
 
+    <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates, Class<T> clazz,
+                                                       EnumDBMasterSlave masterSlave);
+
+    /**
+     * 投影查询, 不使用缓存. 从库没有数据时查询主库.
+     */
+    <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection, Class<T> clazz,
+                                         EnumDBMasterSlave masterSlave);
+
+    /**
+     * 流式查询, 不使用缓存. 从库没有数据时不会再查询主库.
+     */
+    <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, Class<T> clazz, EnumDBMasterSlave masterSlave);
+
     List<Map<String, Object>> findBySql(SQL sql, String clusterName, EnumDBMasterSlave masterSlave);
 
 }
@@ -21,9 +21,12 @@ import java.util.Map;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
 import org.pinus4j.cluster.beans.IShardingKey;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.datalayer.Projection;
 import org.pinus4j.entity.meta.EntityPK;
 
 /**
@@ -57,6 +60,36 @@ public interface IShardingQuery extends IDataQuery {
     <T> List<T> findByQuery(IQuery<T> query, IShardingKey<?> shardingKey, Class<T> clazz, boolean useCache,
                             EnumDBMasterSlave masterSlave);
 
+    <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates, Class<T> clazz,
+                                                       EnumDBMasterSlave masterSlave);
+
+    <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates,
+                                                       IShardingKey<?> shardingKey, Class<T> clazz,
+                                                       EnumDBMasterSlave masterSlave);
+
+    /**
+     * 投影查询所有分片, 不使用缓存. 从库没有数据时查询主库.
+     */
+    <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection, Class<T> clazz,
+                                         EnumDBMasterSlave masterSlave);
+
+    /**
+     * 投影查询一个分片, 不使用缓存. 从库没有数据时查询主库.
+     */
+    <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection, IShardingKey<?> shardingKey,
+                                         Class<T> clazz, EnumDBMasterSlave masterSlave);
+
+    /**
+     * 流式查询所有分片, 不使用缓存. 从库没有数据时不会再查询主库.
+     */
+    <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, Class<T> clazz, EnumDBMasterSlave masterSlave);
+
+    /**
+     * 流式查询一个分片, 不使用缓存. 从库没有数据时不会再查询主库.
+     */
+    <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, IShardingKey<?> shardingKey, Class<T> clazz,
+                                         EnumDBMasterSlave masterSlave);
+
     List<Map<String, Object>> findBySql(SQL sql, EnumDBMasterSlave masterSlave);
 
     List<Map<String, Object>> findBySql(SQL sql, IShardingKey<?> shardingKey, EnumDBMasterSlave masterSlave);
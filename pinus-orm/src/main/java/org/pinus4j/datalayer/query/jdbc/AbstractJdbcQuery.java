@@ -22,22 +22,40 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
+import javax.transaction.SystemException;
+
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.impl.Aggregate;
+import org.pinus4j.api.query.impl.DefaultQueryImpl;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
 import org.pinus4j.cluster.resources.IDBResource;
 import org.pinus4j.cluster.resources.ShardingDBResource;
 import org.pinus4j.constant.Const;
 import org.pinus4j.datalayer.AbstractDataLayer;
+import org.pinus4j.datalayer.AggregateMerger;
+import org.pinus4j.datalayer.OrderByComparator;
+import org.pinus4j.datalayer.Projection;
+import org.pinus4j.datalayer.RowMapper;
 import org.pinus4j.datalayer.SQLBuilder;
+import org.pinus4j.datalayer.SingleFlight;
 import org.pinus4j.datalayer.SlowQueryLogger;
+import org.pinus4j.datalayer.StreamingResultIterator;
+import org.pinus4j.datalayer.WritePlan;
 import org.pinus4j.datalayer.query.IDataQuery;
 import org.pinus4j.entity.meta.EntityPK;
 import org.pinus4j.entity.meta.PKName;
 import org.pinus4j.entity.meta.PKValue;
+import org.pinus4j.serializer.DeserializeException;
+import org.pinus4j.serializer.MyDeserializer;
+import org.pinus4j.serializer.MySerializer;
+import org.pinus4j.serializer.SerializeException;
 import org.pinus4j.utils.JdbcUtil;
 
 import com.google.common.collect.Lists;
@@ -50,6 +68,16 @@ import com.google.common.collect.Maps;
  */
 public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDataQuery {
 
+    /**
+     * 等待其他线程查询同一条数据的最长时间, 毫秒. 超时后自己查询数据库.
+     */
+    private static final long  SINGLE_FLIGHT_WAIT = 3000;
+
+    /**
+     * 合并并发查询同一条没有命中缓存的数据.
+     */
+    private final SingleFlight singleFlight       = new SingleFlight(SINGLE_FLIGHT_WAIT);
+
     // //////////////////////////////////////////////////////////////////////////////////////
     // count相关
     // //////////////////////////////////////////////////////////////////////////////////////
@@ -115,6 +143,17 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
             }
         }
 
+        return selectCountAndCache(dbResource, clazz, useCache);
+    }
+
+    /**
+     * 从数据库查询count并放入缓存, 不读取缓存.
+     */
+    protected Number selectCountAndCache(IDBResource dbResource, Class<?> clazz, boolean useCache)
+            throws SQLException {
+        String clusterName = dbResource.getClusterName();
+        String tableName = entityMetaManager.getTableName(clazz);
+
         long count = 0;
         count = _selectCount(dbResource, clazz).longValue();
 
@@ -166,11 +205,114 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
         return count;
     }
 
+    /**
+     * 查询一个分片的部分聚合值, 每行依次是分组字段和聚合列的值.
+     */
+    protected <T> List<Object[]> selectAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates,
+                                                        IDBResource dbResource, Class<T> clazz) throws SQLException {
+        List<Object[]> result = new ArrayList<Object[]>();
+
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            Connection conn = dbResource.getConnection();
+
+            SQL sql = null;
+            if (dbResource.isGlobal())
+                sql = SQLBuilder.buildSelectAggregateByQuery(clazz, -1, query, aggregates);
+            else
+                sql = SQLBuilder.buildSelectAggregateByQuery(clazz, ((ShardingDBResource) dbResource).getTableIndex(),
+                        query, aggregates);
+
+            ps = conn.prepareStatement(sql.getSql());
+            fillParam(ps, sql);
+
+            long begin = System.currentTimeMillis();
+            rs = ps.executeQuery();
+            long constTime = System.currentTimeMillis() - begin;
+
+            if (constTime > Const.SLOWQUERY_COUNT) {
+                SlowQueryLogger.write(conn, sql, constTime);
+            }
+
+            int columnCount = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                result.add(row);
+            }
+        } finally {
+            JdbcUtil.close(ps, rs);
+        }
+
+        return result;
+    }
+
+    /**
+     * 合并分片的部分聚合值, 并按照查询的排序和分页条件返回结果.
+     */
+    protected <T> List<Map<String, Object>> mergeAggregate(List<List<Object[]>> shardRows, IQuery<T> query,
+                                                           List<Aggregate> aggregates, Class<T> clazz) {
+        DefaultQueryImpl<T> internalQuery = (DefaultQueryImpl<T>) query;
+
+        String[] groupColumns = new String[0];
+        if (internalQuery.hasGroupFields()) {
+            groupColumns = new String[internalQuery.getGroupFields().length];
+            for (int i = 0; i < groupColumns.length; i++) {
+                groupColumns[i] = SQLBuilder.getColumnName(clazz, internalQuery.getGroupFields()[i]);
+            }
+        }
+
+        return AggregateMerger.merge(shardRows, groupColumns, aggregates, internalQuery.getOrderList(),
+                internalQuery.getStart(), internalQuery.getLimit());
+    }
+
     // //////////////////////////////////////////////////////////////////////////////////////
     // findByPks相关
     // //////////////////////////////////////////////////////////////////////////////////////
     private <T> Map<EntityPK, T> _selectByPks(IDBResource dbResource, Class<T> clazz, EntityPK[] pks,
                                               List<OrderBy> order) throws SQLException {
+        int pkBatch = getPkBatch();
+        if (pks.length <= pkBatch) {
+            return _selectByPksOnce(dbResource, clazz, pks, order);
+        }
+
+        // 主键过多时拆分为多条sql, 每条sql的结果已经按照主键顺序或者排序条件排好序
+        List<Map<EntityPK, T>> chunkResults = Lists.newArrayList();
+        for (int i = 0; i < pks.length; i += pkBatch) {
+            EntityPK[] chunk = Arrays.copyOfRange(pks, i, Math.min(i + pkBatch, pks.length));
+            chunkResults.add(this.<T> _selectByPksOnce(dbResource, clazz, chunk, order));
+        }
+
+        Map<EntityPK, T> result = Maps.newLinkedHashMap();
+        if (order == null || order.isEmpty()) {
+            for (Map<EntityPK, T> chunkResult : chunkResults) {
+                result.putAll(chunkResult);
+            }
+            return result;
+        }
+
+        List<Map.Entry<EntityPK, T>> entries = Lists.newArrayList();
+        for (Map<EntityPK, T> chunkResult : chunkResults) {
+            entries.addAll(chunkResult.entrySet());
+        }
+        final OrderByComparator<T> comparator = new OrderByComparator<T>(clazz, order);
+        Collections.sort(entries, new Comparator<Map.Entry<EntityPK, T>>() {
+            @Override
+            public int compare(Map.Entry<EntityPK, T> e1, Map.Entry<EntityPK, T> e2) {
+                return comparator.compare(e1.getValue(), e2.getValue());
+            }
+        });
+        for (Map.Entry<EntityPK, T> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private <T> Map<EntityPK, T> _selectByPksOnce(IDBResource dbResource, Class<T> clazz, EntityPK[] pks,
+                                                  List<OrderBy> order) throws SQLException {
         Map<EntityPK, T> result = Maps.newLinkedHashMap();
 
         PreparedStatement ps = null;
@@ -225,6 +367,16 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
             hitResult = primaryCache.get((ShardingDBResource) dbResource, pks);
 
         if (hitResult == null || hitResult.isEmpty()) {
+            if (_isSingleFlight(order)) {
+                Map<EntityPK, T> data = _selectByPksSingleFlight(dbResource, clazz, pks);
+                for (EntityPK pk : pks) {
+                    if (data.get(pk) != null) {
+                        result.put(pk, data.get(pk));
+                    }
+                }
+                return result;
+            }
+
             result = _selectByPks(dbResource, clazz, pks, order);
 
             if (dbResource.isGlobal())
@@ -235,6 +387,14 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
             return result;
         }
 
+        // 从缓存中获取的数据对象也需要记录加载时的字段值
+        WritePlan writePlan = WritePlan.valueOf(clazz);
+        if (writePlan.isDirtyCheck()) {
+            for (T one : hitResult.values()) {
+                writePlan.snapshot(one);
+            }
+        }
+
         if (hitResult.size() == pks.length) {
             return hitResult;
         }
@@ -250,12 +410,17 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
             EntityPK[] noHitPks = noHitPkList.toArray(new EntityPK[noHitPkList.size()]);
 
             // 从数据库中查询没有命中缓存的数据
-            Map<EntityPK, T> noHitMap = _selectByPks(dbResource, clazz, noHitPks, order);
-            if (!noHitMap.isEmpty()) {
-                if (dbResource.isGlobal())
-                    primaryCache.putGlobal(clusterName, tableName, noHitMap);
-                else
-                    primaryCache.put((ShardingDBResource) dbResource, noHitMap);
+            Map<EntityPK, T> noHitMap = null;
+            if (_isSingleFlight(order)) {
+                noHitMap = _selectByPksSingleFlight(dbResource, clazz, noHitPks);
+            } else {
+                noHitMap = _selectByPks(dbResource, clazz, noHitPks, order);
+                if (!noHitMap.isEmpty()) {
+                    if (dbResource.isGlobal())
+                        primaryCache.putGlobal(clusterName, tableName, noHitMap);
+                    else
+                        primaryCache.put((ShardingDBResource) dbResource, noHitMap);
+                }
             }
 
             // 为了保证pks的顺序
@@ -273,6 +438,122 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
         return result;
     }
 
+    /**
+     * 没有事务并且不需要排序时, 对没有命中缓存的主键使用single flight查询数据库.
+     */
+    private boolean _isSingleFlight(List<OrderBy> order) {
+        if (order != null && !order.isEmpty()) {
+            return false;
+        }
+        try {
+            return txManager == null || txManager.getTransaction() == null;
+        } catch (SystemException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 从数据库查询没有命中缓存的数据并放入缓存. 并发查询同一个库表中的同一条数据时只有一个线程查询数据库,
+     * 查询结果(包括没有数据)直接交给等待的线程, 避免热点数据过期时大量请求同时访问数据库.
+     * 等待超时或者查询失败时等待的线程自己查询. 返回结果不保证顺序.
+     */
+    private <T> Map<EntityPK, T> _selectByPksSingleFlight(IDBResource dbResource, Class<T> clazz, EntityPK[] pks)
+            throws SQLException {
+        String resId = dbResource.getId().value();
+
+        List<EntityPK> loadPks = Lists.newArrayList();
+        List<String> loadKeys = Lists.newArrayList();
+        List<EntityPK> waitPks = Lists.newArrayList();
+        List<SingleFlight.Call> waitCalls = Lists.newArrayList();
+        String key = null;
+        SingleFlight.Call call = null;
+        for (EntityPK pk : pks) {
+            key = resId + "#" + pk;
+            call = singleFlight.begin(key);
+            if (call == null) {
+                loadPks.add(pk);
+                loadKeys.add(key);
+            } else {
+                waitPks.add(pk);
+                waitCalls.add(call);
+            }
+        }
+
+        Map<EntityPK, T> data = Maps.newHashMap();
+
+        // 先完成自己负责的加载再等待其他线程, 避免互相等待
+        if (!loadPks.isEmpty()) {
+            int doneIndex = 0;
+            try {
+                data.putAll(_selectByPksAndCache(dbResource, clazz, loadPks));
+
+                // 等待的线程拿到的是序列化之后的副本, 和当前线程返回的对象互不影响
+                for (; doneIndex < loadPks.size(); doneIndex++) {
+                    T one = data.get(loadPks.get(doneIndex));
+                    try {
+                        singleFlight.done(loadKeys.get(doneIndex),
+                                one != null ? MySerializer.getInstance().ser(one, false) : null);
+                    } catch (SerializeException e) {
+                        singleFlight.fail(loadKeys.get(doneIndex));
+                    }
+                }
+            } finally {
+                // 查询失败时唤醒等待的线程自己查询
+                for (int i = doneIndex; i < loadKeys.size(); i++) {
+                    singleFlight.fail(loadKeys.get(i));
+                }
+            }
+        }
+
+        if (!waitPks.isEmpty()) {
+            WritePlan writePlan = WritePlan.valueOf(clazz);
+            List<EntityPK> noHitPks = Lists.newArrayList();
+            for (int i = 0; i < waitPks.size(); i++) {
+                SingleFlight.Call waitCall = waitCalls.get(i);
+                if (!singleFlight.await(waitCall)) {
+                    noHitPks.add(waitPks.get(i));
+                    continue;
+                }
+
+                byte[] value = (byte[]) waitCall.getResult();
+                if (value == null) {
+                    // 加载者没有查到数据
+                    continue;
+                }
+                T one = null;
+                try {
+                    one = MyDeserializer.getInstance().deser(value, false, clazz);
+                } catch (DeserializeException e) {
+                    noHitPks.add(waitPks.get(i));
+                    continue;
+                }
+                if (writePlan.isDirtyCheck()) {
+                    writePlan.snapshot(one);
+                }
+                data.put(waitPks.get(i), one);
+            }
+
+            // 等待超时或者加载失败的数据自己查询
+            if (!noHitPks.isEmpty()) {
+                data.putAll(_selectByPksAndCache(dbResource, clazz, noHitPks));
+            }
+        }
+
+        return data;
+    }
+
+    private <T> Map<EntityPK, T> _selectByPksAndCache(IDBResource dbResource, Class<T> clazz, List<EntityPK> pks)
+            throws SQLException {
+        Map<EntityPK, T> data = _selectByPks(dbResource, clazz, pks.toArray(new EntityPK[pks.size()]), null);
+        if (!data.isEmpty()) {
+            if (dbResource.isGlobal())
+                primaryCache.putGlobal(dbResource.getClusterName(), entityMetaManager.getTableName(clazz), data);
+            else
+                primaryCache.put((ShardingDBResource) dbResource, data);
+        }
+        return data;
+    }
+
     // //////////////////////////////////////////////////////////////////////////////////////
     // findBySql相关
     // //////////////////////////////////////////////////////////////////////////////////////
@@ -339,6 +620,114 @@ public abstract class AbstractJdbcQuery extends AbstractDataLayer implements IDa
         return result;
     }
 
+    /**
+     * 投影查询一个分片, 不创建数据对象.
+     */
+    protected <T, R> List<R> selectProjectionByQuery(IQuery<T> query, Projection<R> projection,
+                                                     IDBResource dbResource, Class<T> clazz) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            Connection conn = dbResource.getConnection();
+
+            SQL sql = null;
+            if (dbResource.isGlobal())
+                sql = SQLBuilder.buildSelectColumnsByQuery(clazz, -1, query, projection.getColumns());
+            else
+                sql = SQLBuilder.buildSelectColumnsByQuery(clazz, ((ShardingDBResource) dbResource).getTableIndex(),
+                        query, projection.getColumns());
+
+            ps = conn.prepareStatement(sql.getSql());
+            fillParam(ps, sql);
+
+            long begin = System.currentTimeMillis();
+            rs = ps.executeQuery();
+            long constTime = System.currentTimeMillis() - begin;
+
+            if (constTime > Const.SLOWQUERY_QUERY) {
+                SlowQueryLogger.write(conn, sql, constTime);
+            }
+
+            return projection.read(rs);
+        } finally {
+            JdbcUtil.close(ps, rs);
+        }
+    }
+
+    // //////////////////////////////////////////////////////////////////////////////////////
+    // 流式查询相关
+    // //////////////////////////////////////////////////////////////////////////////////////
+    /**
+     * 流式读取一条查询语句的结果, 第一次读取时才执行查询. mysql驱动在fetchSize为Integer.MIN_VALUE时逐行返回结果,
+     * 结果集关闭之前此连接不能执行其他语句.
+     */
+    protected class StreamingCursor<T> extends StreamingResultIterator.Cursor<T> {
+
+        private final IDBResource dbResource;
+
+        private final SQL         sql;
+
+        private final Class<T>    clazz;
+
+        private PreparedStatement ps;
+
+        private ResultSet         rs;
+
+        private RowMapper<T>      mapper;
+
+        private boolean           isClosed;
+
+        public StreamingCursor(IDBResource dbResource, SQL sql, Class<T> clazz) {
+            this.dbResource = dbResource;
+            this.sql = sql;
+            this.clazz = clazz;
+        }
+
+        @Override
+        protected T fetch() throws Exception {
+            if (this.isClosed) {
+                return null;
+            }
+
+            if (this.rs == null) {
+                Connection conn = this.dbResource.getConnection();
+
+                this.ps = conn.prepareStatement(this.sql.getSql(), ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                this.ps.setFetchSize(Integer.MIN_VALUE);
+                fillParam(this.ps, this.sql);
+
+                long begin = System.currentTimeMillis();
+                this.rs = this.ps.executeQuery();
+                long constTime = System.currentTimeMillis() - begin;
+
+                if (constTime > Const.SLOWQUERY_QUERY) {
+                    SlowQueryLogger.write(conn, this.sql, constTime);
+                }
+
+                this.mapper = RowMapper.valueOf(this.clazz, this.rs.getMetaData());
+            }
+
+            if (!this.rs.next()) {
+                close();
+                return null;
+            }
+
+            return this.mapper.map(this.rs);
+        }
+
+        @Override
+        protected void close() {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+
+            JdbcUtil.close(this.ps, this.rs);
+        }
+
+    }
+
     // //////////////////////////////////////////////////////////////////////////////////////
     // getPk相关
     // //////////////////////////////////////////////////////////////////////////////////////
@@ -25,10 +25,15 @@ import javax.transaction.xa.XAResource;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.DefaultQueryImpl;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
 import org.pinus4j.cluster.resources.IDBResource;
+import org.pinus4j.datalayer.Projection;
+import org.pinus4j.datalayer.SQLBuilder;
+import org.pinus4j.datalayer.StreamingResultIterator;
 import org.pinus4j.datalayer.query.IGlobalQuery;
 import org.pinus4j.entity.meta.EntityPK;
 import org.pinus4j.exceptions.DBClusterException;
@@ -319,6 +324,158 @@ public class GlobalJdbcQueryImpl extends AbstractJdbcQuery implements IGlobalQue
         }
     }
 
+    @Override
+    public <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates,
+                                                              Class<T> clazz, EnumDBMasterSlave masterSlave) {
+        String clusterName = entityMetaManager.getClusterName(clazz);
+        String tableName = entityMetaManager.getTableName(clazz);
+
+        Transaction tx = null;
+        IDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            boolean isFromSlave = false;
+
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isGlobalSlaveExist(clusterName)) {
+                dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+            } else {
+                dbResource = this.dbCluster.getSlaveGlobalDBResource(clusterName, tableName, masterSlave);
+                isFromSlave = true;
+            }
+
+            if (tx != null) {
+                tx.enlistResource((XAResource) dbResource);
+            }
+
+            List<Object[]> rows = selectAggregateByQuery(query, aggregates, dbResource, clazz);
+            if (rows.isEmpty() && isFromSlave) {
+                dbResource.close();
+                dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+
+                if (tx != null) {
+                    tx.enlistResource((XAResource) dbResource);
+                }
+
+                rows = selectAggregateByQuery(query, aggregates, dbResource, clazz);
+            }
+
+            List<List<Object[]>> shardRows = Lists.newArrayList();
+            shardRows.add(rows);
+            return mergeAggregate(shardRows, query, aggregates, clazz);
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
+    @Override
+    public <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection, Class<T> clazz,
+                                                EnumDBMasterSlave masterSlave) {
+        String clusterName = entityMetaManager.getClusterName(clazz);
+        String tableName = entityMetaManager.getTableName(clazz);
+
+        Transaction tx = null;
+        IDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            boolean isFromSlave = false;
+
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isGlobalSlaveExist(clusterName)) {
+                dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+            } else {
+                dbResource = this.dbCluster.getSlaveGlobalDBResource(clusterName, tableName, masterSlave);
+                isFromSlave = true;
+            }
+
+            if (tx != null) {
+                tx.enlistResource((XAResource) dbResource);
+            }
+
+            List<R> rows = selectProjectionByQuery(query, projection, dbResource, clazz);
+            if (rows.isEmpty() && isFromSlave) {
+                dbResource.close();
+                dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+
+                if (tx != null) {
+                    tx.enlistResource((XAResource) dbResource);
+                }
+
+                rows = selectProjectionByQuery(query, projection, dbResource, clazz);
+            }
+
+            return projection.finish(rows);
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
+    @Override
+    public <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, Class<T> clazz, EnumDBMasterSlave masterSlave) {
+        String clusterName = entityMetaManager.getClusterName(clazz);
+        String tableName = entityMetaManager.getTableName(clazz);
+
+        Transaction tx = null;
+        IDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isGlobalSlaveExist(clusterName)) {
+                dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+            } else {
+                dbResource = this.dbCluster.getSlaveGlobalDBResource(clusterName, tableName, masterSlave);
+            }
+
+            if (tx != null) {
+                tx.enlistResource((XAResource) dbResource);
+            }
+
+            SQL sql = SQLBuilder.buildSelectByQuery(clazz, -1, query);
+            List<StreamingCursor<T>> cursors = Lists.newArrayList();
+            cursors.add(new StreamingCursor<T>(dbResource, sql, clazz));
+
+            // 迭代器关闭时释放连接
+            List<IDBResource> releaseResources = null;
+            if (tx == null) {
+                releaseResources = Lists.newArrayList(dbResource);
+            }
+            return new StreamingResultIterator<T>(cursors, null, -1, -1, releaseResources);
+        } catch (Exception e) {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+            throw new DBOperationException(e);
+        }
+    }
+
     @Override
     public List<Map<String, Object>> findBySql(SQL sql, String clusterName, EnumDBMasterSlave masterSlave) {
         IDBResource next = null;
@@ -16,31 +16,47 @@
 
 package org.pinus4j.datalayer.query.jdbc;
 
-import java.sql.Timestamp;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.transaction.Transaction;
-import javax.transaction.xa.XAResource;
 
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.IQuery;
+import org.pinus4j.api.query.IQueryIterator;
+import org.pinus4j.api.query.impl.Aggregate;
 import org.pinus4j.api.query.impl.DefaultQueryImpl;
-import org.pinus4j.api.query.impl.Order;
 import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.cluster.beans.DBInfo;
 import org.pinus4j.cluster.beans.IShardingKey;
+import org.pinus4j.cluster.beans.ShardingKey;
 import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.cluster.resources.DBResourceId;
 import org.pinus4j.cluster.resources.IDBResource;
 import org.pinus4j.cluster.resources.ShardingDBResource;
+import org.pinus4j.cluster.router.RouteInfo;
+import org.pinus4j.datalayer.BatchLoader;
+import org.pinus4j.datalayer.OrderByComparator;
+import org.pinus4j.datalayer.Projection;
+import org.pinus4j.datalayer.SQLBuilder;
+import org.pinus4j.datalayer.ShardingResultMerger;
+import org.pinus4j.datalayer.StreamingResultIterator;
 import org.pinus4j.datalayer.query.IShardingQuery;
+import org.pinus4j.entity.meta.DBTable;
 import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
 import org.pinus4j.exceptions.DBClusterException;
 import org.pinus4j.exceptions.DBOperationException;
+import org.pinus4j.exceptions.DBRouteException;
 import org.pinus4j.utils.BeansUtil;
+import org.pinus4j.utils.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +73,11 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
 
     public static final Logger LOG = LoggerFactory.getLogger(ShardingJdbcQueryImpl.class);
 
+    /**
+     * 合并并发的根据主键查询请求, 为null时不合并.
+     */
+    private BatchLoader        batchLoader;
+
     @Override
     public Number getCount(Class<?> clazz, boolean useCache, EnumDBMasterSlave masterSlave) {
         Transaction tx = null;
@@ -74,13 +95,8 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
                 isFromSlave = true;
             }
 
-            long count = 0;
-            for (IDBResource dbResource : dbResources) {
-                if (tx != null) {
-                    tx.enlistResource((ShardingDBResource) dbResource);
-                }
-                count += selectCountWithCache(dbResource, clazz, useCache).longValue();
-            }
+            _enlistResource(tx, dbResources);
+            long count = _selectCount(dbResources, clazz, useCache);
 
             // query from master again
             if (count == 0 && isFromSlave) {
@@ -88,12 +104,8 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
                     dbResource.close();
                 }
                 dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
-                for (IDBResource dbResource : dbResources) {
-                    if (tx != null) {
-                        tx.enlistResource((ShardingDBResource) dbResource);
-                    }
-                    count += selectCountWithCache((ShardingDBResource) dbResource, clazz, useCache).longValue();
-                }
+                _enlistResource(tx, dbResources);
+                count = _selectCount(dbResources, clazz, useCache);
             }
 
             return count;
@@ -168,39 +180,30 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
     @Override
     public <T> Number getCountByQuery(IQuery<T> query, Class<T> clazz, boolean useCache, EnumDBMasterSlave masterSlave) {
         Transaction tx = null;
-        List<IDBResource> dbResources = null;
+        Map<IDBResource, IQuery<T>> shardingQuery = null;
         try {
             tx = txManager.getTransaction();
             boolean isFromSlave = false;
 
             String clusterName = entityMetaManager.getClusterName(clazz);
             if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
+                shardingQuery = _getShardingQuery(query, clazz, EnumDBMasterSlave.MASTER);
             } else {
-                dbResources = this.dbCluster.getAllSlaveShardingDBResource(clazz, masterSlave);
+                shardingQuery = _getShardingQuery(query, clazz, masterSlave);
                 isFromSlave = true;
             }
 
-            long count = 0;
-            for (IDBResource dbResource : dbResources) {
-                if (tx != null) {
-                    tx.enlistResource((ShardingDBResource) dbResource);
-                }
-                count += selectCountByQuery(query, (ShardingDBResource) dbResource, clazz).longValue();
-            }
+            _enlistResource(tx, shardingQuery.keySet());
+            long count = _selectCountByQuery(shardingQuery, clazz, ((DefaultQueryImpl<T>) query).getParallelism());
 
             // query from master again
             if (count == 0 && isFromSlave) {
-                for (IDBResource dbResource : dbResources) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
                     dbResource.close();
                 }
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
-                for (IDBResource dbResource : dbResources) {
-                    if (tx != null) {
-                        tx.enlistResource((ShardingDBResource) dbResource);
-                    }
-                    count += selectCountByQuery(query, (ShardingDBResource) dbResource, clazz).longValue();
-                }
+                shardingQuery = _getShardingQuery(query, clazz, EnumDBMasterSlave.MASTER);
+                _enlistResource(tx, shardingQuery.keySet());
+                count = _selectCountByQuery(shardingQuery, clazz, ((DefaultQueryImpl<T>) query).getParallelism());
             }
 
             return count;
@@ -215,8 +218,8 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
 
             throw new DBOperationException(e);
         } finally {
-            if (tx == null && dbResources != null) {
-                for (IDBResource dbResource : dbResources) {
+            if (tx == null && shardingQuery != null) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
                     dbResource.close();
                 }
             }
@@ -282,6 +285,12 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
         try {
 
             tx = txManager.getTransaction();
+
+            // 没有事务时合并并发的请求
+            if (tx == null && this.batchLoader != null) {
+                return _findByPkCoalesced(pk, shardingKey, clazz, useCache, masterSlave);
+            }
+
             boolean isFromSlave = false;
 
             if (EnumDBMasterSlave.MASTER == masterSlave
@@ -325,6 +334,69 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
         }
     }
 
+    /**
+     * 和其他线程中路由到同一张表的请求合并为一次查询.
+     */
+    private <T> T _findByPkCoalesced(EntityPK pk, final IShardingKey<?> shardingKey, final Class<T> clazz,
+                                     final boolean useCache, final EnumDBMasterSlave masterSlave) throws Exception {
+        String tableName = entityMetaManager.getTableName(clazz);
+        RouteInfo routeInfo = this.dbCluster.selectRouteInfoFromMaster(tableName, shardingKey);
+        DBInfo dbInfo = routeInfo.getDbInfo();
+        String batchKey = new DBResourceId(routeInfo.getClusterName(), dbInfo.getDbName(),
+                String.valueOf(routeInfo.getRegionIndex()), tableName, routeInfo.getTableIndex(), masterSlave).value()
+                + useCache;
+
+        return this.batchLoader.load(batchKey, pk, new BatchLoader.Loader<EntityPK, T>() {
+            @Override
+            public Map<EntityPK, T> load(List<EntityPK> pks) throws Exception {
+                return _findByPks(pks.toArray(new EntityPK[pks.size()]), shardingKey, clazz, useCache, masterSlave);
+            }
+        });
+    }
+
+    /**
+     * 根据主键查询一个分片, 从库中没有查到的主键再查询主库. 不处理事务, 只在没有事务时使用.
+     */
+    private <T> Map<EntityPK, T> _findByPks(EntityPK[] pks, IShardingKey<?> shardingKey, Class<T> clazz,
+                                            boolean useCache, EnumDBMasterSlave masterSlave) throws Exception {
+        ShardingDBResource dbResource = null;
+        try {
+            boolean isFromSlave = false;
+
+            if (EnumDBMasterSlave.MASTER == masterSlave
+                    || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+            } else {
+                dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
+                isFromSlave = true;
+            }
+
+            Map<EntityPK, T> data = Maps.newHashMap(selectByPksWithCache(dbResource, clazz, pks, null, useCache));
+
+            // query from master again
+            if (isFromSlave) {
+                List<EntityPK> noHitPkList = Lists.newArrayList();
+                for (EntityPK pk : pks) {
+                    if (data.get(pk) == null) {
+                        noHitPkList.add(pk);
+                    }
+                }
+                if (!noHitPkList.isEmpty()) {
+                    dbResource.close();
+                    dbResource = _getDbFromMaster(clazz, shardingKey);
+                    data.putAll(selectByPksWithCache(dbResource, clazz,
+                            noHitPkList.toArray(new EntityPK[noHitPkList.size()]), null, useCache));
+                }
+            }
+
+            return data;
+        } finally {
+            if (dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
     @Override
     public <T> List<T> findByPkList(List<EntityPK> pkList, Class<T> clazz, List<OrderBy> order, boolean useCache,
                                     EnumDBMasterSlave masterSlave) {
@@ -332,7 +404,7 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
         List<T> result = Lists.newArrayList();
 
         Transaction tx = null;
-        List<IDBResource> dbResources = null;
+        Map<IDBResource, EntityPK[]> shardingPks = null;
         try {
 
             tx = txManager.getTransaction();
@@ -340,37 +412,23 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
 
             String clusterName = entityMetaManager.getClusterName(clazz);
             if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
+                shardingPks = _getShardingPks(pkList, clazz, EnumDBMasterSlave.MASTER);
             } else {
-                dbResources = this.dbCluster.getAllSlaveShardingDBResource(clazz, masterSlave);
+                shardingPks = _getShardingPks(pkList, clazz, masterSlave);
                 isFromSlave = true;
             }
 
-            EntityPK[] entityPkList = pkList.toArray(new EntityPK[pkList.size()]);
-
-            Map<EntityPK, T> data = Maps.newLinkedHashMap();
-            for (IDBResource dbResource : dbResources) {
-                if (tx != null) {
-                    tx.enlistResource((ShardingDBResource) dbResource);
-                }
-
-                data.putAll(selectByPksWithCache((ShardingDBResource) dbResource, clazz, entityPkList, order, useCache));
-            }
+            _enlistResource(tx, shardingPks.keySet());
+            Map<EntityPK, T> data = _selectByPks(shardingPks, clazz, order, useCache);
 
             // query from master again
             if (data.isEmpty() && isFromSlave) {
-                for (IDBResource dbResource : dbResources) {
+                for (IDBResource dbResource : shardingPks.keySet()) {
                     dbResource.close();
                 }
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
-                for (IDBResource dbResource : dbResources) {
-                    if (tx != null) {
-                        tx.enlistResource((ShardingDBResource) dbResource);
-                    }
-
-                    data.putAll(selectByPksWithCache((ShardingDBResource) dbResource, clazz, entityPkList, order,
-                            useCache));
-                }
+                shardingPks = _getShardingPks(pkList, clazz, EnumDBMasterSlave.MASTER);
+                _enlistResource(tx, shardingPks.keySet());
+                data = _selectByPks(shardingPks, clazz, order, useCache);
             }
 
             result.addAll(data.values());
@@ -386,8 +444,8 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
 
             throw new DBOperationException(e);
         } finally {
-            if (tx == null && dbResources != null) {
-                for (IDBResource dbResource : dbResources) {
+            if (tx == null && shardingPks != null) {
+                for (IDBResource dbResource : shardingPks.keySet()) {
                     dbResource.close();
                 }
             }
@@ -453,135 +511,85 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
     @Override
     public <T> List<T> findByQuery(IQuery<T> query, Class<T> clazz, boolean useCache, EnumDBMasterSlave masterSlave) {
 
+        Transaction tx = null;
         boolean isFromSlave = false;
-        List<IDBResource> dbResources = null;
+        Map<IDBResource, IQuery<T>> shardingQuery = null;
         DefaultQueryImpl<T> internalQuery = (DefaultQueryImpl<T>) query;
 
         try {
+            tx = txManager.getTransaction();
+
+            // 每个分片都需要查询从0开始到分页结束的数据, 使用副本避免修改调用者的查询对象
+            int fromIndex = internalQuery.getStart() > -1 ? internalQuery.getStart() : 0;
+            int endIndex = internalQuery.getLimit() > -1 ? fromIndex + internalQuery.getLimit() : -1;
+            if (fromIndex > 0) {
+                internalQuery = (DefaultQueryImpl<T>) internalQuery.clone();
+                internalQuery.limit(0, endIndex);
+            }
+
             String clusterName = entityMetaManager.getClusterName(clazz);
             if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
+                shardingQuery = _getShardingQuery(internalQuery, clazz, EnumDBMasterSlave.MASTER);
             } else {
-                dbResources = this.dbCluster.getAllSlaveShardingDBResource(clazz, masterSlave);
+                shardingQuery = _getShardingQuery(internalQuery, clazz, masterSlave);
                 isFromSlave = true;
             }
 
-            int start = internalQuery.getStart();
-            int limit = internalQuery.getLimit();
-            int sum = start + limit;
-            if (start >= 0 && limit > 0)
-                internalQuery.limit(0, sum);
-
-            final List<OrderBy> orderList = internalQuery.getOrderList();
+            List<OrderBy> orderList = internalQuery.getOrderList();
+            boolean isOrderQuery = orderList != null && !orderList.isEmpty();
 
-            boolean isOrderQuery = false;
-            if (orderList != null && !orderList.isEmpty()) {
-                isOrderQuery = true;
-            }
+            // 没有排序时取够数据即可停止查询
+            int needSize = isOrderQuery ? -1 : endIndex;
+            int parallelism = internalQuery.getParallelism();
 
-            List<T> mergeResult = Lists.newArrayList();
-            for (IDBResource dbResource : dbResources) {
-                if (isOrderQuery) {
-                    mergeResult.addAll(_findByQuery(internalQuery, dbResource, clazz, useCache, masterSlave));
-                } else {
-                    if (mergeResult.size() < sum) {
-                        mergeResult.addAll(_findByQuery(internalQuery, dbResource, clazz, useCache, masterSlave));
-                    } else {
-                        dbResource.close();
-                    }
-                }
-            }
+            _enlistResource(tx, shardingQuery.keySet());
+            List<List<T>> shardResults = _findByQuery(shardingQuery, clazz, useCache, needSize, parallelism);
 
             // query from master again
-            if (mergeResult.isEmpty() && isFromSlave) {
-                for (IDBResource dbResource : dbResources) {
+            if (_isEmpty(shardResults) && isFromSlave) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
                     dbResource.close();
                 }
-                dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
-                for (IDBResource dbResource : dbResources) {
-                    if (isOrderQuery) {
-                        mergeResult.addAll(_findByQuery(internalQuery, dbResource, clazz, useCache, masterSlave));
-                    } else {
-                        if (mergeResult.size() < sum) {
-                            mergeResult.addAll(_findByQuery(internalQuery, dbResource, clazz, useCache, masterSlave));
-                        } else {
-                            dbResource.close();
-                        }
-                    }
-                }
+                shardingQuery = _getShardingQuery(internalQuery, clazz, EnumDBMasterSlave.MASTER);
+                _enlistResource(tx, shardingQuery.keySet());
+                shardResults = _findByQuery(shardingQuery, clazz, useCache, needSize, parallelism);
             }
 
-            // if order by exists, sort by order.
-            if (orderList != null && !orderList.isEmpty()) {
-                Collections.sort(mergeResult, new Comparator<T>() {
-
-                    @Override
-                    public int compare(T o1, T o2) {
-                        Object v1 = null, v2 = null;
-                        Class<?> fieldType = null;
-                        int compareVal = 0;
-
-                        for (OrderBy order : orderList) {
-                            v1 = BeansUtil.getProperty(o1, order.getField());
-                            v2 = BeansUtil.getProperty(o2, order.getField());
-                            fieldType = order.getFieldType();
-
-                            if (fieldType == Boolean.class || fieldType == Boolean.TYPE) {
-                                compareVal = ((Boolean) v1).compareTo((Boolean) v2);
-                            } else if (fieldType == Character.class || fieldType == Character.TYPE) {
-                                compareVal = ((Character) v1).compareTo((Character) v2);
-                            } else if (fieldType == Byte.class || fieldType == Byte.TYPE) {
-                                compareVal = ((Byte) v1).compareTo((Byte) v2);
-                            } else if (fieldType == Short.class || fieldType == Short.TYPE) {
-                                compareVal = ((Short) v1).compareTo((Short) v2);
-                            } else if (fieldType == Integer.class || fieldType == Integer.TYPE) {
-                                compareVal = ((Integer) v1).compareTo((Integer) v2);
-                            } else if (fieldType == Long.class || fieldType == Long.TYPE) {
-                                compareVal = ((Long) v1).compareTo((Long) v2);
-                            } else if (fieldType == Float.class || fieldType == Float.TYPE) {
-                                compareVal = ((Float) v1).compareTo((Float) v2);
-                            } else if (fieldType == Double.class || fieldType == Double.TYPE) {
-                                compareVal = ((Double) v1).compareTo((Double) v2);
-                            } else if (fieldType == String.class) {
-                                compareVal = ((String) v1).compareTo((String) v2);
-                            } else if (fieldType == Date.class) {
-                                compareVal = ((Date) v1).compareTo((Date) v2);
-                            } else if (fieldType == Timestamp.class) {
-                                compareVal = ((Timestamp) v1).compareTo((Timestamp) v2);
-                            } else {
-                                throw new RuntimeException("无法排序的类型" + order);
-                            }
-
-                            if (order.getOrder() == Order.DESC) {
-                                compareVal *= -1;
-                            }
-
-                            if (compareVal != 0) {
-                                break;
-                            }
-                        }
-
-                        return compareVal;
-                    }
-
-                });
+            // 每个分片的结果已经有序, 多路归并到分页结束即可
+            List<T> mergeResult = null;
+            if (isOrderQuery) {
+                mergeResult = ShardingResultMerger.merge(shardResults, new OrderByComparator<T>(clazz, orderList),
+                        endIndex);
+            } else {
+                mergeResult = ShardingResultMerger.concat(shardResults, endIndex);
             }
 
             // get result
             List<T> result = null;
-            if (start > -1 && limit > -1) {
-                int fromIndex = start;
-                int endIndex = sum > mergeResult.size() ? mergeResult.size() : sum;
-                result = mergeResult.subList(fromIndex, endIndex);
-            } else if (limit > -1) {
-                result = mergeResult.subList(0, limit - 1);
+            if (fromIndex > 0) {
+                result = Lists.newArrayList(mergeResult.subList(Math.min(fromIndex, mergeResult.size()),
+                        mergeResult.size()));
             } else {
                 result = mergeResult;
             }
 
             return result;
         } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
             throw new DBOperationException(e);
+        } finally {
+            if (tx == null && shardingQuery != null) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
+            }
         }
 
     }
@@ -589,84 +597,37 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
     @Override
     public <T> List<T> findByQuery(IQuery<T> query, IShardingKey<?> shardingKey, Class<T> clazz, boolean useCache,
                                    EnumDBMasterSlave masterSlave) {
-
-        boolean isFromSlave = false;
-        ShardingDBResource dbResource = null;
-
-        if (EnumDBMasterSlave.MASTER == masterSlave
-                || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
-            dbResource = _getDbFromMaster(clazz, shardingKey);
-        } else {
-            dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
-            isFromSlave = true;
-        }
-
-        List<T> data = _findByQuery(query, dbResource, clazz, useCache, masterSlave);
-
-        // query from master againe
-        if (data.isEmpty() && isFromSlave) {
-            dbResource.close();
-            dbResource = _getDbFromMaster(clazz, shardingKey);
-            data = _findByQuery(query, dbResource, clazz, useCache, masterSlave);
-        }
-
-        return data;
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T> List<T> _findByQuery(IQuery<T> query, IDBResource dbResource, Class<T> clazz, boolean useCache,
-                                     EnumDBMasterSlave masterSlave) {
-        List<T> result = Lists.newArrayList();
         Transaction tx = null;
-
+        ShardingDBResource dbResource = null;
         try {
 
             tx = txManager.getTransaction();
+            boolean isFromSlave = false;
 
-            if (tx != null) {
-                tx.enlistResource((XAResource) dbResource);
+            if (EnumDBMasterSlave.MASTER == masterSlave
+                    || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+            } else {
+                dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
+                isFromSlave = true;
             }
-
-            Map<EntityPK, T> data = null;
-
-            if (isSecondCacheAvailable(clazz, useCache)) {
-                String sCacheKey = ((DefaultQueryImpl<T>) query).getWhereSql().getSecondCacheKey();
-                List<T> sCacheData = (List<T>) secondCache.get(sCacheKey, (ShardingDBResource) dbResource);
-                if (sCacheData != null && !sCacheData.isEmpty()) {
-                    result.addAll(sCacheData);
-                }
+            if (tx != null) {
+                tx.enlistResource(dbResource);
             }
 
-            if (result == null || result.isEmpty()) {
-                if (isCacheAvailable(clazz, useCache)) {
-                    EntityPK[] entityPks = selectPksByQuery((ShardingDBResource) dbResource, query, clazz);
-                    data = selectByPksWithCache(dbResource, clazz, entityPks,
-                            ((DefaultQueryImpl<T>) query).getOrderList(), useCache);
-                    result.addAll(data.values());
-                } else {
-                    result = selectByQuery((ShardingDBResource) dbResource, query, clazz);
-                }
+            List<T> data = _findByQuery(query, dbResource, clazz, useCache);
 
-                if (isSecondCacheAvailable(clazz, useCache)) {
-                    String sCacheKey = ((DefaultQueryImpl<T>) query).getWhereSql().getSecondCacheKey();
-                    secondCache.put(sCacheKey, (ShardingDBResource) dbResource, result);
-                }
-            }
-            // 过滤从缓存结果, 将没有指定的字段设置为默认值.
-            List<T> filteResult = new ArrayList<T>(result.size());
-            if (((DefaultQueryImpl<T>) query).hasQueryFields()) {
-                for (T obj : result) {
-                    try {
-                        filteResult.add((T) BeansUtil.cloneWithGivenField(obj,
-                                ((DefaultQueryImpl<T>) query).getFields()));
-                    } catch (Exception e) {
-                        throw new DBOperationException(e);
-                    }
+            // query from master againe
+            if (data.isEmpty() && isFromSlave) {
+                dbResource.close();
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+                if (tx != null) {
+                    tx.enlistResource(dbResource);
                 }
-                result = filteResult;
+                data = _findByQuery(query, dbResource, clazz, useCache);
             }
 
-            return result;
+            return data;
         } catch (Exception e) {
             if (tx != null) {
                 try {
@@ -685,36 +646,38 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
     }
 
     @Override
-    public List<Map<String, Object>> findBySql(SQL sql, EnumDBMasterSlave masterSlave) {
-        throw new UnsupportedOperationException("not support");
-    }
-
-    @Override
-    public List<Map<String, Object>> findBySql(SQL sql, IShardingKey<?> shardingKey, EnumDBMasterSlave masterSlave) {
+    public <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates,
+                                                              Class<T> clazz, EnumDBMasterSlave masterSlave) {
         Transaction tx = null;
-        ShardingDBResource dbResource = _getDbBySQL(sql, shardingKey, masterSlave);
+        Map<IDBResource, IQuery<T>> shardingQuery = null;
         try {
             tx = txManager.getTransaction();
-
-            if (tx != null) {
-                tx.enlistResource(dbResource);
-            }
-
             boolean isFromSlave = false;
-            if (EnumDBMasterSlave.MASTER != masterSlave
-                    && this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+
+            String clusterName = entityMetaManager.getClusterName(clazz);
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
+                shardingQuery = _getShardingQuery(query, clazz, EnumDBMasterSlave.MASTER);
+            } else {
+                shardingQuery = _getShardingQuery(query, clazz, masterSlave);
                 isFromSlave = true;
             }
 
-            List<Map<String, Object>> result = selectBySql(dbResource, sql);
+            int parallelism = ((DefaultQueryImpl<T>) query).getParallelism();
 
-            // query from master againe
-            if (result.isEmpty() && isFromSlave) {
-                dbResource = _getDbBySQL(sql, shardingKey, EnumDBMasterSlave.MASTER);
-                result = selectBySql(dbResource, sql);
+            _enlistResource(tx, shardingQuery.keySet());
+            List<List<Object[]>> shardRows = _selectAggregateByQuery(shardingQuery, aggregates, clazz, parallelism);
+
+            // query from master again
+            if (_isEmpty(shardRows) && isFromSlave) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
+                shardingQuery = _getShardingQuery(query, clazz, EnumDBMasterSlave.MASTER);
+                _enlistResource(tx, shardingQuery.keySet());
+                shardRows = _selectAggregateByQuery(shardingQuery, aggregates, clazz, parallelism);
             }
 
-            return result;
+            return mergeAggregate(shardRows, query, aggregates, clazz);
         } catch (Exception e) {
             if (tx != null) {
                 try {
@@ -726,59 +689,878 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
 
             throw new DBOperationException(e);
         } finally {
-            if (tx == null && dbResource != null) {
-                dbResource.close();
+            if (tx == null && shardingQuery != null) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
             }
         }
     }
 
-    private ShardingDBResource _getDbBySQL(SQL sql, IShardingKey<?> shardingKey, EnumDBMasterSlave masterSlave) {
-        ShardingDBResource next = null;
-        for (String tableName : sql.getTableNames()) {
+    @Override
+    public <T> List<Map<String, Object>> findAggregateByQuery(IQuery<T> query, List<Aggregate> aggregates,
+                                                              IShardingKey<?> shardingKey, Class<T> clazz,
+                                                              EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        ShardingDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            boolean isFromSlave = false;
 
-            ShardingDBResource cur = null;
             if (EnumDBMasterSlave.MASTER == masterSlave
                     || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
-                cur = _getDbFromMaster(tableName, shardingKey);
+                dbResource = _getDbFromMaster(clazz, shardingKey);
             } else {
-                cur = _getDbFromSlave(tableName, shardingKey, masterSlave);
+                dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
+                isFromSlave = true;
             }
-
-            if (next != null && (cur != next)) {
-                throw new DBOperationException("the tables in sql maybe not at the same database");
+            if (tx != null) {
+                tx.enlistResource(dbResource);
             }
-            next = cur;
-        }
 
-        return next;
-    }
+            List<Object[]> rows = selectAggregateByQuery(query, aggregates, dbResource, clazz);
 
-    /**
-     * 路由选择.
-     * 
-     * @param clazz 数据对象
-     * @param shardingKey 路由因子
-     */
-    private ShardingDBResource _getDbFromMaster(Class<?> clazz, IShardingKey<?> shardingKey) {
-        String tableName = entityMetaManager.getTableName(clazz);
-        return _getDbFromMaster(tableName, shardingKey);
-    }
+            // query from master again
+            if (rows.isEmpty() && isFromSlave) {
+                dbResource.close();
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+                if (tx != null) {
+                    tx.enlistResource(dbResource);
+                }
+                rows = selectAggregateByQuery(query, aggregates, dbResource, clazz);
+            }
 
-    private ShardingDBResource _getDbFromMaster(String tableName, IShardingKey<?> shardingKey) {
-        ShardingDBResource shardingDBResource = null;
-        try {
-            shardingDBResource = (ShardingDBResource) this.dbCluster.selectDBResourceFromMaster(tableName, shardingKey);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("[" + shardingDBResource + "]");
+            List<List<Object[]>> shardRows = Lists.newArrayList();
+            shardRows.add(rows);
+            return mergeAggregate(shardRows, query, aggregates, clazz);
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
             }
-        } catch (DBClusterException e) {
+
             throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
         }
-        return shardingDBResource;
     }
 
-    /**
-     * 路由选择.
+    @Override
+    public <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection, Class<T> clazz,
+                                                EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        boolean isFromSlave = false;
+        Map<IDBResource, IQuery<T>> shardingQuery = null;
+        DefaultQueryImpl<T> internalQuery = (DefaultQueryImpl<T>) query;
+
+        try {
+            tx = txManager.getTransaction();
+
+            // 每个分片都需要查询从0开始到分页结束的数据, 使用副本避免修改调用者的查询对象
+            int fromIndex = internalQuery.getStart() > -1 ? internalQuery.getStart() : 0;
+            int endIndex = internalQuery.getLimit() > -1 ? fromIndex + internalQuery.getLimit() : -1;
+            if (fromIndex > 0) {
+                internalQuery = (DefaultQueryImpl<T>) internalQuery.clone();
+                internalQuery.limit(0, endIndex);
+            }
+
+            String clusterName = entityMetaManager.getClusterName(clazz);
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
+                shardingQuery = _getShardingQuery(internalQuery, clazz, EnumDBMasterSlave.MASTER);
+            } else {
+                shardingQuery = _getShardingQuery(internalQuery, clazz, masterSlave);
+                isFromSlave = true;
+            }
+
+            List<OrderBy> orderList = internalQuery.getOrderList();
+            boolean isOrderQuery = orderList != null && !orderList.isEmpty();
+
+            // 没有排序时取够数据即可停止查询
+            int needSize = isOrderQuery ? -1 : endIndex;
+            int parallelism = internalQuery.getParallelism();
+
+            _enlistResource(tx, shardingQuery.keySet());
+            List<List<R>> shardResults = _selectProjectionByQuery(shardingQuery, projection, clazz, needSize,
+                    parallelism);
+
+            // query from master again
+            if (_isEmpty(shardResults) && isFromSlave) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
+                shardingQuery = _getShardingQuery(internalQuery, clazz, EnumDBMasterSlave.MASTER);
+                _enlistResource(tx, shardingQuery.keySet());
+                shardResults = _selectProjectionByQuery(shardingQuery, projection, clazz, needSize, parallelism);
+            }
+
+            return projection.finish(projection.merge(shardResults, orderList, fromIndex, endIndex));
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && shardingQuery != null) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T, R> List<R> findProjectionByQuery(IQuery<T> query, Projection<R> projection,
+                                                IShardingKey<?> shardingKey, Class<T> clazz,
+                                                EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        ShardingDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            boolean isFromSlave = false;
+
+            if (EnumDBMasterSlave.MASTER == masterSlave
+                    || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+            } else {
+                dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
+                isFromSlave = true;
+            }
+            if (tx != null) {
+                tx.enlistResource(dbResource);
+            }
+
+            List<R> rows = selectProjectionByQuery(query, projection, dbResource, clazz);
+
+            // query from master again
+            if (rows.isEmpty() && isFromSlave) {
+                dbResource.close();
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+                if (tx != null) {
+                    tx.enlistResource(dbResource);
+                }
+                rows = selectProjectionByQuery(query, projection, dbResource, clazz);
+            }
+
+            return projection.finish(rows);
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
+    @Override
+    public <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, Class<T> clazz, EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        Map<IDBResource, IQuery<T>> shardingQuery = null;
+        DefaultQueryImpl<T> internalQuery = (DefaultQueryImpl<T>) query;
+
+        try {
+            tx = txManager.getTransaction();
+
+            // 每个分片都需要查询从0开始到分页结束的数据, 跳过的数据在合并时丢弃
+            int fromIndex = internalQuery.getStart() > -1 ? internalQuery.getStart() : 0;
+            int endIndex = internalQuery.getLimit() > -1 ? fromIndex + internalQuery.getLimit() : -1;
+            if (fromIndex > 0) {
+                internalQuery = (DefaultQueryImpl<T>) internalQuery.clone();
+                internalQuery.limit(0, endIndex);
+            }
+
+            String clusterName = entityMetaManager.getClusterName(clazz);
+            if (EnumDBMasterSlave.MASTER == masterSlave || !this.dbCluster.isShardingSlaveExist(clusterName)) {
+                shardingQuery = _getShardingQuery(internalQuery, clazz, EnumDBMasterSlave.MASTER);
+            } else {
+                shardingQuery = _getShardingQuery(internalQuery, clazz, masterSlave);
+            }
+
+            _enlistResource(tx, shardingQuery.keySet());
+
+            List<OrderBy> orderList = internalQuery.getOrderList();
+            boolean isOrderQuery = orderList != null && !orderList.isEmpty();
+
+            // 一个连接同时只能打开一个流式结果集. 没有排序时逐个读取分表,
+            // 有排序时需要同时打开所有的结果集, 共享连接的分表合并为一条union all语句由数据库排序
+            List<StreamingCursor<T>> cursors = Lists.newArrayList();
+            for (List<Map.Entry<IDBResource, IQuery<T>>> group : _groupByConnection(shardingQuery)) {
+                if (!isOrderQuery || group.size() == 1) {
+                    for (Map.Entry<IDBResource, IQuery<T>> entry : group) {
+                        SQL sql = SQLBuilder.buildSelectByQuery(clazz,
+                                ((ShardingDBResource) entry.getKey()).getTableIndex(), entry.getValue());
+                        cursors.add(new StreamingCursor<T>(entry.getKey(), sql, clazz));
+                    }
+                } else {
+                    List<Integer> tableIndexes = Lists.newArrayListWithCapacity(group.size());
+                    List<IQuery<T>> queries = Lists.newArrayListWithCapacity(group.size());
+                    for (Map.Entry<IDBResource, IQuery<T>> entry : group) {
+                        tableIndexes.add(((ShardingDBResource) entry.getKey()).getTableIndex());
+                        queries.add(entry.getValue());
+                    }
+                    SQL sql = SQLBuilder.buildSelectUnionByQuery(clazz, tableIndexes, queries, orderList);
+                    cursors.add(new StreamingCursor<T>(group.get(0).getKey(), sql, clazz));
+                }
+            }
+
+            OrderByComparator<T> comparator = null;
+            if (isOrderQuery) {
+                comparator = new OrderByComparator<T>(clazz, orderList);
+            }
+
+            // 迭代器关闭时释放连接
+            Collection<IDBResource> releaseResources = null;
+            if (tx == null) {
+                releaseResources = shardingQuery.keySet();
+            }
+            int limit = endIndex > -1 ? endIndex - fromIndex : -1;
+            return new StreamingResultIterator<T>(cursors, comparator, fromIndex, limit, releaseResources);
+        } catch (Exception e) {
+            if (tx == null && shardingQuery != null) {
+                for (IDBResource dbResource : shardingQuery.keySet()) {
+                    dbResource.close();
+                }
+            }
+
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
+            throw new DBOperationException(e);
+        }
+    }
+
+    @Override
+    public <T> IQueryIterator<T> iterateByQuery(IQuery<T> query, IShardingKey<?> shardingKey, Class<T> clazz,
+                                                EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        ShardingDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+
+            if (EnumDBMasterSlave.MASTER == masterSlave
+                    || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                dbResource = _getDbFromMaster(clazz, shardingKey);
+            } else {
+                dbResource = _getDbFromSlave(clazz, shardingKey, masterSlave);
+            }
+            if (tx != null) {
+                tx.enlistResource(dbResource);
+            }
+
+            SQL sql = SQLBuilder.buildSelectByQuery(clazz, dbResource.getTableIndex(), query);
+            List<StreamingCursor<T>> cursors = Lists.newArrayList();
+            cursors.add(new StreamingCursor<T>(dbResource, sql, clazz));
+
+            // 迭代器关闭时释放连接
+            List<IDBResource> releaseResources = null;
+            if (tx == null) {
+                releaseResources = Lists.<IDBResource> newArrayList(dbResource);
+            }
+            return new StreamingResultIterator<T>(cursors, null, -1, -1, releaseResources);
+        } catch (Exception e) {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
+            throw new DBOperationException(e);
+        }
+    }
+
+    /**
+     * 按照连接给分片分组, 保持分片的顺序.
+     */
+    private <T> List<List<Map.Entry<IDBResource, IQuery<T>>>> _groupByConnection(Map<IDBResource, IQuery<T>> queries) {
+        List<List<Map.Entry<IDBResource, IQuery<T>>>> groups = Lists.newArrayList();
+
+        Map<Connection, Integer> groupIndexes = new IdentityHashMap<Connection, Integer>();
+        for (Map.Entry<IDBResource, IQuery<T>> entry : queries.entrySet()) {
+            Integer groupIndex = groupIndexes.get(entry.getKey().getConnection());
+            if (groupIndex == null) {
+                groupIndex = groups.size();
+                groupIndexes.put(entry.getKey().getConnection(), groupIndex);
+                groups.add(Lists.<Map.Entry<IDBResource, IQuery<T>>> newArrayList());
+            }
+            groups.get(groupIndex).add(entry);
+        }
+
+        return groups;
+    }
+
+    /**
+     * 在调用线程中将分片资源加入当前事务. 事务绑定在调用线程上, 必须在并行查询之前完成.
+     */
+    private void _enlistResource(Transaction tx, Collection<IDBResource> dbResources) throws Exception {
+        if (tx == null) {
+            return;
+        }
+
+        for (IDBResource dbResource : dbResources) {
+            tx.enlistResource((ShardingDBResource) dbResource);
+        }
+    }
+
+    /**
+     * 并行查询多个分片的count并求和.
+     */
+    private long _selectCount(List<IDBResource> dbResources, final Class<?> clazz, final boolean useCache)
+            throws Exception {
+        long count = 0;
+
+        // 批量读取所有分表缓存的count, 只查询没有缓存的分表
+        List<IDBResource> noHitResources = dbResources;
+        if (isCacheAvailable(clazz, useCache)) {
+            List<ShardingDBResource> shardingResources = Lists.newArrayListWithCapacity(dbResources.size());
+            for (IDBResource dbResource : dbResources) {
+                shardingResources.add((ShardingDBResource) dbResource);
+            }
+            long[] cacheCounts = primaryCache.getCount(shardingResources);
+
+            noHitResources = Lists.newArrayList();
+            for (int i = 0; i < cacheCounts.length; i++) {
+                if (cacheCounts[i] > 0) {
+                    count += cacheCounts[i];
+                } else {
+                    noHitResources.add(dbResources.get(i));
+                }
+            }
+        }
+
+        List<Callable<Number>> tasks = Lists.newArrayListWithCapacity(noHitResources.size());
+        for (final IDBResource dbResource : noHitResources) {
+            tasks.add(new Callable<Number>() {
+                @Override
+                public Number call() throws Exception {
+                    return selectCountAndCache(dbResource, clazz, useCache);
+                }
+            });
+        }
+
+        for (Number shardCount : _invokeAll(tasks, noHitResources, -1)) {
+            count += shardCount.longValue();
+        }
+        return count;
+    }
+
+    /**
+     * 并行查询多个分片满足查询条件的count并求和.
+     */
+    private <T> long _selectCountByQuery(Map<IDBResource, IQuery<T>> shardingQuery, final Class<T> clazz,
+                                         int parallelism) throws Exception {
+        List<Callable<Number>> tasks = Lists.newArrayListWithCapacity(shardingQuery.size());
+        for (final Map.Entry<IDBResource, IQuery<T>> entry : shardingQuery.entrySet()) {
+            tasks.add(new Callable<Number>() {
+                @Override
+                public Number call() throws Exception {
+                    return selectCountByQuery(entry.getValue(), entry.getKey(), clazz);
+                }
+            });
+        }
+
+        long count = 0;
+        for (Number shardCount : _invokeAll(tasks, shardingQuery.keySet(), parallelism)) {
+            count += shardCount.longValue();
+        }
+        return count;
+    }
+
+    /**
+     * 并行查询多个分片的部分聚合值, 顺序和分片顺序一致.
+     */
+    private <T> List<List<Object[]>> _selectAggregateByQuery(Map<IDBResource, IQuery<T>> shardingQuery,
+                                                             final List<Aggregate> aggregates, final Class<T> clazz,
+                                                             int parallelism) throws Exception {
+        List<Callable<List<Object[]>>> tasks = Lists.newArrayListWithCapacity(shardingQuery.size());
+        for (final Map.Entry<IDBResource, IQuery<T>> entry : shardingQuery.entrySet()) {
+            tasks.add(new Callable<List<Object[]>>() {
+                @Override
+                public List<Object[]> call() throws Exception {
+                    return selectAggregateByQuery(entry.getValue(), aggregates, entry.getKey(), clazz);
+                }
+            });
+        }
+
+        return _invokeAll(tasks, shardingQuery.keySet(), parallelism);
+    }
+
+    /**
+     * 并行根据主键查询多个分片, 结果按照分片顺序合并.
+     */
+    private <T> Map<EntityPK, T> _selectByPks(Map<IDBResource, EntityPK[]> shardingPks, final Class<T> clazz,
+                                              final List<OrderBy> order, final boolean useCache) throws Exception {
+        List<Callable<Map<EntityPK, T>>> tasks = Lists.newArrayListWithCapacity(shardingPks.size());
+        for (final Map.Entry<IDBResource, EntityPK[]> entry : shardingPks.entrySet()) {
+            tasks.add(new Callable<Map<EntityPK, T>>() {
+                @Override
+                public Map<EntityPK, T> call() throws Exception {
+                    return selectByPksWithCache(entry.getKey(), clazz, entry.getValue(), order, useCache);
+                }
+            });
+        }
+
+        Map<EntityPK, T> data = Maps.newLinkedHashMap();
+        for (Map<EntityPK, T> shardData : _invokeAll(tasks, shardingPks.keySet(), -1)) {
+            data.putAll(shardData);
+        }
+        return data;
+    }
+
+    /**
+     * 获取根据主键查询需要访问的分片. 主键中包含分片字段, 或者实体声明了主键和分片字段路由一致时, 每个分片只查询路由到此分片的主键.
+     * 否则每个分片都查询全部主键.
+     */
+    private Map<IDBResource, EntityPK[]> _getShardingPks(List<EntityPK> pkList, Class<?> clazz,
+                                                         EnumDBMasterSlave masterSlave) throws Exception {
+        Map<IDBResource, EntityPK[]> shardingPks = Maps.newLinkedHashMap();
+
+        int pkIndex = _getShardingPkIndex(clazz);
+        if (pkIndex > -1) {
+            Map<Object, List<EntityPK>> pksByValue = Maps.newLinkedHashMap();
+            for (EntityPK pk : pkList) {
+                Object value = pk.getPkValues()[pkIndex].getValue();
+                List<EntityPK> pks = pksByValue.get(value);
+                if (pks == null) {
+                    pks = Lists.newArrayList();
+                    pksByValue.put(value, pks);
+                }
+                pks.add(pk);
+            }
+
+            List<Object> values = Lists.newArrayList(pksByValue.keySet());
+            Field pkField = BeansUtil.getField(clazz, entityMetaManager.getPkName(clazz)[pkIndex].getValue());
+
+            Map<IDBResource, List<IShardingKey<?>>> dbResources = null;
+            if (pkField != null && _isShardingValue(pkField.getType(), values)) {
+                dbResources = _selectDBResource(clazz, values, masterSlave);
+            }
+
+            if (dbResources != null) {
+                for (Map.Entry<IDBResource, List<IShardingKey<?>>> entry : dbResources.entrySet()) {
+                    List<EntityPK> pks = Lists.newArrayList();
+                    for (IShardingKey<?> shardingKey : entry.getValue()) {
+                        pks.addAll(pksByValue.get(shardingKey.getValue()));
+                    }
+                    shardingPks.put(entry.getKey(), pks.toArray(new EntityPK[pks.size()]));
+                }
+                return shardingPks;
+            }
+        }
+
+        List<IDBResource> dbResources = null;
+        if (EnumDBMasterSlave.MASTER == masterSlave) {
+            dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
+        } else {
+            dbResources = this.dbCluster.getAllSlaveShardingDBResource(clazz, masterSlave);
+        }
+        EntityPK[] pks = pkList.toArray(new EntityPK[pkList.size()]);
+        for (IDBResource dbResource : dbResources) {
+            shardingPks.put(dbResource, pks);
+        }
+        return shardingPks;
+    }
+
+    /**
+     * 获取可以用来路由的主键下标, 不能路由时返回-1.
+     */
+    private int _getShardingPkIndex(Class<?> clazz) {
+        DBTable tableMeta = entityMetaManager.getTableMeta(clazz);
+        String shardingBy = tableMeta.getShardingBy();
+        if (StringUtil.isBlank(shardingBy)) {
+            return -1;
+        }
+
+        Field shardingField = BeansUtil.getField(clazz, shardingBy);
+        String shardingColumn = shardingField != null ? BeansUtil.getFieldName(shardingField) : shardingBy;
+
+        PKName[] pkNames = entityMetaManager.getPkName(clazz);
+        for (int i = 0; i < pkNames.length; i++) {
+            if (shardingBy.equals(pkNames[i].getValue()) || shardingColumn.equals(pkNames[i].getValue())) {
+                return i;
+            }
+        }
+
+        if (tableMeta.isShardingByPk() && pkNames.length == 1) {
+            return 0;
+        }
+
+        return -1;
+    }
+
+    /**
+     * 并行查询多个分片, 返回每个分片的结果, 顺序和分片顺序一致.
+     * 
+     * @param needSize 大于0时表示取够此数量的数据即可停止查询剩余的分片, 此时按照并行度分批查询.
+     */
+    private <T> List<List<T>> _findByQuery(Map<IDBResource, IQuery<T>> shardingQuery, final Class<T> clazz,
+                                           final boolean useCache, int needSize, int parallelism) throws Exception {
+        List<Map.Entry<IDBResource, IQuery<T>>> entries = Lists.newArrayList(shardingQuery.entrySet());
+
+        int batchSize = entries.size();
+        if (needSize > 0) {
+            batchSize = this.parallelExecutor.getParallelism(parallelism);
+        }
+
+        List<List<T>> shardResults = Lists.newArrayList();
+        int size = 0;
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            if (needSize > 0 && size >= needSize) {
+                break;
+            }
+
+            List<Callable<List<T>>> tasks = Lists.newArrayListWithCapacity(batchSize);
+            List<IDBResource> dbResources = Lists.newArrayListWithCapacity(batchSize);
+            for (final Map.Entry<IDBResource, IQuery<T>> entry : entries.subList(i,
+                    Math.min(i + batchSize, entries.size()))) {
+                dbResources.add(entry.getKey());
+                tasks.add(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() throws Exception {
+                        return _findByQuery(entry.getValue(), entry.getKey(), clazz, useCache);
+                    }
+                });
+            }
+
+            for (List<T> shardResult : _invokeAll(tasks, dbResources, parallelism)) {
+                shardResults.add(shardResult);
+                size += shardResult.size();
+            }
+        }
+
+        return shardResults;
+    }
+
+    /**
+     * 并行投影查询多个分片, 返回每个分片的结果, 顺序和分片顺序一致.
+     * 
+     * @param needSize 大于0时表示取够此数量的数据即可停止查询剩余的分片, 此时按照并行度分批查询.
+     */
+    private <T, R> List<List<R>> _selectProjectionByQuery(Map<IDBResource, IQuery<T>> shardingQuery,
+                                                          final Projection<R> projection, final Class<T> clazz,
+                                                          int needSize, int parallelism) throws Exception {
+        List<Map.Entry<IDBResource, IQuery<T>>> entries = Lists.newArrayList(shardingQuery.entrySet());
+
+        int batchSize = entries.size();
+        if (needSize > 0) {
+            batchSize = this.parallelExecutor.getParallelism(parallelism);
+        }
+
+        List<List<R>> shardResults = Lists.newArrayList();
+        int size = 0;
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            if (needSize > 0 && size >= needSize) {
+                break;
+            }
+
+            List<Callable<List<R>>> tasks = Lists.newArrayListWithCapacity(batchSize);
+            List<IDBResource> dbResources = Lists.newArrayListWithCapacity(batchSize);
+            for (final Map.Entry<IDBResource, IQuery<T>> entry : entries.subList(i,
+                    Math.min(i + batchSize, entries.size()))) {
+                dbResources.add(entry.getKey());
+                tasks.add(new Callable<List<R>>() {
+                    @Override
+                    public List<R> call() throws Exception {
+                        return selectProjectionByQuery(entry.getValue(), projection, entry.getKey(), clazz);
+                    }
+                });
+            }
+
+            for (List<R> shardResult : _invokeAll(tasks, dbResources, parallelism)) {
+                shardResults.add(shardResult);
+                size += projection.getRowCount(shardResult);
+            }
+        }
+
+        return shardResults;
+    }
+
+    /**
+     * 获取查询需要访问的分片. 查询条件中包含分片字段的eq或者in条件时, 只访问这些值路由到的分片,
+     * 并且每个分片只查询路由到此分片的值. 否则访问所有的分片.
+     */
+    private <T> Map<IDBResource, IQuery<T>> _getShardingQuery(IQuery<T> query, Class<T> clazz,
+                                                               EnumDBMasterSlave masterSlave) throws Exception {
+        Map<IDBResource, IQuery<T>> shardingQuery = Maps.newLinkedHashMap();
+
+        String shardingBy = entityMetaManager.getTableMeta(clazz).getShardingBy();
+        Field shardingField = StringUtil.isNotBlank(shardingBy) ? BeansUtil.getField(clazz, shardingBy) : null;
+        if (shardingField != null) {
+            String[] fieldNames = new String[] { shardingBy, BeansUtil.getFieldName(shardingField) };
+            List<Object> values = ((DefaultQueryImpl<T>) query).getAndConditionValues(fieldNames);
+
+            Map<IDBResource, List<IShardingKey<?>>> dbResources = null;
+            if (values != null && _isShardingValue(shardingField.getType(), values)) {
+                dbResources = _selectDBResource(clazz, values, masterSlave);
+            }
+
+            if (dbResources != null) {
+                for (Map.Entry<IDBResource, List<IShardingKey<?>>> entry : dbResources.entrySet()) {
+                    List<Object> shardValues = Lists.newArrayListWithCapacity(entry.getValue().size());
+                    for (IShardingKey<?> shardingKey : entry.getValue()) {
+                        shardValues.add(shardingKey.getValue());
+                    }
+                    shardingQuery.put(entry.getKey(),
+                            ((DefaultQueryImpl<T>) query).cloneWithAndConditionValues(shardValues, fieldNames));
+                }
+                return shardingQuery;
+            }
+        }
+
+        List<IDBResource> dbResources = null;
+        if (EnumDBMasterSlave.MASTER == masterSlave) {
+            dbResources = this.dbCluster.getAllMasterShardingDBResource(clazz);
+        } else {
+            dbResources = this.dbCluster.getAllSlaveShardingDBResource(clazz, masterSlave);
+        }
+        for (IDBResource dbResource : dbResources) {
+            shardingQuery.put(dbResource, query);
+        }
+        return shardingQuery;
+    }
+
+    /**
+     * 条件值的类型和分片字段一致时才能用来路由, 否则数据库的类型转换可能使条件匹配到其他分片的数据.
+     */
+    private boolean _isShardingValue(Class<?> fieldType, List<Object> values) {
+        boolean isString = fieldType == String.class;
+        boolean isNumber = fieldType == Integer.TYPE || fieldType == Integer.class || fieldType == Long.TYPE
+                || fieldType == Long.class;
+
+        for (Object value : values) {
+            if (isString && value instanceof String) {
+                continue;
+            }
+            if (isNumber && (value instanceof Integer || value instanceof Long)) {
+                continue;
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 按照物理表分组路由多个分片值. 分片值超出集群容量时无法路由, 返回null.
+     */
+    private Map<IDBResource, List<IShardingKey<?>>> _selectDBResource(Class<?> clazz, List<Object> values,
+                                                                      EnumDBMasterSlave masterSlave)
+            throws DBClusterException {
+        String clusterName = entityMetaManager.getClusterName(clazz);
+        String tableName = entityMetaManager.getTableName(clazz);
+
+        List<IShardingKey<?>> shardingKeys = Lists.newArrayListWithCapacity(values.size());
+        for (Object value : values) {
+            shardingKeys.add(new ShardingKey<Object>(clusterName, value));
+        }
+
+        try {
+            if (EnumDBMasterSlave.MASTER == masterSlave) {
+                return this.dbCluster.selectDBResourceFromMaster(tableName, shardingKeys);
+            } else {
+                return this.dbCluster.selectDBResourceFromSlave(tableName, shardingKeys, masterSlave);
+            }
+        } catch (DBClusterException e) {
+            if (e.getCause() instanceof DBRouteException) {
+                LOG.debug("route sharding values failure, query all sharding. " + e.getMessage());
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 并行执行每个分片的任务, 共享同一个连接的分片在一个线程中顺序执行.
+     */
+    private <V> List<V> _invokeAll(List<Callable<V>> tasks, Collection<IDBResource> dbResources, int parallelism)
+            throws Exception {
+        List<Connection> conns = Lists.newArrayListWithCapacity(dbResources.size());
+        for (IDBResource dbResource : dbResources) {
+            conns.add(dbResource.getConnection());
+        }
+        return this.parallelExecutor.invokeAll(tasks, conns, parallelism);
+    }
+
+    private <T> boolean _isEmpty(List<List<T>> shardResults) {
+        for (List<T> shardResult : shardResults) {
+            if (!shardResult.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查询一个分片. 不处理事务和资源关闭, 由调用者负责.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> _findByQuery(IQuery<T> query, IDBResource dbResource, Class<T> clazz, boolean useCache)
+            throws SQLException {
+        List<T> result = Lists.newArrayList();
+
+        Map<EntityPK, T> data = null;
+
+        if (isSecondCacheAvailable(clazz, useCache)) {
+            String sCacheKey = ((DefaultQueryImpl<T>) query).getWhereSql().getSecondCacheKey();
+            List<T> sCacheData = (List<T>) secondCache.get(sCacheKey, (ShardingDBResource) dbResource);
+            if (sCacheData != null && !sCacheData.isEmpty()) {
+                result.addAll(sCacheData);
+            }
+        }
+
+        if (result == null || result.isEmpty()) {
+            if (isCacheAvailable(clazz, useCache)) {
+                EntityPK[] entityPks = selectPksByQuery((ShardingDBResource) dbResource, query, clazz);
+                data = selectByPksWithCache(dbResource, clazz, entityPks,
+                        ((DefaultQueryImpl<T>) query).getOrderList(), useCache);
+                result.addAll(data.values());
+            } else {
+                result = selectByQuery((ShardingDBResource) dbResource, query, clazz);
+            }
+
+            if (isSecondCacheAvailable(clazz, useCache)) {
+                String sCacheKey = ((DefaultQueryImpl<T>) query).getWhereSql().getSecondCacheKey();
+                secondCache.put(sCacheKey, (ShardingDBResource) dbResource, result);
+            }
+        }
+        // 过滤从缓存结果, 将没有指定的字段设置为默认值.
+        List<T> filteResult = new ArrayList<T>(result.size());
+        if (((DefaultQueryImpl<T>) query).hasQueryFields()) {
+            for (T obj : result) {
+                try {
+                    filteResult.add((T) BeansUtil.cloneWithGivenField(obj, ((DefaultQueryImpl<T>) query).getFields()));
+                } catch (Exception e) {
+                    throw new DBOperationException(e);
+                }
+            }
+            result = filteResult;
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<Map<String, Object>> findBySql(SQL sql, EnumDBMasterSlave masterSlave) {
+        throw new UnsupportedOperationException("not support");
+    }
+
+    @Override
+    public List<Map<String, Object>> findBySql(SQL sql, IShardingKey<?> shardingKey, EnumDBMasterSlave masterSlave) {
+        Transaction tx = null;
+        ShardingDBResource dbResource = _getDbBySQL(sql, shardingKey, masterSlave);
+        try {
+            tx = txManager.getTransaction();
+
+            if (tx != null) {
+                tx.enlistResource(dbResource);
+            }
+
+            boolean isFromSlave = false;
+            if (EnumDBMasterSlave.MASTER != masterSlave
+                    && this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                isFromSlave = true;
+            }
+
+            List<Map<String, Object>> result = selectBySql(dbResource, sql);
+
+            // query from master againe
+            if (result.isEmpty() && isFromSlave) {
+                dbResource = _getDbBySQL(sql, shardingKey, EnumDBMasterSlave.MASTER);
+                result = selectBySql(dbResource, sql);
+            }
+
+            return result;
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e1) {
+                    throw new DBOperationException(e1);
+                }
+            }
+
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
+    private ShardingDBResource _getDbBySQL(SQL sql, IShardingKey<?> shardingKey, EnumDBMasterSlave masterSlave) {
+        ShardingDBResource next = null;
+        for (String tableName : sql.getTableNames()) {
+
+            ShardingDBResource cur = null;
+            if (EnumDBMasterSlave.MASTER == masterSlave
+                    || !this.dbCluster.isShardingSlaveExist(shardingKey.getClusterName())) {
+                cur = _getDbFromMaster(tableName, shardingKey);
+            } else {
+                cur = _getDbFromSlave(tableName, shardingKey, masterSlave);
+            }
+
+            if (next != null && (cur != next)) {
+                throw new DBOperationException("the tables in sql maybe not at the same database");
+            }
+            next = cur;
+        }
+
+        return next;
+    }
+
+    /**
+     * 路由选择.
+     * 
+     * @param clazz 数据对象
+     * @param shardingKey 路由因子
+     */
+    private ShardingDBResource _getDbFromMaster(Class<?> clazz, IShardingKey<?> shardingKey) {
+        String tableName = entityMetaManager.getTableName(clazz);
+        return _getDbFromMaster(tableName, shardingKey);
+    }
+
+    private ShardingDBResource _getDbFromMaster(String tableName, IShardingKey<?> shardingKey) {
+        ShardingDBResource shardingDBResource = null;
+        try {
+            shardingDBResource = (ShardingDBResource) this.dbCluster.selectDBResourceFromMaster(tableName, shardingKey);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + shardingDBResource + "]");
+            }
+        } catch (DBClusterException e) {
+            throw new DBOperationException(e);
+        }
+        return shardingDBResource;
+    }
+
+    /**
+     * 路由选择.
      * 
      * @param clazz 数据对象
      * @param shardingKey 路由因子
@@ -813,4 +1595,12 @@ public class ShardingJdbcQueryImpl extends AbstractJdbcQuery implements IShardin
         return shardingDBResource;
     }
 
+    public BatchLoader getBatchLoader() {
+        return batchLoader;
+    }
+
+    public void setBatchLoader(BatchLoader batchLoader) {
+        this.batchLoader = batchLoader;
+    }
+
 }
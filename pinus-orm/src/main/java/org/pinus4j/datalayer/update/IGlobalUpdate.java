@@ -62,6 +62,15 @@ public interface IGlobalUpdate extends IDataUpdate {
      */
     public void updateBatch(List<? extends Object> entities, String clusterName);
 
+    /**
+     * 批量保存或者更新全局库. 主键或者唯一索引冲突时更新, 否则保存. <b>忽略空值的更新</b>
+     * 
+     * @param entities 批量数据对象
+     * @param clusterName 集群名
+     * @throws DBOperationException 操作失败
+     */
+    public void saveOrUpdateBatch(List<? extends Object> entities, String clusterName);
+
     /**
      * 删除全局库
      * 
@@ -25,6 +25,7 @@ import org.pinus4j.exceptions.DBOperationException;
 
 /**
  * 数据库增删改查操作接口.
+ * 批量操作的数据都写入分库分表因子路由到的表, 因子不同但是路由到同一张物理表的数据可以放在一个批次中.
  * 
  * @author duanbn
  */
@@ -68,6 +69,15 @@ public interface IShardingUpdate extends IDataUpdate {
      */
     public void updateBatch(List<? extends Object> entities, IShardingKey<?> shardingValue);
 
+    /**
+     * 单数据库多数据批量保存或者更新. 主键或者唯一索引冲突时更新, 否则保存. <b>忽略空值的更新</b>
+     * 
+     * @param entities 批量数据对象
+     * @param shardingValue 分库分表因子
+     * @throws DBOperationException 操作失败
+     */
+    public void saveOrUpdateBatch(List<? extends Object> entities, IShardingKey<?> shardingValue);
+
     /**
      * 根据主键删除数据.
      * 
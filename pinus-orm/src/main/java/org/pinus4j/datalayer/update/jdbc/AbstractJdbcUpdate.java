@@ -22,14 +22,24 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
 
 import org.pinus4j.api.SQL;
+import org.pinus4j.constant.Const;
 import org.pinus4j.datalayer.AbstractDataLayer;
 import org.pinus4j.datalayer.SQLBuilder;
+import org.pinus4j.datalayer.WritePlan;
 import org.pinus4j.datalayer.update.IDataUpdate;
+import org.pinus4j.entity.meta.DBTableIndex;
 import org.pinus4j.entity.meta.DBTablePK;
 import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
 import org.pinus4j.entity.meta.PKValue;
 import org.pinus4j.utils.BeansUtil;
 import org.pinus4j.utils.JdbcUtil;
@@ -37,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * 抽象的数据库更新操作组件.
@@ -60,47 +71,61 @@ public abstract class AbstractJdbcUpdate extends AbstractDataLayer implements ID
                                                             int tableIndex) throws SQLException {
         List<PKValue> pks = Lists.newArrayList();
 
-        PreparedStatement ps = null;
+        Class<?> clazz = entities.get(0).getClass();
+        DBTablePK dbTablePK = null;
+        Field f = null;
+        if (!entityMetaManager.isUnionKey(clazz)) {
+            dbTablePK = entityMetaManager.getNotUnionPrimaryKey(clazz);
+            f = BeansUtil.getField(clazz, dbTablePK.getField());
+        }
+        String autoIncrementPk = dbTablePK != null && dbTablePK.isAutoIncrement() ? dbTablePK.getField() : null;
+
+        for (InsertChunk chunk : _splitInsert(entities, autoIncrementPk, false)) {
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                SQL sql = SQLBuilder.getInsert(clazz, tableIndex, chunk.rows);
+                ps = conn.prepareStatement(sql.getSql(), Statement.RETURN_GENERATED_KEYS);
+                fillParam(ps, sql);
 
-        SQL sql = null;
-        Class<?> clazz = null;
-        try {
-            for (Object entity : entities) {
+                ps.executeUpdate();
 
-                sql = SQLBuilder.getInsert(entity, tableIndex);
-                if (ps == null) {
-                    ps = conn.prepareStatement(sql.getSql(), Statement.RETURN_GENERATED_KEYS);
+                if (dbTablePK == null) {
+                    continue;
                 }
-                fillParam(ps, sql);
 
-                ps.executeUpdate();
+                if (autoIncrementPk != null && !chunk.hasPk) {
+                    // 获取自增主键, 一条insert语句插入多行时mysql生成的主键是连续的
+                    rs = ps.getGeneratedKeys();
+                    List<Long> incrPks = Lists.newArrayListWithCapacity(chunk.entities.size());
+                    while (rs.next()) {
+                        incrPks.add(rs.getLong(1));
+                    }
+                    // 不能根据auto_increment_increment推算主键, 数量不一致时失败
+                    if (incrPks.size() != chunk.entities.size()) {
+                        throw new SQLException("获取自增主键失败, 插入" + chunk.entities.size() + "条, 返回主键"
+                                + incrPks.size() + "个");
+                    }
 
-                // 获取自增主键
-                clazz = entity.getClass();
-                if (!entityMetaManager.isUnionKey(clazz)) {
-                    DBTablePK dbTablePK = entityMetaManager.getNotUnionPrimaryKey(clazz);
-                    if (dbTablePK.isAutoIncrement()) {
-                        ResultSet rs = ps.getGeneratedKeys();
-
-                        Field f = BeansUtil.getField(clazz, dbTablePK.getField());
-                        Object incrPK = null;
-                        if (rs.next()) {
-                            incrPK = rs.getObject(1);
-                            if (f.getType() == Integer.TYPE || f.getType() == Integer.class) {
-                                BeansUtil.setProperty(entity, dbTablePK.getField(), ((Long) incrPK).intValue());
-                                pks.add(PKValue.valueOf(((Long) incrPK).intValue()));
-                            } else {
-                                BeansUtil.setProperty(entity, dbTablePK.getField(), incrPK);
-                                pks.add(PKValue.valueOf(incrPK));
-                            }
+                    long incrPK = 0;
+                    for (int i = 0; i < chunk.entities.size(); i++) {
+                        incrPK = incrPks.get(i);
+                        if (f.getType() == Integer.TYPE || f.getType() == Integer.class) {
+                            BeansUtil.setProperty(chunk.entities.get(i), dbTablePK.getField(), (int) incrPK);
+                            pks.add(PKValue.valueOf((int) incrPK));
+                        } else {
+                            BeansUtil.setProperty(chunk.entities.get(i), dbTablePK.getField(), incrPK);
+                            pks.add(PKValue.valueOf(incrPK));
                         }
-                    } else {
+                    }
+                } else {
+                    for (Object entity : chunk.entities) {
                         pks.add(PKValue.valueOf(BeansUtil.getProperty(entity, dbTablePK.getField())));
                     }
                 }
+            } finally {
+                JdbcUtil.close(ps, rs);
             }
-        } finally {
-            JdbcUtil.close(ps);
         }
 
         return pks;
@@ -117,32 +142,232 @@ public abstract class AbstractJdbcUpdate extends AbstractDataLayer implements ID
     protected int _saveBatchWithoutAutoGeneratedKeys(Connection conn, List<? extends Object> entities, int tableIndex)
             throws SQLException {
         int insertCount = 0;
+
+        Class<?> clazz = entities.get(0).getClass();
+        for (InsertChunk chunk : _splitInsert(entities, null, false)) {
+            PreparedStatement ps = null;
+            try {
+                SQL sql = SQLBuilder.getInsert(clazz, tableIndex, chunk.rows);
+                ps = conn.prepareStatement(sql.getSql());
+                fillParam(ps, sql);
+
+                insertCount += ps.executeUpdate();
+            } finally {
+                JdbcUtil.close(ps);
+            }
+        }
+
+        return insertCount;
+    }
+
+    /**
+     * 批量保存或者更新数据. 主键有值的数据使用INSERT ... ON DUPLICATE KEY UPDATE, 一条语句完成保存或者更新,
+     * 自增主键没有值的数据直接插入并获取自增主键.
+     * 表中有主键以外的唯一索引时, 唯一索引冲突会更新主键不同的其他记录, 执行之后在同一个连接中按照唯一索引的值查询这些记录的主键,
+     * 由调用方清除缓存.
+     *
+     * @param conn 数据库连接
+     * @param entities 需要被保存或者更新的数据
+     * @param tableIndex 分片表下标. 当-1时忽略下标
+     * @return 唯一索引值和保存的数据相同的记录主键, 没有主键以外的唯一索引时为空
+     * @throws SQLException
+     */
+    protected List<EntityPK> _saveOrUpdateBatch(Connection conn, List<? extends Object> entities, int tableIndex)
+            throws SQLException {
+        Class<?> clazz = entities.get(0).getClass();
+        String autoIncrementPk = null;
+        if (!entityMetaManager.isUnionKey(clazz)) {
+            DBTablePK dbTablePK = entityMetaManager.getNotUnionPrimaryKey(clazz);
+            if (dbTablePK.isAutoIncrement()) {
+                autoIncrementPk = dbTablePK.getField();
+            }
+        }
+
+        List<DBTableIndex> uniqueIndexes = _getUniqueIndexes(clazz);
+        List<EntityPK> uniquePks = Lists.newArrayList();
+
+        List<Object> insertEntities = Lists.newArrayList();
+        for (InsertChunk chunk : _splitInsert(entities, autoIncrementPk, true)) {
+            if (autoIncrementPk != null && !chunk.hasPk) {
+                insertEntities.addAll(chunk.entities);
+                continue;
+            }
+
+            PreparedStatement ps = null;
+            try {
+                SQL sql = SQLBuilder.getUpsert(clazz, tableIndex, chunk.rows);
+                ps = conn.prepareStatement(sql.getSql());
+                fillParam(ps, sql);
+
+                ps.executeUpdate();
+            } finally {
+                JdbcUtil.close(ps);
+            }
+
+            for (DBTableIndex uniqueIndex : uniqueIndexes) {
+                uniquePks.addAll(_selectPkByUniqueIndex(conn, clazz, tableIndex, uniqueIndex, chunk.rows));
+            }
+        }
+
+        if (!insertEntities.isEmpty()) {
+            _saveBatchWithAutoGeneratedKeys(conn, insertEntities, tableIndex);
+        }
+
+        return uniquePks;
+    }
+
+    /**
+     * 按照唯一索引的值查询记录的主键. 索引列有null值的行不会发生唯一索引冲突, 忽略.
+     */
+    private List<EntityPK> _selectPkByUniqueIndex(Connection conn, Class<?> clazz, int tableIndex,
+                                                  DBTableIndex uniqueIndex, List<Object[]> rows) throws SQLException {
+        List<EntityPK> pks = Lists.newArrayList();
+
+        WritePlan plan = WritePlan.valueOf(clazz);
+        List<String> columns = uniqueIndex.getFields();
+        int[] columnIndexes = new int[columns.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = plan.getColumnIndex(columns.get(i));
+        }
+
+        List<Object[]> values = Lists.newArrayListWithCapacity(rows.size());
+        for (Object[] row : rows) {
+            Object[] value = new Object[columnIndexes.length];
+            for (int i = 0; i < columnIndexes.length; i++) {
+                value[i] = columnIndexes[i] > -1 ? row[columnIndexes[i]] : null;
+                if (value[i] == null) {
+                    value = null;
+                    break;
+                }
+            }
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        if (values.isEmpty()) {
+            return pks;
+        }
+
+        PKName[] pkNames = entityMetaManager.getPkName(clazz);
         PreparedStatement ps = null;
+        ResultSet rs = null;
         try {
+            SQL sql = SQLBuilder.buildSelectPkByColumns(clazz, tableIndex, columns, values);
+            ps = conn.prepareStatement(sql.getSql());
+            fillParam(ps, sql);
 
-            SQL sql = null;
-            for (Object entity : entities) {
-                sql = SQLBuilder.getInsert(entity, tableIndex);
-                
-                if (ps == null) {
-                    ps = conn.prepareStatement(sql.getSql());
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                PKValue[] pkValues = new PKValue[pkNames.length];
+                for (int i = 0; i < pkNames.length; i++) {
+                    pkValues[i] = PKValue.valueOf(rs.getObject(i + 1));
                 }
+                pks.add(EntityPK.valueOf(pkNames, pkValues));
+            }
+        } finally {
+            JdbcUtil.close(ps, rs);
+        }
 
-                fillParam(ps, sql);
+        return pks;
+    }
 
-                ps.addBatch();
+    /**
+     * 获取表中主键以外的唯一索引.
+     */
+    private List<DBTableIndex> _getUniqueIndexes(Class<?> clazz) {
+        List<DBTableIndex> uniqueIndexes = Lists.newArrayList();
+        for (DBTableIndex index : entityMetaManager.getTableMeta(clazz).getIndexMap().values()) {
+            if (index.isUnique()) {
+                uniqueIndexes.add(index);
             }
+        }
+        return uniqueIndexes;
+    }
 
-            int[] insertCountArray = ps.executeBatch();
+    /**
+     * 将需要保存的数据拆分为多条insert语句. 连续的数据合并为一条多行insert语句,
+     * 每条语句的行数不超过Const.BATCH_INSERT_ROWS, 估算的sql字节数(包括sql文本和参数)不超过max_allowed_packet的
+     * Const.BATCH_INSERT_PACKET_RATIO.
+     *
+     * @param autoIncrementPk 自增主键的字段名, 主键已经有值和没有值的数据不会合并到一条语句中. 为null时忽略
+     * @param sameColumns 是否只合并值为null的列相同的数据
+     */
+    private List<InsertChunk> _splitInsert(List<? extends Object> entities, String autoIncrementPk,
+                                           boolean sameColumns) {
+        List<InsertChunk> chunks = Lists.newArrayList();
+
+        Class<?> clazz = entities.get(0).getClass();
+        WritePlan plan = WritePlan.valueOf(clazz);
+        int pkIndex = autoIncrementPk != null ? plan.getColumnIndex(autoIncrementPk) : -1;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int maxBytes = (int) (getMaxAllowedPacket() * Const.BATCH_INSERT_PACKET_RATIO);
+        int headBytes = _estimateHeadBytes(clazz, plan.getColumns());
+
+        InsertChunk chunk = null;
+        for (Object entity : entities) {
+            Object[] row = plan.getValues(entity, now);
+
+            boolean hasPk = false;
+            if (pkIndex > -1) {
+                Object pkValue = row[pkIndex];
+                hasPk = pkValue != null && !(pkValue instanceof Number && ((Number) pkValue).longValue() == 0);
+            }
+            int rowBytes = _estimateBytes(row);
+
+            if (chunk == null || chunk.hasPk != hasPk || chunk.rows.size() >= Const.BATCH_INSERT_ROWS
+                    || chunk.bytes + rowBytes > maxBytes
+                    || (sameColumns && !_isSameColumns(chunk.rows.get(0), row))) {
+                chunk = new InsertChunk(hasPk);
+                chunk.bytes = headBytes;
+                chunks.add(chunk);
+            }
+            chunk.entities.add(entity);
+            chunk.rows.add(row);
+            chunk.bytes += rowBytes;
+        }
 
-            for (int i = 0; i < insertCountArray.length; i++) {
-                insertCount += insertCountArray[i];
+        return chunks;
+    }
+
+    private boolean _isSameColumns(Object[] row1, Object[] row2) {
+        for (int i = 0; i < row1.length; i++) {
+            if ((row1[i] == null) != (row2[i] == null)) {
+                return false;
             }
-        } finally {
-            JdbcUtil.close(ps);
         }
+        return true;
+    }
 
-        return insertCount;
+    /**
+     * 估算insert语句中和行数无关的部分占用的字节数. INSERT INTO `table` (`column`,...) VALUES 和
+     * ON DUPLICATE KEY UPDATE `column`=VALUES(`column`),...
+     */
+    private int _estimateHeadBytes(Class<?> clazz, String[] columns) {
+        int bytes = 64 + entityMetaManager.getTableName(clazz).length();
+        for (String column : columns) {
+            bytes += column.length() * 3 + 16;
+        }
+        return bytes;
+    }
+
+    /**
+     * 估算一行数据在insert语句中占用的字节数, 包括括号和分隔符. 驱动发送时参数会被转义后拼接到sql文本中.
+     */
+    private int _estimateBytes(Object[] row) {
+        int bytes = 3;
+        for (Object value : row) {
+            if (value == null) {
+                // DEFAULT
+                bytes += 8;
+            } else if (value instanceof String) {
+                bytes += ((String) value).length() * 3 + 5;
+            } else if (value instanceof byte[]) {
+                bytes += ((byte[]) value).length * 2 + 5;
+            } else {
+                bytes += 25;
+            }
+        }
+        return bytes;
     }
 
     /**
@@ -152,16 +377,21 @@ public abstract class AbstractJdbcUpdate extends AbstractDataLayer implements ID
     protected int _removeByPks(Connection conn, List<EntityPK> pks, Class<?> clazz, int tableIndex) throws SQLException {
         int removeCount = 0;
 
-        PreparedStatement ps = null;
-        try {
+        // 主键过多时拆分为多条sql
+        int pkBatch = getPkBatch();
+        for (int i = 0; i < pks.size(); i += pkBatch) {
+            PreparedStatement ps = null;
+            try {
 
-            SQL sql = SQLBuilder.buildDeleteByPks(clazz, tableIndex, pks);
-            ps = conn.prepareStatement(sql.getSql());
-            fillParam(ps, sql);
+                List<EntityPK> chunk = pks.subList(i, Math.min(i + pkBatch, pks.size()));
+                SQL sql = SQLBuilder.buildDeleteByPks(clazz, tableIndex, chunk);
+                ps = conn.prepareStatement(sql.getSql());
+                fillParam(ps, sql);
 
-            removeCount = ps.executeUpdate();
-        } finally {
-            JdbcUtil.close(ps);
+                removeCount += ps.executeUpdate();
+            } finally {
+                JdbcUtil.close(ps);
+            }
         }
 
         return removeCount;
@@ -169,34 +399,100 @@ public abstract class AbstractJdbcUpdate extends AbstractDataLayer implements ID
 
     /**
      * @param tableIndex 等于-1时会被忽略.
+     * @param pendingSnapshots 开启了dirtyCheck的数据对象更新之后的字段值, 执行成功并且提交之后通过applySnapshots记录
      * @throws SQLException
      */
-    protected int _updateBatch(Connection conn, List<? extends Object> entities, int tableIndex) throws SQLException {
+    protected int _updateBatch(Connection conn, List<? extends Object> entities, int tableIndex,
+                               WritePlan.PendingSnapshots pendingSnapshots) throws SQLException {
         int updateCount = 0;
 
-        PreparedStatement ps = null;
+        // 值为null的字段不更新, 每种更新字段组合使用一个PreparedStatement
+        Map<String, PreparedStatement> psMap = Maps.newLinkedHashMap();
         try {
 
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            WritePlan.UpdateValues updateValues = null;
             SQL sql = null;
+            PreparedStatement ps = null;
             for (Object entity : entities) {
-                sql = SQLBuilder.getUpdate(entity, tableIndex);
+                updateValues = WritePlan.valueOf(entity.getClass()).getUpdateValues(entity, now);
+                // 开启了dirtyCheck并且没有字段被修改
+                if (updateValues == null) {
+                    continue;
+                }
+                pendingSnapshots.add(entity, updateValues);
+
+                sql = SQLBuilder.getUpdate(entity, tableIndex, updateValues);
+                ps = psMap.get(sql.getSql());
                 if (ps == null) {
                     ps = conn.prepareStatement(sql.getSql());
+                    psMap.put(sql.getSql(), ps);
                 }
 
                 fillParam(ps, sql);
                 ps.addBatch();
             }
 
-            int[] updateCountArray = ps.executeBatch();
-            for (int i = 0; i < updateCountArray.length; i++) {
-                updateCount += updateCountArray[i];
+            for (PreparedStatement batchPs : psMap.values()) {
+                int[] updateCountArray = batchPs.executeBatch();
+                for (int i = 0; i < updateCountArray.length; i++) {
+                    updateCount += updateCountArray[i];
+                }
             }
         } finally {
-            JdbcUtil.close(ps);
+            for (PreparedStatement ps : psMap.values()) {
+                JdbcUtil.close(ps);
+            }
         }
 
         return updateCount;
     }
 
+    /**
+     * update执行成功之后记录数据对象的字段值. 没有事务时立即记录, 有事务时在事务提交之后记录, 回滚时丢弃.
+     */
+    protected void applySnapshots(Transaction tx, final WritePlan.PendingSnapshots pendingSnapshots)
+            throws Exception {
+        if (pendingSnapshots.isEmpty()) {
+            return;
+        }
+
+        if (tx == null) {
+            pendingSnapshots.apply();
+            return;
+        }
+
+        tx.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    pendingSnapshots.apply();
+                }
+            }
+        });
+    }
+
+    /**
+     * 合并为一条insert语句的数据.
+     */
+    private static class InsertChunk {
+
+        final boolean                   hasPk;
+
+        final List<Object>              entities = Lists.newArrayList();
+
+        final List<Object[]>            rows     = Lists.newArrayList();
+
+        int                             bytes;
+
+        InsertChunk(boolean hasPk) {
+            this.hasPk = hasPk;
+        }
+
+    }
+
 }
@@ -24,6 +24,7 @@ import javax.transaction.Transaction;
 import javax.transaction.xa.XAResource;
 
 import org.pinus4j.cluster.resources.IDBResource;
+import org.pinus4j.datalayer.WritePlan;
 import org.pinus4j.datalayer.update.IGlobalUpdate;
 import org.pinus4j.entity.meta.EntityPK;
 import org.pinus4j.entity.meta.PKValue;
@@ -119,13 +120,15 @@ public class GlobalJdbcUpdateImpl extends AbstractJdbcUpdate implements IGlobalU
 
             Connection conn = dbResource.getConnection();
 
-            int updateCount = _updateBatch(conn, entities, -1);
+            WritePlan.PendingSnapshots pendingSnapshots = new WritePlan.PendingSnapshots();
+            int updateCount = _updateBatch(conn, entities, -1, pendingSnapshots);
 
             if (tx != null) {
                 tx.enlistResource((XAResource) dbResource);
             } else {
                 dbResource.commit();
             }
+            applySnapshots(tx, pendingSnapshots);
 
             // 删除缓存
             if (isCacheAvailable(clazz) && updateCount > 0) {
@@ -150,6 +153,52 @@ public class GlobalJdbcUpdateImpl extends AbstractJdbcUpdate implements IGlobalU
         }
     }
 
+    @Override
+    public void saveOrUpdateBatch(List<? extends Object> entities, String clusterName) {
+        Class<?> clazz = entities.get(0).getClass();
+        String tableName = entityMetaManager.getTableName(clazz);
+
+        Transaction tx = null;
+        IDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            dbResource = this.dbCluster.getMasterGlobalDBResource(clusterName, tableName);
+
+            Connection conn = dbResource.getConnection();
+
+            List<EntityPK> uniquePks = _saveOrUpdateBatch(conn, entities, -1);
+
+            if (tx != null) {
+                tx.enlistResource((XAResource) dbResource);
+            } else {
+                dbResource.commit();
+            }
+
+            // 删除缓存. 无法区分保存和更新的条数, 删除count缓存重新计算
+            if (isCacheAvailable(clazz)) {
+                List<EntityPK> pks = new ArrayList<EntityPK>(entities.size());
+                for (Object entity : entities) {
+                    pks.add(entityMetaManager.getEntityPK(entity));
+                }
+                pks.addAll(uniquePks);
+                primaryCache.removeGlobal(clusterName, tableName, pks);
+                primaryCache.removeCountGlobal(clusterName, tableName);
+            }
+            if (isSecondCacheAvailable(clazz)) {
+                secondCache.removeGlobal(clusterName, tableName);
+            }
+        } catch (Exception e) {
+            if (tx == null && dbResource != null)
+                dbResource.rollback();
+
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
     @Override
     public void removeByPk(EntityPK pk, Class<?> clazz, String clusterName) {
         List<EntityPK> pks = new ArrayList<EntityPK>(1);
@@ -24,6 +24,7 @@ import javax.transaction.Transaction;
 
 import org.pinus4j.cluster.beans.IShardingKey;
 import org.pinus4j.cluster.resources.ShardingDBResource;
+import org.pinus4j.datalayer.WritePlan;
 import org.pinus4j.datalayer.update.IShardingUpdate;
 import org.pinus4j.entity.meta.EntityPK;
 import org.pinus4j.entity.meta.PKValue;
@@ -126,13 +127,15 @@ public class ShardingJdbcUpdateImpl extends AbstractJdbcUpdate implements IShard
             dbResource = _getDbFromMaster(talbeName, shardingKey);
             Connection conn = dbResource.getConnection();
 
-            int updateCount = _updateBatch(conn, entities, dbResource.getTableIndex());
+            WritePlan.PendingSnapshots pendingSnapshots = new WritePlan.PendingSnapshots();
+            int updateCount = _updateBatch(conn, entities, dbResource.getTableIndex(), pendingSnapshots);
 
             if (tx != null) {
                 tx.enlistResource(dbResource);
             } else {
                 dbResource.commit();
             }
+            applySnapshots(tx, pendingSnapshots);
 
             // 清理缓存
             if (isCacheAvailable(clazz) && updateCount > 0) {
@@ -158,6 +161,52 @@ public class ShardingJdbcUpdateImpl extends AbstractJdbcUpdate implements IShard
 
     }
 
+    @Override
+    public void saveOrUpdateBatch(List<? extends Object> entities, IShardingKey<?> shardingKey) {
+        Class<?> clazz = entities.get(0).getClass();
+
+        String talbeName = entityMetaManager.getTableName(clazz);
+
+        Transaction tx = null;
+        ShardingDBResource dbResource = null;
+        try {
+            tx = txManager.getTransaction();
+            dbResource = _getDbFromMaster(talbeName, shardingKey);
+            Connection conn = dbResource.getConnection();
+
+            List<EntityPK> uniquePks = _saveOrUpdateBatch(conn, entities, dbResource.getTableIndex());
+
+            if (tx != null) {
+                tx.enlistResource(dbResource);
+            } else {
+                dbResource.commit();
+            }
+
+            // 清理缓存. 无法区分保存和更新的条数, 删除count缓存重新计算
+            if (isCacheAvailable(clazz)) {
+                List<EntityPK> entityPkList = Lists.newArrayList();
+                for (Object entity : entities) {
+                    entityPkList.add(entityMetaManager.getEntityPK(entity));
+                }
+                entityPkList.addAll(uniquePks);
+                primaryCache.remove(dbResource, entityPkList);
+                primaryCache.removeCount(dbResource);
+            }
+            if (isSecondCacheAvailable(clazz)) {
+                secondCache.remove(dbResource);
+            }
+        } catch (Exception e) {
+            if (tx == null && dbResource != null)
+                dbResource.rollback();
+
+            throw new DBOperationException(e);
+        } finally {
+            if (tx == null && dbResource != null) {
+                dbResource.close();
+            }
+        }
+    }
+
     @Override
     public void removeByPk(EntityPK pk, IShardingKey<?> shardingKey, Class<?> clazz) {
         List<EntityPK> pks = Lists.newArrayListWithCapacity(1);
@@ -1,7 +1,11 @@
 package org.pinus4j.api;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -9,10 +13,22 @@ import org.pinus4j.BaseTest;
 import org.pinus4j.api.query.IQuery;
 import org.pinus4j.api.query.impl.Condition;
 import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.cluster.beans.ShardingKey;
+import org.pinus4j.cluster.enums.EnumDBMasterSlave;
+import org.pinus4j.cluster.resources.IDBResource;
+import org.pinus4j.cluster.router.RouteInfo;
+import org.pinus4j.datalayer.query.jdbc.ShardingJdbcQueryImpl;
 import org.pinus4j.entity.TestEntity;
 import org.pinus4j.entity.TestGlobalEntity;
+import org.pinus4j.entity.TestShardingByPkEntity;
+import org.pinus4j.entity.TestShardingPkEntity;
+import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
+import org.pinus4j.entity.meta.PKValue;
+import org.pinus4j.exceptions.DBOperationException;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 public class DefaultPinusClientTest extends BaseTest {
 
@@ -154,6 +170,23 @@ public class DefaultPinusClientTest extends BaseTest {
         pinusClient.saveBatch(globalEntites, false);
     }
 
+    @Test
+    public void testSaveOrUpdate() {
+        TestGlobalEntity entity = createGlobalEntity();
+        pinusClient.saveOrUpdate(entity);
+        Assert.assertTrue(entity.getId() > 0);
+
+        entity.setTestString("saveOrUpdate");
+        pinusClient.saveOrUpdateBatch(Lists.newArrayList(entity));
+
+        TestGlobalEntity loadEntity = new TestGlobalEntity();
+        loadEntity.setId(entity.getId());
+        pinusClient.load(loadEntity, false);
+        Assert.assertEquals("saveOrUpdate", loadEntity.getTestString());
+
+        pinusClient.delete(entity);
+    }
+
     @Test
     public void testCount() {
         IQuery<TestGlobalEntity> globalQuery = pinusClient.createQuery(TestGlobalEntity.class);
@@ -214,6 +247,34 @@ public class DefaultPinusClientTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testAsync() throws Exception {
+        PinusAsyncClient asyncClient = new DefaultPinusAsyncClient();
+        asyncClient.setPinusClient(pinusClient);
+        asyncClient.init();
+
+        IQuery<TestGlobalEntity> globalQuery = pinusClient.createQuery(TestGlobalEntity.class);
+        IQuery<TestEntity> shardingQuery = pinusClient.createQuery(TestEntity.class);
+        Future<Number> globalCount = asyncClient.count(globalQuery);
+        Future<Number> shardingCount = asyncClient.count(shardingQuery);
+        Future<List<TestGlobalEntity>> globalList = asyncClient.list(globalQuery.limit(5));
+
+        Assert.assertEquals(globalQuery.count().longValue(), globalCount.get().longValue());
+        Assert.assertEquals(shardingQuery.count().longValue(), shardingCount.get().longValue());
+        Assert.assertEquals(globalQuery.list().size(), globalList.get().size());
+
+        pinusClient.beginTransaction();
+        try {
+            asyncClient.count(globalQuery);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+        } finally {
+            pinusClient.rollback();
+        }
+
+        asyncClient.destroy();
+    }
+
     @Test
     public void testConcurrent() throws Exception {
         List<Thread> threads = Lists.newArrayList();
@@ -258,4 +319,218 @@ public class DefaultPinusClientTest extends BaseTest {
         }
         pinusClient.commit();
     }
+
+    @Test
+    public void testFindByPkListRouteByPk() throws Exception {
+        List<TestShardingPkEntity> entities = Lists.newArrayList();
+        List<Long> ids = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            TestShardingPkEntity entity = new TestShardingPkEntity();
+            entity.setId(pinusClient.genClusterUniqueLongId("test_sharding_pk_entity"));
+            entity.setTestString("route by pk");
+            entities.add(entity);
+            ids.add(entity.getId());
+        }
+        pinusClient.saveBatch(entities, false);
+
+        try {
+            // 主键就是分片字段时只访问一张表
+            Map<IDBResource, EntityPK[]> shardingPks = _getShardingPks(TestShardingPkEntity.class, ids.get(0));
+            Assert.assertEquals(1, shardingPks.size());
+            Assert.assertEquals(1, shardingPks.values().iterator().next().length);
+            _close(shardingPks);
+
+            // 每个主键只出现在一张表中
+            shardingPks = _getShardingPks(TestShardingPkEntity.class, ids.toArray());
+            int pkCount = 0;
+            for (EntityPK[] pks : shardingPks.values()) {
+                pkCount += pks.length;
+            }
+            Assert.assertEquals(ids.size(), pkCount);
+            _close(shardingPks);
+
+            // 主键类型和字段类型不一致时查询全部分片
+            shardingPks = _getShardingPks(TestShardingPkEntity.class, String.valueOf(ids.get(0)));
+            Assert.assertTrue(shardingPks.size() > 1);
+            for (EntityPK[] pks : shardingPks.values()) {
+                Assert.assertEquals(1, pks.length);
+            }
+            _close(shardingPks);
+
+            IQuery<TestShardingPkEntity> query = pinusClient.createQuery(TestShardingPkEntity.class);
+            query.and(Condition.in("id", ids)).setUseCache(false);
+            List<TestShardingPkEntity> routed = query.list();
+
+            // 和指定分片因子查询的结果一致
+            List<TestShardingPkEntity> byShardingKey = Lists.newArrayList();
+            for (Long id : ids) {
+                query = pinusClient.createQuery(TestShardingPkEntity.class);
+                query.and(Condition.eq("id", id)).setUseCache(false);
+                query.setShardingKey(new ShardingKey<Long>(CLUSTER_KLSTORAGE, id));
+                byShardingKey.addAll(query.list());
+            }
+            Assert.assertEquals(ids.size(), routed.size());
+            Assert.assertEquals(_ids(byShardingKey), _ids(routed));
+        } finally {
+            pinusClient.delete(entities);
+        }
+    }
+
+    @Test
+    public void testFindByPkListShardingByPk() throws Exception {
+        List<TestShardingByPkEntity> entities = Lists.newArrayList();
+        List<Long> ids = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            TestShardingByPkEntity entity = new TestShardingByPkEntity();
+            entity.setId(pinusClient.genClusterUniqueLongId("test_sharding_by_pk_entity"));
+            // 主键和分片字段路由到同一张表
+            entity.setUserId(entity.getId());
+            entity.setTestString("sharding by pk");
+            entities.add(entity);
+            ids.add(entity.getId());
+        }
+        pinusClient.saveBatch(entities, false);
+
+        try {
+            Map<IDBResource, EntityPK[]> shardingPks = _getShardingPks(TestShardingByPkEntity.class, ids.get(0));
+            Assert.assertEquals(1, shardingPks.size());
+            _close(shardingPks);
+
+            IQuery<TestShardingByPkEntity> query = pinusClient.createQuery(TestShardingByPkEntity.class);
+            query.and(Condition.in("id", ids)).setUseCache(false);
+            List<TestShardingByPkEntity> routed = query.list();
+
+            List<TestShardingByPkEntity> byShardingKey = Lists.newArrayList();
+            for (TestShardingByPkEntity entity : entities) {
+                query = pinusClient.createQuery(TestShardingByPkEntity.class);
+                query.and(Condition.eq("id", entity.getId())).setUseCache(false);
+                query.setShardingKey(new ShardingKey<Long>(CLUSTER_KLSTORAGE, entity.getUserId()));
+                byShardingKey.addAll(query.list());
+            }
+            Assert.assertEquals(ids.size(), routed.size());
+            Assert.assertEquals(_ids(byShardingKey), _ids(routed));
+        } finally {
+            pinusClient.delete(entities);
+        }
+    }
+
+    @Test
+    public void testBatchWriteGroupByRoute() throws Exception {
+        // 分片值不同但是路由到同一张表的数据对象在一个批次中写入
+        int[] testInts = _findTestInts(true);
+        List<TestEntity> entities = Lists.newArrayList();
+        for (int testInt : testInts) {
+            for (int i = 0; i < 3; i++) {
+                TestEntity entity = createEntity();
+                entity.setTestInt(testInt);
+                entities.add(entity);
+            }
+        }
+
+        pinusClient.saveBatch(entities, false);
+        for (TestEntity entity : entities) {
+            Assert.assertNotNull(_load(entity));
+        }
+
+        for (TestEntity entity : entities) {
+            entity.setTestString("update batch by route");
+        }
+        pinusClient.updateBatch(entities);
+        for (TestEntity entity : entities) {
+            Assert.assertEquals("update batch by route", _load(entity).getTestString());
+        }
+
+        pinusClient.delete(entities);
+        for (TestEntity entity : entities) {
+            Assert.assertNull(_load(entity));
+        }
+    }
+
+    @Test
+    public void testBatchWriteFailedGroup() throws Exception {
+        int[] testInts = _findTestInts(false);
+
+        TestEntity existed = createEntity();
+        existed.setTestInt(testInts[0]);
+        pinusClient.saveBatch(Lists.newArrayList(existed), false);
+
+        // 主键重复的分组写入失败, 其他分组正常提交
+        TestEntity duplicate = createEntity();
+        duplicate.setId(existed.getId());
+        duplicate.setTestInt(testInts[0]);
+        TestEntity other = createEntity();
+        other.setTestInt(testInts[1]);
+        try {
+            pinusClient.saveBatch(Lists.newArrayList(duplicate, other), false);
+            Assert.fail();
+        } catch (DBOperationException e) {
+            Assert.assertTrue(e.getMessage().contains("1/2"));
+        } finally {
+            Assert.assertNotNull(_load(other));
+            pinusClient.delete(Lists.newArrayList(existed, other));
+        }
+    }
+
+    /**
+     * 查找两个TestEntity的分片值, sameTable为true时路由到同一张表, 否则路由到不同的表.
+     */
+    private static int[] _findTestInts(boolean sameTable) throws Exception {
+        String routeKey = _routeKey(1);
+        for (int testInt = 2; testInt < 10000; testInt++) {
+            if (routeKey.equals(_routeKey(testInt)) == sameTable) {
+                return new int[] { 1, testInt };
+            }
+        }
+        throw new IllegalStateException("cannot find sharding values");
+    }
+
+    private static String _routeKey(int testInt) throws Exception {
+        RouteInfo routeInfo = pinusClient.getDBCluster().selectRouteInfoFromMaster("test_entity",
+                new ShardingKey<Integer>(CLUSTER_KLSTORAGE, testInt));
+        return routeInfo.getDbInfo().getDbName() + "." + routeInfo.getRegionIndex() + "."
+                + routeInfo.getTableIndex();
+    }
+
+    private static TestEntity _load(TestEntity entity) {
+        IQuery<TestEntity> query = pinusClient.createQuery(TestEntity.class);
+        query.and(Condition.eq("id", entity.getId())).setUseCache(false);
+        query.setShardingKey(new ShardingKey<Integer>(CLUSTER_KLSTORAGE, entity.getTestInt()));
+        return query.load();
+    }
+
+    /**
+     * 调用ShardingJdbcQueryImpl._getShardingPks获取根据主键查询时访问的分片.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<IDBResource, EntityPK[]> _getShardingPks(Class<?> clazz, Object... pkValues)
+            throws Exception {
+        Field shardingQueryField = DefaultPinusClient.class.getDeclaredField("shardingQuery");
+        shardingQueryField.setAccessible(true);
+        Object shardingQuery = shardingQueryField.get(pinusClient);
+
+        List<EntityPK> pkList = Lists.newArrayList();
+        for (Object pkValue : pkValues) {
+            pkList.add(EntityPK.valueOf(new PKName[] { PKName.valueOf("id") },
+                    new PKValue[] { PKValue.valueOf(pkValue) }));
+        }
+
+        Method method = ShardingJdbcQueryImpl.class.getDeclaredMethod("_getShardingPks", List.class, Class.class,
+                EnumDBMasterSlave.class);
+        method.setAccessible(true);
+        return (Map<IDBResource, EntityPK[]>) method.invoke(shardingQuery, pkList, clazz, EnumDBMasterSlave.MASTER);
+    }
+
+    private static void _close(Map<IDBResource, EntityPK[]> shardingPks) {
+        for (IDBResource dbResource : shardingPks.keySet()) {
+            dbResource.close();
+        }
+    }
+
+    private static Set<Object> _ids(List<?> entities) throws Exception {
+        Set<Object> ids = Sets.newHashSet();
+        for (Object entity : entities) {
+            ids.add(entity.getClass().getMethod("getId").invoke(entity));
+        }
+        return ids;
+    }
 }
@@ -6,6 +6,10 @@ import org.junit.Test;
 import org.pinus4j.api.SQL;
 import org.pinus4j.api.query.impl.Condition;
 import org.pinus4j.api.query.impl.DefaultQueryImpl;
+import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.api.query.impl.ResultSetableQueryImpl;
+
+import com.google.common.collect.Lists;
 
 public class DefaultQueryImplTest {
 
@@ -55,4 +59,56 @@ public class DefaultQueryImplTest {
 
     }
 
+    @Test
+    public void testAfter() throws Exception {
+        ResultSetableQueryImpl<Item> query = new ResultSetableQueryImpl<Item>(Item.class);
+        query.and(Condition.eq("a", 1)).or(Condition.eq("b", 2));
+        query.orderBy("a", Order.ASC).orderBy("b", Order.DESC);
+        query.after(10, 20).limit(5);
+        SQL sql = query.getWhereSql();
+        System.out.println(sql);
+
+        Assert.assertEquals(" where (`a` = ? or `b` = ?) and ((`a` > ?) or (`a` = ? and `b` < ?))"
+                + " order by `a` asc,`b` desc limit ?", sql.getSql());
+        Assert.assertEquals(Lists.<Object> newArrayList(1, 2, 10, 10, 20, 5), sql.getParams());
+
+        query.clean();
+        query.orderBy("a", Order.ASC).after(10);
+        Assert.assertEquals(" where ((`a` > ?)) order by `a` asc", query.getWhereSql().getSql());
+
+        query.clean();
+        query.after(10);
+        try {
+            query.getWhereSql();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testAndConditionValues() throws Exception {
+        ResultSetableQueryImpl<Item> query = new ResultSetableQueryImpl<Item>(Item.class);
+        query.and(Condition.eq("a", 1)).and(Condition.in("b", 1, 2, 3));
+        Assert.assertEquals(Lists.<Object> newArrayList(1, 2, 3), query.getAndConditionValues("b"));
+        Assert.assertEquals(Lists.<Object> newArrayList(1), query.getAndConditionValues("a"));
+
+        DefaultQueryImpl<Item> clone = query.cloneWithAndConditionValues(Lists.<Object> newArrayList(2), "b");
+        Assert.assertEquals(Lists.<Object> newArrayList(1, 2), clone.getWhereSql().getParams());
+        Assert.assertEquals(" where `a` = ? and `b` = ?", clone.getWhereSql().getSql());
+        Assert.assertEquals(Lists.<Object> newArrayList(1, 2, 3), query.getAndConditionValues("b"));
+
+        query.clean();
+        query.and(Condition.eq("a", 1)).or(Condition.eq("b", 2));
+        Assert.assertNull(query.getAndConditionValues("a"));
+
+        query.clean();
+        query.and(Condition.or(Condition.eq("a", 1), Condition.eq("a", 2)));
+        Assert.assertNull(query.getAndConditionValues("a"));
+    }
+
+    public static class Item {
+        private int a;
+        private int b;
+    }
+
 }
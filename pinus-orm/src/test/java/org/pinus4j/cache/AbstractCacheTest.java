@@ -0,0 +1,80 @@
+package org.pinus4j.cache;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pinus4j.cache.impl.AbstractCache;
+import org.pinus4j.entity.DefaultEntityMetaManager;
+import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
+import org.pinus4j.entity.meta.PKValue;
+
+public class AbstractCacheTest {
+
+    private static final String TABLE_NAME = "testglobalentity";
+
+    private static TestCache    cache;
+
+    @BeforeClass
+    public static void before() {
+        DefaultEntityMetaManager.getInstance().loadEntity("org.pinus4j.entity");
+        cache = new TestCache();
+    }
+
+    @Test
+    public void testBuildPkKey() {
+        PKName[] pkNames = new PKName[] { PKName.valueOf("id"), PKName.valueOf("name") };
+        String key1 = cache.buildGlobalKey("pinus", TABLE_NAME,
+                EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(1), PKValue.valueOf("23") }));
+        String key2 = cache.buildGlobalKey("pinus", TABLE_NAME,
+                EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(12), PKValue.valueOf("3") }));
+        Assert.assertEquals("pinus.testglobalentity.v1.e.1:1.2:23", key1);
+        Assert.assertFalse(key1.equals(key2));
+
+        // 主键值和count key不冲突
+        String key3 = cache.buildGlobalKey("pinus", TABLE_NAME, EntityPK.valueOf(new PKName[] { PKName.valueOf("id") },
+                new PKValue[] { PKValue.valueOf("c") }));
+        Assert.assertFalse(key3.equals(cache.buildGlobalCountKey("pinus", TABLE_NAME)));
+    }
+
+    private static class TestCache extends AbstractCache {
+
+        TestCache() {
+            super(null, 30);
+        }
+
+        @Override
+        public String buildGlobalKey(String clusterName, String tableName, EntityPK entityPk) {
+            return super.buildGlobalKey(clusterName, tableName, entityPk);
+        }
+
+        @Override
+        public String buildGlobalCountKey(String clusterName, String tableName) {
+            return super.buildGlobalCountKey(clusterName, tableName);
+        }
+
+        @Override
+        public Object getCacheClient() {
+            return null;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Collection<SocketAddress> getAvailableServers() {
+            return null;
+        }
+
+    }
+
+}
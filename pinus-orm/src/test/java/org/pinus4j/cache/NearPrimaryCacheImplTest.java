@@ -0,0 +1,330 @@
+package org.pinus4j.cache;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pinus4j.cache.impl.NearPrimaryCacheImpl;
+import org.pinus4j.cluster.resources.ShardingDBResource;
+import org.pinus4j.entity.DefaultEntityMetaManager;
+import org.pinus4j.entity.TestGlobalEntity;
+import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
+import org.pinus4j.entity.meta.PKValue;
+import org.pinus4j.serializer.MySerializer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class NearPrimaryCacheImplTest {
+
+    private static final String CLUSTER_NAME = "pinus";
+
+    private static final String TABLE_NAME   = "testglobalentity";
+
+    @BeforeClass
+    public static void before() {
+        DefaultEntityMetaManager.getInstance().loadEntity("org.pinus4j.entity");
+    }
+
+    @Test
+    public void testGetCopy() {
+        FakePrimaryCache delegate = new FakePrimaryCache();
+        NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, 1024 * 1024, 60000);
+
+        TestGlobalEntity entity = _createEntity(1);
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(entity));
+
+        Map<EntityPK, TestGlobalEntity> result1 = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        Map<EntityPK, TestGlobalEntity> result2 = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        // 本地命中, 没有查询远程缓存
+        Assert.assertEquals(0, delegate.getCount);
+        Assert.assertEquals(entity, result1.get(_pk(1)));
+        Assert.assertNotSame(entity, result1.get(_pk(1)));
+        Assert.assertNotSame(result1.get(_pk(1)), result2.get(_pk(1)));
+
+        // 修改返回的对象不影响缓存
+        result1.get(_pk(1)).setTestString("changed");
+        Map<EntityPK, TestGlobalEntity> result3 = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        Assert.assertEquals("entity1", result3.get(_pk(1)).getTestString());
+    }
+
+    @Test
+    public void testWeight() throws Exception {
+        FakePrimaryCache delegate = new FakePrimaryCache();
+        int entityWeight = MySerializer.getInstance().ser(_createEntity(1), false).length;
+        // 每段只能保存一条数据
+        long maxWeight = 16 * (entityWeight + entityWeight / 2);
+        NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, maxWeight, 60000);
+
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(1)));
+        long weight = nearCache.getWeight();
+        Assert.assertTrue(weight > 0);
+        // 覆盖同一个主键不重复计算
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(1)));
+        Assert.assertEquals(weight, nearCache.getWeight());
+
+        List<EntityPK> pks = Lists.newArrayList();
+        for (int i = 1; i <= 100; i++) {
+            nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(i)));
+            pks.add(_pk(i));
+        }
+        Assert.assertTrue(nearCache.getWeight() <= maxWeight);
+
+        // 被淘汰的数据从远程缓存获取
+        Map<EntityPK, TestGlobalEntity> result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                pks.toArray(new EntityPK[pks.size()]));
+        Assert.assertEquals(100, result.size());
+        Assert.assertTrue(delegate.getPkCount > 0);
+
+        nearCache.removeGlobal(CLUSTER_NAME, TABLE_NAME, pks);
+        Assert.assertEquals(0, nearCache.getWeight());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        FakePrimaryCache delegate = new FakePrimaryCache();
+        NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, 1024 * 1024, 50);
+
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(1)));
+        nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME, new EntityPK[] { _pk(1) });
+        Assert.assertEquals(0, delegate.getCount);
+
+        Thread.sleep(100);
+
+        Map<EntityPK, TestGlobalEntity> result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1, delegate.getCount);
+    }
+
+    @Test
+    public void testRemove() {
+        FakePrimaryCache delegate = new FakePrimaryCache();
+        NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, 1024 * 1024, 60000);
+
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(1)));
+        nearCache.removeGlobal(CLUSTER_NAME, TABLE_NAME, Arrays.asList(_pk(1)));
+
+        Map<EntityPK, TestGlobalEntity> result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        Assert.assertEquals(0, result.size());
+        Assert.assertEquals(1, delegate.getCount);
+    }
+
+    @Test
+    public void testUnionPk() {
+        FakePrimaryCache delegate = new FakePrimaryCache();
+        NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, 1024 * 1024, 60000);
+
+        PKName[] pkNames = new PKName[] { PKName.valueOf("a"), PKName.valueOf("b") };
+        EntityPK pk1 = EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf("x,b=y"), PKValue.valueOf("z") });
+        EntityPK pk2 = EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf("x"), PKValue.valueOf("y,b=z") });
+        Assert.assertEquals(pk1.toString(), pk2.toString());
+
+        Map<EntityPK, TestGlobalEntity> data = Maps.newHashMap();
+        data.put(pk1, _createEntity(1));
+        nearCache.putGlobal(CLUSTER_NAME, TABLE_NAME, data);
+
+        Map<EntityPK, TestGlobalEntity> result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME, new EntityPK[] { pk2 });
+        Assert.assertEquals(0, result.size());
+        result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME, new EntityPK[] { pk1 });
+        Assert.assertEquals(1, result.size());
+    }
+
+    @Test
+    public void testRemoveWhileGet() {
+        final FakePrimaryCache delegate = new FakePrimaryCache();
+        final NearPrimaryCacheImpl nearCache = new NearPrimaryCacheImpl(delegate, 1024 * 1024, 60000);
+
+        delegate.putGlobal(CLUSTER_NAME, TABLE_NAME, _toMap(_createEntity(1)));
+        // 远程缓存返回旧数据之前, 数据被并发删除
+        delegate.onGet = new Runnable() {
+            @Override
+            public void run() {
+                nearCache.removeGlobal(CLUSTER_NAME, TABLE_NAME, Arrays.asList(_pk(1)));
+            }
+        };
+        Map<EntityPK, TestGlobalEntity> result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME,
+                new EntityPK[] { _pk(1) });
+        Assert.assertEquals(1, result.size());
+
+        delegate.onGet = null;
+        result = nearCache.getGlobal(CLUSTER_NAME, TABLE_NAME, new EntityPK[] { _pk(1) });
+        Assert.assertEquals(0, result.size());
+        Assert.assertEquals(0, nearCache.getWeight());
+    }
+
+    private static EntityPK _pk(long id) {
+        return EntityPK.valueOf(new PKName[] { PKName.valueOf("pk") }, new PKValue[] { PKValue.valueOf(id) });
+    }
+
+    private static TestGlobalEntity _createEntity(long id) {
+        TestGlobalEntity entity = new TestGlobalEntity();
+        entity.setId(id);
+        entity.setTestInt((int) id);
+        entity.setTestString("entity" + id);
+        return entity;
+    }
+
+    private static Map<EntityPK, TestGlobalEntity> _toMap(TestGlobalEntity entity) {
+        Map<EntityPK, TestGlobalEntity> data = Maps.newHashMap();
+        data.put(_pk(entity.getId()), entity);
+        return data;
+    }
+
+    /**
+     * 使用HashMap保存数据的远程缓存, 只实现一张全局表的数据操作.
+     */
+    private static class FakePrimaryCache implements IPrimaryCache {
+
+        private final Map<EntityPK, Object> store = Maps.newHashMap();
+
+        private int                         getCount;
+
+        private int                         getPkCount;
+
+        private Runnable                    onGet;
+
+        @Override
+        public Object getCacheClient() {
+            return null;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Collection<SocketAddress> getAvailableServers() {
+            return null;
+        }
+
+        @Override
+        public int getExpire() {
+            return 30;
+        }
+
+        @Override
+        public void setProperties(Map<String, String> properties) {
+        }
+
+        @Override
+        public Map<String, String> getProperties() {
+            return null;
+        }
+
+        @Override
+        public void setCountGlobal(String clusterName, String tableName, long count) {
+        }
+
+        @Override
+        public void removeCountGlobal(String clusterName, String tableName) {
+        }
+
+        @Override
+        public long decrCountGlobal(String clusterName, String tableName, int delta) {
+            return 0;
+        }
+
+        @Override
+        public long incrCountGlobal(String clusterName, String tableName, int delta) {
+            return 0;
+        }
+
+        @Override
+        public long getCountGlobal(String clusterName, String tableName) {
+            return 0;
+        }
+
+        @Override
+        public void putGlobal(String clusterName, String tableName, Map<EntityPK, ? extends Object> data) {
+            for (Map.Entry<EntityPK, ? extends Object> entry : data.entrySet()) {
+                this.store.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> Map<EntityPK, T> getGlobal(String clusterName, String tableName, EntityPK[] pks) {
+            this.getCount++;
+            this.getPkCount += pks.length;
+
+            Map<EntityPK, T> result = Maps.newLinkedHashMap();
+            for (EntityPK pk : pks) {
+                T value = (T) this.store.get(pk);
+                if (value != null) {
+                    result.put(pk, value);
+                }
+            }
+
+            if (this.onGet != null) {
+                this.onGet.run();
+            }
+            return result;
+        }
+
+        @Override
+        public void removeGlobal(String clusterName, String tableName, List<EntityPK> pks) {
+            for (EntityPK pk : pks) {
+                this.store.remove(pk);
+            }
+        }
+
+        @Override
+        public void setCount(ShardingDBResource db, long count) {
+        }
+
+        @Override
+        public void removeCount(ShardingDBResource db) {
+        }
+
+        @Override
+        public long decrCount(ShardingDBResource db, long delta) {
+            return 0;
+        }
+
+        @Override
+        public long incrCount(ShardingDBResource db, long delta) {
+            return 0;
+        }
+
+        @Override
+        public long getCount(ShardingDBResource db) {
+            return 0;
+        }
+
+        @Override
+        public long[] getCount(List<ShardingDBResource> dbs) {
+            return new long[dbs.size()];
+        }
+
+        @Override
+        public void put(ShardingDBResource db, Map<EntityPK, ? extends Object> data) {
+        }
+
+        @Override
+        public <T> Map<EntityPK, T> get(ShardingDBResource db, EntityPK[] ids) {
+            return Maps.newLinkedHashMap();
+        }
+
+        @Override
+        public void remove(ShardingDBResource db, List<EntityPK> pks) {
+        }
+
+    }
+
+}
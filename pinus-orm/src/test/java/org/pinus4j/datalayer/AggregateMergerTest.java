@@ -0,0 +1,74 @@
+package org.pinus4j.datalayer;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.pinus4j.api.query.impl.Aggregate;
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+
+import com.google.common.collect.Lists;
+
+public class AggregateMergerTest {
+
+    @Test
+    public void testMerge() throws Exception {
+        List<Aggregate> aggregates = Lists.newArrayList(Aggregate.sum("score"), Aggregate.max("score"),
+                Aggregate.min("score"), Aggregate.avg("score").as("avgScore"), Aggregate.count());
+
+        // type, sum, max, min, avg sum, avg count, count
+        List<List<Object[]>> shardRows = Lists.newArrayList();
+        shardRows.add(Lists.<Object[]> newArrayList(
+                new Object[] { 1, new BigDecimal("10"), 6, 4, new BigDecimal("10"), 2L, 2L },
+                new Object[] { 2, new BigDecimal("3"), 3, 3, new BigDecimal("3"), 1L, 1L }));
+        shardRows.add(Lists.<Object[]> newArrayList(new Object[] { 1, new BigDecimal("5"), 5, 1,
+                new BigDecimal("5"), 2L, 2L }));
+        shardRows.add(Lists.<Object[]> newArrayList());
+
+        List<OrderBy> orderList = Lists.newArrayList(new OrderBy("type", Order.DESC, Item.class));
+        List<Map<String, Object>> result = AggregateMerger.merge(shardRows, new String[] { "type" }, aggregates,
+                orderList, -1, -1);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(2, result.get(0).get("type"));
+
+        Map<String, Object> one = result.get(1);
+        Assert.assertEquals(1, one.get("type"));
+        Assert.assertEquals(new BigDecimal("15"), one.get("sum(score)"));
+        Assert.assertEquals(6, one.get("max(score)"));
+        Assert.assertEquals(1, one.get("min(score)"));
+        Assert.assertEquals(new BigDecimal("3.7500"), one.get("avgScore"));
+        Assert.assertEquals(4L, one.get("count(*)"));
+
+        result = AggregateMerger.merge(shardRows, new String[] { "type" }, aggregates, orderList, 1, 5);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1, result.get(0).get("type"));
+    }
+
+    @Test
+    public void testMergeWithoutGroup() throws Exception {
+        List<Aggregate> aggregates = Lists.newArrayList(Aggregate.sum("score"), Aggregate.max("score"),
+                Aggregate.avg("score"));
+
+        List<List<Object[]>> shardRows = Lists.newArrayList();
+        shardRows.add(Lists.<Object[]> newArrayList(new Object[] { null, null, null, 0L }));
+        shardRows.add(Lists.<Object[]> newArrayList(new Object[] { 2.5d, 2.5d, 2.5d, 1L }));
+        shardRows.add(Lists.<Object[]> newArrayList(new Object[] { 1.5d, 1.5d, 1.5d, 1L }));
+
+        List<Map<String, Object>> result = AggregateMerger.merge(shardRows, new String[0], aggregates, null, -1, -1);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(4.0d, result.get(0).get("sum(score)"));
+        Assert.assertEquals(2.5d, result.get(0).get("max(score)"));
+        Assert.assertEquals(2.0d, result.get(0).get("avg(score)"));
+    }
+
+    public static class Item {
+        private int type;
+        private int score;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.pinus4j.datalayer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class BatchLoaderTest {
+
+    @Test
+    public void testLoad() throws Exception {
+        final BatchLoader batchLoader = new BatchLoader(20000, 100);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final BatchLoader.Loader<Integer, String> loader = new BatchLoader.Loader<Integer, String>() {
+            @Override
+            public Map<Integer, String> load(List<Integer> keys) throws Exception {
+                loadCount.incrementAndGet();
+                Map<Integer, String> result = Maps.newHashMap();
+                for (Integer key : keys) {
+                    if (key % 10 != 0) {
+                        result.put(key, "v" + key);
+                    }
+                }
+                return result;
+            }
+        };
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(20);
+        List<Future<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            final int key = i;
+            futures.add(threadPool.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return batchLoader.load("table", key, loader);
+                }
+            }));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            if (i % 10 == 0) {
+                Assert.assertNull(futures.get(i).get());
+            } else {
+                Assert.assertEquals("v" + i, futures.get(i).get());
+            }
+        }
+        Assert.assertTrue(loadCount.get() < 20);
+
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void testLoadFailure() throws Exception {
+        BatchLoader batchLoader = new BatchLoader(1000, 10);
+        try {
+            batchLoader.load("table", 1, new BatchLoader.Loader<Integer, String>() {
+                @Override
+                public Map<Integer, String> load(List<Integer> keys) throws Exception {
+                    throw new IllegalStateException("failure");
+                }
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failure", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.pinus4j.datalayer;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ParallelExecutorTest {
+
+    @Test
+    public void testInvokeAll() throws Exception {
+        ParallelExecutor executor = new ParallelExecutor("test", 4, 4);
+
+        List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(value % 3);
+                    return value;
+                }
+            });
+        }
+
+        List<Integer> result = executor.invokeAll(tasks);
+        Assert.assertEquals(100, result.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, result.get(i).intValue());
+        }
+
+        result = executor.invokeAll(tasks, 2);
+        Assert.assertEquals(100, result.size());
+
+        executor.shutdown();
+        Assert.assertEquals(1, executor.getParallelism(4));
+        result = executor.invokeAll(tasks);
+        Assert.assertEquals(99, result.get(99).intValue());
+    }
+
+    @Test
+    public void testInvokeAllGroup() throws Exception {
+        ParallelExecutor executor = new ParallelExecutor("test", 4, 4);
+
+        final Object[] locks = new Object[] { new Object(), new Object(), new Object() };
+        final AtomicInteger[] running = new AtomicInteger[] { new AtomicInteger(), new AtomicInteger(),
+                new AtomicInteger() };
+        final AtomicBoolean overlap = new AtomicBoolean(false);
+
+        List<Callable<Integer>> tasks = Lists.newArrayList();
+        List<Object> groups = Lists.newArrayList();
+        for (int i = 0; i < 30; i++) {
+            final int value = i;
+            final int group = i % 3;
+            groups.add(locks[group]);
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    if (running[group].incrementAndGet() > 1) {
+                        overlap.set(true);
+                    }
+                    Thread.sleep(1);
+                    running[group].decrementAndGet();
+                    return value;
+                }
+            });
+        }
+
+        List<Integer> result = executor.invokeAll(tasks, groups, -1);
+        Assert.assertFalse(overlap.get());
+        Assert.assertEquals(30, result.size());
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals(i, result.get(i).intValue());
+        }
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInvokeAllFailure() throws Exception {
+        ParallelExecutor executor = new ParallelExecutor("test", 4, 4);
+
+        List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    if (value == 5) {
+                        throw new IllegalStateException("failure");
+                    }
+                    return value;
+                }
+            });
+        }
+
+        try {
+            executor.invokeAll(tasks);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failure", e.getMessage());
+        }
+
+        executor.shutdown();
+    }
+
+}
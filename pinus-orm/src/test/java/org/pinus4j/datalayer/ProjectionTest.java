@@ -0,0 +1,136 @@
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pinus4j.api.SQL;
+import org.pinus4j.api.query.impl.Condition;
+import org.pinus4j.api.query.impl.DefaultQueryImpl;
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.entity.DefaultEntityMetaManager;
+import org.pinus4j.entity.TestEntity;
+
+import com.google.common.collect.Lists;
+
+public class ProjectionTest {
+
+    @BeforeClass
+    public static void before() {
+        DefaultEntityMetaManager.getInstance().loadEntity("org.pinus4j.entity");
+    }
+
+    @Test
+    public void testDto() throws Exception {
+        Projection<Dto> projection = Projection.dto(TestEntity.class, Dto.class);
+        Assert.assertTrue(Lists.newArrayList(projection.getColumns()).containsAll(
+                Lists.newArrayList("id", "testString")));
+        Assert.assertFalse(Lists.newArrayList(projection.getColumns()).contains("notInEntity"));
+
+        DefaultQueryImpl<TestEntity> query = new DefaultQueryImpl<TestEntity>();
+        query.add(Condition.gt("testInt", 1));
+        SQL sql = SQLBuilder.buildSelectColumnsByQuery(TestEntity.class, 1, query, new String[] { "id", "testString" });
+        Assert.assertEquals("SELECT `id`,`testString` FROM `test_entity1` where `testInt` > ?", sql.getSql());
+    }
+
+    @Test
+    public void testTuple() throws Exception {
+        List<OrderBy> orderList = Lists.newArrayList();
+        orderList.add(new OrderBy("testInt", Order.DESC, TestEntity.class));
+
+        Projection<Object[]> projection = Projection.tuple(TestEntity.class, new String[] { "id" }, orderList);
+        Assert.assertEquals(Lists.newArrayList("id", "test_int"), Lists.newArrayList(projection.getColumns()));
+
+        Comparator<Object[]> comparator = projection.getComparator(orderList);
+        Assert.assertTrue(comparator.compare(new Object[] { 1L, 5 }, new Object[] { 2L, 3 }) < 0);
+        Assert.assertTrue(comparator.compare(new Object[] { 1L, null }, new Object[] { 2L, 3 }) > 0);
+
+        List<Object[]> rows = Lists.newArrayList();
+        rows.add(new Object[] { 1L, 5 });
+        List<Object[]> result = projection.finish(rows);
+        Assert.assertEquals(1, result.get(0).length);
+        Assert.assertEquals(1L, result.get(0)[0]);
+
+        projection = Projection.tuple(TestEntity.class, new String[] { "id", "testInt" }, orderList);
+        Assert.assertSame(rows, projection.finish(rows));
+    }
+
+    @Test
+    public void testLongColumn() throws Exception {
+        Projection<long[]> projection = Projection.longColumn(TestEntity.class, "testLong", true);
+        Assert.assertEquals("test_long", projection.getColumns()[0]);
+
+        List<long[]> rows = projection.read(_resultSet(3L, 1L));
+        Assert.assertEquals(1, rows.size());
+        Assert.assertTrue(Arrays.equals(new long[] { 3, 1 }, rows.get(0)));
+        Assert.assertEquals(2, projection.getRowCount(rows));
+        Assert.assertTrue(projection.read(_resultSet()).isEmpty());
+
+        // 倒序归并并截取分页
+        List<List<long[]>> shardResults = Lists.newArrayList();
+        shardResults.add(rows);
+        shardResults.add(projection.read(_resultSet()));
+        shardResults.add(projection.read(_resultSet(4L, 2L, 0L)));
+        List<OrderBy> orderList = Lists.newArrayList();
+        orderList.add(new OrderBy("testLong", Order.DESC, TestEntity.class));
+        List<long[]> result = projection.merge(shardResults, orderList, 1, 4);
+        Assert.assertTrue(Arrays.equals(new long[] { 3, 2, 1 }, result.get(0)));
+
+        // 不排序时按照分片顺序拼接
+        projection = Projection.longColumn(TestEntity.class, "testLong", null);
+        result = projection.merge(shardResults, null, 0, -1);
+        Assert.assertTrue(Arrays.equals(new long[] { 3, 1, 4, 2, 0 }, result.get(0)));
+        Assert.assertTrue(projection.merge(shardResults, null, 5, -1).isEmpty());
+    }
+
+    @Test
+    public void testIntColumn() throws Exception {
+        Projection<int[]> projection = Projection.intColumn(TestEntity.class, "testInt", false);
+
+        List<List<int[]>> shardResults = Lists.newArrayList();
+        shardResults.add(projection.read(_resultSet(1, 5)));
+        shardResults.add(projection.read(_resultSet(2, 3, 6)));
+        List<OrderBy> orderList = Lists.newArrayList();
+        orderList.add(new OrderBy("testInt", Order.ASC, TestEntity.class));
+        List<int[]> result = projection.merge(shardResults, orderList, 0, -1);
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 3, 5, 6 }, result.get(0)));
+    }
+
+    /**
+     * 只有一列的结果集.
+     */
+    private static ResultSet _resultSet(final Object... values) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                new InvocationHandler() {
+                    private int index = -1;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("next")) {
+                            return ++index < values.length;
+                        } else if (method.getName().equals("getLong")) {
+                            return ((Number) values[index]).longValue();
+                        } else if (method.getName().equals("getInt")) {
+                            return ((Number) values[index]).intValue();
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public static class Dto {
+        private Long   id;
+        private String testString;
+        private String notInEntity;
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.pinus4j.datalayer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class RowMapperTest {
+
+    @Test
+    public void testMap() throws Exception {
+        String[] columns = new String[] { "id", "name", "ok", "okObj", "score", "scoreObj", "c", "unknown" };
+        ResultSet rs = createResultSet(columns, new Object[] { 10L, "pinus", "1", "0", null, null, "abc", "x" });
+
+        RowMapper<Item> mapper = RowMapper.valueOf(Item.class, rs.getMetaData());
+        Assert.assertSame(mapper, RowMapper.valueOf(Item.class, rs.getMetaData()));
+        Assert.assertEquals(1, mapper.getColumnIndex("id"));
+        Assert.assertEquals(-1, mapper.getColumnIndex("notExists"));
+
+        Item item = mapper.map(rs);
+        Assert.assertEquals(10L, item.id);
+        Assert.assertEquals("pinus", item.name);
+        Assert.assertTrue(item.ok);
+        Assert.assertEquals(Boolean.FALSE, item.okObj);
+        Assert.assertEquals(0, item.score);
+        Assert.assertNull(item.scoreObj);
+        Assert.assertEquals('a', item.c);
+    }
+
+    @Test
+    public void testMapByName() throws Exception {
+        ResultSet rs = createResultSet(new String[] { "user_id", "user_name" }, new Object[] { 7L, "pinus" });
+
+        RowMapper<Item> mapper = RowMapper.valueOf(Item.class, new String[] { "id", "name" });
+        Item item = mapper.map(rs);
+        Assert.assertEquals(7L, item.id);
+        Assert.assertEquals("pinus", item.name);
+    }
+
+    private static ResultSet createResultSet(final String[] columns, final Object[] row) {
+        final ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance(
+                RowMapperTest.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getColumnCount")) {
+                            return columns.length;
+                        } else if (method.getName().equals("getColumnName")) {
+                            return columns[(Integer) args[0] - 1];
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        return (ResultSet) Proxy.newProxyInstance(RowMapperTest.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                    private boolean wasNull;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getMetaData")) {
+                            return rsmd;
+                        } else if (name.equals("wasNull")) {
+                            return wasNull;
+                        }
+
+                        Object value = row[(Integer) args[0] - 1];
+                        wasNull = value == null;
+                        if (name.equals("getObject")) {
+                            return value;
+                        } else if (name.equals("getString")) {
+                            return value == null ? null : value.toString();
+                        } else if (name.equals("getLong")) {
+                            return value == null ? 0L : ((Number) value).longValue();
+                        } else if (name.equals("getInt")) {
+                            return value == null ? 0 : ((Number) value).intValue();
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    public static class Item {
+        private long    id;
+        private String  name;
+        private boolean ok;
+        private Boolean okObj;
+        private int     score = 0;
+        private Integer scoreObj = 1;
+        private char    c;
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.pinus4j.datalayer;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pinus4j.api.SQL;
+import org.pinus4j.entity.DefaultEntityMetaManager;
+import org.pinus4j.entity.TestDirtyCheckEntity;
+import org.pinus4j.entity.TestEntity;
+import org.pinus4j.entity.TestGlobalEntity;
+import org.pinus4j.entity.TestGlobalUnionKeyEntity;
+import org.pinus4j.entity.meta.EntityPK;
+import org.pinus4j.entity.meta.PKName;
+import org.pinus4j.entity.meta.PKValue;
+
+import com.google.common.collect.Lists;
+
+public class SQLBuilderTest {
+
+    @BeforeClass
+    public static void before() {
+        DefaultEntityMetaManager.getInstance().loadEntity("org.pinus4j.entity");
+    }
+
+    @Test
+    public void testBuildSelectByPks() throws Exception {
+        PKName[] pkNames = new PKName[] { PKName.valueOf("id") };
+        EntityPK[] pks = new EntityPK[] { EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(3l) }),
+                EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(1l) }) };
+
+        SQL sql = SQLBuilder.buildSelectByPks(pks, null, TestEntity.class, 2);
+        Assert.assertTrue(sql.getSql().startsWith("SELECT `id`,"));
+        Assert.assertTrue(sql.getSql().endsWith(" FROM `test_entity2` WHERE id in (?,?) order by find_in_set(id,'3,1')"));
+        Assert.assertEquals(Lists.<Object> newArrayList(3l, 1l), sql.getParams());
+
+        // 模板按照分表缓存
+        sql = SQLBuilder.buildSelectByPks(pks, null, TestEntity.class, 0);
+        Assert.assertTrue(sql.getSql().contains(" FROM `test_entity0` WHERE "));
+        Assert.assertEquals("SELECT count(*) FROM `test_entity1`", SQLBuilder.buildSelectCountSql(TestEntity.class, 1));
+    }
+
+    @Test
+    public void testBuildDeleteByPks() throws Exception {
+        PKName[] pkNames = new PKName[] { PKName.valueOf("id"), PKName.valueOf("testByte") };
+        List<EntityPK> pks = Lists.newArrayList();
+        pks.add(EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf("a"), PKValue.valueOf((byte) 1) }));
+        pks.add(EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf("b"), PKValue.valueOf((byte) 2) }));
+
+        SQL sql = SQLBuilder.buildDeleteByPks(TestGlobalUnionKeyEntity.class, -1, pks);
+        Assert.assertEquals("DELETE FROM `testglobalunionkeyentity` WHERE (`id`,`testByte`) in ((?,?),(?,?))",
+                sql.getSql());
+        Assert.assertEquals(Lists.<Object> newArrayList("a", (byte) 1, "b", (byte) 2), sql.getParams());
+
+        sql = SQLBuilder.buildSelectByPks(pks.toArray(new EntityPK[pks.size()]), null, TestGlobalUnionKeyEntity.class, -1);
+        Assert.assertTrue(sql.getSql().endsWith(" FROM `testglobalunionkeyentity` WHERE (`id`,`testByte`) in ((?,?),(?,?))"));
+
+        pkNames = new PKName[] { PKName.valueOf("id") };
+        pks.clear();
+        pks.add(EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(1l) }));
+        pks.add(EntityPK.valueOf(pkNames, new PKValue[] { PKValue.valueOf(2l) }));
+        sql = SQLBuilder.buildDeleteByPks(TestEntity.class, 0, pks);
+        Assert.assertEquals("DELETE FROM `test_entity0` WHERE `id` in (?,?)", sql.getSql());
+    }
+
+    @Test
+    public void testBuildSelectPkByColumns() throws Exception {
+        List<Object[]> values = Lists.newArrayList();
+        values.add(new Object[] { 1, "a" });
+        values.add(new Object[] { 2, "b" });
+        SQL sql = SQLBuilder.buildSelectPkByColumns(TestGlobalEntity.class, -1, Lists.newArrayList("testInt", "testString"),
+                values);
+        Assert.assertEquals("SELECT `pk` FROM `testglobalentity` WHERE (`testInt`,`testString`) in ((?,?),(?,?))",
+                sql.getSql());
+        Assert.assertEquals(Lists.<Object> newArrayList(1, "a", 2, "b"), sql.getParams());
+
+        values.clear();
+        values.add(new Object[] { 1 });
+        sql = SQLBuilder.buildSelectPkByColumns(TestEntity.class, 0, Lists.newArrayList("testInt"), values);
+        Assert.assertEquals("SELECT `id` FROM `test_entity0` WHERE `testInt` in (?)", sql.getSql());
+    }
+
+    @Test
+    public void testGetInsertRows() throws Exception {
+        TestEntity e1 = new TestEntity();
+        e1.setId(1);
+        TestEntity e2 = new TestEntity();
+        e2.setId(2);
+        e2.setOTestInt(5);
+
+        WritePlan plan = WritePlan.valueOf(TestEntity.class);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = Lists.newArrayList();
+        rows.add(plan.getValues(e1, now));
+        rows.add(plan.getValues(e2, now));
+
+        // 所有行为null的列不插入, 部分行为null的列使用DEFAULT
+        SQL sql = SQLBuilder.getInsert(TestEntity.class, 1, rows);
+        Assert.assertTrue(sql.getSql().startsWith("INSERT INTO `test_entity1` ("));
+        Assert.assertTrue(sql.getSql().contains("`oTestInt`"));
+        Assert.assertFalse(sql.getSql().contains("`oTestFloat`"));
+        Assert.assertEquals(1, sql.getSql().split("DEFAULT", -1).length - 1);
+        Assert.assertEquals(sql.getSql().split("\\?", -1).length - 1, sql.getParams().size());
+    }
+
+    @Test
+    public void testGetUpsert() throws Exception {
+        TestGlobalEntity entity = new TestGlobalEntity();
+        entity.setId(1);
+        entity.setTestInt(1);
+
+        List<Object[]> rows = Lists.newArrayList();
+        rows.add(WritePlan.valueOf(TestGlobalEntity.class).getValues(entity, new Timestamp(System.currentTimeMillis())));
+        SQL sql = SQLBuilder.getUpsert(TestGlobalEntity.class, -1, rows);
+        Assert.assertTrue(sql.getSql().startsWith("INSERT INTO `testglobalentity` ("));
+        Assert.assertTrue(sql.getSql().contains(" ON DUPLICATE KEY UPDATE "));
+        Assert.assertTrue(sql.getSql().contains("`testInt`=VALUES(`testInt`)"));
+        Assert.assertFalse(sql.getSql().contains("`pk`=VALUES(`pk`)"));
+    }
+
+    @Test
+    public void testGetUpdateDirtyCheck() throws Exception {
+        WritePlan plan = WritePlan.valueOf(TestDirtyCheckEntity.class);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        TestDirtyCheckEntity entity = new TestDirtyCheckEntity();
+        entity.setId(1l);
+        entity.setTestInt(1);
+        entity.setTestString("a");
+        plan.snapshot(entity);
+
+        // 没有字段被修改
+        Assert.assertNull(plan.getUpdateValues(entity, now));
+
+        entity.setTestInt(2);
+        WritePlan.UpdateValues updateValues = plan.getUpdateValues(entity, now);
+        SQL sql = SQLBuilder.getUpdate(entity, -1, updateValues);
+        Assert.assertTrue(sql.getSql().startsWith("UPDATE `testdirtycheckentity` SET `testInt`=?,"));
+        Assert.assertFalse(sql.getSql().contains("`testString`"));
+        Assert.assertTrue(sql.getSql().endsWith(" WHERE `pk`=?"));
+        Assert.assertEquals(2, sql.getParams().get(0));
+
+        // update执行成功之前不记录, 失败之后再次update仍然更新
+        Assert.assertNotNull(plan.getUpdateValues(entity, now));
+
+        // 执行成功之后记录更新之后的值作为下次比较的记录
+        WritePlan.PendingSnapshots pendingSnapshots = new WritePlan.PendingSnapshots();
+        pendingSnapshots.add(entity, plan.getUpdateValues(entity, now));
+        Assert.assertNotNull(plan.getUpdateValues(entity, now));
+        pendingSnapshots.apply();
+        Assert.assertNull(plan.getUpdateValues(entity, now));
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.pinus4j.datalayer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+
+import com.google.common.collect.Lists;
+
+public class ShardingResultMergerTest {
+
+    private Random r = new Random();
+
+    @Test
+    public void testMerge() throws Exception {
+        List<OrderBy> orderList = Lists.newArrayList();
+        orderList.add(new OrderBy("score", Order.DESC, Item.class));
+        orderList.add(new OrderBy("id", Order.ASC, Item.class));
+        OrderByComparator<Item> comparator = new OrderByComparator<Item>(Item.class, orderList);
+
+        List<Item> all = Lists.newArrayList();
+        List<List<Item>> shardResults = Lists.newArrayList();
+        int id = 0;
+        for (int i = 0; i < 8; i++) {
+            List<Item> shardResult = Lists.newArrayList();
+            for (int j = 0; j < r.nextInt(20); j++) {
+                shardResult.add(new Item(id++, r.nextInt(10)));
+            }
+            Collections.sort(shardResult, comparator);
+            shardResults.add(shardResult);
+            all.addAll(shardResult);
+        }
+        Collections.sort(all, comparator);
+
+        List<Item> merged = ShardingResultMerger.merge(shardResults, comparator, -1);
+        Assert.assertEquals(all.size(), merged.size());
+        for (int i = 0; i < all.size(); i++) {
+            Assert.assertEquals(all.get(i).id, merged.get(i).id);
+        }
+
+        merged = ShardingResultMerger.merge(shardResults, comparator, 5);
+        Assert.assertEquals(Math.min(5, all.size()), merged.size());
+        for (int i = 0; i < merged.size(); i++) {
+            Assert.assertEquals(all.get(i).id, merged.get(i).id);
+        }
+    }
+
+    @Test
+    public void testConcat() throws Exception {
+        List<List<Integer>> shardResults = Lists.newArrayList();
+        shardResults.add(Lists.newArrayList(1, 2, 3));
+        shardResults.add(Lists.<Integer> newArrayList());
+        shardResults.add(Lists.newArrayList(4, 5));
+
+        Assert.assertEquals(5, ShardingResultMerger.concat(shardResults, -1).size());
+        Assert.assertEquals(Lists.newArrayList(1, 2, 3, 4), ShardingResultMerger.concat(shardResults, 4));
+        Assert.assertEquals(Lists.newArrayList(1, 2), ShardingResultMerger.concat(shardResults, 2));
+    }
+
+    public static class Item {
+        private int     id;
+        private Integer score;
+
+        public Item(int id, Integer score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+}
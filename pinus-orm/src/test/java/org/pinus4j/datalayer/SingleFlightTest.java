@@ -0,0 +1,63 @@
+package org.pinus4j.datalayer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testBeginDone() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight(1000);
+
+        Assert.assertNull(singleFlight.begin("key"));
+        SingleFlight.Call call = singleFlight.begin("key");
+        Assert.assertNotNull(call);
+        Assert.assertNull(singleFlight.begin("other"));
+
+        new Thread() {
+            @Override
+            public void run() {
+                singleFlight.done("key", "value");
+            }
+        }.start();
+        Assert.assertTrue(singleFlight.await(call));
+        Assert.assertEquals("value", call.getResult());
+
+        // 加载完成后重新开始
+        Assert.assertNull(singleFlight.begin("key"));
+    }
+
+    @Test
+    public void testDoneNotFound() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(1000);
+
+        Assert.assertNull(singleFlight.begin("key"));
+        SingleFlight.Call call = singleFlight.begin("key");
+        singleFlight.done("key", null);
+        // 没有数据也是加载成功
+        Assert.assertTrue(singleFlight.await(call));
+        Assert.assertNull(call.getResult());
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(1000);
+
+        Assert.assertNull(singleFlight.begin("key"));
+        SingleFlight.Call call = singleFlight.begin("key");
+        singleFlight.fail("key");
+        Assert.assertFalse(singleFlight.await(call));
+        Assert.assertNull(singleFlight.begin("key"));
+    }
+
+    @Test
+    public void testAwaitTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(10);
+
+        Assert.assertNull(singleFlight.begin("key"));
+        Assert.assertFalse(singleFlight.await(singleFlight.begin("key")));
+        singleFlight.fail("key");
+    }
+
+}
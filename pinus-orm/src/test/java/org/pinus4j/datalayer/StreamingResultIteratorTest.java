@@ -0,0 +1,129 @@
+package org.pinus4j.datalayer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.pinus4j.api.query.impl.DefaultQueryImpl.OrderBy;
+import org.pinus4j.api.query.impl.Order;
+import org.pinus4j.datalayer.ShardingResultMergerTest.Item;
+
+import com.google.common.collect.Lists;
+
+public class StreamingResultIteratorTest {
+
+    private Random r = new Random();
+
+    @Test
+    public void testMerge() throws Exception {
+        List<OrderBy> orderList = Lists.newArrayList();
+        orderList.add(new OrderBy("score", Order.DESC, Item.class));
+        orderList.add(new OrderBy("id", Order.ASC, Item.class));
+        OrderByComparator<Item> comparator = new OrderByComparator<Item>(Item.class, orderList);
+
+        List<Item> all = Lists.newArrayList();
+        List<ListCursor<Item>> cursors = Lists.newArrayList();
+        int id = 0;
+        for (int i = 0; i < 8; i++) {
+            List<Item> shardResult = Lists.newArrayList();
+            for (int j = 0; j < r.nextInt(20); j++) {
+                shardResult.add(new Item(id++, r.nextInt(10)));
+            }
+            Collections.sort(shardResult, comparator);
+            cursors.add(new ListCursor<Item>(shardResult));
+            all.addAll(shardResult);
+        }
+        Collections.sort(all, comparator);
+
+        StreamingResultIterator<Item> it = new StreamingResultIterator<Item>(cursors, comparator, -1, -1, null);
+        List<Item> merged = Lists.newArrayList(it);
+        Assert.assertEquals(all, merged);
+        for (ListCursor<Item> cursor : cursors) {
+            Assert.assertTrue(cursor.isClosed);
+        }
+
+        for (ListCursor<Item> cursor : cursors) {
+            cursor.reset();
+        }
+        it = new StreamingResultIterator<Item>(cursors, comparator, 3, 5, null);
+        merged = Lists.newArrayList(it);
+        Assert.assertEquals(all.subList(Math.min(3, all.size()), Math.min(8, all.size())), merged);
+    }
+
+    @Test
+    public void testConcat() throws Exception {
+        List<ListCursor<Integer>> cursors = Lists.newArrayList();
+        cursors.add(new ListCursor<Integer>(Lists.newArrayList(1, 2, 3)));
+        cursors.add(new ListCursor<Integer>(Lists.<Integer> newArrayList()));
+        cursors.add(new ListCursor<Integer>(Lists.newArrayList(4, 5)));
+
+        StreamingResultIterator<Integer> it = new StreamingResultIterator<Integer>(cursors, null, -1, -1, null);
+        Assert.assertEquals(Lists.newArrayList(1, 2, 3, 4, 5), Lists.newArrayList(it));
+
+        for (ListCursor<Integer> cursor : cursors) {
+            cursor.reset();
+        }
+        it = new StreamingResultIterator<Integer>(cursors, null, 1, 2, null);
+        Assert.assertEquals(Lists.newArrayList(2, 3), Lists.newArrayList(it));
+        // 取够数据之后没有打开后面的分片
+        Assert.assertFalse(cursors.get(2).isOpened);
+        Assert.assertTrue(cursors.get(0).isClosed);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        List<ListCursor<Integer>> cursors = Lists.newArrayList();
+        cursors.add(new ListCursor<Integer>(Lists.newArrayList(1, 2, 3)));
+        cursors.add(new ListCursor<Integer>(Lists.newArrayList(4, 5)));
+
+        Iterator<Integer> it = new StreamingResultIterator<Integer>(cursors, null, -1, -1, null);
+        Assert.assertEquals(1, it.next().intValue());
+        Assert.assertFalse(cursors.get(0).isClosed);
+
+        ((StreamingResultIterator<Integer>) it).close();
+        Assert.assertTrue(cursors.get(0).isClosed);
+        Assert.assertTrue(cursors.get(1).isClosed);
+        Assert.assertFalse(it.hasNext());
+    }
+
+    public static class ListCursor<T> extends StreamingResultIterator.Cursor<T> {
+
+        private List<T> data;
+
+        private int     index;
+
+        boolean         isOpened;
+
+        boolean         isClosed;
+
+        public ListCursor(List<T> data) {
+            this.data = data;
+        }
+
+        void reset() {
+            this.index = 0;
+            this.isOpened = false;
+            this.isClosed = false;
+        }
+
+        @Override
+        protected T fetch() throws Exception {
+            this.isOpened = true;
+            if (this.index < this.data.size()) {
+                return this.data.get(this.index++);
+            }
+            return null;
+        }
+
+        @Override
+        protected void close() {
+            this.isClosed = true;
+        }
+
+    }
+
+}
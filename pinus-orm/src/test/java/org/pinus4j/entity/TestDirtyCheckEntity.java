@@ -0,0 +1,60 @@
+package org.pinus4j.entity;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import org.pinus4j.entity.annotations.Field;
+import org.pinus4j.entity.annotations.PrimaryKey;
+import org.pinus4j.entity.annotations.Table;
+import org.pinus4j.entity.annotations.UpdateTime;
+
+@Table(cluster = "pinus", dirtyCheck = true)
+public class TestDirtyCheckEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @PrimaryKey(comment = "主键", name = "pk", isAutoIncrement = true)
+    private Long              id;
+
+    @Field
+    private int               testInt;
+
+    @Field
+    private String            testString;
+
+    @UpdateTime(comment = "自动更新时间", name = "update_time")
+    private Timestamp         testTime;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public int getTestInt() {
+        return testInt;
+    }
+
+    public void setTestInt(int testInt) {
+        this.testInt = testInt;
+    }
+
+    public String getTestString() {
+        return testString;
+    }
+
+    public void setTestString(String testString) {
+        this.testString = testString;
+    }
+
+    public Timestamp getTestTime() {
+        return testTime;
+    }
+
+    public void setTestTime(Timestamp testTime) {
+        this.testTime = testTime;
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.pinus4j.entity;
+
+import java.io.Serializable;
+
+import org.pinus4j.entity.annotations.Field;
+import org.pinus4j.entity.annotations.PrimaryKey;
+import org.pinus4j.entity.annotations.Table;
+
+/**
+ * 主键和分片字段路由一致的实体.
+ */
+@Table(name = "test_sharding_by_pk_entity", cluster = "pinus", shardingBy = "userId", shardingNum = 3, shardingByPk = true)
+public class TestShardingByPkEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @PrimaryKey(comment = "主键")
+    private long              id;
+
+    @Field
+    private long              userId;
+
+    @Field
+    private String            testString;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(long userId) {
+        this.userId = userId;
+    }
+
+    public String getTestString() {
+        return testString;
+    }
+
+    public void setTestString(String testString) {
+        this.testString = testString;
+    }
+
+    @Override
+    public String toString() {
+        return "TestShardingByPkEntity [id=" + id + ", userId=" + userId + ", testString=" + testString + "]";
+    }
+
+}
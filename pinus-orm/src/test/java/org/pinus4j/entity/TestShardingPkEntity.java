@@ -0,0 +1,44 @@
+package org.pinus4j.entity;
+
+import java.io.Serializable;
+
+import org.pinus4j.entity.annotations.Field;
+import org.pinus4j.entity.annotations.PrimaryKey;
+import org.pinus4j.entity.annotations.Table;
+
+/**
+ * 主键就是分片字段的实体.
+ */
+@Table(name = "test_sharding_pk_entity", cluster = "pinus", shardingBy = "id", shardingNum = 3)
+public class TestShardingPkEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @PrimaryKey(comment = "主键")
+    private long              id;
+
+    @Field
+    private String            testString;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getTestString() {
+        return testString;
+    }
+
+    public void setTestString(String testString) {
+        this.testString = testString;
+    }
+
+    @Override
+    public String toString() {
+        return "TestShardingPkEntity [id=" + id + ", testString=" + testString + "]";
+    }
+
+}